@@ -18,13 +18,15 @@
 package org.ethereum.vm;
 
 import java.math.BigInteger;
-import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 import org.ethereum.vm.util.HexUtil;
 
 /**
  * DataWord is the 32-byte array representation of a 256-bit number.
+ * <p>
+ * The value is kept in four 64-bit limbs, most significant first, and the
+ * arithmetic is done on the limbs directly rather than through
+ * {@link BigInteger}.
  *
  * @ImplNote DataWord objects are immutable.
  */
@@ -33,25 +35,39 @@ public class DataWord implements Comparable<DataWord> {
     public static final BigInteger TWO_POW_256 = BigInteger.valueOf(2).pow(256);
     public static final BigInteger MAX_VALUE = TWO_POW_256.subtract(BigInteger.ONE);
 
-    public static final DataWord ZERO = of(0);
-    public static final DataWord ONE = of(1);
+    public static final DataWord ZERO = new DataWord(0, 0, 0, 0);
+    public static final DataWord ONE = new DataWord(0, 0, 0, 1);
 
     public static final int SIZE = 32;
 
-    private final byte[] data;
+    private static final long INT_MASK = 0xffffffffL;
+
+    // shared instances of the small values, which most words pushed are
+    private static final DataWord[] SMALL = new DataWord[256];
+    static {
+        SMALL[0] = ZERO;
+        SMALL[1] = ONE;
+        for (int i = 2; i < SMALL.length; i++) {
+            SMALL[i] = new DataWord(0, 0, 0, i);
+        }
+    }
+
+    // limbs, w0 is the most significant
+    private final long w0;
+    private final long w1;
+    private final long w2;
+    private final long w3;
 
     public static DataWord of(byte num) {
-        byte[] bb = new byte[32];
-        bb[31] = num;
-        return new DataWord(bb, false);
+        return SMALL[num & 0xff];
     }
 
     public static DataWord of(int num) {
-        return new DataWord(ByteBuffer.allocate(Integer.BYTES).putInt(num).array(), false);
+        return of(num & INT_MASK);
     }
 
     public static DataWord of(long num) {
-        return new DataWord(ByteBuffer.allocate(Long.BYTES).putLong(num).array(), false);
+        return (num & ~0xffL) == 0 ? SMALL[(int) num] : new DataWord(0, 0, 0, num);
     }
 
     public static DataWord of(BigInteger num) {
@@ -59,44 +75,61 @@ public class DataWord implements Comparable<DataWord> {
             throw new IllegalArgumentException("Input BigInt can't be negative or larger than MAX_VALUE");
         }
 
-        // NOTE: a 33 bytes array may be produced
-        byte[] bytes = num.toByteArray();
-        int copyOffset = Math.max(bytes.length - SIZE, 0);
-        int copyLength = bytes.length - copyOffset;
-
-        byte[] data = new byte[SIZE];
-        System.arraycopy(bytes, copyOffset, data, SIZE - copyLength, copyLength);
-
-        return new DataWord(data, false);
+        return new DataWord(num.shiftRight(192).longValue(), num.shiftRight(128).longValue(),
+                num.shiftRight(64).longValue(), num.longValue());
     }
 
     public static DataWord of(String hex) {
-        return new DataWord(HexUtil.fromHexString(hex), false);
+        return new DataWord(HexUtil.fromHexString(hex));
     }
 
     public static DataWord of(byte[] data) {
-        return new DataWord(data, true);
+        if (data != null && data.length == 1) {
+            return SMALL[data[0] & 0xff];
+        }
+        return new DataWord(data);
     }
 
     /**
-     * Creates a DataWord instance from byte array.
+     * Creates a DataWord instance from the 32 bytes at the given offset.
      *
      * @param data
      *            an byte array
-     * @param unsafe
-     *            whether the data is safe to refer
+     * @param offset
+     *            the offset of the first byte
+     * @return
+     */
+    public static DataWord of(byte[] data, int offset) {
+        if (offset < 0 || offset > data.length - SIZE) {
+            throw new IndexOutOfBoundsException("Input data doesn't have " + SIZE + " bytes at " + offset);
+        }
+        return new DataWord(readLimb(data, -offset, 0), readLimb(data, -offset, 8),
+                readLimb(data, -offset, 16), readLimb(data, -offset, 24));
+    }
+
+    /**
+     * Creates a DataWord instance from byte array.
+     *
+     * @param data
+     *            an byte array, which is copied
      */
-    protected DataWord(byte[] data, boolean unsafe) {
+    protected DataWord(byte[] data) {
         if (data == null || data.length > SIZE) {
             throw new IllegalArgumentException("Input data can't be NULL or exceed " + SIZE + " bytes");
         }
 
-        if (data.length == SIZE) {
-            this.data = unsafe ? data.clone() : data;
-        } else {
-            this.data = new byte[SIZE];
-            System.arraycopy(data, 0, this.data, SIZE - data.length, data.length);
-        }
+        int offset = SIZE - data.length;
+        this.w0 = readLimb(data, offset, 0);
+        this.w1 = readLimb(data, offset, 8);
+        this.w2 = readLimb(data, offset, 16);
+        this.w3 = readLimb(data, offset, 24);
+    }
+
+    private DataWord(long w0, long w1, long w2, long w3) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
     }
 
     /**
@@ -105,7 +138,27 @@ public class DataWord implements Comparable<DataWord> {
      * @return a byte array
      */
     public byte[] getData() {
-        return data.clone();
+        byte[] data = new byte[SIZE];
+        writeLimb(data, 0, w0);
+        writeLimb(data, 8, w1);
+        writeLimb(data, 16, w2);
+        writeLimb(data, 24, w3);
+        return data;
+    }
+
+    /**
+     * Writes the 32 bytes of this word into the given array.
+     *
+     * @param dest
+     *            the destination array
+     * @param offset
+     *            the offset of the first byte
+     */
+    public void copyTo(byte[] dest, int offset) {
+        writeLimb(dest, offset, w0);
+        writeLimb(dest, offset + 8, w1);
+        writeLimb(dest, offset + 16, w2);
+        writeLimb(dest, offset + 24, w3);
     }
 
     /**
@@ -114,7 +167,13 @@ public class DataWord implements Comparable<DataWord> {
      * @return
      */
     public byte[] getLast20Bytes() {
-        return Arrays.copyOfRange(data, SIZE - 20, SIZE);
+        byte[] data = new byte[20];
+        for (int i = 0; i < 4; i++) {
+            data[i] = (byte) (w1 >>> (8 * (3 - i)));
+        }
+        writeLimb(data, 4, w2);
+        writeLimb(data, 12, w3);
+        return data;
     }
 
     /**
@@ -124,15 +183,18 @@ public class DataWord implements Comparable<DataWord> {
      * @return
      */
     public byte getByte(int index) {
-        return data[index];
+        if (index < 0 || index >= SIZE) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return (byte) (limb(3 - index / 8) >>> (8 * (7 - index % 8)));
     }
 
     public BigInteger value() {
-        return new BigInteger(1, data);
+        return new BigInteger(1, getData());
     }
 
     public BigInteger sValue() {
-        return new BigInteger(data);
+        return new BigInteger(getData());
     }
 
     /**
@@ -175,78 +237,95 @@ public class DataWord implements Comparable<DataWord> {
     }
 
     public boolean isZero() {
-        for (byte b : data) {
-            if (b != 0) {
-                return false;
-            }
-        }
-        return true;
+        return (w0 | w1 | w2 | w3) == 0;
     }
 
     public boolean isNegative() {
-        return (data[0] & 0x80) != 0;
+        return w0 < 0;
     }
 
     public DataWord and(DataWord w2) {
-        byte[] buffer = new byte[SIZE];
-        for (int i = 0; i < this.data.length; ++i) {
-            buffer[i] = (byte) (this.data[i] & w2.data[i]);
-        }
-        return new DataWord(buffer, false);
+        return new DataWord(this.w0 & w2.w0, this.w1 & w2.w1, this.w2 & w2.w2, this.w3 & w2.w3);
     }
 
     public DataWord or(DataWord w2) {
-        byte[] buffer = new byte[SIZE];
-        for (int i = 0; i < this.data.length; ++i) {
-            buffer[i] = (byte) (this.data[i] | w2.data[i]);
-        }
-        return new DataWord(buffer, false);
+        return new DataWord(this.w0 | w2.w0, this.w1 | w2.w1, this.w2 | w2.w2, this.w3 | w2.w3);
     }
 
     public DataWord xor(DataWord w2) {
-        byte[] buffer = new byte[SIZE];
-        for (int i = 0; i < this.data.length; ++i) {
-            buffer[i] = (byte) (this.data[i] ^ w2.data[i]);
-        }
-        return new DataWord(buffer, false);
+        return new DataWord(this.w0 ^ w2.w0, this.w1 ^ w2.w1, this.w2 ^ w2.w2, this.w3 ^ w2.w3);
     }
 
     public DataWord negate() {
-        return isZero() ? ZERO : bnot().add(DataWord.ONE);
+        return isZero() ? ZERO : ZERO.sub(this);
     }
 
     // bitwise not
     public DataWord bnot() {
-        byte[] buffer = new byte[SIZE];
-        for (int i = 0; i < this.data.length; ++i) {
-            buffer[i] = (byte) (~this.data[i]);
-        }
-        return new DataWord(buffer, false);
+        return new DataWord(~w0, ~w1, ~w2, ~w3);
     }
 
-    // Credit -> http://stackoverflow.com/a/24023466/459349
     public DataWord add(DataWord word) {
-        byte[] buffer = new byte[SIZE];
-        for (int i = 31, overflow = 0; i >= 0; i--) {
-            int v = (this.data[i] & 0xff) + (word.data[i] & 0xff) + overflow;
-            buffer[i] = (byte) v;
-            overflow = v >>> 8;
-        }
-        return new DataWord(buffer, false);
+        long r3 = w3 + word.w3;
+        long c = Long.compareUnsigned(r3, w3) < 0 ? 1 : 0;
+
+        long s = w2 + word.w2;
+        long r2 = s + c;
+        c = (Long.compareUnsigned(s, w2) < 0 || Long.compareUnsigned(r2, s) < 0) ? 1 : 0;
+
+        s = w1 + word.w1;
+        long r1 = s + c;
+        c = (Long.compareUnsigned(s, w1) < 0 || Long.compareUnsigned(r1, s) < 0) ? 1 : 0;
+
+        long r0 = w0 + word.w0 + c;
+
+        return new DataWord(r0, r1, r2, r3);
     }
 
     public DataWord mul(DataWord word) {
-        BigInteger result = value().multiply(word.value());
-
-        return of(result.and(MAX_VALUE));
+        long a0 = w3, a1 = w2, a2 = w1, a3 = w0;
+        long b0 = word.w3, b1 = word.w2, b2 = word.w1, b3 = word.w0;
+
+        // schoolbook multiplication, row by row, dropping everything above 2^256
+        long r0 = a0 * b0;
+        long c = unsignedMultiplyHigh(a0, b0);
+        long r1 = a0 * b1 + c;
+        c = unsignedMultiplyHigh(a0, b1) + (Long.compareUnsigned(r1, c) < 0 ? 1 : 0);
+        long r2 = a0 * b2 + c;
+        c = unsignedMultiplyHigh(a0, b2) + (Long.compareUnsigned(r2, c) < 0 ? 1 : 0);
+        long r3 = a0 * b3 + c;
+
+        long p = a1 * b0;
+        long t = r1 + p;
+        c = unsignedMultiplyHigh(a1, b0) + (Long.compareUnsigned(t, p) < 0 ? 1 : 0);
+        r1 = t;
+        p = a1 * b1 + c;
+        c = unsignedMultiplyHigh(a1, b1) + (Long.compareUnsigned(p, c) < 0 ? 1 : 0);
+        t = r2 + p;
+        c += Long.compareUnsigned(t, p) < 0 ? 1 : 0;
+        r2 = t;
+        r3 += a1 * b2 + c;
+
+        p = a2 * b0;
+        t = r2 + p;
+        c = unsignedMultiplyHigh(a2, b0) + (Long.compareUnsigned(t, p) < 0 ? 1 : 0);
+        r2 = t;
+        r3 += a2 * b1 + c;
+
+        r3 += a3 * b0;
+
+        return new DataWord(r3, r2, r1, r0);
     }
 
     public DataWord div(DataWord word) {
         if (word.isZero()) {
             return ZERO;
+        } else if (compareTo(word) < 0) {
+            return ZERO;
+        } else if ((w0 | w1 | w2 | word.w0 | word.w1 | word.w2) == 0) {
+            return new DataWord(0, 0, 0, Long.divideUnsigned(w3, word.w3));
         } else {
-            BigInteger result = value().divide(word.value());
-            return of(result.and(MAX_VALUE));
+            return divide(this, word, true);
         }
     }
 
@@ -254,27 +333,53 @@ public class DataWord implements Comparable<DataWord> {
         if (word.isZero()) {
             return ZERO;
         } else {
-            BigInteger result = sValue().divide(word.sValue());
-            return of(result.and(MAX_VALUE));
+            DataWord result = abs().div(word.abs());
+            return (isNegative() != word.isNegative()) ? result.negate() : result;
         }
     }
 
     public DataWord sub(DataWord word) {
-        BigInteger result = value().subtract(word.value());
-        return of(result.and(MAX_VALUE));
+        long r3 = w3 - word.w3;
+        long b = Long.compareUnsigned(w3, word.w3) < 0 ? 1 : 0;
+
+        long d = w2 - word.w2;
+        long r2 = d - b;
+        b = (Long.compareUnsigned(w2, word.w2) < 0 || Long.compareUnsigned(d, b) < 0) ? 1 : 0;
+
+        d = w1 - word.w1;
+        long r1 = d - b;
+        b = (Long.compareUnsigned(w1, word.w1) < 0 || Long.compareUnsigned(d, b) < 0) ? 1 : 0;
+
+        long r0 = w0 - word.w0 - b;
+
+        return new DataWord(r0, r1, r2, r3);
     }
 
     public DataWord exp(DataWord word) {
-        BigInteger result = value().modPow(word.value(), TWO_POW_256);
-        return of(result);
+        // square and multiply, modulo 2^256
+        DataWord result = ONE;
+        DataWord base = this;
+        int bits = word.bitLength();
+        for (int i = 0; i < bits; i++) {
+            if (((word.limb(i / 64) >>> (i % 64)) & 1) != 0) {
+                result = result.mul(base);
+            }
+            if (i + 1 < bits) {
+                base = base.mul(base);
+            }
+        }
+        return result;
     }
 
     public DataWord mod(DataWord word) {
         if (word.isZero()) {
             return ZERO;
+        } else if (compareTo(word) < 0) {
+            return this;
+        } else if ((w0 | w1 | w2 | word.w0 | word.w1 | word.w2) == 0) {
+            return new DataWord(0, 0, 0, Long.remainderUnsigned(w3, word.w3));
         } else {
-            BigInteger result = value().mod(word.value());
-            return of(result.and(MAX_VALUE));
+            return divide(this, word, false);
         }
     }
 
@@ -282,10 +387,8 @@ public class DataWord implements Comparable<DataWord> {
         if (word.isZero()) {
             return ZERO;
         } else {
-            BigInteger result = sValue().abs().mod(word.sValue().abs());
-            result = (sValue().signum() == -1) ? result.negate() : result;
-
-            return of(result.and(MAX_VALUE));
+            DataWord result = abs().mod(word.abs());
+            return isNegative() ? result.negate() : result;
         }
     }
 
@@ -293,8 +396,13 @@ public class DataWord implements Comparable<DataWord> {
         if (word2.isZero()) {
             return ZERO;
         } else {
-            BigInteger result = value().add(word1.value()).mod(word2.value());
-            return of(result.and(MAX_VALUE));
+            DataWord a = this.mod(word2);
+            DataWord b = word1.mod(word2);
+            DataWord sum = a.add(b);
+
+            // the true sum is below 2 * word2, one subtraction is enough
+            boolean overflow = sum.compareTo(a) < 0;
+            return (overflow || sum.compareTo(word2) >= 0) ? sum.sub(word2) : sum;
         }
     }
 
@@ -302,8 +410,33 @@ public class DataWord implements Comparable<DataWord> {
         if (this.isZero() || word1.isZero() || word2.isZero()) {
             return ZERO;
         } else {
-            BigInteger result = value().multiply(word1.value()).mod(word2.value());
-            return of(result.and(MAX_VALUE));
+            // full 512-bit product, as little-endian 32-bit digits
+            int[] product = new int[16];
+            for (int i = 0; i < 4; i++) {
+                long a = this.limb(i);
+                long carry = 0;
+                for (int j = 0; j < 4; j++) {
+                    long b = word1.limb(j);
+                    long lo = a * b;
+                    long hi = unsignedMultiplyHigh(a, b);
+
+                    long cur = (product[2 * (i + j)] & INT_MASK) | ((long) product[2 * (i + j) + 1] << 32);
+                    long sum = lo + cur;
+                    hi += Long.compareUnsigned(sum, lo) < 0 ? 1 : 0;
+                    long sum2 = sum + carry;
+                    hi += Long.compareUnsigned(sum2, sum) < 0 ? 1 : 0;
+
+                    product[2 * (i + j)] = (int) sum2;
+                    product[2 * (i + j) + 1] = (int) (sum2 >>> 32);
+                    carry = hi;
+                }
+                product[2 * (i + 4)] = (int) carry;
+                product[2 * (i + 4) + 1] = (int) (carry >>> 32);
+            }
+
+            int[] remainder = new int[8];
+            divide(product, word2.toDigits(), null, remainder);
+            return fromDigits(remainder);
         }
     }
 
@@ -312,23 +445,22 @@ public class DataWord implements Comparable<DataWord> {
             throw new IndexOutOfBoundsException();
         }
 
-        byte[] buffer = data.clone();
-        byte mask = this.sValue().testBit((k * 8) + 7) ? (byte) 0xff : 0;
-        for (int i = 31; i > k; i--) {
-            buffer[31 - i] = mask;
+        int bit = k * 8 + 7;
+        int idx = bit / 64;
+        long lowMask = (bit % 64 == 63) ? -1L : (1L << (bit % 64 + 1)) - 1;
+        boolean negative = (limb(idx) & (1L << (bit % 64))) != 0;
+
+        long[] r = { w3, w2, w1, w0 };
+        r[idx] = negative ? (r[idx] | ~lowMask) : (r[idx] & lowMask);
+        for (int i = idx + 1; i < 4; i++) {
+            r[i] = negative ? -1L : 0;
         }
 
-        return new DataWord(buffer, false);
+        return new DataWord(r[3], r[2], r[1], r[0]);
     }
 
     public int bytesOccupied() {
-        for (int i = 0; i < SIZE; i++) {
-            if (data[i] != 0) {
-                return SIZE - i;
-            }
-        }
-
-        return 0;
+        return (bitLength() + 7) / 8;
     }
 
     /**
@@ -338,11 +470,23 @@ public class DataWord implements Comparable<DataWord> {
      * @return this << arg
      */
     public DataWord shiftLeft(DataWord arg) {
-        if (arg.value().compareTo(BigInteger.valueOf(SIZE * 8)) > 0) {
+        if (!arg.isShiftInRange()) {
             return ZERO;
-        } else {
-            return DataWord.of(value().shiftLeft(arg.intValue()).and(MAX_VALUE));
         }
+
+        int n = (int) arg.w3;
+        int limbs = n / 64;
+        int bits = n % 64;
+        long[] r = new long[4];
+        for (int i = 3; i >= limbs; i--) {
+            long v = limb(i - limbs) << bits;
+            if (bits != 0 && i - limbs - 1 >= 0) {
+                v |= limb(i - limbs - 1) >>> (64 - bits);
+            }
+            r[i] = v;
+        }
+
+        return new DataWord(r[3], r[2], r[1], r[0]);
     }
 
     /**
@@ -352,11 +496,11 @@ public class DataWord implements Comparable<DataWord> {
      * @return this >>> arg
      */
     public DataWord shiftRight(DataWord arg) {
-        if (arg.value().compareTo(BigInteger.valueOf(SIZE * 8)) > 0) {
+        if (!arg.isShiftInRange()) {
             return ZERO;
-        } else {
-            return DataWord.of(value().shiftRight(arg.intValue()).and(MAX_VALUE));
         }
+
+        return shiftRight((int) arg.w3, 0);
     }
 
     /**
@@ -366,15 +510,29 @@ public class DataWord implements Comparable<DataWord> {
      * @return this >> arg
      */
     public DataWord shiftRightSigned(DataWord arg) {
-        if (arg.value().compareTo(BigInteger.valueOf(SIZE * 8)) > 0) {
+        if (!arg.isShiftInRange()) {
             if (this.isNegative()) {
                 return DataWord.ONE.negate();
             } else {
                 return DataWord.ZERO;
             }
-        } else {
-            return DataWord.of(sValue().shiftRight(arg.intValue()).and(MAX_VALUE));
         }
+
+        return shiftRight((int) arg.w3, isNegative() ? -1L : 0);
+    }
+
+    /**
+     * Compares this and the given DataWord as signed numbers.
+     *
+     * @param o
+     * @return
+     */
+    public int signedCompareTo(DataWord o) {
+        int cmp = Long.compare(w0, o.w0);
+        if (cmp != 0) {
+            return cmp;
+        }
+        return compareTo(o);
     }
 
     @Override
@@ -387,26 +545,40 @@ public class DataWord implements Comparable<DataWord> {
             return false;
         }
 
-        return Arrays.equals(data, ((DataWord) o).data);
+        DataWord w = (DataWord) o;
+        return w0 == w.w0 && w1 == w.w1 && w2 == w.w2 && w3 == w.w3;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(data);
+        int h = Long.hashCode(w0);
+        h = 31 * h + Long.hashCode(w1);
+        h = 31 * h + Long.hashCode(w2);
+        return 31 * h + Long.hashCode(w3);
     }
 
     @Override
     public int compareTo(DataWord o) {
-        return org.bouncycastle.util.Arrays.compareUnsigned(this.data, o.data);
+        int cmp = Long.compareUnsigned(w0, o.w0);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(w1, o.w1);
+            if (cmp == 0) {
+                cmp = Long.compareUnsigned(w2, o.w2);
+                if (cmp == 0) {
+                    cmp = Long.compareUnsigned(w3, o.w3);
+                }
+            }
+        }
+        return Integer.signum(cmp);
     }
 
     @Override
     public String toString() {
-        return HexUtil.toHexString(data);
+        return HexUtil.toHexString(getData());
     }
 
     private int intValue(boolean safe) {
-        if (bytesOccupied() > 4 || (data[SIZE - 4] & 0x80) != 0) {
+        if ((w0 | w1 | w2) != 0 || (w3 & ~0x7fffffffL) != 0) {
             if (safe) {
                 return Integer.MAX_VALUE;
             } else {
@@ -414,16 +586,11 @@ public class DataWord implements Comparable<DataWord> {
             }
         }
 
-        int value = 0;
-        for (int i = 0; i < 4; i++) {
-            value = (value << 8) + (0xff & data[SIZE - 4 + i]);
-        }
-
-        return value;
+        return (int) w3;
     }
 
     private long longValue(boolean safe) {
-        if (bytesOccupied() > 8 || (data[SIZE - 8] & 0x80) != 0) {
+        if ((w0 | w1 | w2) != 0 || w3 < 0) {
             if (safe) {
                 return Long.MAX_VALUE;
             } else {
@@ -431,11 +598,215 @@ public class DataWord implements Comparable<DataWord> {
             }
         }
 
-        long value = 0;
-        for (int i = 0; i < 8; i++) {
-            value = (value << 8) + (0xff & data[SIZE - 8 + i]);
+        return w3;
+    }
+
+    /**
+     * Returns the i-th limb, 0 being the least significant.
+     */
+    private long limb(int i) {
+        switch (i) {
+        case 0:
+            return w3;
+        case 1:
+            return w2;
+        case 2:
+            return w1;
+        default:
+            return w0;
+        }
+    }
+
+    private int bitLength() {
+        if (w0 != 0) {
+            return 256 - Long.numberOfLeadingZeros(w0);
+        } else if (w1 != 0) {
+            return 192 - Long.numberOfLeadingZeros(w1);
+        } else if (w2 != 0) {
+            return 128 - Long.numberOfLeadingZeros(w2);
+        } else {
+            return 64 - Long.numberOfLeadingZeros(w3);
+        }
+    }
+
+    /**
+     * Returns whether this is a shift amount below 256.
+     */
+    private boolean isShiftInRange() {
+        return (w0 | w1 | w2) == 0 && Long.compareUnsigned(w3, SIZE * 8) < 0;
+    }
+
+    private DataWord abs() {
+        return isNegative() ? negate() : this;
+    }
+
+    private DataWord shiftRight(int n, long fill) {
+        int limbs = n / 64;
+        int bits = n % 64;
+        long[] r = new long[4];
+        for (int i = 0; i < 4; i++) {
+            long lo = (i + limbs < 4) ? limb(i + limbs) : fill;
+            long hi = (i + limbs + 1 < 4) ? limb(i + limbs + 1) : fill;
+            r[i] = (bits == 0) ? lo : (lo >>> bits) | (hi << (64 - bits));
+        }
+
+        return new DataWord(r[3], r[2], r[1], r[0]);
+    }
+
+    /**
+     * Returns the value as little-endian 32-bit digits.
+     */
+    private int[] toDigits() {
+        int[] digits = new int[8];
+        for (int i = 0; i < 4; i++) {
+            long v = limb(i);
+            digits[2 * i] = (int) v;
+            digits[2 * i + 1] = (int) (v >>> 32);
+        }
+        return digits;
+    }
+
+    private static DataWord fromDigits(int[] digits) {
+        long[] r = new long[4];
+        for (int i = 0; i < 4; i++) {
+            r[i] = (digits[2 * i] & INT_MASK) | ((long) digits[2 * i + 1] << 32);
+        }
+        return new DataWord(r[3], r[2], r[1], r[0]);
+    }
+
+    private static DataWord divide(DataWord dividend, DataWord divisor, boolean quotient) {
+        int[] q = new int[8];
+        int[] r = new int[8];
+        divide(dividend.toDigits(), divisor.toDigits(), q, r);
+        return fromDigits(quotient ? q : r);
+    }
+
+    /**
+     * Long division of little-endian 32-bit digits (Knuth, TAOCP 4.3.1,
+     * algorithm D). The divisor must not be zero.
+     *
+     * @param u
+     *            the dividend
+     * @param v
+     *            the divisor
+     * @param q
+     *            the quotient, or null if not needed
+     * @param r
+     *            the remainder, at least as long as the divisor
+     */
+    private static void divide(int[] u, int[] v, int[] q, int[] r) {
+        int m = significantDigits(u);
+        int n = significantDigits(v);
+
+        if (m < n) {
+            System.arraycopy(u, 0, r, 0, m);
+            return;
+        }
+
+        if (n == 1) {
+            long d = v[0] & INT_MASK;
+            long rem = 0;
+            for (int j = m - 1; j >= 0; j--) {
+                long num = (rem << 32) | (u[j] & INT_MASK);
+                if (q != null) {
+                    q[j] = (int) Long.divideUnsigned(num, d);
+                }
+                rem = Long.remainderUnsigned(num, d);
+            }
+            r[0] = (int) rem;
+            return;
+        }
+
+        // normalize, so that the top digit of the divisor has its high bit set
+        int s = Integer.numberOfLeadingZeros(v[n - 1]);
+        int[] vn = new int[n];
+        for (int i = n - 1; i > 0; i--) {
+            vn[i] = (int) (((v[i] & INT_MASK) << s) | ((v[i - 1] & INT_MASK) >>> (32 - s)));
+        }
+        vn[0] = v[0] << s;
+
+        int[] un = new int[m + 1];
+        un[m] = (int) ((u[m - 1] & INT_MASK) >>> (32 - s));
+        for (int i = m - 1; i > 0; i--) {
+            un[i] = (int) (((u[i] & INT_MASK) << s) | ((u[i - 1] & INT_MASK) >>> (32 - s)));
+        }
+        un[0] = u[0] << s;
+
+        long vTop = vn[n - 1] & INT_MASK;
+        long vNext = vn[n - 2] & INT_MASK;
+        for (int j = m - n; j >= 0; j--) {
+            // estimate the quotient digit
+            long num = ((un[j + n] & INT_MASK) << 32) | (un[j + n - 1] & INT_MASK);
+            long qhat = Long.divideUnsigned(num, vTop);
+            long rhat = Long.remainderUnsigned(num, vTop);
+            while (qhat > INT_MASK
+                    || Long.compareUnsigned(qhat * vNext, (rhat << 32) | (un[j + n - 2] & INT_MASK)) > 0) {
+                qhat--;
+                rhat += vTop;
+                if (rhat > INT_MASK) {
+                    break;
+                }
+            }
+
+            // multiply and subtract
+            long k = 0;
+            long t;
+            for (int i = 0; i < n; i++) {
+                long p = qhat * (vn[i] & INT_MASK);
+                t = (un[i + j] & INT_MASK) - k - (p & INT_MASK);
+                un[i + j] = (int) t;
+                k = (p >>> 32) - (t >> 32);
+            }
+            t = (un[j + n] & INT_MASK) - k;
+            un[j + n] = (int) t;
+
+            // add back if the estimate was one too large
+            if (t < 0) {
+                qhat--;
+                k = 0;
+                for (int i = 0; i < n; i++) {
+                    t = (un[i + j] & INT_MASK) + (vn[i] & INT_MASK) + k;
+                    un[i + j] = (int) t;
+                    k = t >>> 32;
+                }
+                un[j + n] += (int) k;
+            }
+
+            if (q != null) {
+                q[j] = (int) qhat;
+            }
+        }
+
+        // denormalize the remainder
+        for (int i = 0; i < n; i++) {
+            r[i] = (int) (((un[i] & INT_MASK) >>> s) | ((un[i + 1] & INT_MASK) << (32 - s)));
+        }
+    }
+
+    private static int significantDigits(int[] digits) {
+        int n = digits.length;
+        while (n > 0 && digits[n - 1] == 0) {
+            n--;
         }
+        return n;
+    }
+
+    private static long unsignedMultiplyHigh(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
 
-        return value;
+    private static long readLimb(byte[] data, int offset, int pos) {
+        long v = 0;
+        for (int i = pos; i < pos + 8; i++) {
+            v = (v << 8) | (i < offset ? 0 : (data[i - offset] & 0xff));
+        }
+        return v;
+    }
+
+    private static void writeLimb(byte[] data, int pos, long v) {
+        for (int i = 7; i >= 0; i--) {
+            data[pos + i] = (byte) v;
+            v >>>= 8;
+        }
     }
 }
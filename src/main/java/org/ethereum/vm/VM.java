@@ -24,12 +24,15 @@ import static org.ethereum.vm.util.ByteArrayUtil.EMPTY_BYTE_ARRAY;
 import static org.ethereum.vm.util.VMUtil.getSizeInWords;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
 import org.ethereum.vm.chainspec.Spec;
+import org.ethereum.vm.program.BasicBlock;
 import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.ProgramPreprocess;
 import org.ethereum.vm.program.Stack;
 import org.ethereum.vm.program.exception.ExceptionFactory;
 import org.ethereum.vm.program.exception.ReturnDataCopyIllegalBoundsException;
@@ -74,7 +77,7 @@ public class VM {
 
     private static final Logger logger = Logger.getLogger(VM.class.getName());
 
-    private static final BigInteger THIRTY_TWO = BigInteger.valueOf(32);
+    private static final DataWord THIRTY_TWO = DataWord.of(32);
 
     // theoretical limit, used to reduce expensive BigInt arithmetic
     private static final BigInteger MAX_MEM_SIZE = BigInteger.valueOf(Integer.MAX_VALUE);
@@ -432,11 +435,10 @@ public class VM {
                 break;
             case SIGNEXTEND: {
                 DataWord word1 = program.stackPop();
-                BigInteger k = word1.value();
 
-                if (k.compareTo(THIRTY_TWO) < 0) {
+                if (word1.compareTo(THIRTY_TWO) < 0) {
                     DataWord word2 = program.stackPop();
-                    DataWord result = word2.signExtend(k.byteValue());
+                    DataWord result = word2.signExtend((byte) word1.intValue());
                     program.stackPush(result);
                 }
                 program.step();
@@ -454,7 +456,7 @@ public class VM {
                 DataWord word1 = program.stackPop();
                 DataWord word2 = program.stackPop();
 
-                DataWord result = (word1.value().compareTo(word2.value()) < 0) ? DataWord.ONE : DataWord.ZERO;
+                DataWord result = (word1.compareTo(word2) < 0) ? DataWord.ONE : DataWord.ZERO;
                 program.stackPush(result);
                 program.step();
             }
@@ -463,7 +465,7 @@ public class VM {
                 DataWord word1 = program.stackPop();
                 DataWord word2 = program.stackPop();
 
-                DataWord result = (word1.sValue().compareTo(word2.sValue()) < 0) ? DataWord.ONE : DataWord.ZERO;
+                DataWord result = (word1.signedCompareTo(word2) < 0) ? DataWord.ONE : DataWord.ZERO;
                 program.stackPush(result);
                 program.step();
             }
@@ -472,7 +474,7 @@ public class VM {
                 DataWord word1 = program.stackPop();
                 DataWord word2 = program.stackPop();
 
-                DataWord result = (word1.sValue().compareTo(word2.sValue()) > 0) ? DataWord.ONE : DataWord.ZERO;
+                DataWord result = (word1.signedCompareTo(word2) > 0) ? DataWord.ONE : DataWord.ZERO;
                 program.stackPush(result);
                 program.step();
             }
@@ -481,7 +483,7 @@ public class VM {
                 DataWord word1 = program.stackPop();
                 DataWord word2 = program.stackPop();
 
-                DataWord result = (word1.value().compareTo(word2.value()) > 0) ? DataWord.ONE : DataWord.ZERO;
+                DataWord result = (word1.compareTo(word2) > 0) ? DataWord.ONE : DataWord.ZERO;
                 program.stackPush(result);
                 program.step();
             }
@@ -534,7 +536,7 @@ public class VM {
                 DataWord word1 = program.stackPop();
                 DataWord word2 = program.stackPop();
                 final DataWord result;
-                if (word1.value().compareTo(THIRTY_TWO) < 0) {
+                if (word1.compareTo(THIRTY_TWO) < 0) {
                     byte tmp = word2.getByte(word1.intValue());
                     result = DataWord.of(tmp);
                 } else {
@@ -591,7 +593,7 @@ public class VM {
             case SHA3: {
                 DataWord memOffsetData = program.stackPop();
                 DataWord lengthData = program.stackPop();
-                byte[] buffer = program.memoryChunk(memOffsetData.intValueSafe(), lengthData.intValueSafe());
+                ByteBuffer buffer = program.memorySlice(memOffsetData.intValueSafe(), lengthData.intValueSafe());
 
                 byte[] encoded = HashUtil.keccak256(buffer);
                 DataWord word = DataWord.of(encoded);
@@ -818,7 +820,7 @@ public class VM {
             case DUP15:
             case DUP16: {
                 int n = op.val() - OpCode.DUP1.val() + 1;
-                program.stackPush(stack.get(stack.size() - n)); // same object ref
+                program.stackDup(n); // same object ref
                 program.step();
 
             }
@@ -840,8 +842,8 @@ public class VM {
             case SWAP15:
             case SWAP16: {
 
-                int n = op.val() - OpCode.SWAP1.val() + 2;
-                stack.swap(stack.size() - 1, stack.size() - n);
+                int n = op.val() - OpCode.SWAP1.val() + 1;
+                stack.swapTop(n);
                 program.step();
             }
                 break;
@@ -1108,8 +1110,20 @@ public class VM {
 
     public void play(Program program) {
         try {
-            while (!program.isStopped()) {
-                this.step(program);
+            if (spec.preDecode()) {
+                ProgramPreprocess preprocess = program.getProgramPreprocess();
+                while (!program.isStopped()) {
+                    BasicBlock block = preprocess.getBlock(program.getPC());
+                    if (block != null && canRun(program, block)) {
+                        this.run(program, block);
+                    } else {
+                        this.step(program);
+                    }
+                }
+            } else {
+                while (!program.isStopped()) {
+                    this.step(program);
+                }
             }
 
         } catch (RuntimeException e) {
@@ -1120,6 +1134,219 @@ public class VM {
         }
     }
 
+    /**
+     * Returns whether a block can run in one go. Otherwise, its instructions are
+     * stepped through one by one, so that failures are reported exactly as they
+     * would be without pre-decoding.
+     */
+    private boolean canRun(Program program, BasicBlock block) {
+        int stackSize = program.getStack().size();
+        return program.getGasLeft() >= block.getGas()
+                && stackSize >= block.getMinStack()
+                && stackSize + block.getMaxGrowth() <= Stack.MAX_SIZE
+                && (!block.isEip145() || spec.eip145());
+    }
+
+    /**
+     * Runs a basic block, whose gas and stack limits have been checked already.
+     */
+    private void run(Program program, BasicBlock block) {
+        try {
+            program.spendGas(block.getGas(), "block");
+
+            Stack stack = program.getStack();
+            OpCode[] ops = block.getOps();
+            DataWord[] args = block.getArgs();
+            for (int i = 0; i < ops.length; i++) {
+                switch (ops[i]) {
+                case ADD:
+                    stack.push(stack.pop().add(stack.pop()));
+                    break;
+                case MUL:
+                    stack.push(stack.pop().mul(stack.pop()));
+                    break;
+                case SUB:
+                    stack.push(stack.pop().sub(stack.pop()));
+                    break;
+                case DIV:
+                    stack.push(stack.pop().div(stack.pop()));
+                    break;
+                case SDIV:
+                    stack.push(stack.pop().sDiv(stack.pop()));
+                    break;
+                case MOD:
+                    stack.push(stack.pop().mod(stack.pop()));
+                    break;
+                case SMOD:
+                    stack.push(stack.pop().sMod(stack.pop()));
+                    break;
+                case ADDMOD:
+                    stack.push(stack.pop().addmod(stack.pop(), stack.pop()));
+                    break;
+                case MULMOD:
+                    stack.push(stack.pop().mulmod(stack.pop(), stack.pop()));
+                    break;
+                case SIGNEXTEND: {
+                    DataWord word1 = stack.pop();
+                    if (word1.compareTo(THIRTY_TWO) < 0) {
+                        stack.push(stack.pop().signExtend((byte) word1.intValue()));
+                    }
+                    break;
+                }
+                case LT:
+                    stack.push(stack.pop().compareTo(stack.pop()) < 0 ? DataWord.ONE : DataWord.ZERO);
+                    break;
+                case GT:
+                    stack.push(stack.pop().compareTo(stack.pop()) > 0 ? DataWord.ONE : DataWord.ZERO);
+                    break;
+                case SLT:
+                    stack.push(stack.pop().signedCompareTo(stack.pop()) < 0 ? DataWord.ONE : DataWord.ZERO);
+                    break;
+                case SGT:
+                    stack.push(stack.pop().signedCompareTo(stack.pop()) > 0 ? DataWord.ONE : DataWord.ZERO);
+                    break;
+                case EQ:
+                    stack.push(stack.pop().equals(stack.pop()) ? DataWord.ONE : DataWord.ZERO);
+                    break;
+                case ISZERO:
+                    stack.push(stack.pop().isZero() ? DataWord.ONE : DataWord.ZERO);
+                    break;
+                case AND:
+                    stack.push(stack.pop().and(stack.pop()));
+                    break;
+                case OR:
+                    stack.push(stack.pop().or(stack.pop()));
+                    break;
+                case XOR:
+                    stack.push(stack.pop().xor(stack.pop()));
+                    break;
+                case NOT:
+                    stack.push(stack.pop().bnot());
+                    break;
+                case BYTE: {
+                    DataWord word1 = stack.pop();
+                    DataWord word2 = stack.pop();
+                    stack.push(word1.compareTo(THIRTY_TWO) < 0 ? DataWord.of(word2.getByte(word1.intValue()))
+                            : DataWord.ZERO);
+                    break;
+                }
+                case SHL: {
+                    DataWord word1 = stack.pop();
+                    stack.push(stack.pop().shiftLeft(word1));
+                    break;
+                }
+                case SHR: {
+                    DataWord word1 = stack.pop();
+                    stack.push(stack.pop().shiftRight(word1));
+                    break;
+                }
+                case SAR: {
+                    DataWord word1 = stack.pop();
+                    stack.push(stack.pop().shiftRightSigned(word1));
+                    break;
+                }
+                case ADDRESS:
+                    stack.push(program.getOwnerAddress());
+                    break;
+                case ORIGIN:
+                    stack.push(program.getOriginAddress());
+                    break;
+                case CALLER:
+                    stack.push(program.getCallerAddress());
+                    break;
+                case CALLVALUE:
+                    stack.push(program.getCallValue());
+                    break;
+                case CALLDATALOAD:
+                    stack.push(program.getDataValue(stack.pop()));
+                    break;
+                case CALLDATASIZE:
+                    stack.push(program.getDataSize());
+                    break;
+                case CODESIZE:
+                    stack.push(DataWord.of(program.getCode().length));
+                    break;
+                case GASPRICE:
+                    stack.push(program.getGasPrice());
+                    break;
+                case RETURNDATASIZE:
+                    stack.push(program.getReturnDataBufferSize());
+                    break;
+                case COINBASE:
+                    stack.push(program.getBlockCoinbase());
+                    break;
+                case TIMESTAMP:
+                    stack.push(program.getBlockTimestamp());
+                    break;
+                case NUMBER:
+                    stack.push(program.getBlockNumber());
+                    break;
+                case DIFFICULTY:
+                    stack.push(program.getBlockDifficulty());
+                    break;
+                case GASLIMIT:
+                    stack.push(program.getBlockGasLimit());
+                    break;
+                case POP:
+                    stack.pop();
+                    break;
+                case MSIZE:
+                    stack.push(DataWord.of(program.getMemSize()));
+                    break;
+                case JUMPDEST:
+                    break;
+                case DUP1:
+                case DUP2:
+                case DUP3:
+                case DUP4:
+                case DUP5:
+                case DUP6:
+                case DUP7:
+                case DUP8:
+                case DUP9:
+                case DUP10:
+                case DUP11:
+                case DUP12:
+                case DUP13:
+                case DUP14:
+                case DUP15:
+                case DUP16:
+                    stack.dup(ops[i].val() - OpCode.DUP1.val() + 1);
+                    break;
+                case SWAP1:
+                case SWAP2:
+                case SWAP3:
+                case SWAP4:
+                case SWAP5:
+                case SWAP6:
+                case SWAP7:
+                case SWAP8:
+                case SWAP9:
+                case SWAP10:
+                case SWAP11:
+                case SWAP12:
+                case SWAP13:
+                case SWAP14:
+                case SWAP15:
+                case SWAP16:
+                    stack.swapTop(ops[i].val() - OpCode.SWAP1.val() + 1);
+                    break;
+                default:
+                    // PUSHn and PC
+                    stack.push(args[i]);
+                    break;
+                }
+            }
+
+            program.setPC(block.getEnd());
+        } catch (RuntimeException e) {
+            program.spendAllGas();
+            program.resetFutureRefund();
+            program.stop();
+            throw e;
+        }
+    }
+
     /**
      * Utility to calculate new total memory size needed for an operation. <br/>
      * Basically just offset + size, unless size is 0, in which case the result is
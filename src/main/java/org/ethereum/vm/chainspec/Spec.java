@@ -114,4 +114,11 @@ public interface Spec {
      * CREATE but with deterministic address
      */
     boolean eip1014();
+
+    /**
+     * Whether to run the pre-decoded basic blocks of a program in one go, checking
+     * the gas and stack limits once per block rather than per instruction. The
+     * results are the same either way.
+     */
+    boolean preDecode();
 }
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) [2018] [ The Semux Developers ]
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.vm.program;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.OpCode;
+
+/**
+ * A run of pre-decoded instructions which only operate on the stack and have a
+ * static gas cost, so that gas and stack limits can be checked once for the
+ * whole run instead of for every instruction.
+ * <p>
+ * A block starts at the beginning of the code, at a JUMPDEST, or after any
+ * other instruction, and never crosses a JUMPDEST.
+ */
+public class BasicBlock {
+
+    /**
+     * Instructions which may be part of a block: no memory, storage or control
+     * flow access, no dynamic gas, and no dependency on the gas left.
+     */
+    private static final Set<OpCode> SIMPLE = EnumSet.noneOf(OpCode.class);
+    static {
+        for (OpCode op : OpCode.values()) {
+            int v = op.val() & 0xff;
+            if ((v >= OpCode.PUSH1.val() && v <= (OpCode.SWAP16.val() & 0xff))
+                    || (v >= OpCode.ADD.val() && v <= OpCode.SIGNEXTEND.val() && op != OpCode.EXP)
+                    || (v >= OpCode.LT.val() && v <= OpCode.SAR.val())) {
+                SIMPLE.add(op);
+            }
+        }
+        SIMPLE.addAll(Arrays.asList(OpCode.ADDRESS, OpCode.ORIGIN, OpCode.CALLER, OpCode.CALLVALUE,
+                OpCode.CALLDATALOAD, OpCode.CALLDATASIZE, OpCode.CODESIZE, OpCode.GASPRICE, OpCode.RETURNDATASIZE,
+                OpCode.COINBASE, OpCode.TIMESTAMP, OpCode.NUMBER, OpCode.DIFFICULTY, OpCode.GASLIMIT, OpCode.POP,
+                OpCode.PC, OpCode.MSIZE, OpCode.JUMPDEST));
+    }
+
+    private final int start;
+    private final int end;
+    private final OpCode[] ops;
+    private final DataWord[] args;
+    private final long gas;
+    private final int minStack;
+    private final int maxGrowth;
+    private final boolean eip145;
+
+    private BasicBlock(int start, int end, OpCode[] ops, DataWord[] args, long gas, int minStack, int maxGrowth,
+            boolean eip145) {
+        this.start = start;
+        this.end = end;
+        this.ops = ops;
+        this.args = args;
+        this.gas = gas;
+        this.minStack = minStack;
+        this.maxGrowth = maxGrowth;
+        this.eip145 = eip145;
+    }
+
+    /**
+     * Returns whether the instruction can be part of a block.
+     *
+     * @param op
+     * @return
+     */
+    public static boolean isSimple(OpCode op) {
+        return op != null && SIMPLE.contains(op);
+    }
+
+    /**
+     * Decodes the block starting at the given position.
+     *
+     * @param code
+     *            the program code
+     * @param start
+     *            the position of the first instruction, which must be simple
+     * @return
+     */
+    static BasicBlock decode(byte[] code, int start) {
+        int n = 0;
+        for (int pc = start; pc < code.length; n++) {
+            OpCode op = OpCode.code(code[pc]);
+            if (!isSimple(op) || (pc != start && op == OpCode.JUMPDEST)) {
+                break;
+            }
+            pc += 1 + pushSize(op);
+        }
+
+        OpCode[] ops = new OpCode[n];
+        DataWord[] args = new DataWord[n];
+        long gas = 0;
+        int depth = 0;
+        int minStack = 0;
+        int maxGrowth = 0;
+        boolean eip145 = false;
+
+        int pc = start;
+        for (int i = 0; i < n; i++) {
+            OpCode op = OpCode.code(code[pc]);
+            ops[i] = op;
+
+            int size = pushSize(op);
+            if (size > 0) {
+                // truncated immediates are padded with zeros, as Program.sweep() does
+                args[i] = DataWord.of(Arrays.copyOfRange(code, pc + 1, pc + 1 + size));
+            } else if (op == OpCode.PC) {
+                args[i] = DataWord.of(pc);
+            }
+
+            gas += op.getTier().asInt();
+            minStack = Math.max(minStack, op.require() - depth);
+            depth += op.ret() - op.require();
+            maxGrowth = Math.max(maxGrowth, depth);
+            eip145 |= op == OpCode.SHL || op == OpCode.SHR || op == OpCode.SAR;
+
+            pc += 1 + size;
+        }
+
+        return new BasicBlock(start, pc, ops, args, gas, minStack, maxGrowth, eip145);
+    }
+
+    /**
+     * Returns the position of the first instruction.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the position following the last instruction.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the decoded instructions.
+     */
+    public OpCode[] getOps() {
+        return ops;
+    }
+
+    /**
+     * Returns the immediate of every PUSH, and the position of every PC, by
+     * instruction index.
+     */
+    public DataWord[] getArgs() {
+        return args;
+    }
+
+    /**
+     * Returns the total gas cost of the instructions.
+     */
+    public long getGas() {
+        return gas;
+    }
+
+    /**
+     * Returns the stack size the block requires on entry.
+     */
+    public int getMinStack() {
+        return minStack;
+    }
+
+    /**
+     * Returns the max growth of the stack while running the block.
+     */
+    public int getMaxGrowth() {
+        return maxGrowth;
+    }
+
+    /**
+     * Returns whether the block uses the EIP-145 shift instructions.
+     */
+    public boolean isEip145() {
+        return eip145;
+    }
+
+    /**
+     * Returns the approximate memory taken by this instance, in bytes.
+     */
+    public int size() {
+        int size = 64 + ops.length * 8;
+        for (DataWord arg : args) {
+            size += (arg == null) ? 0 : 48;
+        }
+        return size;
+    }
+
+    private static int pushSize(OpCode op) {
+        int v = op.val() & 0xff;
+        return (v >= OpCode.PUSH1.val() && v <= OpCode.PUSH32.val()) ? v - OpCode.PUSH1.val() + 1 : 0;
+    }
+}
@@ -17,22 +17,23 @@
  */
 package org.ethereum.vm.program;
 
-import static java.lang.Math.ceil;
-import static java.lang.Math.min;
-
 import static org.ethereum.vm.util.ByteArrayUtil.EMPTY_BYTE_ARRAY;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.ethereum.vm.DataWord;
 
+/**
+ * Program memory, backed by a single byte array which doubles in capacity as
+ * the memory grows.
+ */
 public class Memory {
 
-    private static final int CHUNK_SIZE = 1024;
+    private static final int MIN_CAPACITY = 1024;
     private static final int WORD_SIZE = 32;
 
-    private List<byte[]> chunks = new LinkedList<>();
+    private byte[] buffer = EMPTY_BYTE_ARRAY;
     private int softSize;
 
     public byte[] read(int address, int size) {
@@ -41,27 +42,25 @@ public class Memory {
         }
 
         extend(address, size);
-        byte[] data = new byte[size];
-
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
-
-        int toGrab = data.length;
-        int start = 0;
-
-        while (toGrab > 0) {
-            int copied = grabMax(chunkIndex, chunkOffset, toGrab, data, start);
-
-            // read next chunk from the start
-            ++chunkIndex;
-            chunkOffset = 0;
+        return Arrays.copyOfRange(buffer, address, address + size);
+    }
 
-            // mark remind
-            toGrab -= copied;
-            start += copied;
+    /**
+     * Returns a view of a piece of memory, extending the memory if required. The
+     * view is only valid until the memory is modified or extended again, and must
+     * not be written to.
+     *
+     * @param address
+     * @param size
+     * @return
+     */
+    public ByteBuffer slice(int address, int size) {
+        if (size <= 0) {
+            return ByteBuffer.wrap(EMPTY_BYTE_ARRAY);
         }
 
-        return data;
+        extend(address, size);
+        return ByteBuffer.wrap(buffer, address, size).slice();
     }
 
     public void write(int address, byte[] data, int dataSize, boolean limited) {
@@ -77,9 +76,6 @@ public class Memory {
             extend(address, dataSize);
         }
 
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
-
         int toCapture;
         if (limited) {
             toCapture = (address + dataSize > softSize) ? softSize - address : dataSize;
@@ -87,20 +83,16 @@ public class Memory {
             toCapture = dataSize;
         }
 
-        int start = 0;
-        while (toCapture > 0) {
-            int captured = captureMax(chunkIndex, chunkOffset, toCapture, data, start);
-
-            // capture next chunk
-            ++chunkIndex;
-            chunkOffset = 0;
-
-            // mark remind
-            toCapture -= captured;
-            start += captured;
+        if (toCapture > 0) {
+            System.arraycopy(data, 0, buffer, address, toCapture);
         }
     }
 
+    public void writeWord(int address, DataWord word) {
+        extend(address, WORD_SIZE);
+        word.copyTo(buffer, address);
+    }
+
     public void extendAndWrite(int address, int allocSize, byte[] data) {
         extend(address, allocSize);
         write(address, data, allocSize, false);
@@ -113,31 +105,25 @@ public class Memory {
 
         final int newSize = address + size;
 
-        int toAllocate = newSize - internalSize();
-        if (toAllocate > 0) {
-            addChunks((int) ceil((double) toAllocate / CHUNK_SIZE));
+        if (newSize > buffer.length) {
+            grow(newSize);
         }
 
-        toAllocate = newSize - softSize;
+        int toAllocate = newSize - softSize;
         if (toAllocate > 0) {
-            toAllocate = (int) ceil((double) toAllocate / WORD_SIZE) * WORD_SIZE;
+            toAllocate = (toAllocate + WORD_SIZE - 1) / WORD_SIZE * WORD_SIZE;
             softSize += toAllocate;
         }
     }
 
     public DataWord readWord(int address) {
-        return DataWord.of(read(address, 32));
+        extend(address, WORD_SIZE);
+        return DataWord.of(buffer, address);
     }
 
     // just access expecting all data valid
     public byte readByte(int address) {
-
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
-
-        byte[] chunk = chunks.get(chunkIndex);
-
-        return chunk[chunkOffset];
+        return buffer[address];
     }
 
     public int size() {
@@ -145,35 +131,13 @@ public class Memory {
     }
 
     public int internalSize() {
-        return chunks.size() * CHUNK_SIZE;
-    }
-
-    public List<byte[]> getChunks() {
-        return new LinkedList<>(chunks);
+        return buffer.length;
     }
 
-    private int captureMax(int chunkIndex, int chunkOffset, int size, byte[] src, int srcPos) {
-
-        byte[] chunk = chunks.get(chunkIndex);
-        int toCapture = min(size, chunk.length - chunkOffset);
-
-        System.arraycopy(src, srcPos, chunk, chunkOffset, toCapture);
-        return toCapture;
-    }
-
-    private int grabMax(int chunkIndex, int chunkOffset, int size, byte[] dest, int destPos) {
-
-        byte[] chunk = chunks.get(chunkIndex);
-        int toGrab = min(size, chunk.length - chunkOffset);
-
-        System.arraycopy(chunk, chunkOffset, dest, destPos, toGrab);
-
-        return toGrab;
-    }
-
-    private void addChunks(int num) {
-        for (int i = 0; i < num; ++i) {
-            chunks.add(new byte[CHUNK_SIZE]);
-        }
+    private void grow(int minCapacity) {
+        // reserve up to the next word, which extend() rounds the size up to
+        long capacity = Math.max((long) buffer.length * 2, MIN_CAPACITY);
+        capacity = Math.max(capacity, ((long) minCapacity + WORD_SIZE - 1) / WORD_SIZE * WORD_SIZE);
+        buffer = Arrays.copyOf(buffer, (int) Math.min(capacity, Integer.MAX_VALUE - 8));
     }
 }
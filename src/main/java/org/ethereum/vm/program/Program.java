@@ -26,6 +26,7 @@ import static org.ethereum.vm.util.ByteArrayUtil.isNotEmpty;
 import static org.ethereum.vm.util.ByteArrayUtil.nullToEmpty;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -65,7 +66,7 @@ public class Program {
     private static final int MAX_DEPTH = 1024;
 
     // Max size for stack checks
-    private static final int MAX_STACKSIZE = 1024;
+    private static final int MAX_STACKSIZE = Stack.MAX_SIZE;
 
     private ProgramInvokeFactory programInvokeFactory = new ProgramInvokeFactoryImpl();
     private ProgramInvoke invoke;
@@ -103,7 +104,7 @@ public class Program {
 
     public ProgramPreprocess getProgramPreprocess() {
         if (preprocessed == null) {
-            preprocessed = ProgramPreprocess.compile(ops);
+            preprocessed = ProgramPreprocessCache.getInstance().get(ops, spec.preDecode());
         }
         return preprocessed;
     }
@@ -203,6 +204,16 @@ public class Program {
         return stack.pop();
     }
 
+    /**
+     * Duplicates the n-th stack item, see {@link Stack#dup(int)}.
+     *
+     * @param n
+     */
+    public void stackDup(int n) {
+        verifyStackOverflow(0, 1); // Sanity Check
+        stack.dup(n);
+    }
+
     /**
      * Verifies that the stack is at least <code>stackSize</code>
      *
@@ -228,7 +239,7 @@ public class Program {
     }
 
     public void memorySave(DataWord addrB, DataWord value) {
-        memory.write(addrB.intValue(), value.getData(), value.getData().length, false);
+        memory.writeWord(addrB.intValue(), value);
     }
 
     public void memorySaveLimited(int addr, byte[] data, int dataSize) {
@@ -267,6 +278,20 @@ public class Program {
         return memory.read(offset, size);
     }
 
+    /**
+     * Returns a read view of a piece of memory, without copying it. The view is
+     * only valid until the memory is modified.
+     *
+     * @param offset
+     *            the memory address offset
+     * @param size
+     *            the number of bytes
+     * @return
+     */
+    public ByteBuffer memorySlice(int offset, int size) {
+        return memory.slice(offset, size);
+    }
+
     /**
      * Allocates extra memory in the program for a specified size, calculated from a
      * given offset
@@ -17,8 +17,7 @@
  */
 package org.ethereum.vm.program;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.BitSet;
 
 import org.ethereum.vm.OpCode;
 
@@ -28,17 +27,63 @@ import org.ethereum.vm.OpCode;
  * Features included:
  * <ul>
  * <li>Collect the list of JUMP destinations</li>
+ * <li>Decode the basic blocks, see {@link BasicBlock}, if pre-decoding is
+ * enabled</li>
  * </ul>
  */
 public class ProgramPreprocess {
-    private Set<Integer> jumpdest = new HashSet<>();
+    private final BitSet jumpdest;
+    private final BasicBlock[] blocks;
+
+    private ProgramPreprocess(int length, boolean preDecode) {
+        this.jumpdest = new BitSet(length);
+        this.blocks = preDecode ? new BasicBlock[length] : null;
+    }
 
     public boolean hasJumpDest(int pc) {
-        return jumpdest.contains(pc);
+        return pc >= 0 && jumpdest.get(pc);
+    }
+
+    /**
+     * Returns the basic block starting at the given position, if any.
+     *
+     * @param pc
+     * @return the block, or null if the instruction at the position doesn't start
+     *         one
+     */
+    public BasicBlock getBlock(int pc) {
+        return blocks != null && pc >= 0 && pc < blocks.length ? blocks[pc] : null;
+    }
+
+    /**
+     * Returns the approximate memory taken by this instance, in bytes.
+     */
+    public int size() {
+        int size = jumpdest.size() / Byte.SIZE;
+        if (blocks != null) {
+            size += blocks.length * 4;
+            for (BasicBlock block : blocks) {
+                size += (block == null) ? 0 : block.size();
+            }
+        }
+        return size;
     }
 
     public static ProgramPreprocess compile(byte[] ops) {
-        ProgramPreprocess ret = new ProgramPreprocess();
+        return compile(ops, false);
+    }
+
+    /**
+     * Pre-compiles the program code.
+     *
+     * @param ops
+     *            the bytecode
+     * @param preDecode
+     *            whether to decode the basic blocks
+     * @return
+     */
+    public static ProgramPreprocess compile(byte[] ops, boolean preDecode) {
+        ProgramPreprocess ret = new ProgramPreprocess(ops.length, preDecode);
 
         for (int i = 0; i < ops.length; ++i) {
             OpCode op = OpCode.code(ops[i]);
@@ -47,7 +92,7 @@ public class ProgramPreprocess {
             }
 
             if (op.equals(OpCode.JUMPDEST)) {
-                ret.jumpdest.add(i);
+                ret.jumpdest.set(i);
             }
 
             if (op.asInt() >= OpCode.PUSH1.asInt() && op.asInt() <= OpCode.PUSH32.asInt()) {
@@ -55,6 +100,16 @@ public class ProgramPreprocess {
             }
         }
 
+        for (int i = 0; preDecode && i < ops.length;) {
+            if (BasicBlock.isSimple(OpCode.code(ops[i]))) {
+                BasicBlock block = BasicBlock.decode(ops, i);
+                ret.blocks[i] = block;
+                i = block.getEnd();
+            } else {
+                ++i;
+            }
+        }
+
         return ret;
     }
 }
@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) [2018] [ The Semux Developers ]
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.vm.program;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An LRU cache of preprocessed contract code, so that calls into popular
+ * contracts don't analyze the same bytecode again and again.
+ * <p>
+ * Entries are keyed by the content of the code, so that code read again from
+ * the database, or deployed again by CREATE, hits the same entry. A copy of the
+ * code is kept, so that the analysis can't go stale if the caller's array is
+ * modified. The code analyzed with and without pre-decoding is cached
+ * separately. The cache is bounded by the total size of the cached code and
+ * analysis, and is safe for concurrent use.
+ */
+public final class ProgramPreprocessCache {
+
+    private static final long MAX_CACHE_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * Rough per-entry overhead of the map, the key and the analysis.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private static final ProgramPreprocessCache instance = new ProgramPreprocessCache(MAX_CACHE_SIZE);
+
+    private final long maxSize;
+    private final Map<CodeKey, ProgramPreprocess> cache = new LinkedHashMap<>(256, 0.75f, true);
+    private long size = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize
+     *            the max size of the cached code and analysis, in bytes
+     */
+    ProgramPreprocessCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cache shared by all programs.
+     *
+     * @return
+     */
+    public static ProgramPreprocessCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the preprocessed code, without pre-decoding, compiling it on a
+     * cache miss.
+     *
+     * @param ops
+     *            the bytecode
+     * @return
+     */
+    public ProgramPreprocess get(byte[] ops) {
+        return get(ops, false);
+    }
+
+    /**
+     * Returns the preprocessed code, compiling it on a cache miss.
+     *
+     * @param ops
+     *            the bytecode
+     * @param preDecode
+     *            whether the basic blocks are decoded
+     * @return
+     */
+    public ProgramPreprocess get(byte[] ops, boolean preDecode) {
+        if (ops.length == 0) {
+            return ProgramPreprocess.compile(ops, preDecode);
+        }
+
+        CodeKey key = new CodeKey(ops, preDecode);
+        ProgramPreprocess preprocess;
+        synchronized (cache) {
+            preprocess = cache.get(key);
+        }
+        if (preprocess != null) {
+            hits.incrementAndGet();
+            return preprocess;
+        }
+
+        misses.incrementAndGet();
+        preprocess = ProgramPreprocess.compile(ops, preDecode);
+        key = new CodeKey(ops.clone(), preDecode);
+        synchronized (cache) {
+            if (cache.put(key, preprocess) == null) {
+                size += weigh(ops, preprocess);
+                evict();
+            }
+        }
+        return preprocess;
+    }
+
+    /**
+     * Returns the number of lookups served from the cache.
+     *
+     * @return
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups which required compiling the code.
+     *
+     * @return
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Drops all the cached entries.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            size = 0;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<CodeKey, ProgramPreprocess>> itr = cache.entrySet().iterator();
+        while (size > maxSize && itr.hasNext()) {
+            Map.Entry<CodeKey, ProgramPreprocess> e = itr.next();
+            size -= weigh(e.getKey().ops, e.getValue());
+            itr.remove();
+        }
+    }
+
+    private static long weigh(byte[] ops, ProgramPreprocess preprocess) {
+        return ENTRY_OVERHEAD + ops.length + preprocess.size();
+    }
+
+    /**
+     * Compares code arrays by content, hashing them once.
+     */
+    private static final class CodeKey {
+        private final byte[] ops;
+        private final boolean preDecode;
+        private final int hash;
+
+        CodeKey(byte[] ops, boolean preDecode) {
+            this.ops = ops;
+            this.preDecode = preDecode;
+            this.hash = 31 * Arrays.hashCode(ops) + Boolean.hashCode(preDecode);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CodeKey)) {
+                return false;
+            }
+            CodeKey other = (CodeKey) o;
+            return other.hash == hash && other.preDecode == preDecode && Arrays.equals(other.ops, ops);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -17,47 +17,92 @@
  */
 package org.ethereum.vm.program;
 
+import java.util.Arrays;
+import java.util.EmptyStackException;
+
 import org.ethereum.vm.DataWord;
 
 /**
  * Program runtime stack.
+ * <p>
+ * The stack is backed by a fixed-size array and is not thread-safe; it's only
+ * ever accessed by the thread executing the program. The size limit is checked
+ * by {@link Program} before pushing.
  */
 public class Stack {
 
-    private java.util.Stack<DataWord> stack = new java.util.Stack<>();
+    public static final int MAX_SIZE = 1024;
+
+    private final DataWord[] data = new DataWord[MAX_SIZE];
+    private int size = 0;
 
-    public synchronized DataWord pop() {
-        return stack.pop();
+    public DataWord pop() {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        DataWord item = data[--size];
+        data[size] = null;
+        return item;
     }
 
     public void push(DataWord item) {
-        stack.push(item);
+        data[size++] = item;
     }
 
     public void swap(int from, int to) {
         if (isAccessible(from) && isAccessible(to) && (from != to)) {
-            DataWord tmp = stack.get(from);
-            stack.set(from, stack.set(to, tmp));
+            DataWord tmp = data[from];
+            data[from] = data[to];
+            data[to] = tmp;
         }
     }
 
+    /**
+     * Pushes a copy of the n-th item from the top, where 1 is the top item.
+     * DataWords are immutable, so the same instance is shared.
+     *
+     * @param n
+     */
+    public void dup(int n) {
+        data[size] = data[size - n];
+        size++;
+    }
+
+    /**
+     * Swaps the top item with the n-th item below it.
+     *
+     * @param n
+     */
+    public void swapTop(int n) {
+        int top = size - 1;
+        DataWord tmp = data[top];
+        data[top] = data[top - n];
+        data[top - n] = tmp;
+    }
+
     public DataWord peek() {
-        return stack.peek();
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        return data[size - 1];
     }
 
     public DataWord get(int index) {
-        return stack.get(index);
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return data[index];
     }
 
     public int size() {
-        return stack.size();
+        return size;
     }
 
     private boolean isAccessible(int from) {
-        return from >= 0 && from < stack.size();
+        return from >= 0 && from < size;
     }
 
     public DataWord[] toArray() {
-        return stack.toArray(new DataWord[0]);
+        return Arrays.copyOf(data, size);
     }
 }
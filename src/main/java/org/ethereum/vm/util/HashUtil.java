@@ -41,6 +41,19 @@ public class HashUtil {
         return digest.digest();
     }
 
+    /**
+     * Computes the Keccak-256 hash digest of the remaining bytes of a buffer.
+     *
+     * @param input
+     *            the input data
+     * @return a 32 bytes digest
+     */
+    public static byte[] keccak256(ByteBuffer input) {
+        Keccak.Digest256 digest = new Keccak.Digest256();
+        digest.update(input);
+        return digest.digest();
+    }
+
     /**
      * Calculates RIGTMOST160(KECCAK256(input)). This is used in address
      * calculations. *
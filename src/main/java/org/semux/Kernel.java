@@ -15,6 +15,7 @@ import org.semux.config.Config;
 import org.semux.consensus.SemuxBft;
 import org.semux.consensus.SemuxSync;
 import org.semux.core.*;
+import org.semux.core.snapshot.SnapshotManager;
 import org.semux.crypto.Key;
 import org.semux.db.DatabaseFactory;
 import org.semux.db.DatabaseName;
@@ -69,6 +70,7 @@ public class Kernel {
     protected ChannelManager channelMgr;
     protected PendingManager pendingMgr;
     protected NodeManager nodeMgr;
+    protected SnapshotManager snapshotMgr;
 
     protected PeerServer p2p;
 
@@ -145,9 +147,11 @@ public class Kernel {
         channelMgr = new ChannelManager(this);
         pendingMgr = new PendingManager(this);
         nodeMgr = new NodeManager(this);
+        snapshotMgr = new SnapshotManager(config, chain);
 
         pendingMgr.start();
         nodeMgr.start();
+        snapshotMgr.start();
 
         // ====================================
         // start p2p module
@@ -290,9 +294,10 @@ public class Kernel {
         // stop p2p
         p2p.stop();
 
-        // stop pending manager and node manager
+        // stop pending manager, node manager and snapshot manager
         pendingMgr.stop();
         nodeMgr.stop();
+        snapshotMgr.stop();
 
         // close client
         client.close();
@@ -383,6 +388,15 @@ public class Kernel {
         return nodeMgr;
     }
 
+    /**
+     * Returns the snapshot manager.
+     *
+     * @return
+     */
+    public SnapshotManager getSnapshotManager() {
+        return snapshotMgr;
+    }
+
     /**
      * Returns the config.
      *
@@ -28,6 +28,7 @@ import org.semux.core.BlockchainImpl;
 import org.semux.core.Genesis;
 import org.semux.core.Wallet;
 import org.semux.core.exception.WalletLockedException;
+import org.semux.core.snapshot.Snapshot;
 import org.semux.crypto.Hex;
 import org.semux.crypto.Key;
 import org.semux.crypto.bip39.MnemonicGenerator;
@@ -125,6 +126,20 @@ public class SemuxCli extends Launcher {
                 .build();
         addOption(reindexOption);
 
+        Option exportSnapshotOption = Option.builder()
+                .longOpt(SemuxOption.EXPORT_SNAPSHOT.toString())
+                .desc(CliMessages.get("ExportSnapshotDescription"))
+                .hasArg(true).optionalArg(false).argName("dir").type(String.class)
+                .build();
+        addOption(exportSnapshotOption);
+
+        Option importSnapshotOption = Option.builder()
+                .longOpt(SemuxOption.IMPORT_SNAPSHOT.toString())
+                .desc(CliMessages.get("ImportSnapshotDescription"))
+                .hasArg(true).optionalArg(false).argName("dir").type(String.class)
+                .build();
+        addOption(importSnapshotOption);
+
     }
 
     public void start(String[] args) throws ParseException, IOException {
@@ -158,6 +173,12 @@ public class SemuxCli extends Launcher {
         } else if (cmd.hasOption(SemuxOption.REINDEX.toString())) {
             reindex(cmd.getOptionValue(SemuxOption.REINDEX.toString()));
 
+        } else if (cmd.hasOption(SemuxOption.EXPORT_SNAPSHOT.toString())) {
+            exportSnapshot(cmd.getOptionValue(SemuxOption.EXPORT_SNAPSHOT.toString()).trim());
+
+        } else if (cmd.hasOption(SemuxOption.IMPORT_SNAPSHOT.toString())) {
+            importSnapshot(cmd.getOptionValue(SemuxOption.IMPORT_SNAPSHOT.toString()).trim());
+
         } else {
             start();
         }
@@ -179,6 +200,29 @@ public class SemuxCli extends Launcher {
         BlockchainImpl.upgrade(config, dbFactory, to == null ? Long.MAX_VALUE : Long.parseLong(to));
     }
 
+    protected void exportSnapshot(String dir) throws IOException {
+        Config config = getConfig();
+        DatabaseFactory dbFactory = new LeveldbDatabase.LeveldbFactory(config.chainDir());
+        try {
+            Snapshot snapshot = new BlockchainImpl(config, dbFactory).exportSnapshot(new File(dir));
+            System.out.println(snapshot.getManifest());
+        } finally {
+            dbFactory.close();
+        }
+    }
+
+    protected void importSnapshot(String dir) throws IOException {
+        Config config = getConfig();
+        Snapshot snapshot = Snapshot.open(new File(dir));
+        DatabaseFactory dbFactory = new LeveldbDatabase.LeveldbFactory(config.chainDir());
+        try {
+            new BlockchainImpl(config, dbFactory).importSnapshot(snapshot);
+            System.out.println(snapshot.getManifest());
+        } finally {
+            dbFactory.close();
+        }
+    }
+
     private Kernel kernel;
     protected void start() throws IOException {
         // create/unlock wallet
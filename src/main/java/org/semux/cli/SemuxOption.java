@@ -35,6 +35,10 @@ public enum SemuxOption {
 
     REINDEX("reindex"),
 
+    EXPORT_SNAPSHOT("exportsnapshot"),
+
+    IMPORT_SNAPSHOT("importsnapshot"),
+
     LOG( "log" );
 
     private final String name;
@@ -52,15 +52,18 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     periods[MAINNET.id()][UNIFORM_DISTRIBUTION.id()] = new long[] {200_001L, 400_000L};
     periods[MAINNET.id()][VIRTUAL_MACHINE.id()] = new long[] {1_500_001L, 1_700_000L};
     periods[MAINNET.id()][VOTING_PRECOMPILED_UPGRADE.id()] = new long[] {1_600_001L, 1_800_000L};
+    periods[MAINNET.id()][STATE_ROOT.id()] = new long[] {3_000_001L, 3_200_000L};
 
     periods[TESTNET.id()][UNIFORM_DISTRIBUTION.id()] = new long[] {1L, 200_000L};
     periods[TESTNET.id()][VIRTUAL_MACHINE.id()] = new long[] {1L, 200_000L};
     periods[TESTNET.id()][VOTING_PRECOMPILED_UPGRADE.id()] = new long[] {150_001L, 350_000L};
+    periods[TESTNET.id()][STATE_ROOT.id()] = new long[] {700_001L, 900_000L};
 
     // as soon as possible
     periods[DEVNET.id()][UNIFORM_DISTRIBUTION.id()] = new long[] {1L, 200_000L};
     periods[DEVNET.id()][VIRTUAL_MACHINE.id()] = new long[] {1L, 200_000L};
     periods[DEVNET.id()][VOTING_PRECOMPILED_UPGRADE.id()] = new long[] {1, 200_000L};
+    periods[DEVNET.id()][STATE_ROOT.id()] = new long[] {1, 200_000L};
   }
 
   // =========================
@@ -101,7 +104,10 @@ public abstract class AbstractConfig implements Config, ChainSpec {
               MessageCode.BFT_NEW_HEIGHT,
               MessageCode.BFT_NEW_VIEW,
               MessageCode.BFT_PROPOSAL,
-              MessageCode.BFT_VOTE));
+              MessageCode.BFT_VOTE,
+              MessageCode.BFT_COMPACT_PROPOSAL,
+              MessageCode.BFT_GET_PROPOSAL_TRANSACTIONS,
+              MessageCode.BFT_PROPOSAL_TRANSACTIONS));
   protected List<String> netDnsSeedsMainNet =
       Collections.unmodifiableList(Arrays.asList("mainnet.semux.org", "mainnet.semux.net"));
   protected List<String> netDnsSeedsTestNet = Collections.singletonList("testnet.semux.org");
@@ -114,6 +120,9 @@ public abstract class AbstractConfig implements Config, ChainSpec {
   protected int syncMaxPendingBlocks = 2_000;
   protected boolean syncDisconnectOnInvalidBlock = false;
   protected boolean syncFastSync = false;
+  protected boolean syncSkeletonSync = false;
+  protected boolean syncSnapshot = false;
+  protected long syncSnapshotInterval = 0;
   // =========================
   // API
   // =========================
@@ -142,17 +151,27 @@ public abstract class AbstractConfig implements Config, ChainSpec {
   protected Amount poolMinTxGasPrice = Amount.of(10); // 10 NanoSEM = 10 Gwei
   protected long poolMaxTxTimeDrift = TimeUnit.HOURS.toMillis(2);
   // =========================
+  // Transaction execution
+  // =========================
+  protected boolean execParallelTransfers = false;
+  // =========================
   // UI
   // =========================
   protected Locale uiLocale = Locale.getDefault();
   protected String uiUnit = "SEM";
   protected int uiFractionDigits = 9;
   // =========================
+  // Database
+  // =========================
+  protected boolean dbCommitJournal = false;
+  protected long dbAccountCacheSize = 32L * 1024 * 1024;
+  // =========================
   // Forks
   // =========================
   protected boolean forkUniformDistributionEnabled = false;
   protected boolean forkVirtualMachineEnabled = false;
   protected boolean forkVotingPrecompiledUpgradeEnabled = false;
+  protected boolean forkStateRootEnabled = false;
 
   protected AbstractConfig(String rootDir, Network network, short networkVersion) {
     this.rootDir = new File(rootDir);
@@ -319,6 +338,12 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     return new File(rootDir, Constants.LOG_DIR);
   }
 
+  @Override
+  public File snapshotDir() {
+    return new File(
+        rootDir, Constants.SNAPSHOT_DIR + File.separator + network.name().toLowerCase(Locale.ROOT));
+  }
+
   @Override
   public Network network() {
     return network;
@@ -342,7 +367,9 @@ public abstract class AbstractConfig implements Config, ChainSpec {
 
   @Override
   public CapabilityTreeSet getClientCapabilities() {
-    return CapabilityTreeSet.of(Capability.SEMUX, Capability.FAST_SYNC);
+    return CapabilityTreeSet.of(
+        Capability.SEMUX, Capability.FAST_SYNC, Capability.SKELETON_SYNC, Capability.SNAPSHOT,
+        Capability.TX_INVENTORY, Capability.COMPACT_PROPOSAL);
   }
 
   @Override
@@ -455,6 +482,21 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     return syncFastSync;
   }
 
+  @Override
+  public boolean syncSkeletonSync() {
+    return syncSkeletonSync;
+  }
+
+  @Override
+  public boolean syncSnapshot() {
+    return syncSnapshot;
+  }
+
+  @Override
+  public long syncSnapshotInterval() {
+    return syncSnapshotInterval;
+  }
+
   @Override
   public boolean apiEnabled() {
     return apiEnabled;
@@ -549,6 +591,11 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     return poolMaxTxTimeDrift;
   }
 
+  @Override
+  public boolean execParallelTransfers() {
+    return execParallelTransfers;
+  }
+
   @Override
   public Locale uiLocale() {
     return uiLocale;
@@ -564,6 +611,16 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     return uiFractionDigits;
   }
 
+  @Override
+  public boolean dbCommitJournal() {
+    return dbCommitJournal;
+  }
+
+  @Override
+  public long dbAccountCacheSize() {
+    return dbAccountCacheSize;
+  }
+
   @Override
   public boolean forkUniformDistributionEnabled() {
     return forkUniformDistributionEnabled;
@@ -579,6 +636,11 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     return forkVotingPrecompiledUpgradeEnabled;
   }
 
+  @Override
+  public boolean forkStateRootEnabled() {
+    return forkStateRootEnabled;
+  }
+
   protected void init() {
     File f = new File(configDir(), Constants.CONFIG_FILE);
     if (!f.exists()) {
@@ -665,6 +727,15 @@ public abstract class AbstractConfig implements Config, ChainSpec {
           case "sync.fastSync":
             syncFastSync = Boolean.parseBoolean(props.getProperty(name).trim());
             break;
+          case "sync.skeletonSync":
+            syncSkeletonSync = Boolean.parseBoolean(props.getProperty(name).trim());
+            break;
+          case "sync.snapshot":
+            syncSnapshot = Boolean.parseBoolean(props.getProperty(name).trim());
+            break;
+          case "sync.snapshotInterval":
+            syncSnapshotInterval = Long.parseLong(props.getProperty(name).trim());
+            break;
 
           case "api.enabled":
             apiEnabled = Boolean.parseBoolean(props.getProperty(name).trim());
@@ -732,6 +803,21 @@ public abstract class AbstractConfig implements Config, ChainSpec {
               poolMaxTxTimeDrift = Integer.parseInt(props.getProperty(name).trim());
               break;
             }
+          case "exec.parallelTransfers":
+            {
+              execParallelTransfers = Boolean.parseBoolean(props.getProperty(name).trim());
+              break;
+            }
+          case "db.commitJournal":
+            {
+              dbCommitJournal = Boolean.parseBoolean(props.getProperty(name).trim());
+              break;
+            }
+          case "db.accountCacheSize":
+            {
+              dbAccountCacheSize = Long.parseLong(props.getProperty(name).trim());
+              break;
+            }
           case "log":
             {
               Level level = Level.parse(props.getProperty(name).trim());
@@ -78,6 +78,13 @@ public interface Config {
      */
     File logDir();
 
+    /**
+     * Returns the directory of the state snapshots.
+     *
+     * @return
+     */
+    File snapshotDir();
+
     /**
      * Returns the network.
      *
@@ -270,6 +277,33 @@ public interface Config {
      */
     boolean syncFastSync();
 
+    /**
+     * Returns whether to use the skeleton sync with the peers supporting it. The
+     * headers are downloaded first, in large ranges, and then the bodies in
+     * smaller ranges from multiple peers.
+     *
+     * @return
+     */
+    boolean syncSkeletonSync();
+
+    /**
+     * Returns whether a new node bootstraps from a state snapshot downloaded from
+     * the peers, and then syncs the blocks after it. Only a snapshot leading to a
+     * checkpoint, and committed to by a state root, is accepted.
+     *
+     * @return
+     */
+    boolean syncSnapshot();
+
+    /**
+     * Returns the interval, in blocks, at which a state snapshot is exported for
+     * the peers to bootstrap from, or 0 if disabled. Snapshots are only taken at
+     * validator set updates.
+     *
+     * @return
+     */
+    long syncSnapshotInterval();
+
     // =========================
     // API
     // =========================
@@ -410,6 +444,19 @@ public interface Config {
      */
     long poolMaxTxTimeDrift();
 
+    // =========================
+    // Transaction execution
+    // =========================
+
+    /**
+     * Returns whether to execute the runs of consecutive transfers of a block
+     * speculatively in parallel, when syncing, proposing or validating blocks.
+     * The results are the same as those of sequential execution.
+     *
+     * @return
+     */
+    boolean execParallelTransfers();
+
     // =========================
     // UI
     // =========================
@@ -435,6 +482,26 @@ public interface Config {
      */
     int uiFractionDigits();
 
+    // =========================
+    // Database
+    // =========================
+
+    /**
+     * Returns whether to journal block commits, so that a crash in the middle of
+     * writing the databases can be recovered on restart.
+     *
+     * @return
+     */
+    boolean dbCommitJournal();
+
+    /**
+     * Returns the max size of the account state cache, in bytes. Zero disables
+     * the cache.
+     *
+     * @return
+     */
+    long dbAccountCacheSize();
+
     // =========================
     // Forks
     // =========================
@@ -460,6 +527,14 @@ public interface Config {
      */
     boolean forkVotingPrecompiledUpgradeEnabled();
 
+    /**
+     * Returns whether STATE_ROOT fork is enabled. The state trie is only built and
+     * maintained when it is.
+     *
+     * @return
+     */
+    boolean forkStateRootEnabled();
+
     // =========================
     // Checkpoints
     // =========================
@@ -63,6 +63,11 @@ public class Constants {
      */
     public static final String LOG_DIR = "log";
 
+    /**
+     * Name of the snapshot directory.
+     */
+    public static final String SNAPSHOT_DIR = "snapshot";
+
     /**
      * The default IP port for p2p protocol
      */
@@ -23,6 +23,7 @@ public class DevnetConfig extends AbstractConfig {
         this.forkUniformDistributionEnabled = true;
         this.forkVirtualMachineEnabled = true;
         this.forkVotingPrecompiledUpgradeEnabled = true;
+        this.forkStateRootEnabled = true;
 
         // set fast blocks
         bftNewHeightTimeout = 1000L;
@@ -48,6 +49,7 @@ public class DevnetConfig extends AbstractConfig {
         forks.put(Fork.UNIFORM_DISTRIBUTION, 1l);
         forks.put(Fork.VIRTUAL_MACHINE, 1l);
         forks.put(Fork.VOTING_PRECOMPILED_UPGRADE, 1l);
+        forks.put(Fork.STATE_ROOT, 1l);
 
         return forks;
     }
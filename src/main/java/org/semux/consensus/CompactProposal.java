@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.semux.core.BlockHeader;
+import org.semux.core.Transaction;
+import org.semux.crypto.Key.Signature;
+import org.semux.util.Bytes;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+/**
+ * A block proposal referring to its transactions by their short ID, the first 8
+ * bytes of their hash. The receivers rebuild the proposal from the transactions
+ * they already have, and fetch the missing ones from the peer.
+ * <p>
+ * The signature is the one of the full proposal, verified once it's rebuilt: a
+ * transaction picked by mistake, sharing the short ID of the one proposed, makes
+ * the proposal invalid rather than changing the block.
+ */
+public class CompactProposal {
+
+    private final Proof proof;
+    private final BlockHeader blockHeader;
+    private final long[] shortIds;
+    private final Signature signature;
+
+    // the transactions found so far, null if missing
+    private final Transaction[] transactions;
+
+    /**
+     * Creates the compact encoding of a signed proposal.
+     *
+     * @param proposal
+     */
+    public CompactProposal(Proposal proposal) {
+        this.proof = proposal.getProof();
+        this.blockHeader = proposal.getBlockHeader();
+        this.signature = proposal.getSignature();
+
+        List<Transaction> txs = proposal.getTransactions();
+        this.shortIds = new long[txs.size()];
+        for (int i = 0; i < shortIds.length; i++) {
+            shortIds[i] = shortId(txs.get(i).getHash());
+        }
+        this.transactions = txs.toArray(new Transaction[0]);
+    }
+
+    private CompactProposal(Proof proof, BlockHeader blockHeader, long[] shortIds, Signature signature) {
+        this.proof = proof;
+        this.blockHeader = blockHeader;
+        this.shortIds = shortIds;
+        this.signature = signature;
+        this.transactions = new Transaction[shortIds.length];
+    }
+
+    /**
+     * Returns the short ID of a transaction.
+     *
+     * @param hash
+     *            the transaction hash
+     * @return
+     */
+    public static long shortId(byte[] hash) {
+        return Bytes.toLong(hash);
+    }
+
+    /**
+     * Validates the format of this compact proposal. The signature is verified by
+     * {@link Proposal#validate()}, once the proposal is rebuilt.
+     *
+     * @return
+     */
+    public boolean validate() {
+        return proof != null
+                && blockHeader != null
+                && signature != null
+                && getHeight() > 0
+                && getView() >= 0
+                && proof.getHeight() == blockHeader.getNumber();
+    }
+
+    public Proof getProof() {
+        return proof;
+    }
+
+    public long getHeight() {
+        return proof.getHeight();
+    }
+
+    public int getView() {
+        return proof.getView();
+    }
+
+    public BlockHeader getBlockHeader() {
+        return blockHeader;
+    }
+
+    public long[] getShortIds() {
+        return shortIds;
+    }
+
+    public Signature getSignature() {
+        return signature;
+    }
+
+    /**
+     * Fills in the transactions found locally.
+     *
+     * @param found
+     *            the transactions, by short ID
+     */
+    public void fill(Map<Long, Transaction> found) {
+        for (int i = 0; i < shortIds.length; i++) {
+            if (transactions[i] == null) {
+                transactions[i] = found.get(shortIds[i]);
+            }
+        }
+    }
+
+    /**
+     * Fills in the transactions received from a peer, replacing the ones found
+     * locally.
+     *
+     * @param indices
+     *            the indices of the transactions in the block
+     * @param txs
+     *            the transactions
+     */
+    public void fill(int[] indices, List<Transaction> txs) {
+        for (int i = 0; i < indices.length && i < txs.size(); i++) {
+            if (indices[i] >= 0 && indices[i] < transactions.length) {
+                transactions[indices[i]] = txs.get(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the indices of the missing transactions.
+     *
+     * @return
+     */
+    public int[] getMissing() {
+        return IntStream.range(0, transactions.length).filter(i -> transactions[i] == null).toArray();
+    }
+
+    /**
+     * Returns the transactions found so far, null if missing.
+     *
+     * @return
+     */
+    public List<Transaction> getTransactions() {
+        return Arrays.asList(transactions);
+    }
+
+    /**
+     * Returns whether all the transactions are there.
+     *
+     * @return
+     */
+    public boolean isComplete() {
+        return Arrays.stream(transactions).allMatch(tx -> tx != null);
+    }
+
+    /**
+     * Returns the full proposal, once complete.
+     *
+     * @return
+     */
+    public Proposal toProposal() {
+        return new Proposal(proof, blockHeader, new ArrayList<>(Arrays.asList(transactions)), signature);
+    }
+
+    public byte[] toBytes() {
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeBytes(proof.toBytes());
+        enc.writeBytes(blockHeader.toBytes());
+        enc.writeInt(shortIds.length);
+        for (long id : shortIds) {
+            enc.writeLong(id);
+        }
+        enc.writeBytes(signature.toBytes());
+
+        return enc.toBytes();
+    }
+
+    public static CompactProposal fromBytes(byte[] bytes) {
+        SimpleDecoder dec = new SimpleDecoder(bytes);
+        Proof proof = Proof.fromBytes(dec.readBytes());
+        BlockHeader blockHeader = BlockHeader.fromBytes(dec.readBytes());
+        int n = dec.readInt();
+        if (n < 0 || n > bytes.length / 8) {
+            throw new IllegalArgumentException("Invalid number of transactions: " + n);
+        }
+        long[] shortIds = new long[n];
+        for (int i = 0; i < n; i++) {
+            shortIds[i] = dec.readLong();
+        }
+        Signature signature = Signature.fromBytes(dec.readBytes());
+
+        return new CompactProposal(proof, blockHeader, shortIds, signature);
+    }
+
+    @Override
+    public String toString() {
+        return "CompactProposal [height=" + getHeight() + ", view = " + getView() + ", # txs = " + shortIds.length
+                + "]";
+    }
+}
@@ -42,6 +42,15 @@ public class Proposal {
         this.encoded = enc.toBytes();
     }
 
+    /**
+     * Creates a proposal with the signature of its proposer, as rebuilt from a
+     * {@link CompactProposal}.
+     */
+    public Proposal(Proof proof, BlockHeader blockHeader, List<Transaction> transactions, Signature signature) {
+        this(proof, blockHeader, transactions);
+        this.signature = signature;
+    }
+
     public Proposal(byte[] encoded, byte[] signature) {
         SimpleDecoder dec = new SimpleDecoder(encoded);
         this.proof = Proof.fromBytes(dec.readBytes());
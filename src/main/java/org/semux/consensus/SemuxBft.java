@@ -8,16 +8,24 @@ package org.semux.consensus;
 
 import static org.semux.core.Fork.UNIFORM_DISTRIBUTION;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.ethereum.vm.client.BlockStore;
 import org.semux.Kernel;
 import org.semux.Network;
@@ -39,18 +47,21 @@ import org.semux.crypto.Hash;
 import org.semux.crypto.Hex;
 import org.semux.crypto.Key;
 import org.semux.crypto.Key.Signature;
+import org.semux.net.Capability;
 import org.semux.net.Channel;
 import org.semux.net.ChannelManager;
 import org.semux.net.msg.Message;
 import org.semux.net.msg.MessageCode;
 import org.semux.net.msg.ReasonCode;
+import org.semux.net.msg.consensus.CompactProposalMessage;
+import org.semux.net.msg.consensus.GetProposalTransactionsMessage;
 import org.semux.net.msg.consensus.NewHeightMessage;
 import org.semux.net.msg.consensus.NewViewMessage;
 import org.semux.net.msg.consensus.ProposalMessage;
+import org.semux.net.msg.consensus.ProposalTransactionsMessage;
 import org.semux.net.msg.consensus.VoteMessage;
 import org.semux.util.ArrayUtil;
 import org.semux.util.ByteArray;
-import org.semux.util.Bytes;
 import org.semux.util.MerkleUtil;
 import org.semux.util.SystemUtil;
 import org.semux.util.TimeUtil;
@@ -70,6 +81,13 @@ import com.github.benmanes.caffeine.cache.Caffeine;
  * <code>broadcaster</code> thread is responsible for relaying BFT messages to
  * peers.
  * <p>
+ * The peers supporting {@link Capability#COMPACT_PROPOSAL} are sent the
+ * proposals in their compact form, which they rebuild from the transactions
+ * they have, requesting the missing ones from the sender. The rebuilds are
+ * tracked by block hash, and the missing transactions requested again from
+ * another peer which sent the same compact proposal if the sender doesn't
+ * answer in time.
+ * <p>
  * The BFT engine may be one of the following status:
  * <ul>
  * <li><code>STOPPED</code>: not started</li>
@@ -90,6 +108,10 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 public class SemuxBft implements BftManager {
     private static final Logger logger = Logger.getLogger(SemuxBft.class.getName());
 
+    private static final int MAX_COMPACT_PROPOSALS = 8;
+    private static final int MAX_COMPACT_PROPOSAL_PEERS = 8;
+    private static final long COMPACT_PROPOSAL_TIMEOUT = 2_000L;
+
     protected Kernel kernel;
     protected Config config;
 
@@ -116,6 +138,27 @@ public class SemuxBft implements BftManager {
 
     protected Cache<ByteArray, Block> validBlocks = Caffeine.newBuilder().maximumSize(8).build();
 
+    /**
+     * The proposals broadcast recently, so that the transactions of their compact
+     * form can be served to the peers.
+     */
+    protected Cache<ByteArray, Proposal> sentProposals = Caffeine.newBuilder().maximumSize(8).build();
+
+    /**
+     * The compact proposals waiting for their missing transactions, by block hash.
+     * A compact proposal can't be verified until it's rebuilt, so each peer starts
+     * at most one rebuild per view, and a new one only evicts a rebuild whose peer
+     * hasn't answered yet.
+     */
+    protected Map<ByteArray, CompactProposalRebuild> compactProposals = new HashMap<>();
+
+    /**
+     * The states produced by the validation of the valid blocks, so that the
+     * finalized block doesn't have to be executed again when imported.
+     */
+    protected Cache<ByteArray, Pair<AccountState, DelegateState>> validStates = Caffeine.newBuilder().maximumSize(8)
+            .build();
+
     protected List<String> validators;
     protected List<Channel> activeValidators;
     protected long lastUpdate;
@@ -198,6 +241,15 @@ public class SemuxBft implements BftManager {
                 case PROPOSAL:
                     onProposal(ev.getData());
                     break;
+                case COMPACT_PROPOSAL:
+                    onCompactProposal(ev.getData());
+                    break;
+                case PROPOSAL_TRANSACTIONS:
+                    onProposalTransactions(ev.getData());
+                    break;
+                case COMPACT_PROPOSAL_TIMEOUT:
+                    onCompactProposalTimeout();
+                    break;
                 case VOTE:
                     onVote(ev.getData());
                     break;
@@ -267,6 +319,7 @@ public class SemuxBft implements BftManager {
         view = 0;
         proof = new Proof(height, view);
         proposal = null;
+        compactProposals.clear();
 
         // update validators
         updateValidators();
@@ -319,7 +372,7 @@ public class SemuxBft implements BftManager {
             }
 
             logger.finest(String.format("Proposing: %s", proposal));
-            broadcaster.broadcast(new ProposalMessage(proposal));
+            broadcastProposal(proposal);
         }
 
         // broadcast NEW_VIEW messages.
@@ -420,9 +473,15 @@ public class SemuxBft implements BftManager {
             block.setView(view);
             block.setVotes(votes);
 
-            // [2] add the block to chain
+            // [2] add the block to chain, reusing the state of the validation if any
             logger.info(block.toString());
-            chain.importBlock(block, false);
+            Pair<AccountState, DelegateState> states = validStates.getIfPresent(ByteArray.of(blockHash.get()));
+            if (states != null) {
+                chain.importBlock(block, states.getLeft(), states.getRight());
+            } else {
+                chain.importBlock(block, false);
+            }
+            validStates.invalidateAll();
         } else {
             sync(height + 1);
         }
@@ -517,8 +576,7 @@ public class SemuxBft implements BftManager {
             logger.finest(String.format("Proposal accepted: height = %s, view = %s", p.getHeight(), p.getView()));
 
             // forward proposal
-            ProposalMessage msg = new ProposalMessage(p);
-            broadcaster.broadcast(msg);
+            broadcastProposal(p);
 
             if (view == p.getView()) {
                 proposal = p;
@@ -530,6 +588,214 @@ public class SemuxBft implements BftManager {
         }
     }
 
+    protected void onCompactProposal(Pair<Channel, CompactProposal> data) {
+        Channel channel = data.getLeft();
+        CompactProposal p = data.getRight();
+        logger.finest(String.format("On compact proposal: %s", p));
+
+        // skip the proposals not expected, the rebuilt proposal being checked by
+        // onProposal
+        removeCompactProposals();
+        if (!isCompactProposalExpected(p)
+                || !isPrimary(p.getHeight(), p.getView(), Hex.encode(p.getSignature().getAddress()))) {
+            return;
+        }
+
+        // the one being rebuilt already, kept to request the transactions from
+        // another peer if needed
+        ByteArray key = ByteArray.of(p.getBlockHeader().getHash());
+        CompactProposalRebuild rebuild = compactProposals.get(key);
+        if (rebuild != null) {
+            rebuild.addPeer(channel, p);
+            return;
+        }
+
+        // a peer can only start one rebuild per view, and the ones unanswered give
+        // way to the ones of other peers, so that a peer sending forged compact
+        // proposals can't take up all the rebuilds
+        if (compactProposals.values().stream().anyMatch(r -> r.sender == channel && r.getView() == p.getView())) {
+            logger.finest(String.format("Compact proposal already being rebuilt for %s, dropping another one",
+                    channel.getRemotePeer().getPeerId()));
+            return;
+        }
+        if (compactProposals.size() >= MAX_COMPACT_PROPOSALS) {
+            Optional<CompactProposalRebuild> unanswered = compactProposals.values().stream()
+                    .filter(r -> !r.isAnswered)
+                    .min(Comparator.comparingLong(r -> r.requestTime));
+            if (!unanswered.isPresent()) {
+                logger.finest(String.format("Too many compact proposals, dropping the one from %s",
+                        channel.getRemotePeer().getPeerId()));
+                return;
+            }
+            compactProposals.remove(ByteArray.of(unanswered.get().proposal.getBlockHeader().getHash()));
+        }
+
+        rebuild = new CompactProposalRebuild(channel, p);
+        compactProposals.put(key, rebuild);
+        if (compactProposals.size() == 1) {
+            timer.compactProposalTimeout(COMPACT_PROPOSAL_TIMEOUT);
+        }
+        startCompactProposal(rebuild, Collections.emptyMap());
+    }
+
+    protected void onProposalTransactions(Pair<Channel, ProposalTransactionsMessage> data) {
+        ProposalTransactionsMessage m = data.getRight();
+        CompactProposalRebuild rebuild = compactProposals.get(ByteArray.of(m.getBlockHash()));
+
+        if (rebuild != null && data.getLeft() == rebuild.peer) {
+            rebuild.isAnswered = true;
+            rebuild.proposal.fill(m.getIndices(), m.getTransactions());
+            if (rebuild.proposal.isComplete()) {
+                completeCompactProposal(rebuild);
+            }
+        }
+    }
+
+    /**
+     * Re-requests the transactions of the compact proposals the peer didn't send
+     * in time from another peer which sent the same compact proposal, or all of
+     * them from the same peer if there is none.
+     */
+    protected void onCompactProposalTimeout() {
+        removeCompactProposals();
+
+        long now = TimeUtil.currentTimeMillis();
+        for (CompactProposalRebuild rebuild : new ArrayList<>(compactProposals.values())) {
+            ByteArray key = ByteArray.of(rebuild.proposal.getBlockHeader().getHash());
+            if (compactProposals.get(key) != rebuild || rebuild.requestTime + COMPACT_PROPOSAL_TIMEOUT > now) {
+                continue;
+            }
+
+            logger.finest(String.format("Compact proposal timeout: peer = %s",
+                    rebuild.peer.getRemotePeer().getPeerId()));
+            if (!rebuild.alternates.isEmpty()) {
+                nextCompactProposalPeer(rebuild);
+            } else if (!rebuild.isFullyRequested) {
+                requestProposalTransactions(rebuild,
+                        IntStream.range(0, rebuild.proposal.getShortIds().length).toArray());
+            } else {
+                compactProposals.remove(key);
+            }
+        }
+
+        if (!compactProposals.isEmpty()) {
+            timer.compactProposalTimeout(COMPACT_PROPOSAL_TIMEOUT);
+        }
+    }
+
+    /**
+     * Rebuilds the full proposal, once all its transactions are there. If its
+     * signature doesn't match, because a transaction found locally shares the
+     * short ID of the one proposed, all the transactions are requested from the
+     * peer. If it still doesn't, the peer is dropped in favor of another one which
+     * sent the same compact proposal.
+     *
+     * @param rebuild
+     */
+    protected void completeCompactProposal(CompactProposalRebuild rebuild) {
+        Proposal p = rebuild.proposal.toProposal();
+        if (p.validate()) {
+            compactProposals.remove(ByteArray.of(p.getBlockHeader().getHash()));
+            onProposal(p);
+        } else if (!rebuild.isFullyRequested) {
+            requestProposalTransactions(rebuild, IntStream.range(0, rebuild.proposal.getShortIds().length).toArray());
+        } else {
+            logger.finest(String.format("Invalid compact proposal from %s", rebuild.peer.getRemotePeer().getPeerId()));
+            rebuild.peer.getMessageQueue().disconnect(ReasonCode.BAD_PEER);
+
+            if (!rebuild.alternates.isEmpty()) {
+                nextCompactProposalPeer(rebuild);
+            } else {
+                compactProposals.remove(ByteArray.of(p.getBlockHeader().getHash()));
+            }
+        }
+    }
+
+    /**
+     * Switches a rebuild to the next peer which sent the same compact proposal,
+     * keeping the transactions received so far.
+     *
+     * @param rebuild
+     */
+    protected void nextCompactProposalPeer(CompactProposalRebuild rebuild) {
+        Map<Long, Transaction> received = new HashMap<>();
+        for (Transaction tx : rebuild.proposal.getTransactions()) {
+            if (tx != null) {
+                received.put(CompactProposal.shortId(tx.getHash()), tx);
+            }
+        }
+
+        Pair<Channel, CompactProposal> next = rebuild.alternates.poll();
+        rebuild.peer = next.getLeft();
+        rebuild.proposal = next.getRight();
+        rebuild.isFullyRequested = false;
+        rebuild.isAnswered = false;
+        startCompactProposal(rebuild, received);
+    }
+
+    /**
+     * Fills in a compact proposal from the transactions given and the ones known
+     * locally, then requests the missing ones from the peer.
+     *
+     * @param rebuild
+     * @param received
+     *            the transactions received already, by short ID
+     */
+    protected void startCompactProposal(CompactProposalRebuild rebuild, Map<Long, Transaction> received) {
+        CompactProposal p = rebuild.proposal;
+
+        // look up the transactions by short ID
+        Map<Long, Transaction> found = pendingMgr.getTransactionsByShortId(p.getShortIds());
+        found.putAll(received);
+        p.fill(found);
+
+        int[] missing = p.getMissing();
+        logger.finest(String.format("Compact proposal: # txs = %s, # missing = %s", p.getShortIds().length,
+                missing.length));
+        if (missing.length == 0) {
+            completeCompactProposal(rebuild);
+        } else {
+            requestProposalTransactions(rebuild, missing);
+        }
+    }
+
+    protected void requestProposalTransactions(CompactProposalRebuild rebuild, int[] indices) {
+        rebuild.requestTime = TimeUtil.currentTimeMillis();
+        rebuild.isFullyRequested = indices.length == rebuild.proposal.getShortIds().length;
+        rebuild.peer.getMessageQueue().sendMessage(
+                new GetProposalTransactionsMessage(rebuild.proposal.getBlockHeader().getHash(), indices));
+    }
+
+    /**
+     * Returns whether a compact proposal is for the current height and view, or a
+     * later view, without a proposal yet.
+     *
+     * @param p
+     * @return
+     */
+    protected boolean isCompactProposalExpected(CompactProposal p) {
+        return p.getHeight() == height
+                && (p.getView() > view || p.getView() == view && proposal == null);
+    }
+
+    /**
+     * Removes the rebuilds of the compact proposals no longer expected.
+     */
+    protected void removeCompactProposals() {
+        compactProposals.values().removeIf(r -> !isCompactProposalExpected(r.proposal));
+    }
+
+    /**
+     * Broadcasts a proposal, keeping it to serve the transactions of its compact
+     * form.
+     *
+     * @param p
+     */
+    protected void broadcastProposal(Proposal p) {
+        sentProposals.put(ByteArray.of(p.getBlockHeader().getHash()), p);
+        broadcaster.broadcast(new ProposalMessage(p));
+    }
+
     protected void onVote(Vote v) {
         logger.finest(String.format("On vote: %s", v));
 
@@ -638,6 +904,36 @@ public class SemuxBft implements BftManager {
             }
             break;
         }
+        case BFT_COMPACT_PROPOSAL: {
+            CompactProposalMessage m = (CompactProposalMessage) msg;
+            CompactProposal p = m.getProposal();
+
+            if (p.getHeight() == height) {
+                if (p.validate()) {
+                    events.add(new Event(Type.COMPACT_PROPOSAL, Pair.of(channel, p)));
+                } else {
+                    logger.finest(String.format("Invalid proposal from %s", channel.getRemotePeer().getPeerId()));
+                    channel.getMessageQueue().disconnect(ReasonCode.BAD_PEER);
+                }
+            }
+            break;
+        }
+        case BFT_GET_PROPOSAL_TRANSACTIONS: {
+            GetProposalTransactionsMessage m = (GetProposalTransactionsMessage) msg;
+            Proposal p = sentProposals.getIfPresent(ByteArray.of(m.getBlockHash()));
+
+            if (p != null) {
+                List<Transaction> txs = p.getTransactions();
+                int[] indices = Arrays.stream(m.getIndices()).filter(i -> i >= 0 && i < txs.size()).toArray();
+                channel.getMessageQueue().sendMessage(new ProposalTransactionsMessage(m.getBlockHash(), indices,
+                        Arrays.stream(indices).mapToObj(txs::get).collect(Collectors.toList())));
+            }
+            break;
+        }
+        case BFT_PROPOSAL_TRANSACTIONS: {
+            events.add(new Event(Type.PROPOSAL_TRANSACTIONS, Pair.of(channel, (ProposalTransactionsMessage) msg)));
+            break;
+        }
         case BFT_VOTE: {
             VoteMessage m = (VoteMessage) msg;
             Vote vote = m.getVote();
@@ -735,6 +1031,11 @@ public class SemuxBft implements BftManager {
     protected void clearTimerAndEvents() {
         timer.clear();
         events.clear();
+
+        // keep checking the compact proposals still being rebuilt
+        if (!compactProposals.isEmpty()) {
+            timer.compactProposalTimeout(COMPACT_PROPOSAL_TIMEOUT);
+        }
     }
 
     /**
@@ -796,7 +1097,7 @@ public class SemuxBft implements BftManager {
         // compute roots
         byte[] transactionsRoot = MerkleUtil.computeTransactionsRoot(includedTxs);
         byte[] resultsRoot = MerkleUtil.computeResultsRoot(includedResults);
-        byte[] stateRoot = Bytes.EMPTY_HASH;
+        byte[] stateRoot = chain.getStateRoot(new Block(tempHeader, includedTxs, includedResults), asTrack, dsTrack);
 
         BlockHeader header = new BlockHeader(number, coinbase.toAddress(), prevHash, timestamp, transactionsRoot,
                 resultsRoot, stateRoot, data);
@@ -859,11 +1160,16 @@ public class SemuxBft implements BftManager {
                 return false;
             }
             block.setResults(results); // overwrite the results
+            if (!Arrays.equals(header.getStateRoot(), chain.getStateRoot(block, asTrack, dsTrack))) {
+                logger.warning("Invalid state root");
+                return false;
+            }
 
             long t2 = TimeUtil.currentTimeMillis();
             logger.finest(String.format("Block validation: # txs = %s, time = %s ms", transactions.size(), t2 - t1));
 
             validBlocks.put(ByteArray.of(block.getHash()), block);
+            validStates.put(ByteArray.of(block.getHash()), Pair.of(asTrack, dsTrack));
             return true;
         } catch (Exception e) {
             logger.severe(String.format("Unexpected exception during block proposal validation", e));
@@ -904,6 +1210,7 @@ public class SemuxBft implements BftManager {
      */
     public class Timer implements Runnable {
         private long timeout;
+        private long compactProposalTimeout = -1;
 
         private Thread t;
 
@@ -916,6 +1223,11 @@ public class SemuxBft implements BftManager {
                         timeout = -1;
                         continue;
                     }
+                    if (compactProposalTimeout != -1 && compactProposalTimeout < TimeUtil.currentTimeMillis()) {
+                        events.add(new Event(Type.COMPACT_PROPOSAL_TIMEOUT));
+                        compactProposalTimeout = -1;
+                        continue;
+                    }
                 }
 
                 try {
@@ -954,8 +1266,22 @@ public class SemuxBft implements BftManager {
             timeout = TimeUtil.currentTimeMillis() + milliseconds;
         }
 
+        /**
+         * Sets the timeout of the compact proposals being rebuilt, independent of
+         * the consensus one.
+         *
+         * @param milliseconds
+         */
+        public synchronized void compactProposalTimeout(long milliseconds) {
+            if (milliseconds < 0) {
+                throw new IllegalArgumentException("Timeout can not be negative");
+            }
+            compactProposalTimeout = TimeUtil.currentTimeMillis() + milliseconds;
+        }
+
         public synchronized void clear() {
             timeout = -1;
+            compactProposalTimeout = -1;
         }
     }
 
@@ -970,6 +1296,11 @@ public class SemuxBft implements BftManager {
                 try {
                     Message msg = queue.take();
 
+                    // the proposals are sent in their compact form to the peers supporting it
+                    Message compactMsg = msg instanceof ProposalMessage
+                            ? new CompactProposalMessage(new CompactProposal(((ProposalMessage) msg).getProposal()))
+                            : msg;
+
                     // thread-safety via volatile
                     List<Channel> channels = activeValidators;
                     if (channels != null) {
@@ -977,7 +1308,8 @@ public class SemuxBft implements BftManager {
                         for (int i = 0; i < indices.length && i < config.netRelayRedundancy(); i++) {
                             Channel c = channels.get(indices[i]);
                             if (c.isActive()) {
-                                c.getMessageQueue().sendMessage(msg);
+                                c.getMessageQueue().sendMessage(
+                                        c.isSupported(Capability.COMPACT_PROPOSAL) ? compactMsg : msg);
                             }
                         }
                     }
@@ -1015,6 +1347,46 @@ public class SemuxBft implements BftManager {
         }
     }
 
+    /**
+     * A compact proposal being rebuilt, the peer which sent it first, the peer
+     * its missing transactions are requested from, and the other peers which sent
+     * a compact proposal of the same block, each with its own compact form in case
+     * one is forged.
+     */
+    protected static class CompactProposalRebuild {
+        protected final Channel sender;
+        protected CompactProposal proposal;
+        protected Channel peer;
+        protected long requestTime;
+        protected boolean isFullyRequested;
+        protected boolean isAnswered;
+        protected final Deque<Pair<Channel, CompactProposal>> alternates = new ArrayDeque<>();
+
+        public CompactProposalRebuild(Channel peer, CompactProposal proposal) {
+            this.sender = peer;
+            this.peer = peer;
+            this.proposal = proposal;
+        }
+
+        public int getView() {
+            return proposal.getView();
+        }
+
+        /**
+         * Adds another peer which sent a compact proposal of the same block.
+         *
+         * @param channel
+         * @param p
+         */
+        public void addPeer(Channel channel, CompactProposal p) {
+            if (channel != peer
+                    && alternates.size() < MAX_COMPACT_PROPOSAL_PEERS
+                    && alternates.stream().noneMatch(a -> a.getLeft() == channel)) {
+                alternates.add(Pair.of(channel, p));
+            }
+        }
+    }
+
     public static class Event {
         public enum Type {
             /**
@@ -1045,7 +1417,22 @@ public class SemuxBft implements BftManager {
             /**
              * Received a vote message.
              */
-            VOTE
+            VOTE,
+
+            /**
+             * Received a compact proposal message.
+             */
+            COMPACT_PROPOSAL,
+
+            /**
+             * Received the transactions of a compact proposal.
+             */
+            PROPOSAL_TRANSACTIONS,
+
+            /**
+             * Received a timeout signal for the compact proposals being rebuilt.
+             */
+            COMPACT_PROPOSAL_TIMEOUT
         }
 
         private final Type type;
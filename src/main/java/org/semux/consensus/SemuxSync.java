@@ -23,6 +23,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.semux.Kernel;
 import org.semux.config.Config;
 import org.semux.core.Block;
+import org.semux.core.BlockHeader;
 import org.semux.core.BlockPart;
 import org.semux.core.Blockchain;
 import org.semux.core.SyncManager;
@@ -34,17 +35,41 @@ import org.semux.net.msg.Message;
 import org.semux.net.msg.ReasonCode;
 import org.semux.net.msg.consensus.BlockMessage;
 import org.semux.net.msg.consensus.BlockPartsMessage;
+import org.semux.net.msg.consensus.BlockPartsRangeMessage;
 import org.semux.net.msg.consensus.GetBlockMessage;
 import org.semux.net.msg.consensus.GetBlockPartsMessage;
+import org.semux.net.msg.consensus.GetBlockPartsRangeMessage;
+import org.semux.net.msg.consensus.SnapshotChunkMessage;
 import org.semux.util.TimeUtil;
 
 /**
  * Syncing manager downloads blocks from the network and imports them into blockchain.
  *
- * <p>The {@link #download()} and the {@link #process()} methods are not synchronized and need to be
- * executed by one single thread at anytime.
+ * <p>Blocks go through a pipeline of stages, separated by bounded queues:
  *
- * <p>The download/unfinished/pending queues are protected by lock.
+ * <ol>
+ *   <li>download, by {@link #download()};
+ *   <li>stateless validation of the transactions and Merkle roots, by {@link #validate()} on a pool
+ *       of worker threads;
+ *   <li>validation of the checkpoint votes and of the parent hashes linking the blocks up to the
+ *       checkpoint, once they are all validated;
+ *   <li>import into the blockchain, by {@link #process()}.
+ * </ol>
+ *
+ * <p>With the skeleton sync, the headers are first downloaded in large ranges from one peer at a
+ * time, and verified to link with each other, starting from the latest block, and to match the
+ * checkpoints. The bodies of the blocks whose header is verified are then downloaded in smaller
+ * ranges from all the peers in parallel. Peers not supporting it are still asked for single blocks.
+ * A body not matching its header from another peer doesn't blame either peer until the header is
+ * downloaded again from a third one.
+ *
+ * <p>A new node may first bootstrap from a state snapshot of the peers, see {@link SnapshotSync}.
+ *
+ * <p>The {@link #download()}, {@link #validate()} and {@link #process()} methods are not
+ * synchronized and need to be executed by one single thread at anytime.
+ *
+ * <p>The download/unfinished/pending queues are protected by lock, which is never held while
+ * validating or importing blocks.
  */
 public class SemuxSync implements SyncManager {
 
@@ -66,6 +91,21 @@ public class SemuxSync implements SyncManager {
       Executors.newSingleThreadScheduledExecutor(factory);
   private static final ScheduledExecutorService timer3 =
       Executors.newSingleThreadScheduledExecutor(factory);
+  private static final ScheduledExecutorService timer4 =
+      Executors.newSingleThreadScheduledExecutor(factory);
+
+  private static final int VALIDATE_THREADS = Runtime.getRuntime().availableProcessors();
+  private static final ExecutorService validator =
+      Executors.newFixedThreadPool(VALIDATE_THREADS, factory);
+
+  // max number of blocks being validated at the same time
+  private static final int MAX_VALIDATING_BLOCKS = VALIDATE_THREADS * 4;
+
+  // max number of headers requested at once by the skeleton sync
+  private static final int SKELETON_HEADERS = 1024;
+
+  // max number of bodies requested at once by the skeleton sync
+  private static final int SKELETON_BODIES = 32;
 
   private final long DOWNLOAD_TIMEOUT;
 
@@ -93,9 +133,27 @@ public class SemuxSync implements SyncManager {
   private final TreeSet<Pair<Block, Channel>> toValidate =
       new TreeSet<>(Comparator.comparingLong(o -> o.getKey().getNumber()));
 
+  // Number of blocks being validated
+  private final AtomicInteger validating = new AtomicInteger();
+
   // Blocks which were validated but haven't been imported
   private final TreeMap<Long, Pair<Block, Channel>> toImport = new TreeMap<>();
 
+  // Headers verified by the skeleton sync, whose blocks haven't been imported, and the channel
+  // each was received from
+  private final TreeMap<Long, Pair<BlockHeader, Channel>> headers = new TreeMap<>();
+
+  // Blocks whose body didn't match the header received from another peer, by number. The header
+  // is downloaded again from a third peer to find out which of the two is to blame.
+  private final TreeMap<Long, Mismatch> mismatches = new TreeMap<>();
+
+  // Number and hash of the last verified header
+  private long skeletonNumber;
+  private byte[] skeletonHash;
+
+  // Time of the pending request for headers, or 0
+  private long skeletonRequested;
+
   private final Object lock = new Object();
 
   // current and target heights
@@ -108,7 +166,10 @@ public class SemuxSync implements SyncManager {
   private final AtomicBoolean isRunning = new AtomicBoolean(false);
 
   // reset at the beginning of a sync task
-  private final Set<String> badPeers = new HashSet<>();
+  private final Set<String> badPeers = ConcurrentHashMap.newKeySet();
+
+  // null unless bootstrapping from a snapshot is enabled
+  private final SnapshotSync snapshotSync;
 
   public SemuxSync(Kernel kernel) {
     this.config = kernel.getConfig();
@@ -120,6 +181,8 @@ public class SemuxSync implements SyncManager {
     this.MAX_QUEUED_JOBS = config.syncMaxQueuedJobs();
     this.MAX_PENDING_JOBS = config.syncMaxPendingJobs();
     this.MAX_PENDING_BLOCKS = config.syncMaxPendingBlocks();
+
+    this.snapshotSync = config.syncSnapshot() ? new SnapshotSync(kernel) : null;
   }
 
   @Override
@@ -131,6 +194,11 @@ public class SemuxSync implements SyncManager {
 
       logger.info(String.format("Syncing started, best known block = %s", targetHeight - 1));
 
+      // [0] bootstrap a new node from a snapshot, then sync the blocks after it
+      if (snapshotSync != null) {
+        snapshotSync.run(targetHeight, isRunning::get);
+      }
+
       // [1] set up queues
       synchronized (lock) {
         toDownload.clear();
@@ -144,11 +212,19 @@ public class SemuxSync implements SyncManager {
         lastObserved.set(chain.getLatestBlockNumber());
         latestQueuedTask.set(chain.getLatestBlockNumber());
         growToDownloadQueue();
+
+        headers.clear();
+        mismatches.clear();
+        skeletonNumber = chain.getLatestBlockNumber();
+        skeletonHash = chain.getLatestBlock().getHash();
+        skeletonRequested = 0;
       }
 
       // [2] start tasks
       ScheduledFuture<?> download =
           timer1.scheduleAtFixedRate(this::download, 0, 500, TimeUnit.MICROSECONDS);
+      ScheduledFuture<?> validate =
+          timer4.scheduleAtFixedRate(this::validate, 0, 500, TimeUnit.MICROSECONDS);
       ScheduledFuture<?> process =
           timer2.scheduleAtFixedRate(this::process, 0, 1000, TimeUnit.MICROSECONDS);
       ScheduledFuture<?> reporter =
@@ -157,11 +233,12 @@ public class SemuxSync implements SyncManager {
                 long newBlockNumber = chain.getLatestBlockNumber();
                 logger.info(
                     String.format(
-                        "Syncing status: importing %s blocks per second, %s to download, %s to receive, %s to validate, %s to import",
+                        "Syncing status: importing %s blocks per second, %s to download, %s to receive, %s to validate, %s validating, %s to import",
                         (newBlockNumber - lastObserved.get()) / 30,
                         toDownload.size(),
                         toReceive.size(),
                         toValidate.size(),
+                        validating.get(),
                         toImport.size()));
                 lastObserved.set(newBlockNumber);
               },
@@ -184,6 +261,7 @@ public class SemuxSync implements SyncManager {
 
       // [4] cancel tasks
       download.cancel(true);
+      validate.cancel(false);
       process.cancel(false);
       reporter.cancel(true);
 
@@ -272,6 +350,26 @@ public class SemuxSync implements SyncManager {
           }
           break;
         }
+      case BLOCK_PARTS_RANGE:
+        {
+          BlockPartsRangeMessage m = (BlockPartsRangeMessage) msg;
+          List<BlockPart> parts = BlockPart.decode(m.getParts());
+          if (snapshotSync != null && snapshotSync.isRunning()) {
+            snapshotSync.onMessage(channel, m);
+          } else if (parts.equals(Collections.singletonList(BlockPart.HEADER))) {
+            addHeaders(m.getNumber(), m.getData(), channel);
+          } else {
+            addBodies(m.getNumber(), parts, m.getData(), channel);
+          }
+          break;
+        }
+      case SNAPSHOT_CHUNK:
+        {
+          if (snapshotSync != null) {
+            snapshotSync.onMessage(channel, (SnapshotChunkMessage) msg);
+          }
+          break;
+        }
       case BLOCK_HEADER: // deprecated
       default:
         {
@@ -280,10 +378,119 @@ public class SemuxSync implements SyncManager {
     }
   }
 
+  /**
+   * Skeleton sync: verifies a range of headers, starting right after the last verified one. The
+   * verification stops at the first invalid header.
+   *
+   * @param number the number of the first header
+   * @param data the header of each block
+   * @param channel the channel the headers were received from
+   */
+  protected void addHeaders(long number, List<List<byte[]>> data, Channel channel) {
+    boolean isValid = true;
+    List<Channel> blamed = new ArrayList<>();
+    synchronized (lock) {
+      skeletonRequested = 0;
+      if (number != skeletonNumber + 1) {
+        return; // a late response
+      }
+
+      for (List<byte[]> parts : data) {
+        BlockHeader header = parseHeader(parts);
+        byte[] checkpoint = config.checkpoints().get(skeletonNumber + 1);
+        if (header == null
+            || !header.validate()
+            || header.getNumber() != skeletonNumber + 1
+            || !Arrays.equals(header.getParentHash(), skeletonHash)
+            || (checkpoint != null && !Arrays.equals(header.getHash(), checkpoint))) {
+          isValid = false;
+          break;
+        }
+
+        headers.put(header.getNumber(), Pair.of(header, channel));
+        skeletonNumber = header.getNumber();
+        skeletonHash = header.getHash();
+
+        // the header downloaded again settles a mismatch, unless it comes from the same peer
+        Mismatch mismatch = mismatches.get(header.getNumber());
+        if (mismatch != null && mismatch.headerChannel != channel) {
+          mismatches.remove(header.getNumber());
+          blamed.add(
+              Arrays.equals(header.getHash(), mismatch.header.getHash())
+                  ? mismatch.bodyChannel
+                  : mismatch.headerChannel);
+        }
+      }
+    }
+
+    if (!isValid) {
+      InetSocketAddress a = channel.getRemoteAddress();
+      logger.info(
+          String.format(
+              "Invalid block header, peer = %s:%s, block # = %s",
+              a.getAddress().getHostAddress(), a.getPort(), skeletonNumber + 1));
+      blamed.add(channel);
+    }
+    blamed.forEach(this::markBadPeer);
+  }
+
+  private BlockHeader parseHeader(List<byte[]> parts) {
+    try {
+      return parts.size() == 1 ? BlockHeader.fromBytes(parts.get(0)) : null;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Skeleton sync: assembles the blocks from their verified header and the bodies received.
+   *
+   * @param number the number of the first block
+   * @param parts the parts of each block
+   * @param data the parts data of each block
+   * @param channel the channel the bodies were received from
+   */
+  protected void addBodies(
+      long number, List<BlockPart> parts, List<List<byte[]>> data, Channel channel) {
+    for (int i = 0; i < data.size(); i++) {
+      BlockHeader header;
+      synchronized (lock) {
+        Pair<BlockHeader, Channel> p = headers.get(number + i);
+        header = p == null ? null : p.getKey();
+      }
+      List<byte[]> blockData = data.get(i);
+      if (header == null || blockData.size() != parts.size()) {
+        continue;
+      }
+
+      byte[] transactions = null, results = null, votes = null;
+      for (int j = 0; j < parts.size(); j++) {
+        if (parts.get(j) == BlockPart.TRANSACTIONS) {
+          transactions = blockData.get(j);
+        } else if (parts.get(j) == BlockPart.RESULTS) {
+          results = blockData.get(j);
+        } else if (parts.get(j) == BlockPart.VOTES) {
+          votes = blockData.get(j);
+        }
+      }
+
+      try {
+        addBlock(Block.fromComponents(header.toBytes(), transactions, results, votes), channel);
+      } catch (Exception e) {
+        logger.severe(String.format("Failed to parse a block from components", e));
+      }
+    }
+  }
+
   private boolean isFastSyncSupported(Peer peer) {
     return Stream.of(peer.getCapabilities()).anyMatch(c -> Capability.FAST_SYNC.name().equals(c));
   }
 
+  private boolean isSkeletonSyncSupported(Peer peer) {
+    return Stream.of(peer.getCapabilities())
+        .anyMatch(c -> Capability.SKELETON_SYNC.name().equals(c));
+  }
+
   private boolean skipVotes(long blockNumber) {
     long interval = config.spec().getValidatorUpdateInterval();
 
@@ -311,6 +518,11 @@ public class SemuxSync implements SyncManager {
           itr.remove();
         }
       }
+      if (skeletonRequested != 0 && skeletonRequested + DOWNLOAD_TIMEOUT < now) {
+        logger.severe(
+            String.format("Failed to download block headers #%s, expired", skeletonNumber + 1));
+        skeletonRequested = 0;
+      }
 
       // quit if too many unfinished jobs
       if (toReceive.size() > MAX_PENDING_JOBS) {
@@ -324,9 +536,9 @@ public class SemuxSync implements SyncManager {
       }
       Long task = toDownload.first();
 
-      // quit if too many pending blocks
-      int pendingBlocks = toValidate.size() + toImport.size();
-      if (pendingBlocks > MAX_PENDING_BLOCKS && task > toValidate.first().getKey().getNumber()) {
+      // quit if too many pending blocks, unless the task fills a gap
+      int pendingBlocks = toValidate.size() + validating.get() + toImport.size();
+      if (pendingBlocks > MAX_PENDING_BLOCKS && task > lowestPendingBlock()) {
         logger.fine("Max pending blocks reached - " + pendingBlocks + " > " + MAX_PENDING_BLOCKS);
         return;
       }
@@ -356,6 +568,18 @@ public class SemuxSync implements SyncManager {
       if (channels.isEmpty()) {
         return;
       }
+
+      // use the skeleton sync with the peers supporting it
+      if (config.syncSkeletonSync()) {
+        List<Channel> skeletonChannels =
+            channels.stream()
+                .filter(channel -> isSkeletonSyncSupported(channel.getRemotePeer()))
+                .collect(Collectors.toList());
+        if (!skeletonChannels.isEmpty()) {
+          downloadSkeleton(skeletonChannels, task);
+          return;
+        }
+      }
       // otherwise, pick a random channel
       Channel c = channels.get(random.nextInt(channels.size()));
 
@@ -395,6 +619,110 @@ public class SemuxSync implements SyncManager {
     }
   }
 
+  /**
+   * Skeleton sync: requests the next range of headers if none is pending, or else the bodies of
+   * consecutive blocks whose header has been verified.
+   *
+   * @param channels the idle channels supporting the skeleton sync
+   * @param task the lowest block to download
+   */
+  private void downloadSkeleton(List<Channel> channels, long task) {
+    // the headers are verified in order, and not too far ahead of the import
+    long end = Math.min(target.get() - 1, chain.getLatestBlockNumber() + MAX_QUEUED_JOBS);
+    if (skeletonRequested == 0 && skeletonNumber < end) {
+      long from = skeletonNumber + 1;
+      List<Channel> candidates =
+          channels.stream()
+              .filter(channel -> channel.getRemotePeer().getLatestBlockNumber() >= from)
+              .collect(Collectors.toList());
+
+      // the headers of a mismatch are downloaded again from another peer, if any
+      List<Channel> others =
+          candidates.stream()
+              .filter(
+                  channel ->
+                      mismatches.tailMap(from).values().stream()
+                          .noneMatch(m -> m.headerChannel == channel))
+              .collect(Collectors.toList());
+      if (!others.isEmpty()) {
+        candidates = others;
+      }
+      if (!candidates.isEmpty()) {
+        Channel c = candidates.get(random.nextInt(candidates.size()));
+        int count = (int) Math.min(SKELETON_HEADERS, end - skeletonNumber);
+        logger.fine(
+            String.format(
+                "Requesting headers #%s - #%s from %s:%s",
+                from, from + count - 1, c.getRemoteIp(), c.getRemotePort()));
+        c.getMessageQueue()
+            .sendMessage(
+                new GetBlockPartsRangeMessage(from, count, BlockPart.encode(BlockPart.HEADER)));
+        skeletonRequested = TimeUtil.currentTimeMillis();
+        return;
+      }
+    }
+
+    // quit if the header is still missing
+    if (task > skeletonNumber) {
+      return;
+    }
+
+    List<Channel> candidates =
+        channels.stream()
+            .filter(channel -> channel.getRemotePeer().getLatestBlockNumber() >= task)
+            .collect(Collectors.toList());
+    if (candidates.isEmpty()) {
+      return;
+    }
+    Channel c = candidates.get(random.nextInt(candidates.size()));
+    long last = Math.min(skeletonNumber, c.getRemotePeer().getLatestBlockNumber());
+    List<Long> range = new ArrayList<>();
+    for (Long n : toDownload.tailSet(task)) {
+      if (n != task + range.size() || n > last || range.size() >= SKELETON_BODIES) {
+        break;
+      }
+      range.add(n);
+    }
+    if (range.isEmpty()) {
+      return;
+    }
+
+    // votes are needed for the checkpoints only with FAST_SYNC
+    boolean votes = !config.syncFastSync() || range.stream().anyMatch(n -> !skipVotes(n));
+    int parts =
+        votes
+            ? BlockPart.encode(BlockPart.TRANSACTIONS, BlockPart.VOTES)
+            : BlockPart.encode(BlockPart.TRANSACTIONS);
+    logger.fine(
+        String.format(
+            "Requesting blocks #%s - #%s from %s:%s",
+            task, task + range.size() - 1, c.getRemoteIp(), c.getRemotePort()));
+    c.getMessageQueue().sendMessage(new GetBlockPartsRangeMessage(task, range.size(), parts));
+
+    long now = TimeUtil.currentTimeMillis();
+    for (Long n : range) {
+      toDownload.remove(n);
+      toReceive.put(n, now);
+    }
+    growToDownloadQueue();
+  }
+
+  /**
+   * Returns the lowest number of the blocks waiting to be validated or imported.
+   *
+   * @return the lowest block number, or Long.MAX_VALUE if there is none
+   */
+  private long lowestPendingBlock() {
+    long lowest = Long.MAX_VALUE;
+    if (!toValidate.isEmpty()) {
+      lowest = Math.min(lowest, toValidate.first().getKey().getNumber());
+    }
+    if (!toImport.isEmpty()) {
+      lowest = Math.min(lowest, toImport.firstKey());
+    }
+    return lowest;
+  }
+
   /**
    * Queue new tasks sequentially starting from ${@link SemuxSync#latestQueuedTask} until the size
    * of ${@link SemuxSync#toDownload} queue is greater than or equal to MAX_QUEUED_JOBS
@@ -416,10 +744,66 @@ public class SemuxSync implements SyncManager {
     }
   }
 
+  /**
+   * Submits the received blocks, lowest first, to the stateless validation workers. The validated
+   * blocks are moved to the import queue.
+   */
+  protected void validate() {
+    if (!isRunning()) {
+      return;
+    }
+
+    long latest = chain.getLatestBlockNumber();
+    List<Pair<Block, Channel>> batch = new ArrayList<>();
+    synchronized (lock) {
+      Iterator<Pair<Block, Channel>> iterator = toValidate.iterator();
+      while (iterator.hasNext() && validating.get() + batch.size() < MAX_VALIDATING_BLOCKS) {
+        Pair<Block, Channel> p = iterator.next();
+        iterator.remove();
+        if (p.getKey().getNumber() > latest) {
+          batch.add(p);
+        }
+      }
+      validating.addAndGet(batch.size());
+    }
+
+    for (Pair<Block, Channel> p : batch) {
+      validator.execute(() -> validateBlock(p));
+    }
+  }
+
+  /**
+   * Validates a block on its own: the header hash, and the transactions with their Merkle root.
+   *
+   * @param p the block and the channel it was received from
+   */
+  protected void validateBlock(Pair<Block, Channel> p) {
+    try {
+      Block block = p.getKey();
+      if (block.getHeader().validate()
+          && block.validateTransactions(
+              block.getHeader(), block.getTransactions(), config.network())) {
+        synchronized (lock) {
+          toImport.put(block.getNumber(), p);
+        }
+      } else {
+        handleInvalidBlock(block, p.getValue());
+      }
+    } catch (Exception e) {
+      logger.severe(String.format("Unexpected exception during block validation: %s", e));
+      handleInvalidBlock(p.getKey(), p.getValue());
+    } finally {
+      validating.decrementAndGet();
+    }
+  }
+
   /**
    * Fast sync process: Validate votes only for the last block in each validator set. For each block
    * in the set, compare its hash against its child parent hash. Once all hashes are validated,
    * validate (while skipping vote validation) and apply each block to the chain.
+   *
+   * <p>The lock is only held to pick up the validated blocks, so that downloading and validating
+   * the next blocks continue during the import.
    */
   protected void process() {
     if (!isRunning()) {
@@ -438,100 +822,126 @@ public class SemuxSync implements SyncManager {
       checkpoint++;
     }
 
+    // wait until the whole range up to the checkpoint has been validated
+    List<Pair<Block, Channel>> blocks = new ArrayList<>();
     synchronized (lock) {
-      // Move blocks from validate queue to import queue if within range
-      Iterator<Pair<Block, Channel>> iterator = toValidate.iterator();
-      while (iterator.hasNext()) {
-        Pair<Block, Channel> p = iterator.next();
-        long n = p.getKey().getNumber();
+      toImport.headMap(latest, true).clear();
 
-        if (n <= latest) {
-          iterator.remove();
-        } else if (n <= checkpoint) {
-          iterator.remove();
-          toImport.put(n, p);
-        } else {
-          break;
+      for (long n = latest + 1; n <= checkpoint; n++) {
+        Pair<Block, Channel> p = toImport.get(n);
+        if (p == null) {
+          return;
         }
+        blocks.add(p);
       }
+    }
 
-      if (toImport.size() >= checkpoint - latest) {
-        // Validate the block hashes
-        boolean valid = validateBlockHashes(latest + 1, checkpoint);
+    // Validate the block hashes
+    if (!validateBlockHashes(blocks)) {
+      return;
+    }
 
-        if (valid) {
-          for (long n = latest + 1; n <= checkpoint; n++) {
-            Pair<Block, Channel> p = toImport.remove(n);
-            boolean imported = chain.importBlock(p.getKey(), false);
-            if (!imported) {
-              handleInvalidBlock(p.getKey(), p.getValue());
-              break;
-            }
+    for (Pair<Block, Channel> p : blocks) {
+      boolean imported = chain.importBlock(p.getKey(), false);
+      if (!imported) {
+        handleInvalidBlock(p.getKey(), p.getValue());
+        break;
+      }
 
-            if (n == checkpoint) {
-              logger.info(String.format("%s", p.getLeft()));
-            }
-          }
-          current.set(chain.getLatestBlockNumber() + 1);
-        }
+      if (p.getKey().getNumber() == checkpoint) {
+        logger.info(String.format("%s", p.getLeft()));
       }
     }
+    current.set(chain.getLatestBlockNumber() + 1);
+
+    synchronized (lock) {
+      toImport.headMap(chain.getLatestBlockNumber(), true).clear();
+      headers.headMap(chain.getLatestBlockNumber(), true).clear();
+      mismatches.headMap(chain.getLatestBlockNumber(), true).clear();
+    }
   }
 
   /**
-   * Validate block hashes in the toImport set.
-   *
-   * <p>Assuming that the whole block range is available in the set.
+   * Validate the votes of the last block and the hashes linking the blocks.
    *
-   * @param from the start block number, inclusive
-   * @param to the end block number, inclusive
+   * @param blocks the consecutive blocks up to a checkpoint
    */
-  protected boolean validateBlockHashes(long from, long to) {
-    synchronized (lock) {
-      // Validate votes for the last block in set
-      Pair<Block, Channel> checkpoint = toImport.get(to);
-      Block block = checkpoint.getKey();
-      if (!chain.validateBlockVotes(block)) {
-        handleInvalidBlock(block, checkpoint.getValue());
-        return false;
-      }
+  protected boolean validateBlockHashes(List<Pair<Block, Channel>> blocks) {
+    // Validate votes for the last block in set
+    Pair<Block, Channel> checkpoint = blocks.get(blocks.size() - 1);
+    Block block = checkpoint.getKey();
+    if (!chain.validateBlockVotes(block)) {
+      handleInvalidBlock(block, checkpoint.getValue());
+      return false;
+    }
 
-      for (long n = to - 1; n >= from; n--) {
-        Pair<Block, Channel> current = toImport.get(n);
-        Pair<Block, Channel> child = toImport.get(n + 1);
+    for (int i = blocks.size() - 2; i >= 0; i--) {
+      Pair<Block, Channel> current = blocks.get(i);
+      Pair<Block, Channel> child = blocks.get(i + 1);
 
-        if (!Arrays.equals(current.getKey().getHash(), child.getKey().getParentHash())) {
-          handleInvalidBlock(current.getKey(), current.getValue());
-          return false;
-        }
+      if (!Arrays.equals(current.getKey().getHash(), child.getKey().getParentHash())) {
+        handleInvalidBlock(current.getKey(), current.getValue());
+        return false;
       }
-
-      return true;
     }
+
+    return true;
   }
 
   /**
    * Handle invalid block: Add block back to download queue. Remove block from all other queues.
    * Disconnect from the peer that sent the block.
    *
+   * <p>If the block was assembled from a header verified by the skeleton sync, received from
+   * another peer, either peer may be to blame: the header is downloaded again from a third peer
+   * before disconnecting any of them.
+   *
    * @param block
    * @param channel
    */
   protected void handleInvalidBlock(Block block, Channel channel) {
+    boolean isMismatch = false;
     InetSocketAddress a = channel.getRemoteAddress();
     logger.info(
         String.format(
             "Invalid block, peer = %s:%s, block # = %s",
             a.getAddress().getHostAddress(), a.getPort(), block.getNumber()));
     synchronized (lock) {
-      // add to the request queue
-      toDownload.add(block.getNumber());
+      // the invalid block has already left the validate queue, and another copy of the block may
+      // have been received in the meantime
+      toImport.remove(block.getNumber(), Pair.of(block, channel));
 
+      // add to the request queue
+      if (!toImport.containsKey(block.getNumber())
+          && !toValidate.contains(Pair.of(block, channel))) {
+        toDownload.add(block.getNumber());
+      }
       toReceive.remove(block.getNumber());
-      toValidate.remove(Pair.of(block, channel));
-      toImport.remove(block.getNumber());
+
+      // the headers from the invalid block on can't be trusted anymore
+      Pair<BlockHeader, Channel> header = headers.get(block.getNumber());
+      if (header != null) {
+        if (header.getValue() != channel
+            && Arrays.equals(header.getKey().getHash(), block.getHash())) {
+          mismatches.put(
+              block.getNumber(), new Mismatch(header.getKey(), header.getValue(), channel));
+          isMismatch = true;
+        }
+        resetSkeleton(block.getNumber());
+      }
     }
 
+    if (!isMismatch) {
+      markBadPeer(channel);
+    }
+  }
+
+  /**
+   * Stops downloading from a peer which sent invalid data, disconnecting it if configured to.
+   *
+   * @param channel
+   */
+  private void markBadPeer(Channel channel) {
     badPeers.add(channel.getRemotePeer().getPeerId());
 
     if (config.syncDisconnectOnInvalidBlock()) {
@@ -540,6 +950,32 @@ public class SemuxSync implements SyncManager {
     }
   }
 
+  /**
+   * Discards the verified headers from the given block on, and the blocks built on them.
+   *
+   * @param number the number of the first header to discard
+   */
+  private void resetSkeleton(long number) {
+    headers.tailMap(number, true).clear();
+    skeletonNumber = number - 1;
+    skeletonHash =
+        headers.containsKey(skeletonNumber)
+            ? headers.get(skeletonNumber).getKey().getHash()
+            : chain.getBlockHeader(skeletonNumber).getHash();
+
+    // the blocks above have been assembled from the discarded headers
+    Iterator<Pair<Block, Channel>> iterator = toValidate.iterator();
+    while (iterator.hasNext()) {
+      long n = iterator.next().getKey().getNumber();
+      if (n > number) {
+        toDownload.add(n);
+        iterator.remove();
+      }
+    }
+    toDownload.addAll(toImport.tailMap(number, false).keySet());
+    toImport.tailMap(number, false).clear();
+  }
+
   @Override
   public SemuxSyncProgress getProgress() {
     return new SemuxSyncProgress(
@@ -549,6 +985,19 @@ public class SemuxSync implements SyncManager {
         Duration.between(Instant.ofEpochMilli(beginningTimestamp.get()), Instant.now()));
   }
 
+  /** A block whose body didn't match its header, both received from different peers. */
+  private static class Mismatch {
+    private final BlockHeader header;
+    private final Channel headerChannel;
+    private final Channel bodyChannel;
+
+    private Mismatch(BlockHeader header, Channel headerChannel, Channel bodyChannel) {
+      this.header = header;
+      this.headerChannel = headerChannel;
+      this.bodyChannel = bodyChannel;
+    }
+  }
+
   public static class SemuxSyncProgress implements Progress {
 
     final long startingHeight;
@@ -0,0 +1,379 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.semux.Kernel;
+import org.semux.config.Config;
+import org.semux.core.BlockHeader;
+import org.semux.core.BlockPart;
+import org.semux.core.Blockchain;
+import org.semux.core.exception.BlockchainException;
+import org.semux.core.snapshot.Snapshot;
+import org.semux.core.snapshot.SnapshotManifest;
+import org.semux.net.Capability;
+import org.semux.net.Channel;
+import org.semux.net.ChannelManager;
+import org.semux.net.msg.consensus.BlockPartsRangeMessage;
+import org.semux.net.msg.consensus.GetBlockPartsRangeMessage;
+import org.semux.net.msg.consensus.GetSnapshotChunkMessage;
+import org.semux.net.msg.consensus.SnapshotChunkMessage;
+import org.semux.util.ByteArray;
+import org.semux.util.Bytes;
+import org.semux.util.FileUtil;
+import org.semux.util.TimeUtil;
+
+/**
+ * Bootstraps a new node from a state snapshot of the peers, before the blocks
+ * after it are synced.
+ * <p>
+ * The peers supporting {@link Capability#SNAPSHOT} are asked for the manifest
+ * of their latest snapshot, and the manifest committed to by the most peers is
+ * chosen. A snapshot is only accepted if its block leads to a checkpoint at or
+ * after it: the headers up to the checkpoint are downloaded, and must link the
+ * checkpoint back to the block, which must commit to a state root. Nothing
+ * taken from the snapshot is trusted to verify it.
+ * <p>
+ * The chunks are then downloaded in parallel from the peers, each of them
+ * verified against the manifest as it's received, before the snapshot is
+ * imported into the blockchain, which checks the state against the state root.
+ */
+public class SnapshotSync {
+
+    private static final Logger logger = Logger.getLogger(SnapshotSync.class.getName());
+
+    private static final String DOWNLOAD_DIR = "download";
+
+    private static final long MANIFEST_TIMEOUT = 5_000L;
+    private static final long HEADERS_TIMEOUT = 10_000L;
+    private static final long CHUNK_TIMEOUT = 30_000L;
+
+    // max number of headers requested at once
+    private static final int MAX_HEADERS = 1024;
+
+    // max number of chunks requested from one peer at once
+    private static final int MAX_REQUESTS_PER_PEER = 2;
+
+    private final Config config;
+    private final Blockchain chain;
+    private final ChannelManager channelMgr;
+
+    private final BlockingQueue<Pair<Channel, SnapshotChunkMessage>> responses = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Pair<Channel, BlockPartsRangeMessage>> headers = new LinkedBlockingQueue<>();
+
+    private volatile boolean isSyncing;
+
+    public SnapshotSync(Kernel kernel) {
+        this.config = kernel.getConfig();
+        this.chain = kernel.getBlockchain();
+        this.channelMgr = kernel.getChannelManager();
+    }
+
+    public void onMessage(Channel channel, SnapshotChunkMessage msg) {
+        responses.add(Pair.of(channel, msg));
+    }
+
+    public void onMessage(Channel channel, BlockPartsRangeMessage msg) {
+        headers.add(Pair.of(channel, msg));
+    }
+
+    /**
+     * Returns whether a snapshot is being looked for, so that the block headers
+     * received are for it.
+     *
+     * @return
+     */
+    public boolean isRunning() {
+        return isSyncing;
+    }
+
+    /**
+     * Downloads a snapshot and imports it, if the blockchain is new.
+     *
+     * @param targetHeight
+     *            the height being synced to
+     * @param isRunning
+     *            whether to carry on
+     * @return whether a snapshot was imported
+     */
+    public boolean run(long targetHeight, BooleanSupplier isRunning) {
+        if (chain.getLatestBlockNumber() != 0) {
+            return false;
+        }
+
+        List<Channel> channels = channelMgr.getActiveChannels().stream()
+                .filter(c -> Stream.of(c.getRemotePeer().getCapabilities())
+                        .anyMatch(Capability.SNAPSHOT.name()::equals))
+                .collect(Collectors.toList());
+        if (channels.isEmpty()) {
+            return false;
+        }
+        responses.clear();
+        headers.clear();
+
+        isSyncing = true;
+        try {
+            // [1] choose a manifest
+            Map<Channel, SnapshotManifest> manifests = requestManifests(channels, targetHeight);
+            Map<ByteArray, List<Channel>> peers = new HashMap<>();
+            for (Map.Entry<Channel, SnapshotManifest> e : manifests.entrySet()) {
+                peers.computeIfAbsent(ByteArray.of(e.getValue().getCommitment()), k -> new ArrayList<>())
+                        .add(e.getKey());
+            }
+            Map.Entry<ByteArray, List<Channel>> best = peers.entrySet().stream()
+                    .max(Comparator.<Map.Entry<ByteArray, List<Channel>>>comparingInt(e -> e.getValue().size())
+                            .thenComparingLong(e -> manifests.get(e.getValue().get(0)).getHeight()))
+                    .orElse(null);
+            if (best == null) {
+                logger.info("No snapshot available from the peers");
+                return false;
+            }
+            SnapshotManifest manifest = manifests.get(best.getValue().get(0));
+
+            // [2] check that the block of the snapshot leads to a checkpoint
+            if (!verifyCheckpoint(manifest, new ArrayList<>(best.getValue()), targetHeight, isRunning)) {
+                logger.info(String.format("The snapshot doesn't lead to a checkpoint: %s", manifest));
+                return false;
+            }
+            logger.info(String.format("Downloading snapshot from %s peers: %s", best.getValue().size(), manifest));
+
+            // [3] download the chunks
+            File dir = new File(config.snapshotDir(), DOWNLOAD_DIR);
+            if (dir.exists()) {
+                FileUtil.recursiveDelete(dir);
+            }
+            Files.createDirectories(dir.toPath());
+            try {
+                if (!downloadChunks(manifest, new ArrayList<>(best.getValue()), dir, isRunning)) {
+                    return false;
+                }
+
+                // [4] import
+                chain.importSnapshot(Snapshot.create(dir, manifest));
+                return true;
+            } finally {
+                FileUtil.recursiveDelete(dir);
+            }
+        } catch (IOException | BlockchainException e) {
+            logger.warning(String.format("Failed to bootstrap from a snapshot: %s", e.getMessage()));
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            isSyncing = false;
+        }
+    }
+
+    /**
+     * Returns the height of the first checkpoint at or after a block, below the
+     * height being synced to.
+     *
+     * @return the height, or null if there is none
+     */
+    private Long getCheckpoint(long height, long targetHeight) {
+        return config.checkpoints().keySet().stream()
+                .filter(n -> n >= height && n < targetHeight)
+                .min(Long::compare)
+                .orElse(null);
+    }
+
+    /**
+     * Requests the manifest of the latest snapshot of each peer.
+     */
+    private Map<Channel, SnapshotManifest> requestManifests(List<Channel> channels, long targetHeight)
+            throws InterruptedException {
+        for (Channel c : channels) {
+            c.getMessageQueue().sendMessage(new GetSnapshotChunkMessage(0, GetSnapshotChunkMessage.MANIFEST));
+        }
+
+        Map<Channel, SnapshotManifest> manifests = new LinkedHashMap<>();
+        int received = 0;
+        long deadline = TimeUtil.currentTimeMillis() + MANIFEST_TIMEOUT;
+        while (received < channels.size() && TimeUtil.currentTimeMillis() < deadline) {
+            Pair<Channel, SnapshotChunkMessage> p = responses.poll(100, TimeUnit.MILLISECONDS);
+            if (p == null || p.getRight().getIndex() != GetSnapshotChunkMessage.MANIFEST) {
+                continue;
+            }
+            received++;
+
+            byte[] data = p.getRight().getData();
+            if (data.length == 0) {
+                continue;
+            }
+            try {
+                SnapshotManifest manifest = SnapshotManifest.fromBytes(data);
+                Long checkpoint = getCheckpoint(manifest.getHeight(), targetHeight);
+                if (manifest.getNetwork() == config.network()
+                        && manifest.getHeight() > 0
+                        && manifest.getHeight() % config.spec().getValidatorUpdateInterval() == 0
+                        && checkpoint != null
+                        && (checkpoint != manifest.getHeight()
+                                || Arrays.equals(config.checkpoints().get(checkpoint), manifest.getBlockHash()))) {
+                    manifests.put(p.getLeft(), manifest);
+                }
+            } catch (RuntimeException e) {
+                logger.fine(String.format("Invalid snapshot manifest from %s", p.getLeft().getRemotePeer()));
+            }
+        }
+
+        return manifests;
+    }
+
+    /**
+     * Downloads the headers from the block of the snapshot to the first checkpoint
+     * after it, and checks that they link the checkpoint back to the block. The
+     * block must commit to a state root. A peer sending invalid headers, or none,
+     * is no longer used.
+     *
+     * @return whether the block leads to the checkpoint
+     */
+    private boolean verifyCheckpoint(SnapshotManifest manifest, List<Channel> peers, long targetHeight,
+            BooleanSupplier isRunning) throws InterruptedException {
+        long checkpoint = getCheckpoint(manifest.getHeight(), targetHeight);
+        peers.removeIf(c -> Stream.of(c.getRemotePeer().getCapabilities())
+                .noneMatch(Capability.SKELETON_SYNC.name()::equals));
+
+        long number = manifest.getHeight();
+        byte[] hash = null;
+        while (number <= checkpoint) {
+            if (!isRunning.getAsBoolean() || peers.isEmpty()) {
+                return false;
+            }
+
+            Channel c = peers.get(0);
+            int count = (int) Math.min(MAX_HEADERS, checkpoint - number + 1);
+            c.getMessageQueue()
+                    .sendMessage(new GetBlockPartsRangeMessage(number, count, BlockPart.encode(BlockPart.HEADER)));
+
+            BlockPartsRangeMessage msg = null;
+            long deadline = TimeUtil.currentTimeMillis() + HEADERS_TIMEOUT;
+            while (msg == null && TimeUtil.currentTimeMillis() < deadline) {
+                Pair<Channel, BlockPartsRangeMessage> p = headers.poll(100, TimeUnit.MILLISECONDS);
+                if (p != null && p.getLeft() == c && p.getRight().getNumber() == number) {
+                    msg = p.getRight();
+                }
+            }
+
+            boolean isValid = msg != null && !msg.getData().isEmpty();
+            for (int i = 0; isValid && i < msg.getData().size() && number <= checkpoint; i++) {
+                BlockHeader header = parseHeader(msg.getData().get(i));
+                isValid = header != null
+                        && header.validate()
+                        && header.getNumber() == number
+                        && (hash == null
+                                ? Arrays.equals(header.getHash(), manifest.getBlockHash())
+                                        && !Arrays.equals(header.getStateRoot(), Bytes.EMPTY_HASH)
+                                : Arrays.equals(header.getParentHash(), hash));
+                if (isValid) {
+                    hash = header.getHash();
+                    number++;
+                }
+            }
+            if (!isValid) {
+                logger.info(String.format("Invalid or no block headers from %s", c.getRemotePeer()));
+                peers.remove(c);
+            }
+        }
+
+        return Arrays.equals(hash, config.checkpoints().get(checkpoint));
+    }
+
+    private BlockHeader parseHeader(List<byte[]> parts) {
+        try {
+            return parts.size() == 1 ? BlockHeader.fromBytes(parts.get(0)) : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Downloads the chunks in parallel from the peers. A peer sending a chunk not
+     * matching the manifest is no longer used.
+     *
+     * @return whether all the chunks have been downloaded
+     */
+    private boolean downloadChunks(SnapshotManifest manifest, List<Channel> peers, File dir,
+            BooleanSupplier isRunning) throws IOException, InterruptedException {
+        TreeSet<Integer> toDownload = new TreeSet<>();
+        for (int i = 0; i < manifest.getChunkCount(); i++) {
+            toDownload.add(i);
+        }
+        Map<Integer, Pair<Channel, Long>> requested = new HashMap<>();
+        int downloaded = 0;
+
+        while (!toDownload.isEmpty() || !requested.isEmpty()) {
+            if (!isRunning.getAsBoolean() || peers.isEmpty()) {
+                return false;
+            }
+
+            // re-request the chunks timed out
+            long now = TimeUtil.currentTimeMillis();
+            requested.entrySet().removeIf(e -> {
+                if (e.getValue().getRight() + CHUNK_TIMEOUT < now) {
+                    toDownload.add(e.getKey());
+                    return true;
+                }
+                return false;
+            });
+
+            for (Channel c : peers) {
+                long load = requested.values().stream().filter(r -> r.getLeft() == c).count();
+                for (; load < MAX_REQUESTS_PER_PEER && !toDownload.isEmpty(); load++) {
+                    int index = toDownload.pollFirst();
+                    c.getMessageQueue().sendMessage(new GetSnapshotChunkMessage(manifest.getHeight(), index));
+                    requested.put(index, Pair.of(c, now));
+                }
+            }
+
+            Pair<Channel, SnapshotChunkMessage> p = responses.poll(100, TimeUnit.MILLISECONDS);
+            if (p == null) {
+                continue;
+            }
+            SnapshotChunkMessage msg = p.getRight();
+            Pair<Channel, Long> request = requested.get(msg.getIndex());
+            if (msg.getHeight() != manifest.getHeight() || request == null || request.getLeft() != p.getLeft()) {
+                continue;
+            }
+            requested.remove(msg.getIndex());
+
+            if (Snapshot.verifyChunk(manifest, msg.getIndex(), msg.getData())) {
+                Snapshot.writeChunk(dir, msg.getIndex(), msg.getData());
+                if (++downloaded % 100 == 0) {
+                    logger.info(String.format("Downloaded %s / %s snapshot chunks", downloaded,
+                            manifest.getChunkCount()));
+                }
+            } else {
+                logger.info(String.format("Invalid snapshot chunk #%s from %s", msg.getIndex(),
+                        p.getLeft().getRemotePeer()));
+                peers.remove(p.getLeft());
+                toDownload.add(msg.getIndex());
+            }
+        }
+
+        return true;
+    }
+}
@@ -58,6 +58,13 @@ public class Block {
     // Auxiliary data
     // =========================
 
+    /**
+     * The network the transactions of this block have been successfully validated
+     * for, or null. The stateless checks are done once, possibly ahead of the
+     * import.
+     */
+    private volatile Network validatedNetwork;
+
     /**
      * Create a new block.
      *
@@ -172,6 +179,10 @@ public class Block {
      */
     public boolean validateTransactions(BlockHeader header, Collection<Transaction> unvalidatedTransactions,
             List<Transaction> allTransactions, Network network) {
+        boolean isOwn = header == this.header && allTransactions.equals(transactions);
+        if (isOwn && network == validatedNetwork) {
+            return true;
+        }
 
         // validate transactions
         if (!Key.isVerifyBatchSupported() || unvalidatedTransactions.size() < 3) {
@@ -192,7 +203,25 @@ public class Block {
 
         // validate transactions root
         byte[] root = MerkleUtil.computeTransactionsRoot(allTransactions);
-        return Arrays.equals(root, header.getTransactionsRoot());
+        if (!Arrays.equals(root, header.getTransactionsRoot())) {
+            return false;
+        }
+
+        if (isOwn && unvalidatedTransactions.size() == allTransactions.size()) {
+            validatedNetwork = network;
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the transactions of this block have already been validated
+     * for the given network.
+     *
+     * @param network
+     * @return
+     */
+    boolean isTransactionsValidated(Network network) {
+        return validatedNetwork == network;
     }
 
     /**
@@ -13,7 +13,6 @@ import java.util.Arrays;
 import org.semux.crypto.Hash;
 import org.semux.crypto.Hex;
 import org.semux.crypto.Key;
-import org.semux.util.Bytes;
 import org.semux.util.SimpleDecoder;
 import org.semux.util.SimpleEncoder;
 
@@ -109,10 +108,19 @@ public class BlockHeader {
                 && timestamp >= 0
                 && transactionsRoot != null && transactionsRoot.length == HASH_LEN
                 && resultsRoot != null && resultsRoot.length == HASH_LEN
-                && stateRoot != null && Arrays.equals(Bytes.EMPTY_HASH, stateRoot) // RESERVED FOR VM
+                && stateRoot != null && stateRoot.length == HASH_LEN
                 && data != null && data.length <= BlockHeaderData.MAX_SIZE
                 && encoded != null
-                && Arrays.equals(Hash.h256(encoded), hash);
+                && isHashValid();
+    }
+
+    /**
+     * Returns whether the hash is the one of the encoded header.
+     *
+     * @return
+     */
+    public boolean isHashValid() {
+        return Arrays.equals(Hash.h256(encoded), hash);
     }
 
     public byte[] getHash() {
@@ -6,12 +6,18 @@
  */
 package org.semux.core;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.semux.core.BlockchainImpl.ValidatorStats;
+import org.semux.core.exception.BlockchainException;
+import org.semux.core.snapshot.Snapshot;
+import org.semux.core.snapshot.SnapshotExport;
 import org.semux.core.state.AccountState;
 import org.semux.core.state.DelegateState;
+import org.semux.core.state.StateTrie;
 import org.semux.vm.client.SemuxInternalTransaction;
 
 public interface Blockchain {
@@ -84,6 +90,19 @@ public interface Blockchain {
      */
     BlockHeader getBlockHeader(byte[] hash);
 
+    /**
+     * Returns the requested parts of a block, as they are stored, without
+     * decoding them. The returned arrays may be shared and must not be modified.
+     *
+     * @param number
+     *            the block number
+     * @param parts
+     *            the parts, encoded by {@link BlockPart#encode(BlockPart...)}
+     * @return the encoded parts, in the order of {@link BlockPart}, or null if the
+     *         block is not stored
+     */
+    List<byte[]> getBlockParts(long number, int parts);
+
     /**
      * Returns whether the block is existing.
      *
@@ -260,6 +279,22 @@ public interface Blockchain {
      */
     boolean importBlock(Block block, boolean validateVotes);
 
+    /**
+     * Imports a new block whose transactions have already been validated and
+     * executed on the given tracked states, typically during the validation of a
+     * BFT proposal. Falls back to a full import if the states were not tracked
+     * from the latest block.
+     *
+     * @param block
+     *            the validated block, with its results
+     * @param asTrack
+     *            the account state after the execution of the block
+     * @param dsTrack
+     *            the delegate state after the execution of the block
+     * @return true if the block is successfully imported; otherwise, false
+     */
+    boolean importBlock(Block block, AccountState asTrack, DelegateState dsTrack);
+
     /**
      * Validate the block votes only.
      *
@@ -267,6 +302,83 @@ public interface Blockchain {
      */
     boolean validateBlockVotes(Block block);
 
+    /**
+     * Returns the state root a block commits to, once executed on the given
+     * tracked states: the root of the state trie after the block reward is
+     * applied, or {@link org.semux.util.Bytes#EMPTY_HASH} before the
+     * {@link Fork#STATE_ROOT} fork, or if the state trie isn't maintained. The
+     * states are not modified.
+     *
+     * @param block
+     *            the block, with its results
+     * @param asTrack
+     *            the account state after the execution of the block
+     * @param dsTrack
+     *            the delegate state after the execution of the block
+     * @return
+     */
+    byte[] getStateRoot(Block block, AccountState asTrack, DelegateState dsTrack);
+
+    /**
+     * Returns the proof of an account against the state root of the latest
+     * block, for the value {@link org.semux.core.state.Account#toBytes()}, or
+     * null if the account doesn't exist. There's no proof if the state trie isn't
+     * maintained, see {@link org.semux.config.Config#forkStateRootEnabled()}.
+     *
+     * @param address
+     * @return
+     */
+    StateTrie.Proof getAccountProof(byte[] address);
+
+    /**
+     * Returns the proof of a storage slot of a contract against the state root of
+     * the latest block, for the raw value of the slot, or null if it doesn't
+     * exist. There's no proof if the state trie isn't maintained.
+     *
+     * @param address
+     * @param key
+     * @return
+     */
+    StateTrie.Proof getStorageProof(byte[] address, byte[] key);
+
+    /**
+     * Exports a snapshot of the state at the latest block, together with the
+     * latest blocks, into the given directory. Blocks can still be added while
+     * the snapshot is being written.
+     *
+     * @param dir
+     *            an empty directory
+     * @return the snapshot
+     * @throws IOException
+     * @throws BlockchainException
+     *             if the latest block is not a validator set update
+     */
+    Snapshot exportSnapshot(File dir) throws IOException;
+
+    /**
+     * Captures the state at the latest block, together with the latest blocks, to
+     * be exported as a snapshot later on. Blocks can still be added before and
+     * while the snapshot is being written.
+     *
+     * @return the captured state, to be closed once written
+     * @throws BlockchainException
+     *             if the latest block is not a validator set update
+     */
+    SnapshotExport prepareSnapshot();
+
+    /**
+     * Imports a snapshot into a new database, replacing the genesis state, so
+     * that the chain resumes at the block the snapshot was taken at. If the import
+     * fails or is interrupted, the database is reset to the genesis block.
+     *
+     * @param snapshot
+     *            the snapshot
+     * @throws IOException
+     * @throws BlockchainException
+     *             if the database is not new, or the snapshot is invalid
+     */
+    void importSnapshot(Snapshot snapshot) throws IOException;
+
     boolean isVMEnabled();
 
     boolean isVotingPrecompiledUpgraded();
@@ -6,10 +6,12 @@
  */
 package org.semux.core;
 
+import static org.semux.core.Fork.STATE_ROOT;
 import static org.semux.core.Fork.UNIFORM_DISTRIBUTION;
 import static org.semux.core.Fork.VIRTUAL_MACHINE;
 import static org.semux.core.Fork.VOTING_PRECOMPILED_UPGRADE;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -21,6 +23,7 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -40,13 +43,18 @@ import org.semux.consensus.VoteType;
 import org.semux.core.Genesis.Premine;
 import org.semux.core.event.BlockchainDatabaseUpgradingEvent;
 import org.semux.core.exception.BlockchainException;
+import org.semux.core.snapshot.Snapshot;
+import org.semux.core.snapshot.SnapshotExport;
+import org.semux.core.snapshot.SnapshotManifest;
 import org.semux.core.state.AccountState;
 import org.semux.core.state.AccountStateImpl;
 import org.semux.core.state.Delegate;
 import org.semux.core.state.DelegateState;
 import org.semux.core.state.DelegateStateImpl;
+import org.semux.core.state.StateTrie;
 import org.semux.crypto.Hex;
 import org.semux.crypto.Key;
+import org.semux.db.BatchedDatabaseFactory;
 import org.semux.db.Database;
 import org.semux.db.DatabaseFactory;
 import org.semux.db.DatabaseName;
@@ -54,6 +62,8 @@ import org.semux.db.LeveldbDatabase;
 import org.semux.event.PubSubFactory;
 import org.semux.util.ByteArray;
 import org.semux.util.Bytes;
+import org.semux.util.ClosableIterator;
+import org.semux.util.MerkleUtil;
 import org.semux.util.SimpleDecoder;
 import org.semux.util.SimpleEncoder;
 import org.semux.util.TimeUtil;
@@ -61,6 +71,9 @@ import org.semux.vm.client.SemuxBlock;
 import org.semux.vm.client.SemuxBlockStore;
 import org.semux.vm.client.SemuxInternalTransaction;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 /**
  * Blockchain implementation.
  *
@@ -75,7 +88,10 @@ import org.semux.vm.client.SemuxInternalTransaction;
  * [4, transaction_hash] => [block_number, from, to] | [coinbase_transaction]
  * [5, address, n] => [transaction_hash]
  * [7] => [activated forks]
+ * [9] => [snapshot_import_height], while a snapshot is being imported
+ * [10] => [state_trie_block_number]
  *
+ * [0xfe] => [commit journal]
  * [0xff] => [database version]
  * </pre>
  *
@@ -105,6 +121,8 @@ public class BlockchainImpl implements Blockchain {
     protected static final byte TYPE_ACTIVATED_FORKS = 0x06;
     protected static final byte TYPE_INTERNAL_TRANSACTION_COUNT_BY_ADDRESS = 0x07;
     protected static final byte TYPE_INTERNAL_TRANSACTION_BY_ADDRESS_AND_INDEX = 0x08;
+    protected static final byte TYPE_SNAPSHOT_IMPORT = 0x09;
+    protected static final byte TYPE_STATE_TRIE_BLOCK_NUMBER = 0x0a;
     protected static final byte TYPE_DATABASE_VERSION = (byte) 0xff;
 
     protected static final byte TYPE_BLOCK_HEADER_BY_NUMBER = 0x00;
@@ -112,9 +130,41 @@ public class BlockchainImpl implements Blockchain {
     protected static final byte TYPE_BLOCK_RESULTS_BY_NUMBER = 0x02;
     protected static final byte TYPE_BLOCK_VOTES_BY_NUMBER = 0x03;
 
+    /**
+     * The number of latest blocks included in a snapshot.
+     */
+    protected static final int SNAPSHOT_BLOCKS = 2048;
+
+    /**
+     * The databases holding the state, copied whole into a snapshot.
+     */
+    private static final DatabaseName[] SNAPSHOT_STATES = {
+            DatabaseName.ACCOUNT,
+            DatabaseName.DELEGATE,
+            DatabaseName.VOTE
+    };
+
+    /**
+     * The number of records added to the state trie at once, when it's rebuilt.
+     */
+    private static final int STATE_TRIE_BATCH_SIZE = 50_000;
+
+    /**
+     * The maximum size, in bytes, of the recently served blocks kept encoded.
+     */
+    private static final long BLOCK_PARTS_CACHE_SIZE = 16L * 1024 * 1024;
+
     private final BlockStore blockStore = new SemuxBlockStore(this);
     private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
 
+    /**
+     * The stored components of the recently served blocks, by block number.
+     */
+    private final Cache<Long, byte[][]> blockParts = Caffeine.newBuilder()
+            .maximumWeight(BLOCK_PARTS_CACHE_SIZE)
+            .weigher((Long k, byte[][] v) -> Arrays.stream(v).mapToInt(b -> b.length).sum())
+            .build();
+
     protected enum StatsType {
         FORGED, HIT, MISSED
     }
@@ -123,11 +173,14 @@ public class BlockchainImpl implements Blockchain {
     private final Config config;
     private final Genesis genesis;
 
+    private BatchedDatabaseFactory dbFactory;
+
     private Database indexDB;
     private Database blockDB;
 
-    private AccountState accountState;
-    private DelegateState delegateState;
+    private StateTrie stateTrie;
+    private AccountStateImpl accountState;
+    private DelegateStateImpl delegateState;
 
     private Block latestBlock;
 
@@ -143,16 +196,23 @@ public class BlockchainImpl implements Blockchain {
         openDb(config, dbFactory);
     }
 
-    private synchronized void openDb(Config config, DatabaseFactory dbFactory) {
+    private synchronized void openDb(Config config, DatabaseFactory factory) {
+        // group all the writes of a block into one batch per database
+        this.dbFactory = new BatchedDatabaseFactory(factory, config.dbCommitJournal());
+
         // upgrade if possible
         upgradeDatabase(config, dbFactory);
 
         this.indexDB = dbFactory.getDB(DatabaseName.INDEX);
         this.blockDB = dbFactory.getDB(DatabaseName.BLOCK);
 
-        this.accountState = new AccountStateImpl(dbFactory.getDB(DatabaseName.ACCOUNT));
-        this.delegateState = new DelegateStateImpl(this, dbFactory.getDB(DatabaseName.DELEGATE),
-                dbFactory.getDB(DatabaseName.VOTE));
+        // undo a snapshot import which didn't complete
+        if (indexDB.get(Bytes.of(TYPE_SNAPSHOT_IMPORT)) != null) {
+            logger.warning("The import of a snapshot was interrupted, resetting the database");
+            clearDatabases();
+        }
+
+        openState();
 
         // checks if the database needs to be initialized
         byte[] number = indexDB.get(Bytes.of(TYPE_LATEST_BLOCK_NUMBER));
@@ -166,7 +226,95 @@ public class BlockchainImpl implements Blockchain {
         } else {
             // load the latest block
             latestBlock = getBlock(Bytes.toLong(number));
+
+            // rebuild the state trie when it's behind the state: the database was
+            // created before it, written without it, or its last build didn't complete
+            byte[] trieNumber = indexDB.get(Bytes.of(TYPE_STATE_TRIE_BLOCK_NUMBER));
+            if (stateTrie != null
+                    && (trieNumber == null || Bytes.toLong(trieNumber) != latestBlock.getNumber())) {
+                rebuildStateTrie(latestBlock.getNumber());
+            }
+        }
+    }
+
+    /**
+     * Opens the account and delegate states, and the state trie if the
+     * {@link Fork#STATE_ROOT} fork is enabled.
+     */
+    private void openState() {
+        this.stateTrie = config.forkStateRootEnabled() ? new StateTrie(dbFactory.getDB(DatabaseName.STATE)) : null;
+        this.accountState = new AccountStateImpl(dbFactory.getDB(DatabaseName.ACCOUNT), config.dbAccountCacheSize());
+        this.delegateState = new DelegateStateImpl(this, dbFactory.getDB(DatabaseName.DELEGATE),
+                dbFactory.getDB(DatabaseName.VOTE));
+    }
+
+    /**
+     * Deletes everything from all the databases. INDEX goes last, as it holds the
+     * latest block number and the snapshot import marker.
+     */
+    private void clearDatabases() {
+        for (DatabaseName name : DatabaseName.values()) {
+            if (name != DatabaseName.INDEX) {
+                clearDatabase(dbFactory.getDB(name));
+            }
         }
+        clearDatabase(indexDB);
+        blockParts.invalidateAll();
+    }
+
+    /**
+     * Deletes all the records of a database, as one batch.
+     *
+     * @param db
+     */
+    private static void clearDatabase(Database db) {
+        List<Pair<byte[], byte[]>> deletes = new ArrayList<>();
+        ClosableIterator<Entry<byte[], byte[]>> it = db.iterator();
+        try {
+            while (it.hasNext()) {
+                deletes.add(Pair.of(it.next().getKey(), null));
+            }
+        } finally {
+            it.close();
+        }
+        db.updateBatch(deletes);
+    }
+
+    /**
+     * Builds the state trie from the state databases, as of the given block. The
+     * block number is written last, so that an interrupted build is done again.
+     *
+     * @param number
+     */
+    private void rebuildStateTrie(long number) {
+        logger.info("Building the state trie...");
+
+        clearDatabase(dbFactory.getDB(DatabaseName.STATE));
+        stateTrie.invalidateCache();
+
+        DatabaseName[] names = { DatabaseName.ACCOUNT, DatabaseName.DELEGATE, DatabaseName.VOTE };
+        byte[] namespaces = { StateTrie.NAMESPACE_ACCOUNT, StateTrie.NAMESPACE_DELEGATE, StateTrie.NAMESPACE_VOTE };
+        for (int i = 0; i < names.length; i++) {
+            Map<ByteArray, byte[]> records = new HashMap<>();
+            ClosableIterator<Entry<byte[], byte[]>> it = dbFactory.getDB(names[i]).iterator();
+            try {
+                while (it.hasNext()) {
+                    Entry<byte[], byte[]> e = it.next();
+                    records.put(ByteArray.of(e.getKey()), e.getValue());
+                    if (records.size() >= STATE_TRIE_BATCH_SIZE) {
+                        stateTrie.update(namespaces[i], records);
+                        records.clear();
+                    }
+                }
+            } finally {
+                it.close();
+            }
+            stateTrie.update(namespaces[i], records);
+        }
+
+        indexDB.put(Bytes.of(TYPE_STATE_TRIE_BLOCK_NUMBER), Bytes.of(number));
+
+        logger.info(String.format("Built the state trie, root = %s", Hex.encode0x(stateTrie.getRoot())));
     }
 
     private void initializeDb() {
@@ -177,16 +325,14 @@ public class BlockchainImpl implements Blockchain {
         for (Premine p : genesis.getPremines().values()) {
             accountState.adjustAvailable(p.getAddress(), p.getAmount());
         }
-        accountState.commit();
 
         // delegates
         for (Entry<String, byte[]> e : genesis.getDelegates().entrySet()) {
             delegateState.register(e.getValue(), Bytes.of(e.getKey()), 0);
         }
-        delegateState.commit();
 
-        // add block
-        addBlock(genesis);
+        // add block, with the state
+        addBlock(genesis, true);
     }
 
     @Override
@@ -243,6 +389,40 @@ public class BlockchainImpl implements Blockchain {
         return (number == -1) ? null : getBlockHeader(number);
     }
 
+    @Override
+    public List<byte[]> getBlockParts(long number, int parts) {
+        List<BlockPart> requested = BlockPart.decode(parts);
+
+        byte[][] components = blockParts.getIfPresent(number);
+        if (components == null) {
+            // the headers are requested alone by the skeleton sync, for many blocks
+            if (requested.size() == 1 && requested.get(0) == BlockPart.HEADER) {
+                byte[] header = blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER_BY_NUMBER, Bytes.of(number)));
+                return (header == null) ? null : Collections.singletonList(header);
+            }
+
+            components = new byte[BlockPart.values().length][];
+            components[BlockPart.HEADER.ordinal()] = blockDB
+                    .get(Bytes.merge(TYPE_BLOCK_HEADER_BY_NUMBER, Bytes.of(number)));
+            if (components[BlockPart.HEADER.ordinal()] == null) {
+                return null;
+            }
+            components[BlockPart.TRANSACTIONS.ordinal()] = blockDB
+                    .get(Bytes.merge(TYPE_BLOCK_TRANSACTIONS_BY_NUMBER, Bytes.of(number)));
+            components[BlockPart.RESULTS.ordinal()] = blockDB
+                    .get(Bytes.merge(TYPE_BLOCK_RESULTS_BY_NUMBER, Bytes.of(number)));
+            components[BlockPart.VOTES.ordinal()] = blockDB
+                    .get(Bytes.merge(TYPE_BLOCK_VOTES_BY_NUMBER, Bytes.of(number)));
+            blockParts.put(number, components);
+        }
+
+        List<byte[]> result = new ArrayList<>(requested.size());
+        for (BlockPart part : requested) {
+            result.add(components[part.ordinal()]);
+        }
+        return result;
+    }
+
     @Override
     public boolean hasBlock(long number) {
         return blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER_BY_NUMBER, Bytes.of(number))) != null;
@@ -343,6 +523,66 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public synchronized void addBlock(Block block) {
+        addBlock(block, false);
+    }
+
+    /**
+     * Adds a block to the chain. All the database writes, including the pending
+     * updates of the account and delegate state when <code>flushState</code> is
+     * set, are committed as one write batch per database. The state trie is
+     * updated with the pending updates of both states at once, and marked as in
+     * sync with the block.
+     *
+     * @param block
+     * @param flushState
+     */
+    protected synchronized void addBlock(Block block, boolean flushState) {
+        // the pending updates are restored if the database writes are discarded
+        Map<ByteArray, byte[]> accountUpdates = flushState ? accountState.copyUpdates() : null;
+        List<Map<ByteArray, byte[]>> delegateUpdates = flushState ? delegateState.copyUpdates() : null;
+
+        dbFactory.begin();
+        try {
+            if (flushState) {
+                if (stateTrie != null) {
+                    stateTrie.update(accountState, delegateState);
+                    indexDB.put(Bytes.of(TYPE_STATE_TRIE_BLOCK_NUMBER), Bytes.of(block.getNumber()));
+                }
+                this.getAccountState().commit();
+                this.getDelegateState().commit();
+            }
+            writeBlock(block);
+            dbFactory.commit();
+        } catch (RuntimeException e) {
+            dbFactory.rollback();
+            blockParts.invalidateAll();
+            if (stateTrie != null) {
+                stateTrie.invalidateCache();
+            }
+            accountState.invalidateCache();
+            delegateState.resetRanking();
+            if (flushState) {
+                accountState.restoreUpdates(accountUpdates);
+                delegateState.restoreUpdates(delegateUpdates);
+            }
+            throw e;
+        }
+
+        latestBlock = block;
+
+        for (BlockchainListener listener : listeners) {
+            listener.onBlockAdded(block);
+        }
+
+        activateForks();
+    }
+
+    /**
+     * Writes a block and its indices to the database.
+     *
+     * @param block
+     */
+    protected void writeBlock(Block block) {
         long number = block.getNumber();
         byte[] hash = block.getHash();
 
@@ -421,14 +661,7 @@ public class BlockchainImpl implements Blockchain {
         }
 
         // [7] update latest_block
-        latestBlock = block;
         indexDB.put(Bytes.of(TYPE_LATEST_BLOCK_NUMBER), Bytes.of(number));
-
-        for (BlockchainListener listener : listeners) {
-            listener.onBlockAdded(block);
-        }
-
-        activateForks();
     }
 
     @Override
@@ -493,10 +726,8 @@ public class BlockchainImpl implements Blockchain {
     public void updateValidators(long number) {
         List<String> validators = new ArrayList<>();
 
-        List<Delegate> delegates = delegateState.getDelegates();
-        int max = Math.min(delegates.size(), config.spec().getNumberOfValidators(number));
-        for (int i = 0; i < max; i++) {
-            Delegate d = delegates.get(i);
+        List<Delegate> delegates = delegateState.getDelegates(config.spec().getNumberOfValidators(number));
+        for (Delegate d : delegates) {
             validators.add(Hex.encode(d.getAddress()));
         }
 
@@ -729,6 +960,10 @@ public class BlockchainImpl implements Blockchain {
             addFork(set, VOTING_PRECOMPILED_UPGRADE);
         }
 
+        if (config.forkStateRootEnabled()) {
+            addFork(set, STATE_ROOT);
+        }
+
         return set.isEmpty() ? new BlockHeaderData().toBytes() : new BlockHeaderData(ForkSignalSet.of(set)).toBytes();
     }
 
@@ -753,6 +988,28 @@ public class BlockchainImpl implements Blockchain {
         return validateBlock(block, asTrack, dsTrack, validateVotes) && applyBlock(block, asTrack, dsTrack);
     }
 
+    @Override
+    public boolean importBlock(Block block, AccountState asTrack, DelegateState dsTrack) {
+        // the states are only valid on top of the parent they were executed on, which
+        // must still be the latest block when they're committed
+        ReentrantReadWriteLock.WriteLock writeLock = this.stateLock.writeLock();
+        writeLock.lock();
+        try {
+            synchronized (this) {
+                if (Arrays.equals(block.getParentHash(), this.getLatestBlockHash())) {
+                    return applyBlock(block, asTrack, dsTrack);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        logger.fine(String.format("Stale pre-executed state for block #%d, re-executing", block.getNumber()));
+        asTrack.rollback();
+        dsTrack.rollback();
+        return importBlock(block, false);
+    }
+
     /**
      * Validate the block. Votes are validated only if validateVotes is true.
      *
@@ -806,6 +1063,13 @@ public class BlockchainImpl implements Blockchain {
             }
             block.setResults(results); // overwrite the results
 
+            // check the state root, including the block reward; it's empty until the fork
+            // is activated, or if the trie isn't maintained
+            if (!Arrays.equals(header.getStateRoot(), getStateRoot(block, asTrack, dsTrack))) {
+                logger.severe("Invalid state root");
+                return false;
+            }
+
             // [4] evaluate votes
             if (validateVotes) {
                 return validateBlockVotes(block);
@@ -880,12 +1144,8 @@ public class BlockchainImpl implements Blockchain {
         ReentrantReadWriteLock.WriteLock writeLock = this.stateLock.writeLock();
         writeLock.lock();
         try {
-            // [7] flush state to disk
-            this.getAccountState().commit();
-            this.getDelegateState().commit();
-
-            // [8] add block to chain
-            this.addBlock(block);
+            // [7] flush state to disk and add block to chain, in one batch
+            this.addBlock(block, true);
         } finally {
             writeLock.unlock();
         }
@@ -909,6 +1169,10 @@ public class BlockchainImpl implements Blockchain {
                 && forks.activateFork(VOTING_PRECOMPILED_UPGRADE)) {
             setActivatedForks(forks.getActivatedForks());
         }
+        if (config.forkStateRootEnabled()
+                && forks.activateFork(STATE_ROOT)) {
+            setActivatedForks(forks.getActivatedForks());
+        }
     }
 
     /**
@@ -944,6 +1208,295 @@ public class BlockchainImpl implements Blockchain {
         indexDB.put(Bytes.of(TYPE_ACTIVATED_FORKS), simpleEncoder.toBytes());
     }
 
+    @Override
+    public byte[] getStateRoot(Block block, AccountState asTrack, DelegateState dsTrack) {
+        if (stateTrie == null || !isForkActivated(STATE_ROOT, block.getNumber())) {
+            return Bytes.EMPTY_HASH;
+        }
+
+        // apply the block reward on a layer of its own, reverted afterwards
+        AccountState as = asTrack.track();
+        try {
+            Amount reward = Block.getBlockReward(block, config);
+            if (reward.isPositive()) {
+                as.adjustAvailable(block.getCoinbase(), reward);
+            }
+            return stateTrie.getRoot(as, dsTrack);
+        } finally {
+            as.rollback();
+        }
+    }
+
+    /**
+     * Returns the state trie, kept in sync with the committed state, or null if
+     * the {@link Fork#STATE_ROOT} fork isn't enabled.
+     *
+     * @return
+     */
+    public StateTrie getStateTrie() {
+        return stateTrie;
+    }
+
+    @Override
+    public StateTrie.Proof getAccountProof(byte[] address) {
+        return stateTrie == null ? null : stateTrie.getProof(StateTrie.getAccountKey(address));
+    }
+
+    @Override
+    public StateTrie.Proof getStorageProof(byte[] address, byte[] key) {
+        return stateTrie == null ? null : stateTrie.getProof(StateTrie.getStorageKey(address, key));
+    }
+
+    @Override
+    public Snapshot exportSnapshot(File dir) throws IOException {
+        try (SnapshotExport export = prepareSnapshot()) {
+            return export.writeTo(dir);
+        }
+    }
+
+    @Override
+    public synchronized SnapshotExport prepareSnapshot() {
+        Block block = latestBlock;
+        if (block.getNumber() % config.spec().getValidatorUpdateInterval() != 0) {
+            throw new BlockchainException("Snapshots can only be taken at a validator set update");
+        }
+
+        // the other index records are derived from the state and the blocks
+        byte[] activatedForks = indexDB.get(Bytes.of(TYPE_ACTIVATED_FORKS));
+
+        // the iterators see the state as of their creation
+        List<Pair<DatabaseName, ClosableIterator<Entry<byte[], byte[]>>>> states = new ArrayList<>();
+        for (DatabaseName name : SNAPSHOT_STATES) {
+            states.add(Pair.of(name, dbFactory.getDB(name).iterator()));
+        }
+
+        return new SnapshotExport() {
+            @Override
+            public long getHeight() {
+                return block.getNumber();
+            }
+
+            @Override
+            public Snapshot writeTo(File dir) throws IOException {
+                Snapshot.Writer writer = new Snapshot.Writer(dir);
+                if (activatedForks != null) {
+                    writer.add(DatabaseName.INDEX, Bytes.of(TYPE_ACTIVATED_FORKS), activatedForks);
+                }
+
+                // the latest blocks, for the fork activation and the BLOCKHASH opcode, which
+                // aren't updated once added
+                for (long n = Math.max(1, block.getNumber() - SNAPSHOT_BLOCKS + 1); n <= block.getNumber(); n++) {
+                    for (byte type : new byte[] { TYPE_BLOCK_HEADER_BY_NUMBER, TYPE_BLOCK_TRANSACTIONS_BY_NUMBER,
+                            TYPE_BLOCK_RESULTS_BY_NUMBER, TYPE_BLOCK_VOTES_BY_NUMBER }) {
+                        byte[] key = Bytes.merge(type, Bytes.of(n));
+                        writer.add(DatabaseName.BLOCK, key, blockDB.get(key));
+                    }
+                }
+
+                for (Pair<DatabaseName, ClosableIterator<Entry<byte[], byte[]>>> p : states) {
+                    ClosableIterator<Entry<byte[], byte[]>> it = p.getRight();
+                    while (it.hasNext()) {
+                        Entry<byte[], byte[]> e = it.next();
+                        writer.add(p.getLeft(), e.getKey(), e.getValue());
+                    }
+                }
+
+                return writer.finish(config.network(), block.getNumber(), block.getHash());
+            }
+
+            @Override
+            public void close() {
+                for (Pair<DatabaseName, ClosableIterator<Entry<byte[], byte[]>>> p : states) {
+                    p.getRight().close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public synchronized void importSnapshot(Snapshot snapshot) throws IOException {
+        SnapshotManifest manifest = snapshot.getManifest();
+        if (latestBlock.getNumber() != genesis.getNumber()) {
+            throw new BlockchainException("Snapshots can only be imported into a new database");
+        }
+        if (manifest.getNetwork() != config.network()) {
+            throw new BlockchainException("The snapshot is of another network: " + manifest.getNetwork());
+        }
+        if (manifest.getHeight() % config.spec().getValidatorUpdateInterval() != 0) {
+            throw new BlockchainException("The snapshot isn't taken at a validator set update");
+        }
+        if (!snapshot.verify()) {
+            throw new BlockchainException("The snapshot chunks don't match the manifest");
+        }
+
+        ReentrantReadWriteLock.WriteLock lock = stateLock.writeLock();
+        lock.lock();
+        try {
+            // mark the import first, so that an interrupted one is undone
+            indexDB.put(Bytes.of(TYPE_SNAPSHOT_IMPORT), Bytes.of(manifest.getHeight()));
+            try {
+                Block block = writeSnapshot(snapshot);
+
+                // the validator set is derived from the verified delegate state
+                openState();
+                updateValidators(block.getNumber());
+
+                // the latest block number goes last, as in a commit
+                List<Pair<byte[], byte[]>> updates = new ArrayList<>();
+                updates.add(Pair.of(Bytes.of(TYPE_LATEST_BLOCK_NUMBER), Bytes.of(block.getNumber())));
+                updates.add(Pair.of(Bytes.of(TYPE_SNAPSHOT_IMPORT), null));
+                indexDB.updateBatch(updates);
+
+                latestBlock = block;
+            } catch (IOException | RuntimeException e) {
+                logger.warning(String.format("Failed to import the snapshot, resetting the database: %s",
+                        e.getMessage()));
+                clearDatabases();
+                openState();
+                forks = new ActivatedForks(this, config, getActivatedForks());
+                initializeDb();
+                throw e;
+            }
+
+            forks = new ActivatedForks(this, config, getActivatedForks());
+        } finally {
+            lock.unlock();
+        }
+
+        logger.info(String.format("Imported the snapshot of block #%s", latestBlock.getNumber()));
+
+        for (BlockchainListener listener : listeners) {
+            listener.onBlockAdded(latestBlock);
+        }
+    }
+
+    /**
+     * Replaces the genesis state with the snapshot, and verifies it.
+     * <p>
+     * Only the state, the latest blocks and the activated forks are taken from the
+     * snapshot. The blocks must link to the block the snapshot was taken at, and
+     * the state must match its state root if it has one. The other index records
+     * are derived from them, or left empty.
+     *
+     * @param snapshot
+     * @return the block the snapshot was taken at
+     * @throws IOException
+     */
+    private Block writeSnapshot(Snapshot snapshot) throws IOException {
+        SnapshotManifest manifest = snapshot.getManifest();
+        long height = manifest.getHeight();
+        long first = Math.max(1, height - SNAPSHOT_BLOCKS + 1);
+
+        for (DatabaseName name : SNAPSHOT_STATES) {
+            clearDatabase(dbFactory.getDB(name));
+        }
+
+        for (int i = 0; i < manifest.getChunkCount(); i++) {
+            Map<DatabaseName, List<Pair<byte[], byte[]>>> updates = new EnumMap<>(DatabaseName.class);
+            for (Snapshot.Record r : snapshot.readChunk(i)) {
+                if (!isSnapshotRecord(r, first, height)) {
+                    continue;
+                }
+                updates.computeIfAbsent(r.getDatabase(), k -> new ArrayList<>())
+                        .add(Pair.of(r.getKey(), r.getValue()));
+            }
+            for (Entry<DatabaseName, List<Pair<byte[], byte[]>>> e : updates.entrySet()) {
+                dbFactory.getDB(e.getKey()).updateBatch(e.getValue());
+            }
+        }
+
+        // the blocks, linked from the one the snapshot was taken at
+        Block block = getBlock(height);
+        if (block == null || !Arrays.equals(block.getHash(), manifest.getBlockHash())) {
+            throw new BlockchainException("The snapshot doesn't contain the block it was taken at");
+        }
+        byte[] hash = block.getHash();
+        for (long n = height; n >= first; n--) {
+            Block b = getBlock(n);
+            if (b == null
+                    || b.getNumber() != n
+                    || !b.getHeader().isHashValid()
+                    || !Arrays.equals(b.getHash(), hash)
+                    || !Arrays.equals(b.getTransactionsRoot(), MerkleUtil.computeTransactionsRoot(b.getTransactions()))
+                    || !Arrays.equals(b.getResultsRoot(), MerkleUtil.computeResultsRoot(b.getResults()))) {
+                throw new BlockchainException("The snapshot contains an invalid block #" + n);
+            }
+            indexDB.put(Bytes.merge(TYPE_BLOCK_NUMBER_BY_HASH, hash), Bytes.of(n));
+            hash = b.getParentHash();
+        }
+
+        // the activated forks, against the blocks
+        forks = new ActivatedForks(this, config, getActivatedForks());
+        for (Fork.Activation a : getActivatedForks().values()) {
+            long[] period = config.spec().getForkSignalingPeriod(a.fork);
+            if (a.effectiveFrom <= period[0] || a.effectiveFrom > period[1] + 1 || a.effectiveFrom > height + 1
+                    || (a.effectiveFrom - a.fork.blocksToCheck() >= first
+                            && !new ActivatedForks(this, config, Collections.emptyMap())
+                                    .isActivated(a.fork, a.effectiveFrom))) {
+                throw new BlockchainException("The snapshot contains an invalid activation of " + a.fork);
+            }
+        }
+        if (isForkActivated(STATE_ROOT, height) == Arrays.equals(block.getStateRoot(), Bytes.EMPTY_HASH)) {
+            throw new BlockchainException("The snapshot doesn't match the state root fork activation");
+        }
+
+        // rebuild the state trie, and check it against the block once it commits to it
+        if (stateTrie != null) {
+            rebuildStateTrie(height);
+        }
+        if (!Arrays.equals(block.getStateRoot(), Bytes.EMPTY_HASH)) {
+            if (stateTrie == null) {
+                throw new BlockchainException("The state root of the snapshot can't be checked without the trie");
+            }
+            if (!Arrays.equals(block.getStateRoot(), stateTrie.getRoot())) {
+                throw new BlockchainException("The snapshot doesn't match the state root of its block");
+            }
+        }
+
+        return block;
+    }
+
+    /**
+     * Returns whether a record is imported from a snapshot. The index records
+     * derived from the state or the blocks are skipped.
+     *
+     * @throws BlockchainException
+     *             if the record can't be part of a snapshot
+     */
+    private static boolean isSnapshotRecord(Snapshot.Record r, long first, long height) {
+        byte[] key = r.getKey();
+        switch (r.getDatabase()) {
+        case ACCOUNT:
+        case DELEGATE:
+        case VOTE:
+            return true;
+        case BLOCK:
+            if (key.length == 1 + Long.BYTES && key[0] >= TYPE_BLOCK_HEADER_BY_NUMBER
+                    && key[0] <= TYPE_BLOCK_VOTES_BY_NUMBER) {
+                long n = Bytes.toLong(Arrays.copyOfRange(key, 1, key.length));
+                if (n >= first && n <= height) {
+                    return true;
+                }
+            }
+            break;
+        case INDEX:
+            if (Arrays.equals(key, Bytes.of(TYPE_ACTIVATED_FORKS))) {
+                return true;
+            }
+            if (Arrays.equals(key, Bytes.of(TYPE_VALIDATORS))
+                    || Arrays.equals(key, Bytes.of(TYPE_DATABASE_VERSION))
+                    || (key.length > 0 && (key[0] == TYPE_VALIDATOR_STATS_BY_ADDRESS
+                            || key[0] == TYPE_BLOCK_NUMBER_BY_HASH))) {
+                return false;
+            }
+            break;
+        default:
+            break;
+        }
+
+        throw new BlockchainException("The snapshot contains an unexpected record in " + r.getDatabase());
+    }
+
     private static void upgradeDatabase(Config config, DatabaseFactory dbFactory) {
         if (getLatestBlockNumber(dbFactory.getDB(DatabaseName.INDEX)) != null
                 && getDatabaseVersion(dbFactory.getDB(DatabaseName.INDEX)) < BlockchainImpl.DATABASE_VERSION) {
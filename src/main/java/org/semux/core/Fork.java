@@ -29,7 +29,12 @@ public enum Fork implements Comparable<Fork> {
     /**
      * This soft fork introduces an upgrade to the voting pre-compiled contracts.
      */
-    VOTING_PRECOMPILED_UPGRADE((short) 3, 1500, 2000);
+    VOTING_PRECOMPILED_UPGRADE((short) 3, 1500, 2000),
+
+    /**
+     * This soft fork makes the blocks commit to the root of the state trie.
+     */
+    STATE_ROOT((short) 4, 1500, 2000);
 
     /**
      * An unique number of this fork.
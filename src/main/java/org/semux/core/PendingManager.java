@@ -6,25 +6,45 @@
  */
 package org.semux.core;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import org.ethereum.vm.client.BlockStore;
 import org.semux.Kernel;
+import org.semux.Network;
+import org.semux.consensus.CompactProposal;
+import org.semux.core.state.Account;
 import org.semux.core.state.AccountState;
 import org.semux.core.state.DelegateState;
+import org.semux.crypto.Hex;
+import org.semux.crypto.Key;
+import org.semux.net.Capability;
 import org.semux.net.Channel;
+import org.semux.net.msg.p2p.GetTransactionsMessage;
 import org.semux.net.msg.p2p.TransactionMessage;
 import org.semux.util.ByteArray;
 import org.semux.util.Bytes;
@@ -44,7 +64,24 @@ import com.github.benmanes.caffeine.cache.Caffeine;
  * transactions included by the pending manager are eligible for inclusion in
  * block proposing phase.
  *
- * TODO: sort transaction queue by fee, and other metrics
+ * Valid transactions are kept in a {@link TransactionPool}, which orders them
+ * by nonce per sender and by effective gas price, so that the most profitable
+ * ones are proposed first and the cheapest ones are evicted when it's full.
+ *
+ * Incoming transactions go through a pipeline of three stages:
+ * <ol>
+ * <li>validation: the stateless checks, including batch signature
+ * verification, on a pool of worker threads;</li>
+ * <li>execution: the transactions are executed against the pending state, in
+ * batches, on a single thread;</li>
+ * <li>relay: the accepted transactions are sent to the peers, on a separate
+ * thread.</li>
+ * </ol>
+ * Each stage exposes its queue size and latency through {@link StageStats}.
+ * <p>
+ * The peers supporting {@link Capability#TX_INVENTORY} are only sent the
+ * hashes of the transactions they don't know, and request the ones they miss;
+ * the others are sent the full transactions.
  */
 public class PendingManager implements Runnable, BlockchainListener {
 
@@ -60,12 +97,49 @@ public class PendingManager implements Runnable, BlockchainListener {
         }
     };
 
+    private static final ThreadFactory validateFactory = new ThreadFactory() {
+
+        private final AtomicInteger cnt = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "pending-validate-" + cnt.getAndIncrement());
+        }
+    };
+
+    private static final ThreadFactory relayFactory = new ThreadFactory() {
+
+        private final AtomicInteger cnt = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "pending-relay-" + cnt.getAndIncrement());
+        }
+    };
+
     public static final long ALLOWED_TIME_DRIFT = TimeUnit.HOURS.toMillis(2);
 
     private static final int QUEUE_SIZE_LIMIT = 128 * 1024;
-    private static final int VALID_TXS_LIMIT = 16 * 1024;
+    private static final int VALID_TXS_LIMIT = 64 * 1024;
     private static final int LARGE_NONCE_TXS_LIMIT = 32 * 1024;
     private static final int PROCESSED_TXS_LIMIT = 128 * 1024;
+    private static final int RELAYED_TXS_LIMIT = 32 * 1024;
+    private static final int RELAY_QUEUE_LIMIT = 16 * 1024;
+    private static final int SHORT_IDS_LIMIT = VALID_TXS_LIMIT + RELAYED_TXS_LIMIT;
+
+    // time before an announced transaction, requested but not received, is
+    // requested from another peer which announced it
+    private static final long REQUEST_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+    // interval between the checks of the requests timing out
+    private static final long REQUEST_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    // max number of other peers remembered as announcing a requested transaction
+    private static final int MAX_ANNOUNCERS = 8;
+
+    private static final int VALIDATE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final int VALIDATE_BATCH_SIZE = 64;
+    private static final int EXECUTE_BATCH_SIZE = 256;
 
     private final Kernel kernel;
     private final BlockStore blockStore;
@@ -73,11 +147,17 @@ public class PendingManager implements Runnable, BlockchainListener {
     private DelegateState pendingDS;
     private SemuxBlock dummyBlock;
 
-    // Transactions that haven't been processed
-    private final LinkedHashMap<ByteArray, Transaction> queue = new LinkedHashMap<>();
+    // Transactions that haven't been validated
+    private final BlockingQueue<QueuedTransaction> unvalidated = new LinkedBlockingQueue<>(QUEUE_SIZE_LIMIT);
+
+    // Transactions that have been validated but not processed
+    private final LinkedHashMap<ByteArray, QueuedTransaction> queue = new LinkedHashMap<>();
 
     // Transactions that have been processed and are valid for block production
-    private final ArrayList<PendingTransaction> validTxs = new ArrayList<>();
+    private final TransactionPool validTxs;
+
+    // Max number of transactions in the pool
+    private int validTxsLimit = VALID_TXS_LIMIT;
 
     // Transactions whose nonce is too large, compared to the sender's nonce
     private final Cache<ByteArray, Transaction> largeNonceTxs = Caffeine.newBuilder().maximumSize(LARGE_NONCE_TXS_LIMIT)
@@ -86,9 +166,31 @@ public class PendingManager implements Runnable, BlockchainListener {
     // Transactions that have been processed, including both valid and invalid ones
     private final Cache<ByteArray, Long> processedTxs = Caffeine.newBuilder().maximumSize(PROCESSED_TXS_LIMIT).build();
 
+    // Transactions that have been relayed, served to the peers which request them
+    private final Cache<ByteArray, Transaction> relayedTxs = Caffeine.newBuilder().maximumSize(RELAYED_TXS_LIMIT)
+            .build();
+
+    // Transactions that have been added to the pool recently, by short ID, to
+    // rebuild the compact proposals
+    private final Cache<Long, Transaction> shortIds = Caffeine.newBuilder().maximumSize(SHORT_IDS_LIMIT).build();
+
+    // Transactions that have been requested from a peer, and not received yet
+    private final Cache<ByteArray, TransactionRequest> requestedTxs = Caffeine.newBuilder()
+            .maximumSize(PROCESSED_TXS_LIMIT).build();
+
     private final ScheduledExecutorService exec;
+    private volatile ThreadPoolExecutor validateExec;
+    private volatile ThreadPoolExecutor relayExec;
+
+    // The number of validation workers running or submitted
+    private final AtomicInteger validating = new AtomicInteger(0);
+
+    private final StageStats validateStats = new StageStats();
+    private final StageStats executeStats = new StageStats();
+    private final StageStats relayStats = new StageStats();
 
     private ScheduledFuture<?> validateFuture;
+    private ScheduledFuture<?> requestFuture;
 
     private volatile boolean isRunning;
 
@@ -102,6 +204,7 @@ public class PendingManager implements Runnable, BlockchainListener {
         this.pendingAS = kernel.getBlockchain().getAccountState().track();
         this.pendingDS = kernel.getBlockchain().getDelegateState().track();
         this.dummyBlock = kernel.createEmptyBlock();
+        this.validTxs = new TransactionPool(kernel.getConfig().spec().nonVMTransactionGasCost());
 
         this.exec = Executors.newSingleThreadScheduledExecutor(factory);
     }
@@ -112,16 +215,27 @@ public class PendingManager implements Runnable, BlockchainListener {
     public synchronized void start() {
         if (!isRunning) {
             /*
-             * NOTE: a rate smaller than the message queue sending rate should be used to
-             * prevent message queues from hitting the NET_MAX_QUEUE_SIZE, especially when
-             * the network load is heavy.
+             * NOTE: the relay stage skips the peers whose message queue is half full, to
+             * prevent them from hitting the NET_MAX_QUEUE_SIZE when the network load is
+             * heavy. The skipped peers are counted as dropped by the relay stage.
              */
+            this.validateExec = new ThreadPoolExecutor(VALIDATE_THREADS, VALIDATE_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), validateFactory);
+            this.validateExec.allowCoreThreadTimeOut(true);
+            this.relayExec = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(RELAY_QUEUE_LIMIT), relayFactory);
+            this.relayExec.allowCoreThreadTimeOut(true);
             this.validateFuture = exec.scheduleAtFixedRate(this, 2, 2, TimeUnit.MILLISECONDS);
+            this.requestFuture = exec.scheduleAtFixedRate(() -> checkRequests(TimeUtil.currentTimeMillis()),
+                    REQUEST_CHECK_INTERVAL, REQUEST_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
 
             kernel.getBlockchain().addListener(this);
 
             logger.finest("Pending manager started");
             this.isRunning = true;
+
+            // validate the transactions received before
+            scheduleValidation();
         }
     }
 
@@ -131,6 +245,9 @@ public class PendingManager implements Runnable, BlockchainListener {
     public synchronized void stop() {
         if (isRunning) {
             validateFuture.cancel(true);
+            requestFuture.cancel(true);
+            validateExec.shutdownNow();
+            relayExec.shutdownNow();
 
             logger.finest("Pending manager stopped");
             isRunning = false;
@@ -151,25 +268,148 @@ public class PendingManager implements Runnable, BlockchainListener {
      *
      * @return
      */
-    public synchronized List<Transaction> getQueue() {
-        return new ArrayList<>(queue.values());
+    public List<Transaction> getQueue() {
+        synchronized (queue) {
+            return queue.values().stream().map(q -> q.tx).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Returns the statistics of the validation stage.
+     *
+     * @return
+     */
+    public StageStats getValidateStats() {
+        return validateStats;
     }
 
     /**
-     * Adds a transaction to the queue, which will be validated later by the
-     * background worker. Transaction may get rejected if the queue is full.
+     * Returns the statistics of the execution stage.
+     *
+     * @return
+     */
+    public StageStats getExecuteStats() {
+        return executeStats;
+    }
+
+    /**
+     * Returns the statistics of the relay stage.
+     *
+     * @return
+     */
+    public StageStats getRelayStats() {
+        return relayStats;
+    }
+
+    /**
+     * Adds a transaction to the queue, which will be validated and processed later
+     * by the background workers. Transaction may get rejected if the queue is
+     * full.
      *
      * @param tx
      */
-    public synchronized void addTransaction(Transaction tx) {
-        ByteArray hash = ByteArray.of(tx.getHash());
+    public void addTransaction(Transaction tx) {
+        if (processedTxs.getIfPresent(ByteArray.of(tx.getHash())) == null
+                && unvalidated.offer(new QueuedTransaction(tx))) {
+            validateStats.queued.incrementAndGet();
+            scheduleValidation();
+        }
+    }
 
-        if (queue.size() < QUEUE_SIZE_LIMIT
-                && processedTxs.getIfPresent(hash) == null
-                && tx.validate(kernel.getConfig().network())) {
-            // NOTE: re-insertion doesn't affect item order
-            queue.put(ByteArray.of(tx.getHash()), tx);
+    /**
+     * Selects the transactions to request among the ones announced by a peer,
+     * skipping the ones already processed or relayed. The selected transactions
+     * are recorded as requested from the peer. The peer is remembered for the
+     * ones already requested from another peer, to be requested from it if they
+     * aren't received in time.
+     *
+     * @param channel
+     *            the channel of the peer
+     * @param hashes
+     *            the hashes of the announced transactions
+     * @return the hashes of the transactions to request
+     */
+    public List<byte[]> requestTransactions(Channel channel, List<byte[]> hashes) {
+        List<byte[]> unknown = new ArrayList<>();
+        long now = TimeUtil.currentTimeMillis();
+        for (byte[] hash : hashes) {
+            ByteArray key = ByteArray.of(hash);
+            if (processedTxs.getIfPresent(key) != null || relayedTxs.getIfPresent(key) != null) {
+                continue;
+            }
+
+            TransactionRequest request = requestedTxs.asMap().putIfAbsent(key, new TransactionRequest(channel, now));
+            if (request == null) {
+                unknown.add(hash);
+            } else {
+                request.addAnnouncer(channel);
+            }
+        }
+        return unknown;
+    }
+
+    /**
+     * Requests again the transactions not received in time, each from the next
+     * peer which announced it. The ones no other peer announced are dropped, to be
+     * requested again when announced next.
+     *
+     * @param now
+     *            the current time
+     */
+    protected void checkRequests(long now) {
+        Map<Channel, List<byte[]>> retries = new HashMap<>();
+        Iterator<Map.Entry<ByteArray, TransactionRequest>> it = requestedTxs.asMap().entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ByteArray, TransactionRequest> e = it.next();
+            ByteArray key = e.getKey();
+            if (processedTxs.getIfPresent(key) != null || relayedTxs.getIfPresent(key) != null) {
+                it.remove();
+            } else if (e.getValue().isExpired(now)) {
+                Channel next = e.getValue().next(now);
+                if (next == null) {
+                    it.remove();
+                } else {
+                    retries.computeIfAbsent(next, c -> new ArrayList<>()).add(key.getData());
+                }
+            }
         }
+
+        for (Map.Entry<Channel, List<byte[]>> e : retries.entrySet()) {
+            List<byte[]> hashes = e.getValue();
+            for (int i = 0; i < hashes.size(); i += GetTransactionsMessage.MAX_HASHES) {
+                List<byte[]> batch = hashes.subList(i, Math.min(hashes.size(), i + GetTransactionsMessage.MAX_HASHES));
+                e.getKey().getMessageQueue().sendMessage(new GetTransactionsMessage(new ArrayList<>(batch)));
+            }
+        }
+    }
+
+    /**
+     * Looks up the transactions added to the pool recently by their short ID,
+     * without blocking the pending manager.
+     *
+     * @param ids
+     *            the short IDs, see {@link CompactProposal#shortId(byte[])}
+     * @return the transactions found, by short ID
+     */
+    public Map<Long, Transaction> getTransactionsByShortId(long[] ids) {
+        Map<Long, Transaction> found = new HashMap<>();
+        for (long id : ids) {
+            Transaction tx = shortIds.getIfPresent(id);
+            if (tx != null) {
+                found.put(id, tx);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns a transaction recently relayed to the peers.
+     *
+     * @param hash
+     * @return the transaction, or null if it's not found
+     */
+    public Transaction getRelayedTransaction(byte[] hash) {
+        return relayedTxs.getIfPresent(ByteArray.of(hash));
     }
 
     /**
@@ -204,27 +444,15 @@ public class PendingManager implements Runnable, BlockchainListener {
     }
 
     /**
-     * Returns pending transactions, limited by the given total size in bytes.
-     *
+     * Returns the most profitable pending transactions, limited by the given total
+     * gas usage. Transactions of the same sender are returned in nonce order.
      *
      * @return
      */
     public synchronized List<PendingTransaction> getPendingTransactions(long blockGasLimit) {
-        List<PendingTransaction> txs = new ArrayList<>();
-        Iterator<PendingTransaction> it = validTxs.iterator();
-
-        while (it.hasNext() && blockGasLimit > 0) {
-            PendingTransaction tx = it.next();
-
-            long gasUsage = tx.transaction.isVMTransaction() ? tx.result.getGasUsed()
-                    : kernel.getConfig().spec().nonVMTransactionGasCost();
-            if (blockGasLimit > gasUsage) {
-                txs.add(tx);
-                blockGasLimit -= gasUsage;
-            }
-        }
-
-        return txs;
+        long nonVMTransactionGasCost = kernel.getConfig().spec().nonVMTransactionGasCost();
+        return validTxs.select(blockGasLimit,
+                tx -> tx.transaction.isVMTransaction() ? tx.result.getGasUsed() : nonVMTransactionGasCost);
     }
 
     /**
@@ -248,19 +476,118 @@ public class PendingManager implements Runnable, BlockchainListener {
         dummyBlock = kernel.createEmptyBlock();
 
         // clear transaction pool
-        List<PendingTransaction> txs = new ArrayList<>(validTxs);
+        List<PendingTransaction> txs = validTxs.getAll();
         validTxs.clear();
 
         return txs;
     }
 
+    /**
+     * Rebases the pending state onto the latest block, keeping the transactions
+     * which are not affected by it. See {@link #resetAccounts(Set)}.
+     * <p>
+     * The transactions which have expired or been included meanwhile are treated
+     * as affected, so that they are rejected when executed again.
+     *
+     * @param block
+     *            the new block, made of transfers only
+     * @return the transactions to execute again, or null if the whole pool has to
+     *         be executed again
+     */
+    protected List<PendingTransaction> rebase(Block block) {
+        if (validTxs.size() == 0
+                || block.getTransactions().stream().anyMatch(tx -> tx.getType() != TransactionType.TRANSFER)
+                || validTxs.getAll().stream().anyMatch(tx -> tx.transaction.isVMTransaction())) {
+            return null;
+        }
+
+        Set<ByteArray> affected = new HashSet<>();
+        affected.add(ByteArray.of(block.getCoinbase()));
+        for (Transaction tx : block.getTransactions()) {
+            affected.add(ByteArray.of(tx.getFrom()));
+            affected.add(ByteArray.of(tx.getTo()));
+        }
+        long now = TimeUtil.currentTimeMillis();
+        for (PendingTransaction tx : validTxs.getAll()) {
+            if (!isTimestampValid(tx.transaction, now)
+                    || kernel.getBlockchain().hasTransaction(tx.transaction.getHash())) {
+                affected.add(ByteArray.of(tx.transaction.getFrom()));
+                affected.add(ByteArray.of(tx.transaction.getTo()));
+            }
+        }
+        return resetAccounts(affected);
+    }
+
+    /**
+     * Resets the pending state of the given accounts to the chain state.
+     * <p>
+     * The affected transactions are the ones connected, through their sender and
+     * recipient, to one of the accounts. They are removed from the pool and their
+     * accounts are reset too, so that they can be executed again. The pending
+     * state of the other accounts is still valid.
+     *
+     * @param affected
+     *            the accounts to reset, to which the connected ones are added
+     * @return the transactions to execute again, or null if the whole pool has to
+     *         be executed again, as the delegate state can't be reset by account
+     */
+    private List<PendingTransaction> resetAccounts(Set<ByteArray> affected) {
+        List<PendingTransaction> all = validTxs.getAll();
+
+        // find the transactions connected to an affected account
+        Map<ByteArray, List<PendingTransaction>> byAccount = new HashMap<>();
+        for (PendingTransaction tx : all) {
+            byAccount.computeIfAbsent(ByteArray.of(tx.transaction.getFrom()), k -> new ArrayList<>()).add(tx);
+            byAccount.computeIfAbsent(ByteArray.of(tx.transaction.getTo()), k -> new ArrayList<>()).add(tx);
+        }
+        Set<PendingTransaction> affectedTxs = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<ByteArray> todo = new ArrayDeque<>(affected);
+        while (!todo.isEmpty()) {
+            for (PendingTransaction tx : byAccount.getOrDefault(todo.poll(), Collections.emptyList())) {
+                if (affectedTxs.add(tx)) {
+                    for (ByteArray address : Arrays.asList(ByteArray.of(tx.transaction.getFrom()),
+                            ByteArray.of(tx.transaction.getTo()))) {
+                        if (affected.add(address)) {
+                            todo.add(address);
+                        }
+                    }
+                }
+            }
+        }
+
+        // the delegate state updates can't be reverted
+        List<PendingTransaction> txs = all.stream().filter(affectedTxs::contains).collect(Collectors.toList());
+        if (txs.stream().anyMatch(tx -> tx.transaction.getType() != TransactionType.TRANSFER)) {
+            return null;
+        }
+
+        for (PendingTransaction tx : txs) {
+            validTxs.remove(tx.transaction.getHash());
+        }
+        AccountState chainAS = kernel.getBlockchain().getAccountState();
+        for (ByteArray address : affected) {
+            Account acc = pendingAS.getAccount(address.getData());
+            Account chainAcc = chainAS.getAccount(address.getData());
+            pendingAS.adjustAvailable(acc.getAddress(), chainAcc.getAvailable().subtract(acc.getAvailable()));
+            pendingAS.adjustLocked(acc.getAddress(), chainAcc.getLocked().subtract(acc.getLocked()));
+            pendingAS.setNonce(acc.getAddress(), chainAcc.getNonce());
+        }
+        dummyBlock = kernel.createEmptyBlock();
+
+        return txs;
+    }
+
     @Override
     public synchronized void onBlockAdded(Block block) {
         if (isRunning) {
             long t1 = TimeUtil.currentTimeMillis();
 
-            // clear transaction pool
-            List<PendingTransaction> txs = reset();
+            // clear the transactions affected by the block, or the whole pool, the
+            // included ones being rejected when executed again
+            List<PendingTransaction> txs = rebase(block);
+            if (txs == null) {
+                txs = reset();
+            }
 
             // update pending state
             long accepted = 0;
@@ -270,32 +597,141 @@ public class PendingManager implements Runnable, BlockchainListener {
 
             long t2 = TimeUtil.currentTimeMillis();
             logger.finest(String.format("Execute pending transactions: # txs = %s / %s,  time = %s ms", accepted, txs.size(), t2 - t1));
+            logger.finest(String.format("Pending pipeline: validate = %s, execute = %s, relay = %s", validateStats,
+                    executeStats, relayStats));
         }
     }
 
     @Override
     public synchronized void run() {
-        Iterator<Map.Entry<ByteArray, Transaction>> iterator = queue.entrySet().iterator();
+        // execute the eldest entries, up to a limit of examined entries and of
+        // accepted transactions per run, the other ones staying queued
+        int examined = 0;
+        int accepted = 0;
+        while (examined < EXECUTE_BATCH_SIZE && accepted < EXECUTE_BATCH_SIZE) {
+            QueuedTransaction q;
+            synchronized (queue) {
+                Iterator<QueuedTransaction> iterator = queue.values().iterator();
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                q = iterator.next();
+                iterator.remove();
+            }
+            examined++;
 
-        while (validTxs.size() < VALID_TXS_LIMIT && iterator.hasNext()) {
-            // the eldest entry
-            Map.Entry<ByteArray, Transaction> entry = iterator.next();
-            iterator.remove();
+            ByteArray hash = ByteArray.of(q.tx.getHash());
+            executeStats.done(q);
 
             // reject already executed transactions
-            if (processedTxs.getIfPresent(entry.getKey()) != null) {
+            if (processedTxs.getIfPresent(hash) != null) {
                 continue;
             }
 
-            // process the transaction
-            int accepted = processTransaction(entry.getValue(), false, false).accepted;
-            processedTxs.put(entry.getKey(), TimeUtil.currentTimeMillis());
+            // once the pool is full, only take transactions paying more than the
+            // cheapest ones
+            if (validTxs.size() >= validTxsLimit
+                    && validTxs.getPrice(q.tx) <= validTxs.getLowestPrice()) {
+                continue;
+            }
+
+            // process the transaction, counting the queued ones it unlocks
+            accepted += processTransaction(q.tx, false, false).accepted;
+            processedTxs.put(hash, TimeUtil.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Submits a validation worker, unless all of them are busy.
+     */
+    private void scheduleValidation() {
+        ThreadPoolExecutor executor = validateExec;
+        if (executor == null) {
+            return;
+        }
+
+        int n;
+        while ((n = validating.get()) < VALIDATE_THREADS && !unvalidated.isEmpty()) {
+            if (validating.compareAndSet(n, n + 1)) {
+                try {
+                    executor.execute(this::validateTransactions);
+                } catch (RejectedExecutionException e) {
+                    validating.decrementAndGet();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Validates the incoming transactions in batches, until there is none left.
+     */
+    private void validateTransactions() {
+        try {
+            List<QueuedTransaction> batch = new ArrayList<>(VALIDATE_BATCH_SIZE);
+            while (unvalidated.drainTo(batch, VALIDATE_BATCH_SIZE) > 0) {
+                List<QueuedTransaction> valid = validateBatch(batch);
+                synchronized (queue) {
+                    for (QueuedTransaction q : valid) {
+                        // NOTE: re-insertion doesn't affect item order
+                        if (queue.size() < QUEUE_SIZE_LIMIT
+                                && queue.putIfAbsent(ByteArray.of(q.tx.getHash()), q) == null) {
+                            executeStats.queued.incrementAndGet();
+                        }
+                    }
+                }
+                batch.clear();
+            }
+        } finally {
+            validating.decrementAndGet();
+        }
+
+        // pick up the transactions added after the queue has been drained
+        scheduleValidation();
+    }
 
-            // include one tx per call
-            if (accepted > 0) {
-                break;
+    /**
+     * Runs the stateless checks of the given transactions, verifying their
+     * signatures in one batch when supported.
+     *
+     * @param batch
+     * @return the valid transactions, restarting their timer for the next stage
+     */
+    private List<QueuedTransaction> validateBatch(List<QueuedTransaction> batch) {
+        Network network = kernel.getConfig().network();
+
+        List<QueuedTransaction> valid = new ArrayList<>(batch.size());
+        for (QueuedTransaction q : batch) {
+            validateStats.done(q);
+            if (q.tx.validate(network, false)) {
+                valid.add(q);
             }
         }
+
+        // fall back to one by one verification to find out the invalid signatures
+        if (!Key.isVerifyBatchSupported() || valid.size() < 3
+                || !Key.verifyBatch(valid.stream().map(q -> q.tx.getHash()).collect(Collectors.toList()),
+                        valid.stream().map(q -> q.tx.getSignature()).collect(Collectors.toList()))) {
+            valid.removeIf(q -> !Key.verify(q.tx.getHash(), q.tx.getSignature()));
+        }
+
+        for (QueuedTransaction q : valid) {
+            q.time = System.nanoTime();
+        }
+        return valid;
+    }
+
+    /**
+     * Checks whether the timestamp of a transaction is within the allowed time
+     * drift.
+     *
+     * @param tx
+     * @param now
+     * @return
+     */
+    private boolean isTimestampValid(Transaction tx, long now) {
+        return tx.getTimestamp() >= now - kernel.getConfig().poolMaxTxTimeDrift()
+                && tx.getTimestamp() <= now + kernel.getConfig().poolMaxTxTimeDrift();
     }
 
     /**
@@ -334,8 +770,7 @@ public class PendingManager implements Runnable, BlockchainListener {
 
         // check transaction timestamp if this is a fresh transaction:
         // a time drift of 2 hours is allowed by default
-        if (tx.getTimestamp() < now - kernel.getConfig().poolMaxTxTimeDrift()
-                || tx.getTimestamp() > now + kernel.getConfig().poolMaxTxTimeDrift()) {
+        if (!isTimestampValid(tx, now)) {
             return new ProcessingResult(0, TransactionResult.Code.INVALID_TIMESTAMP);
         }
 
@@ -366,6 +801,7 @@ public class PendingManager implements Runnable, BlockchainListener {
                 // which are ready to be proposed to the network.
                 PendingTransaction pendingTransaction = new PendingTransaction(tx, result);
                 validTxs.add(pendingTransaction);
+                shortIds.put(CompactProposal.shortId(tx.getHash()), tx);
                 cnt++;
 
                 // If a transaction is not included before, send it to the network now
@@ -382,6 +818,30 @@ public class PendingManager implements Runnable, BlockchainListener {
             isIncludedBefore = false; // A large-nonce transaction is not included before
         }
 
+        // Evict the cheapest transactions if the pool is full, then discard their
+        // state updates: the accounts they touched are reset and the connected
+        // transactions executed again, or the whole pending state if they aren't
+        // transfers.
+        Set<ByteArray> evictedAccounts = new HashSet<>();
+        boolean isTransfersOnly = true;
+        while (validTxs.size() > validTxsLimit) {
+            for (PendingTransaction e : validTxs.evict()) {
+                processedTxs.invalidate(ByteArray.of(e.transaction.getHash()));
+                evictedAccounts.add(ByteArray.of(e.transaction.getFrom()));
+                evictedAccounts.add(ByteArray.of(e.transaction.getTo()));
+                isTransfersOnly &= e.transaction.getType() == TransactionType.TRANSFER;
+            }
+        }
+        if (!evictedAccounts.isEmpty()) {
+            List<PendingTransaction> txs = isTransfersOnly ? resetAccounts(evictedAccounts) : null;
+            if (txs == null) {
+                txs = reset();
+            }
+            for (PendingTransaction e : txs) {
+                processTransaction(e.transaction, true, false);
+            }
+        }
+
         // Delay the transaction for the next event loop of PendingManager. The delayed
         // transaction is expected to be processed once PendingManager has received
         // all of its preceding transactions from the same address.
@@ -393,7 +853,48 @@ public class PendingManager implements Runnable, BlockchainListener {
     }
 
     private void broadcastTransaction(Transaction tx, boolean toAllPeers) {
-        List<Channel> channels = kernel.getChannelManager().getActiveChannels();
+        ThreadPoolExecutor executor = relayExec;
+        if (executor == null) {
+            relayStats.dropped.incrementAndGet();
+            return;
+        }
+
+        QueuedTransaction q = new QueuedTransaction(tx);
+        relayStats.queued.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                relayStats.done(q);
+                relayTransaction(tx, toAllPeers);
+            });
+        } catch (RejectedExecutionException e) {
+            relayStats.queued.decrementAndGet();
+            relayStats.dropped.incrementAndGet();
+        }
+    }
+
+    private void relayTransaction(Transaction tx, boolean toAllPeers) {
+        relayedTxs.put(ByteArray.of(tx.getHash()), tx);
+
+        // Announce the transaction to the peers supporting it, unless they know it
+        // already. The announcements are batched and flushed by the p2p handler.
+        List<Channel> channels = new ArrayList<>();
+        for (Channel c : kernel.getChannelManager().getActiveChannels()) {
+            if (c.isSupported(Capability.TX_INVENTORY)) {
+                c.announceTransaction(tx.getHash());
+            } else {
+                channels.add(c);
+            }
+        }
+
+        // Send the full transaction to the other peers
+        int maxQueueSize = kernel.getConfig().netMaxMessageQueueSize() / 2;
+        int size = channels.size();
+        channels.removeIf(c -> c.getMessageQueue().size() >= maxQueueSize);
+        if (channels.size() < size) {
+            relayStats.dropped.addAndGet(size - channels.size());
+            logger.finest(String.format("Skipped %d busy peers when relaying transaction %s", size - channels.size(),
+                    Hex.encode0x(tx.getHash())));
+        }
 
         // If not to all peers, randomly pick n channels
         int n = kernel.getConfig().netRelayRedundancy();
@@ -405,7 +906,7 @@ public class PendingManager implements Runnable, BlockchainListener {
         // Send the message
         TransactionMessage msg = new TransactionMessage(tx);
         for (Channel c : channels) {
-            if (c.isActive()) {
+            if (c.isActive() && c.markTransactionKnown(tx.getHash())) {
                 c.getMessageQueue().sendMessage(msg);
             }
         }
@@ -435,6 +936,128 @@ public class PendingManager implements Runnable, BlockchainListener {
         }
     }
 
+    /**
+     * A transaction waiting in one of the stages, with the time it entered the
+     * stage.
+     */
+    private static class QueuedTransaction {
+
+        final Transaction tx;
+
+        long time = System.nanoTime();
+
+        QueuedTransaction(Transaction tx) {
+            this.tx = tx;
+        }
+    }
+
+    /**
+     * A transaction requested from a peer, with the time of the request, and the
+     * other peers which announced it.
+     */
+    private static class TransactionRequest {
+
+        Channel channel;
+
+        long time;
+
+        final Deque<Channel> announcers = new ArrayDeque<>();
+
+        TransactionRequest(Channel channel, long time) {
+            this.channel = channel;
+            this.time = time;
+        }
+
+        synchronized void addAnnouncer(Channel c) {
+            if (c != channel && announcers.size() < MAX_ANNOUNCERS && !announcers.contains(c)) {
+                announcers.add(c);
+            }
+        }
+
+        synchronized boolean isExpired(long now) {
+            return now - time >= REQUEST_TIMEOUT;
+        }
+
+        /**
+         * Moves the request to the next active announcer.
+         *
+         * @return the channel of the announcer, or null if there's none
+         */
+        synchronized Channel next(long now) {
+            Channel c;
+            do {
+                c = announcers.poll();
+            } while (c != null && !c.isActive());
+
+            if (c != null) {
+                channel = c;
+                time = now;
+            }
+            return c;
+        }
+    }
+
+    /**
+     * The queue size and latency statistics of a stage of the pipeline.
+     */
+    public static class StageStats {
+
+        private final AtomicInteger queued = new AtomicInteger(0);
+        private final AtomicLong processed = new AtomicLong(0);
+        private final AtomicLong latency = new AtomicLong(0);
+        private final AtomicLong dropped = new AtomicLong(0);
+
+        private void done(QueuedTransaction q) {
+            queued.decrementAndGet();
+            processed.incrementAndGet();
+            latency.addAndGet(System.nanoTime() - q.time);
+        }
+
+        /**
+         * Returns the number of transactions waiting in the stage.
+         *
+         * @return
+         */
+        public int getQueueSize() {
+            return queued.get();
+        }
+
+        /**
+         * Returns the number of transactions which went through the stage.
+         *
+         * @return
+         */
+        public long getProcessed() {
+            return processed.get();
+        }
+
+        /**
+         * Returns the average time spent waiting in the stage, in microseconds.
+         *
+         * @return
+         */
+        public long getAverageLatency() {
+            long n = processed.get();
+            return n == 0 ? 0 : latency.get() / n / 1000;
+        }
+
+        /**
+         * Returns the number of deliveries dropped by the stage, because a queue was
+         * full.
+         *
+         * @return
+         */
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[queued = %d, processed = %d, latency = %d us, dropped = %d]", getQueueSize(),
+                    getProcessed(), getAverageLatency(), getDropped());
+        }
+    }
+
     /**
      * This object represents the number of accepted transactions and the cause of
      * rejection by ${@link PendingManager}.
@@ -13,9 +13,12 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.ethereum.vm.DataWord;
 import org.ethereum.vm.LogInfo;
@@ -30,7 +33,9 @@ import org.semux.core.TransactionResult.Code;
 import org.semux.core.state.Account;
 import org.semux.core.state.AccountState;
 import org.semux.core.state.DelegateState;
+import org.semux.core.state.RecordingAccountState;
 import org.semux.crypto.Hex;
+import org.semux.util.ByteArray;
 import org.semux.util.Bytes;
 import org.semux.util.SystemUtil;
 import org.semux.vm.client.SemuxBlock;
@@ -87,6 +92,7 @@ public class TransactionExecutor {
     private BlockStore blockStore;
     private boolean isVMEnabled;
     private boolean isVotingPrecompiledUpgraded;
+    private boolean isParallel;
 
     /**
      * Creates a new transaction executor.
@@ -99,6 +105,7 @@ public class TransactionExecutor {
         this.blockStore = blockStore;
         this.isVMEnabled = isVMEnabled;
         this.isVotingPrecompiledUpgraded = isVotingPrecompiledUpgraded;
+        this.isParallel = config.execParallelTransfers();
     }
 
     /**
@@ -123,178 +130,247 @@ public class TransactionExecutor {
             SemuxBlock block, long gasUsedInBlock) {
         List<TransactionResult> results = new ArrayList<>();
 
-        for (Transaction tx : txs) {
-            TransactionResult result = new TransactionResult();
+        for (int i = 0; i < txs.size();) {
+            // runs of transfers are executed speculatively in parallel
+            int end = i;
+            while (isParallel && end < txs.size() && txs.get(end).getType() == TransactionType.TRANSFER) {
+                end++;
+            }
+
+            if (end - i > 1) {
+                gasUsedInBlock = executeParallel(txs.subList(i, end), as, ds, block, gasUsedInBlock, results);
+                i = end;
+            } else {
+                Transaction tx = txs.get(i++);
+                TransactionResult result = executeOne(tx, as, ds, block, gasUsedInBlock);
+                results.add(result);
+                gasUsedInBlock += getGasUsed(tx, result);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Executes a run of transactions speculatively, each on its own recording
+     * view of the state, then validates them in order: a transaction whose reads
+     * overlap with the writes of an earlier one in the run is executed again,
+     * so that the results are the same as those of sequential execution.
+     *
+     * @return the gas used in block after the transactions
+     */
+    private long executeParallel(List<Transaction> txs, AccountState as, DelegateState ds, SemuxBlock block,
+            long gasUsedInBlock, List<TransactionResult> results) {
+        int n = txs.size();
+        RecordingAccountState[] views = new RecordingAccountState[n];
+        TransactionResult[] speculated = new TransactionResult[n];
+
+        // assume all the previous transactions in the run will be accepted
+        long cost = spec.nonVMTransactionGasCost();
+        long base = gasUsedInBlock;
+        IntStream.range(0, n).parallel().forEach(i -> {
+            views[i] = new RecordingAccountState(as);
+            speculated[i] = executeOne(txs.get(i), views[i], ds, block, base + i * cost);
+        });
+
+        Set<ByteArray> written = new HashSet<>();
+        int conflicts = 0;
+        for (int i = 0; i < n; i++) {
+            Transaction tx = txs.get(i);
+            RecordingAccountState view = views[i];
+            TransactionResult result = speculated[i];
+
+            // the gas used only matters to the block gas limit check, which can only
+            // fail with the estimate if it's higher than the actual value
+            boolean gasMismatch = base + i * cost != gasUsedInBlock && result.getCode() == Code.INVALID;
+            if (gasMismatch || !Collections.disjoint(view.getReads(), written)) {
+                view = new RecordingAccountState(as);
+                result = executeOne(tx, view, ds, block, gasUsedInBlock);
+                conflicts++;
+            }
+
+            view.commit();
+            written.addAll(view.getWrites());
             results.add(result);
+            gasUsedInBlock += getGasUsed(tx, result);
+        }
 
-            TransactionType type = tx.getType();
-            byte[] from = tx.getFrom();
-            byte[] to = tx.getTo();
-            Amount value = tx.getValue();
-            long nonce = tx.getNonce();
-            Amount fee = tx.getFee();
-            byte[] data = tx.getData();
+        logger.finest(String.format("Parallel execution: # txs = %s, # conflicts = %s", n, conflicts));
+        return gasUsedInBlock;
+    }
 
-            Account acc = as.getAccount(from);
-            Amount available = acc.getAvailable();
-            Amount locked = acc.getLocked();
+    private long getGasUsed(Transaction tx, TransactionResult result) {
+        if (!result.getCode().isAcceptable()) {
+            return 0;
+        }
+        return tx.isVMTransaction() ? result.getGasUsed() : spec.nonVMTransactionGasCost();
+    }
 
-            try {
-                // check nonce
-                if (nonce != acc.getNonce()) {
-                    result.setCode(Code.INVALID_NONCE);
-                    continue;
-                }
+    /**
+     * Executes one transaction.
+     */
+    private TransactionResult executeOne(Transaction tx, AccountState as, DelegateState ds, SemuxBlock block,
+            long gasUsedInBlock) {
+        TransactionResult result = new TransactionResult();
+
+        TransactionType type = tx.getType();
+        byte[] from = tx.getFrom();
+        byte[] to = tx.getTo();
+        Amount value = tx.getValue();
+        long nonce = tx.getNonce();
+        Amount fee = tx.getFee();
+        byte[] data = tx.getData();
+
+        Account acc = as.getAccount(from);
+        Amount available = acc.getAvailable();
+        Amount locked = acc.getLocked();
+
+        try {
+            // check nonce
+            if (nonce != acc.getNonce()) {
+                result.setCode(Code.INVALID_NONCE);
+                return result;
+            }
 
-                // check fee (CREATE and CALL use gas instead)
-                if (tx.isVMTransaction()) {
-                    // applying a very strict check to avoid mistakes
-                    boolean valid = fee.equals(Amount.ZERO)
-                            && tx.getGas() >= 21_000 && tx.getGas() <= spec.maxBlockGasLimit()
-                            && tx.getGasPrice().greaterThanOrEqual(Amount.ONE)
-                            && tx.getGasPrice().lessThanOrEqual(Amount.of(Integer.MAX_VALUE));
-                    if (!valid) {
-                        result.setCode(Code.INVALID_FEE);
-                        continue;
-                    }
-                } else {
-                    if (fee.lessThan(spec.minTransactionFee())) {
-                        result.setCode(Code.INVALID_FEE);
-                        continue;
-                    }
+            // check fee (CREATE and CALL use gas instead)
+            if (tx.isVMTransaction()) {
+                // applying a very strict check to avoid mistakes
+                boolean valid = fee.equals(Amount.ZERO)
+                        && tx.getGas() >= 21_000 && tx.getGas() <= spec.maxBlockGasLimit()
+                        && tx.getGasPrice().greaterThanOrEqual(Amount.ONE)
+                        && tx.getGasPrice().lessThanOrEqual(Amount.of(Integer.MAX_VALUE));
+                if (!valid) {
+                    result.setCode(Code.INVALID_FEE);
+                    return result;
                 }
+            } else {
+                if (fee.lessThan(spec.minTransactionFee())) {
+                    result.setCode(Code.INVALID_FEE);
+                    return result;
+                }
+            }
 
-                // check data length
-                if (data.length > spec.maxTransactionDataSize(type)) {
-                    result.setCode(Code.INVALID_DATA);
-                    continue;
+            // check data length
+            if (data.length > spec.maxTransactionDataSize(type)) {
+                result.setCode(Code.INVALID_DATA);
+                return result;
+            }
+
+            // check remaining gas
+            if (!tx.isVMTransaction()) {
+                if (spec.nonVMTransactionGasCost() + gasUsedInBlock > block.getGasLimit()) {
+                    result.setCode(Code.INVALID);
+                    return result;
                 }
 
-                // check remaining gas
-                if (!tx.isVMTransaction()) {
-                    if (spec.nonVMTransactionGasCost() + gasUsedInBlock > block.getGasLimit()) {
-                        result.setCode(Code.INVALID);
-                        continue;
-                    }
+                // Note: although we count gas usage for non-vm-transactions, the gas usage
+                // is not recorded in the TransactionResult.
+            }
 
-                    // Note: although we count gas usage for non-vm-transactions, the gas usage
-                    // is not recorded in the TransactionResult.
+            switch (type) {
+            case TRANSFER: {
+                if (fee.lessThanOrEqual(available) && value.lessThanOrEqual(available)
+                        && value.add(fee).lessThanOrEqual(available)) {
+                    as.adjustAvailable(from, value.add(fee).negate());
+                    as.adjustAvailable(to, value);
+                } else {
+                    result.setCode(Code.INSUFFICIENT_AVAILABLE);
+                }
+                break;
+            }
+            case DELEGATE: {
+                if (!validateDelegateName(data)) {
+                    result.setCode(Code.INVALID_DELEGATE_NAME);
+                    break;
+                }
+                if (value.lessThan(spec.minDelegateBurnAmount())) {
+                    result.setCode(Code.INVALID_DELEGATE_BURN_AMOUNT);
+                    break;
+                }
+                if (!Arrays.equals(Bytes.EMPTY_ADDRESS, to)) {
+                    result.setCode(Code.INVALID_DELEGATE_BURN_ADDRESS);
+                    break;
                 }
 
-                switch (type) {
-                case TRANSFER: {
-                    if (fee.lessThanOrEqual(available) && value.lessThanOrEqual(available)
-                            && value.add(fee).lessThanOrEqual(available)) {
+                if (fee.lessThanOrEqual(available) && value.lessThanOrEqual(available)
+                        && value.add(fee).lessThanOrEqual(available)) {
+                    if (ds.register(from, data)) {
                         as.adjustAvailable(from, value.add(fee).negate());
                         as.adjustAvailable(to, value);
                     } else {
-                        result.setCode(Code.INSUFFICIENT_AVAILABLE);
+                        result.setCode(Code.INVALID_DELEGATING);
                     }
-                    break;
+                } else {
+                    result.setCode(Code.INSUFFICIENT_AVAILABLE);
                 }
-                case DELEGATE: {
-                    if (!validateDelegateName(data)) {
-                        result.setCode(Code.INVALID_DELEGATE_NAME);
-                        break;
-                    }
-                    if (value.lessThan(spec.minDelegateBurnAmount())) {
-                        result.setCode(Code.INVALID_DELEGATE_BURN_AMOUNT);
-                        break;
-                    }
-                    if (!Arrays.equals(Bytes.EMPTY_ADDRESS, to)) {
-                        result.setCode(Code.INVALID_DELEGATE_BURN_ADDRESS);
-                        break;
-                    }
-
-                    if (fee.lessThanOrEqual(available) && value.lessThanOrEqual(available)
-                            && value.add(fee).lessThanOrEqual(available)) {
-                        if (ds.register(from, data)) {
-                            as.adjustAvailable(from, value.add(fee).negate());
-                            as.adjustAvailable(to, value);
-                        } else {
-                            result.setCode(Code.INVALID_DELEGATING);
-                        }
+                break;
+            }
+            case VOTE: {
+                if (fee.lessThanOrEqual(available) && value.lessThanOrEqual(available)
+                        && value.add(fee).lessThanOrEqual(available)) {
+                    if (ds.vote(from, to, value)) {
+                        as.adjustAvailable(from, value.add(fee).negate());
+                        as.adjustLocked(from, value);
                     } else {
-                        result.setCode(Code.INSUFFICIENT_AVAILABLE);
+                        result.setCode(Code.INVALID_VOTING);
                     }
-                    break;
+                } else {
+                    result.setCode(Code.INSUFFICIENT_AVAILABLE);
                 }
-                case VOTE: {
-                    if (fee.lessThanOrEqual(available) && value.lessThanOrEqual(available)
-                            && value.add(fee).lessThanOrEqual(available)) {
-                        if (ds.vote(from, to, value)) {
-                            as.adjustAvailable(from, value.add(fee).negate());
-                            as.adjustLocked(from, value);
-                        } else {
-                            result.setCode(Code.INVALID_VOTING);
-                        }
-                    } else {
-                        result.setCode(Code.INSUFFICIENT_AVAILABLE);
-                    }
+                break;
+            }
+            case UNVOTE: {
+                if (available.lessThan(fee)) {
+                    result.setCode(Code.INSUFFICIENT_AVAILABLE);
                     break;
                 }
-                case UNVOTE: {
-                    if (available.lessThan(fee)) {
-                        result.setCode(Code.INSUFFICIENT_AVAILABLE);
-                        break;
-                    }
-                    if (locked.lessThan(value)) {
-                        result.setCode(Code.INSUFFICIENT_LOCKED);
-                        break;
-                    }
-
-                    if (ds.unvote(from, to, value)) {
-                        as.adjustAvailable(from, value.subtract(fee));
-                        as.adjustLocked(from, value.negate());
-                    } else {
-                        result.setCode(Code.INVALID_UNVOTING);
-                    }
+                if (locked.lessThan(value)) {
+                    result.setCode(Code.INSUFFICIENT_LOCKED);
                     break;
                 }
-                case CALL:
-                case CREATE:
-                    if (!isVMEnabled) {
-                        result.setCode(Code.INVALID_TYPE);
-                        break;
-                    }
-
-                    // the VM transaction executor will check balance and gas cost.
-                    // do proper refunds afterwards.
-                    executeVmTransaction(tx, as, ds, block, gasUsedInBlock, result);
 
-                    // Note: we're assuming the VM will not make changes to the account
-                    // and delegate state if the transaction is INVALID; the storage changes
-                    // will be discarded if is FAILURE.
-                    //
-                    // TODO: add unit test for this
-                    break;
-                default:
-                    // unsupported transaction type
-                    result.setCode(Code.INVALID_TYPE);
-                    break;
+                if (ds.unvote(from, to, value)) {
+                    as.adjustAvailable(from, value.subtract(fee));
+                    as.adjustLocked(from, value.negate());
+                } else {
+                    result.setCode(Code.INVALID_UNVOTING);
                 }
-            } catch (ArithmeticException ae) {
-                logger.warning(String.format("An arithmetic exception occurred during transaction execution: %s", tx));
-                result.setCode(Code.INVALID);
+                break;
             }
-
-            if (result.getCode().isAcceptable()) {
-                if (!tx.isVMTransaction()) {
-                    // CREATEs and CALLs manages the nonce inside the VM
-                    as.increaseNonce(from);
+            case CALL:
+            case CREATE:
+                if (!isVMEnabled) {
+                    result.setCode(Code.INVALID_TYPE);
+                    break;
                 }
 
-                if (tx.isVMTransaction()) {
-                    gasUsedInBlock += result.getGasUsed();
-                } else {
-                    gasUsedInBlock += spec.nonVMTransactionGasCost();
-                }
+                // the VM transaction executor will check balance and gas cost.
+                // do proper refunds afterwards.
+                executeVmTransaction(tx, as, ds, block, gasUsedInBlock, result);
+
+                // Note: we're assuming the VM will not make changes to the account
+                // and delegate state if the transaction is INVALID; the storage changes
+                // will be discarded if is FAILURE.
+                //
+                // TODO: add unit test for this
+                break;
+            default:
+                // unsupported transaction type
+                result.setCode(Code.INVALID_TYPE);
+                break;
             }
+        } catch (ArithmeticException ae) {
+            logger.warning(String.format("An arithmetic exception occurred during transaction execution: %s", tx));
+            result.setCode(Code.INVALID);
+        }
 
-            result.setBlockNumber(block.getNumber());
+        if (result.getCode().isAcceptable() && !tx.isVMTransaction()) {
+            // CREATEs and CALLs manages the nonce inside the VM
+            as.increaseNonce(from);
         }
 
-        return results;
+        result.setBlockNumber(block.getNumber());
+        return result;
     }
 
     private void executeVmTransaction(Transaction tx, AccountState as, DelegateState ds,
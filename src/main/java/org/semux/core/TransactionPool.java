@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.ToLongFunction;
+
+import org.semux.core.PendingManager.PendingTransaction;
+import org.semux.util.ByteArray;
+
+/**
+ * The pool of validated pending transactions.
+ * <p>
+ * Transactions are kept in a nonce-ordered queue per sender, and indexed by
+ * their effective gas price. Adding and removing a transaction is O(log n);
+ * when the pool is full, the cheapest transactions are evicted, together with
+ * the transactions of the same sender which depend on them.
+ * <p>
+ * This class is not thread-safe.
+ */
+class TransactionPool {
+
+    /**
+     * Cheapest first, and the most recent first among the same price.
+     */
+    private static final Comparator<Entry> BY_PRICE = Comparator.<Entry>comparingLong(e -> e.price)
+            .thenComparing(Comparator.<Entry>comparingLong(e -> e.seq).reversed());
+
+    private final long nonVMTransactionGasCost;
+
+    private final Map<ByteArray, TreeMap<Long, Entry>> accounts = new HashMap<>();
+    private final Map<ByteArray, Entry> byHash = new HashMap<>();
+    private final TreeSet<Entry> byPrice = new TreeSet<>(BY_PRICE);
+
+    private long seq = 0;
+
+    /**
+     * Creates a transaction pool.
+     *
+     * @param nonVMTransactionGasCost
+     *            the gas charged for a non-VM transaction, used to compute the
+     *            gas price of its fee
+     */
+    TransactionPool(long nonVMTransactionGasCost) {
+        this.nonVMTransactionGasCost = nonVMTransactionGasCost;
+    }
+
+    /**
+     * Returns the number of transactions in the pool.
+     *
+     * @return
+     */
+    int size() {
+        return byHash.size();
+    }
+
+    /**
+     * Returns whether the pool contains the given transaction.
+     *
+     * @param hash
+     * @return
+     */
+    boolean contains(byte[] hash) {
+        return byHash.containsKey(ByteArray.of(hash));
+    }
+
+    /**
+     * Adds a validated transaction. Transactions of a sender are expected to be
+     * added in nonce order.
+     *
+     * @param tx
+     */
+    void add(PendingTransaction tx) {
+        Entry e = new Entry(tx, getPrice(tx.transaction), seq++);
+        if (byHash.putIfAbsent(e.hash, e) == null) {
+            accounts.computeIfAbsent(e.from, k -> new TreeMap<>()).put(tx.transaction.getNonce(), e);
+            byPrice.add(e);
+        }
+    }
+
+    /**
+     * Removes a transaction, typically once included in a block.
+     *
+     * @param hash
+     * @return the removed transaction, or null if it's not in the pool
+     */
+    PendingTransaction remove(byte[] hash) {
+        Entry e = byHash.remove(ByteArray.of(hash));
+        if (e == null) {
+            return null;
+        }
+
+        byPrice.remove(e);
+        TreeMap<Long, Entry> queue = accounts.get(e.from);
+        queue.remove(e.tx.transaction.getNonce());
+        if (queue.isEmpty()) {
+            accounts.remove(e.from);
+        }
+        return e.tx;
+    }
+
+    /**
+     * Returns the lowest effective gas price in the pool.
+     *
+     * @return the lowest price, or -1 if the pool is empty
+     */
+    long getLowestPrice() {
+        return byPrice.isEmpty() ? -1 : byPrice.first().price;
+    }
+
+    /**
+     * Evicts the cheapest transaction and the transactions of the same sender
+     * with a larger nonce, as they can't be executed without it.
+     *
+     * @return the evicted transactions, in nonce order
+     */
+    List<PendingTransaction> evict() {
+        List<PendingTransaction> evicted = new ArrayList<>();
+        if (byPrice.isEmpty()) {
+            return evicted;
+        }
+
+        Entry cheapest = byPrice.first();
+        TreeMap<Long, Entry> queue = accounts.get(cheapest.from);
+        for (Entry e : new ArrayList<>(queue.tailMap(cheapest.tx.transaction.getNonce(), true).values())) {
+            evicted.add(remove(e.tx.transaction.getHash()));
+        }
+        return evicted;
+    }
+
+    /**
+     * Selects the most profitable transactions fitting in the given gas limit,
+     * keeping the nonce order of each sender.
+     *
+     * @param gasLimit
+     *            the gas limit
+     * @param gasUsage
+     *            the gas used by a transaction
+     * @return
+     */
+    List<PendingTransaction> select(long gasLimit, ToLongFunction<PendingTransaction> gasUsage) {
+        List<PendingTransaction> txs = new ArrayList<>();
+
+        // the next transaction of each sender, most expensive first
+        PriorityQueue<Entry> heads = new PriorityQueue<>(Math.max(1, accounts.size()), BY_PRICE.reversed());
+        for (TreeMap<Long, Entry> queue : accounts.values()) {
+            heads.add(queue.firstEntry().getValue());
+        }
+
+        while (!heads.isEmpty() && gasLimit > 0) {
+            Entry e = heads.poll();
+
+            // skip the remaining transactions of the sender if it doesn't fit
+            long gas = gasUsage.applyAsLong(e.tx);
+            if (gasLimit > gas) {
+                txs.add(e.tx);
+                gasLimit -= gas;
+
+                Map.Entry<Long, Entry> next = accounts.get(e.from).higherEntry(e.tx.transaction.getNonce());
+                if (next != null) {
+                    heads.add(next.getValue());
+                }
+            }
+        }
+
+        return txs;
+    }
+
+    /**
+     * Returns all the transactions, in the order they were added.
+     *
+     * @return
+     */
+    List<PendingTransaction> getAll() {
+        List<Entry> entries = new ArrayList<>(byHash.values());
+        entries.sort(Comparator.comparingLong(e -> e.seq));
+
+        List<PendingTransaction> txs = new ArrayList<>(entries.size());
+        for (Entry e : entries) {
+            txs.add(e.tx);
+        }
+        return txs;
+    }
+
+    /**
+     * Removes all the transactions.
+     */
+    void clear() {
+        accounts.clear();
+        byHash.clear();
+        byPrice.clear();
+    }
+
+    /**
+     * Returns the effective gas price of a transaction, in nano SEM: the gas price
+     * of VM transactions, or the fee divided by the gas cost of other ones.
+     *
+     * @param tx
+     * @return
+     */
+    long getPrice(Transaction tx) {
+        return tx.isVMTransaction() ? tx.getGasPrice().toLong() : tx.getFee().toLong() / nonVMTransactionGasCost;
+    }
+
+    private static class Entry {
+        final PendingTransaction tx;
+        final ByteArray hash;
+        final ByteArray from;
+        final long price;
+        final long seq;
+
+        Entry(PendingTransaction tx, long price, long seq) {
+            this.tx = tx;
+            this.hash = ByteArray.of(tx.transaction.getHash());
+            this.from = ByteArray.of(tx.transaction.getFrom());
+            this.price = price;
+            this.seq = seq;
+        }
+    }
+}
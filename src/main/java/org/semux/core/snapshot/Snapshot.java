@@ -0,0 +1,264 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.semux.Network;
+import org.semux.core.exception.BlockchainException;
+import org.semux.crypto.Hash;
+import org.semux.db.DatabaseName;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+/**
+ * A snapshot of the database records needed to resume the chain at a given
+ * block, stored in a directory as a manifest and a list of chunks.
+ * <p>
+ * Each chunk is a sequence of <code>[database, key, value]</code> records, and
+ * is small enough to be sent to a peer in one message.
+ */
+public class Snapshot {
+
+    public static final String MANIFEST_FILE = "manifest";
+
+    /**
+     * The size above which a chunk is closed.
+     */
+    public static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final File dir;
+    private final SnapshotManifest manifest;
+
+    private Snapshot(File dir, SnapshotManifest manifest) {
+        this.dir = dir;
+        this.manifest = manifest;
+    }
+
+    /**
+     * Opens a snapshot stored in the given directory.
+     *
+     * @param dir
+     * @return
+     * @throws IOException
+     *             if the manifest can't be read
+     */
+    public static Snapshot open(File dir) throws IOException {
+        File file = new File(dir, MANIFEST_FILE);
+        try {
+            return new Snapshot(dir, SnapshotManifest.fromBytes(Files.readAllBytes(file.toPath())));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Invalid snapshot manifest: " + file, e);
+        }
+    }
+
+    /**
+     * Creates a snapshot by writing its manifest into the directory holding its
+     * chunks.
+     *
+     * @param dir
+     * @param manifest
+     * @return
+     * @throws IOException
+     */
+    public static Snapshot create(File dir, SnapshotManifest manifest) throws IOException {
+        Files.write(new File(dir, MANIFEST_FILE).toPath(), manifest.toBytes());
+        return new Snapshot(dir, manifest);
+    }
+
+    /**
+     * Writes a chunk into the given directory.
+     *
+     * @param dir
+     * @param index
+     * @param data
+     * @throws IOException
+     */
+    public static void writeChunk(File dir, int index, byte[] data) throws IOException {
+        Files.write(chunkFile(dir, index).toPath(), data);
+    }
+
+    /**
+     * Returns whether the chunk matches its hash in the manifest.
+     *
+     * @param manifest
+     * @param index
+     * @param data
+     * @return
+     */
+    public static boolean verifyChunk(SnapshotManifest manifest, int index, byte[] data) {
+        return index >= 0 && index < manifest.getChunkCount()
+                && Arrays.equals(manifest.getChunkHash(index), Hash.h256(data));
+    }
+
+    /**
+     * Decodes the records of a chunk.
+     *
+     * @param data
+     * @return
+     */
+    public static List<Record> decodeChunk(byte[] data) {
+        List<Record> records = new ArrayList<>();
+        SimpleDecoder dec = new SimpleDecoder(data);
+        while (dec.getReadIndex() < data.length) {
+            int db = dec.readByte();
+            if (db < 0 || db >= DatabaseName.values().length) {
+                throw new BlockchainException("Invalid snapshot database: " + db);
+            }
+            records.add(new Record(DatabaseName.values()[db], dec.readBytes(), dec.readBytes()));
+        }
+        return records;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public SnapshotManifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * Returns the raw data of a chunk.
+     *
+     * @param index
+     * @return
+     * @throws IOException
+     */
+    public byte[] getChunk(int index) throws IOException {
+        return Files.readAllBytes(chunkFile(dir, index).toPath());
+    }
+
+    /**
+     * Reads the records of a chunk, after checking it against the manifest.
+     *
+     * @param index
+     * @return
+     * @throws IOException
+     * @throws BlockchainException
+     *             if the chunk doesn't match the manifest
+     */
+    public List<Record> readChunk(int index) throws IOException {
+        byte[] data = getChunk(index);
+        if (!verifyChunk(manifest, index, data)) {
+            throw new BlockchainException("Snapshot chunk #" + index + " doesn't match the manifest");
+        }
+        return decodeChunk(data);
+    }
+
+    /**
+     * Checks all the chunks against the manifest.
+     *
+     * @return whether all the chunks are present and valid
+     */
+    public boolean verify() {
+        try {
+            for (int i = 0; i < manifest.getChunkCount(); i++) {
+                if (!verifyChunk(manifest, i, getChunk(i))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static File chunkFile(File dir, int index) {
+        return new File(dir, String.format("chunk-%06d", index));
+    }
+
+    /**
+     * A database record.
+     */
+    public static class Record {
+        private final DatabaseName database;
+        private final byte[] key;
+        private final byte[] value;
+
+        public Record(DatabaseName database, byte[] key, byte[] value) {
+            this.database = database;
+            this.key = key;
+            this.value = value;
+        }
+
+        public DatabaseName getDatabase() {
+            return database;
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+
+        public byte[] getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Writes the records of a snapshot into chunks, as they are added.
+     */
+    public static class Writer {
+        private final File dir;
+        private final List<byte[]> chunkHashes = new ArrayList<>();
+
+        private SimpleEncoder chunk = new SimpleEncoder();
+
+        /**
+         * Creates a writer into the given directory, which must be empty or absent.
+         *
+         * @param dir
+         * @throws IOException
+         */
+        public Writer(File dir) throws IOException {
+            String[] files = dir.list();
+            if (files != null && files.length != 0) {
+                throw new IOException("The snapshot directory is not empty: " + dir);
+            }
+            Files.createDirectories(dir.toPath());
+            this.dir = dir;
+        }
+
+        public void add(DatabaseName database, byte[] key, byte[] value) throws IOException {
+            chunk.writeByte((byte) database.ordinal());
+            chunk.writeBytes(key);
+            chunk.writeBytes(value);
+
+            if (chunk.getWriteIndex() >= CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Writes the last chunk and the manifest.
+         *
+         * @param network
+         * @param height
+         * @param blockHash
+         * @return
+         * @throws IOException
+         */
+        public Snapshot finish(Network network, long height, byte[] blockHash) throws IOException {
+            if (chunk.getWriteIndex() > 0) {
+                flush();
+            }
+            return create(dir, new SnapshotManifest(network, height, blockHash, chunkHashes));
+        }
+
+        private void flush() throws IOException {
+            byte[] data = chunk.toBytes();
+            writeChunk(dir, chunkHashes.size(), data);
+            chunkHashes.add(Hash.h256(data));
+            chunk = new SimpleEncoder();
+        }
+    }
+}
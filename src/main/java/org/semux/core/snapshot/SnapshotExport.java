@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core.snapshot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The state captured at a block, to be written as a snapshot later on, while
+ * more blocks are added. It must be closed once written, or if it's dropped.
+ */
+public interface SnapshotExport extends Closeable {
+
+    /**
+     * Returns the number of the block the state is captured at.
+     *
+     * @return
+     */
+    long getHeight();
+
+    /**
+     * Writes the snapshot into the given directory.
+     *
+     * @param dir
+     *            an empty directory
+     * @return the snapshot
+     * @throws IOException
+     */
+    Snapshot writeTo(File dir) throws IOException;
+
+    /**
+     * Releases the captured state.
+     */
+    @Override
+    void close();
+}
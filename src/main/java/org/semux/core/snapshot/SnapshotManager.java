@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import org.semux.config.Config;
+import org.semux.core.Block;
+import org.semux.core.Blockchain;
+import org.semux.core.BlockchainListener;
+import org.semux.net.msg.consensus.GetSnapshotChunkMessage;
+import org.semux.util.Bytes;
+import org.semux.util.FileUtil;
+
+/**
+ * Exports a state snapshot every <code>sync.snapshotInterval</code> blocks, in
+ * the background, and serves the chunks of the latest ones to the peers.
+ */
+public class SnapshotManager implements BlockchainListener {
+
+    private static final Logger logger = Logger.getLogger(SnapshotManager.class.getName());
+
+    /**
+     * The number of snapshots kept, so that the peers can finish downloading the
+     * previous one.
+     */
+    private static final int MAX_SNAPSHOTS = 2;
+
+    private static final String EXPORT_DIR = "export";
+
+    private final Config config;
+    private final Blockchain chain;
+    private final File dir;
+
+    private final ExecutorService exec = Executors.newSingleThreadExecutor(r -> new Thread(r, "snapshot"));
+    private final AtomicBoolean exporting = new AtomicBoolean(false);
+
+    // the snapshots by height
+    private final ConcurrentNavigableMap<Long, Snapshot> snapshots = new ConcurrentSkipListMap<>();
+
+    public SnapshotManager(Config config, Blockchain chain) {
+        this.config = config;
+        this.chain = chain;
+        this.dir = config.snapshotDir();
+    }
+
+    /**
+     * Loads the snapshots exported previously, and starts exporting new ones.
+     */
+    public void start() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isDirectory() && f.getName().matches("\\d+")) {
+                    try {
+                        Snapshot snapshot = Snapshot.open(f);
+                        snapshots.put(snapshot.getManifest().getHeight(), snapshot);
+                    } catch (IOException e) {
+                        logger.warning(String.format("Failed to open snapshot %s: %s", f, e.getMessage()));
+                    }
+                }
+            }
+        }
+
+        chain.addListener(this);
+    }
+
+    /**
+     * Stops exporting snapshots.
+     */
+    public void stop() {
+        exec.shutdownNow();
+        try {
+            exec.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onBlockAdded(Block block) {
+        long interval = config.syncSnapshotInterval();
+        if (interval > 0 && block.getNumber() % interval == 0
+                && block.getNumber() % config.spec().getValidatorUpdateInterval() == 0
+                && exporting.compareAndSet(false, true)) {
+            // capture the state now, as more blocks may be added before it's written
+            SnapshotExport export;
+            try {
+                export = chain.prepareSnapshot();
+            } catch (RuntimeException e) {
+                logger.warning(String.format("Failed to export snapshot: %s", e.getMessage()));
+                exporting.set(false);
+                return;
+            }
+
+            try {
+                exec.execute(() -> export(export));
+            } catch (RejectedExecutionException e) {
+                export.close();
+                exporting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of the captured state.
+     *
+     * @param export
+     */
+    protected void export(SnapshotExport export) {
+        File tmp = new File(dir, EXPORT_DIR);
+        try {
+            if (tmp.exists()) {
+                FileUtil.recursiveDelete(tmp);
+            }
+            Snapshot snapshot = export.writeTo(tmp);
+            long height = snapshot.getManifest().getHeight();
+
+            File target = new File(dir, Long.toString(height));
+            if (target.exists()) {
+                FileUtil.recursiveDelete(target);
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            snapshots.put(height, Snapshot.open(target));
+            logger.info(String.format("Exported snapshot: %s", snapshot.getManifest()));
+
+            while (snapshots.size() > MAX_SNAPSHOTS) {
+                Map.Entry<Long, Snapshot> e = snapshots.pollFirstEntry();
+                FileUtil.recursiveDelete(e.getValue().getDir());
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warning(String.format("Failed to export snapshot #%d: %s", export.getHeight(), e.getMessage()));
+        } finally {
+            export.close();
+            exporting.set(false);
+        }
+    }
+
+    /**
+     * Returns the latest snapshot, or null if there is none.
+     *
+     * @return
+     */
+    public Snapshot getLatestSnapshot() {
+        Map.Entry<Long, Snapshot> e = snapshots.lastEntry();
+        return e == null ? null : e.getValue();
+    }
+
+    /**
+     * Returns the requested chunk, or the manifest of the latest snapshot.
+     *
+     * @param height
+     *            the height of the snapshot
+     * @param index
+     *            the index of the chunk, or
+     *            {@link GetSnapshotChunkMessage#MANIFEST}
+     * @return the data, or an empty array if not available
+     */
+    public byte[] getChunk(long height, int index) {
+        if (index == GetSnapshotChunkMessage.MANIFEST) {
+            Snapshot latest = getLatestSnapshot();
+            return latest == null ? Bytes.EMPTY_BYTES : latest.getManifest().toBytes();
+        }
+
+        Snapshot snapshot = snapshots.get(height);
+        if (snapshot == null || index < 0 || index >= snapshot.getManifest().getChunkCount()) {
+            return Bytes.EMPTY_BYTES;
+        }
+        try {
+            return snapshot.getChunk(index);
+        } catch (IOException e) {
+            // deleted in the meantime
+            return Bytes.EMPTY_BYTES;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core.snapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.semux.Network;
+import org.semux.crypto.Hash;
+import org.semux.crypto.Hex;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+/**
+ * Describes a snapshot: the block it was taken at, and the hash of each of its
+ * chunks. The hash of the encoded manifest is the commitment the chunks are
+ * verified against.
+ */
+public class SnapshotManifest {
+
+    public static final int VERSION = 1;
+
+    private final Network network;
+    private final long height;
+    private final byte[] blockHash;
+    private final List<byte[]> chunkHashes;
+
+    private final byte[] encoded;
+    private final byte[] commitment;
+
+    public SnapshotManifest(Network network, long height, byte[] blockHash, List<byte[]> chunkHashes) {
+        this.network = network;
+        this.height = height;
+        this.blockHash = blockHash;
+        this.chunkHashes = Collections.unmodifiableList(new ArrayList<>(chunkHashes));
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeInt(VERSION);
+        enc.writeByte(network.id());
+        enc.writeLong(height);
+        enc.writeBytes(blockHash);
+        enc.writeInt(chunkHashes.size());
+        for (byte[] hash : chunkHashes) {
+            enc.writeBytes(hash);
+        }
+        this.encoded = enc.toBytes();
+        this.commitment = Hash.h256(encoded);
+    }
+
+    /**
+     * Parses a manifest from its byte array representation.
+     *
+     * @param bytes
+     * @return
+     * @throws IllegalArgumentException
+     *             if the manifest is of an unknown version or network
+     */
+    public static SnapshotManifest fromBytes(byte[] bytes) {
+        SimpleDecoder dec = new SimpleDecoder(bytes);
+        int version = dec.readInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unknown snapshot version: " + version);
+        }
+        Network network = Network.of(dec.readByte());
+        if (network == null) {
+            throw new IllegalArgumentException("Unknown snapshot network");
+        }
+        long height = dec.readLong();
+        byte[] blockHash = dec.readBytes();
+        int n = dec.readInt();
+        List<byte[]> chunkHashes = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            chunkHashes.add(dec.readBytes());
+        }
+
+        return new SnapshotManifest(network, height, blockHash, chunkHashes);
+    }
+
+    public byte[] toBytes() {
+        return encoded;
+    }
+
+    public Network getNetwork() {
+        return network;
+    }
+
+    /**
+     * Returns the number of the block the snapshot was taken at.
+     *
+     * @return
+     */
+    public long getHeight() {
+        return height;
+    }
+
+    public byte[] getBlockHash() {
+        return blockHash;
+    }
+
+    public int getChunkCount() {
+        return chunkHashes.size();
+    }
+
+    public byte[] getChunkHash(int index) {
+        return chunkHashes.get(index);
+    }
+
+    /**
+     * Returns the hash of the encoded manifest.
+     *
+     * @return
+     */
+    public byte[] getCommitment() {
+        return commitment;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotManifest [network=" + network + ", height=" + height + ", blockHash="
+                + Hex.encode0x(blockHash) + ", chunks=" + chunkHashes.size() + ", commitment="
+                + Hex.encode0x(commitment) + "]";
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core.state;
+
+import java.util.function.Function;
+
+import org.semux.util.ByteArray;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Read-through cache of the account database, bounded by an estimate of the
+ * memory it takes. Accounts are kept decoded; code and storage are kept as raw
+ * bytes. Missing keys are cached as well, as most lookups of new recipients
+ * and empty storage slots would otherwise go to the database.
+ */
+class AccountCache {
+
+    /**
+     * Marker of a key which doesn't exist in the database.
+     */
+    private static final Object NONE = new Object();
+
+    /**
+     * Rough per-entry overhead of the cache, the key and the value wrappers.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final Cache<ByteArray, Object> cache;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize
+     *            the max estimated size of the cached entries, in bytes
+     */
+    AccountCache(long maxSize) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize)
+                .weigher(AccountCache::weigh)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns a copy of the cached account, loading its encoding on a miss.
+     *
+     * @param key
+     *            the database key
+     * @param address
+     *            the account address
+     * @param loader
+     *            loads the encoded account from the database
+     * @return the account, or null if it doesn't exist
+     */
+    Account getAccount(ByteArray key, byte[] address, Function<ByteArray, byte[]> loader) {
+        Object v = cache.get(key, k -> {
+            byte[] bytes = loader.apply(k);
+            return bytes == null ? NONE : Account.fromBytes(address, bytes);
+        });
+
+        if (v == NONE) {
+            return null;
+        }
+
+        // accounts are mutable, never hand out the cached instance
+        Account acc = (Account) v;
+        return new Account(address, acc.getAvailable(), acc.getLocked(), acc.getNonce());
+    }
+
+    /**
+     * Returns the cached value, loading it on a miss.
+     *
+     * @param key
+     *            the database key
+     * @param loader
+     *            loads the value from the database
+     * @return the value, or null if it doesn't exist
+     */
+    byte[] get(ByteArray key, Function<ByteArray, byte[]> loader) {
+        Object v = cache.get(key, k -> {
+            byte[] bytes = loader.apply(k);
+            return bytes == null ? NONE : bytes;
+        });
+
+        return v == NONE ? null : (byte[]) v;
+    }
+
+    /**
+     * Replaces an account with its committed value.
+     *
+     * @param key
+     * @param address
+     * @param bytes
+     *            the encoded account, or null if deleted
+     */
+    void putAccount(ByteArray key, byte[] address, byte[] bytes) {
+        cache.put(key, bytes == null ? NONE : Account.fromBytes(address, bytes));
+    }
+
+    /**
+     * Replaces a value with its committed value.
+     *
+     * @param key
+     * @param bytes
+     *            the value, or null if deleted
+     */
+    void put(ByteArray key, byte[] bytes) {
+        cache.put(key, bytes == null ? NONE : bytes);
+    }
+
+    /**
+     * Drops all the cached entries.
+     */
+    void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Returns the hit/miss statistics.
+     *
+     * @return
+     */
+    CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static int weigh(ByteArray key, Object value) {
+        int size = ENTRY_OVERHEAD + key.length();
+        if (value instanceof byte[]) {
+            size += ((byte[]) value).length;
+        } else if (value instanceof Account) {
+            size += ((Account) value).getAddress().length + 2 * Long.BYTES + Long.BYTES;
+        }
+        return size;
+    }
+}
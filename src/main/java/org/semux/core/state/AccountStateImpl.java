@@ -6,15 +6,20 @@
  */
 package org.semux.core.state;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.semux.core.Amount;
 import org.semux.db.Database;
 import org.semux.util.ByteArray;
 import org.semux.util.Bytes;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
 /**
  * Account state implementation.
  * 
@@ -33,12 +38,28 @@ public class AccountStateImpl implements Cloneable, AccountState {
     protected static final byte TYPE_STORAGE = 2;
 
     protected Database accountDB;
+
+    /**
+     * The database-backed state, for tracked states.
+     */
     protected AccountStateImpl prev;
 
     /**
-     * All updates, or deletes if the value is null.
+     * All updates, or deletes if the value is null. Only used by the
+     * database-backed state; tracked states keep their updates in the journal.
+     */
+    protected final Map<ByteArray, byte[]> updates = Collections.synchronizedMap(new HashMap<>());
+
+    /**
+     * Journal shared by all the states tracked from the same top-level track.
      */
-    protected final Map<ByteArray, byte[]> updates = new ConcurrentHashMap<>();
+    protected StateJournal journal;
+    protected StateJournal.Layer layer;
+
+    /**
+     * Read-through cache of the database, or null if disabled.
+     */
+    protected AccountCache cache;
 
     /**
      * Create an {@link AccountState} that work directly on a database.
@@ -46,7 +67,20 @@ public class AccountStateImpl implements Cloneable, AccountState {
      * @param accountDB
      */
     public AccountStateImpl(Database accountDB) {
+        this(accountDB, 0);
+    }
+
+    /**
+     * Create an {@link AccountState} that work directly on a database, with a
+     * read-through cache in front of it.
+     *
+     * @param accountDB
+     * @param cacheSize
+     *            the max size of the cache in bytes, or 0 to disable it
+     */
+    public AccountStateImpl(Database accountDB, long cacheSize) {
         this.accountDB = accountDB;
+        this.cache = cacheSize > 0 ? new AccountCache(cacheSize) : null;
     }
 
     /**
@@ -55,7 +89,15 @@ public class AccountStateImpl implements Cloneable, AccountState {
      * @param prev
      */
     public AccountStateImpl(AccountStateImpl prev) {
-        this.prev = prev;
+        if (prev.journal == null) {
+            this.prev = prev;
+            this.journal = new StateJournal(1);
+            this.layer = journal.base();
+        } else {
+            this.prev = prev.prev;
+            this.journal = prev.journal;
+            this.layer = journal.track(prev.layer);
+        }
     }
 
     @Override
@@ -63,15 +105,29 @@ public class AccountStateImpl implements Cloneable, AccountState {
         ByteArray k = getKey(TYPE_ACCOUNT, address);
         Amount noAmount = Amount.ZERO;
 
-        if (updates.containsKey(k)) {
-            byte[] v = updates.get(k);
+        if (journal != null) {
+            byte[] v = journal.get(layer, 0, k);
+            if (v == StateJournal.ABSENT) {
+                return prev.getAccount(address);
+            }
             return v == null ? new Account(address, noAmount, noAmount, 0) : Account.fromBytes(address, v);
-        } else if (prev != null) {
-            return prev.getAccount(address);
+        }
+
+        synchronized (updates) {
+            if (updates.containsKey(k)) {
+                byte[] v = updates.get(k);
+                return v == null ? new Account(address, noAmount, noAmount, 0) : Account.fromBytes(address, v);
+            }
+        }
+
+        Account acc;
+        if (cache != null) {
+            acc = cache.getAccount(k, address, key -> accountDB.get(key.getData()));
         } else {
             byte[] v = accountDB.get(k.getData());
-            return v == null ? new Account(address, noAmount, noAmount, 0) : Account.fromBytes(address, v);
+            acc = v == null ? null : Account.fromBytes(address, v);
         }
+        return acc == null ? new Account(address, noAmount, noAmount, 0) : acc;
     }
 
     @Override
@@ -81,7 +137,7 @@ public class AccountStateImpl implements Cloneable, AccountState {
         Account acc = getAccount(address);
         long nonce = acc.getNonce() + 1;
         acc.setNonce(nonce);
-        updates.put(k, acc.toBytes());
+        put(k, acc.toBytes());
         return nonce;
     }
 
@@ -91,7 +147,7 @@ public class AccountStateImpl implements Cloneable, AccountState {
 
         Account acc = getAccount(address);
         acc.setAvailable(acc.getAvailable().add(delta));
-        updates.put(k, acc.toBytes());
+        put(k, acc.toBytes());
     }
 
     @Override
@@ -100,51 +156,32 @@ public class AccountStateImpl implements Cloneable, AccountState {
 
         Account acc = getAccount(address);
         acc.setLocked(acc.getLocked().add(delta));
-        updates.put(k, acc.toBytes());
+        put(k, acc.toBytes());
     }
 
     @Override
     public byte[] getCode(byte[] address) {
-        ByteArray k = getKey(TYPE_CODE, address);
-
-        if (updates.containsKey(k)) {
-            return updates.get(k);
-        } else if (prev != null) {
-            return prev.getCode(address);
-        } else {
-            return accountDB.get(k.getData());
-        }
+        return get(getKey(TYPE_CODE, address));
     }
 
     @Override
     public void setCode(byte[] address, byte[] code) {
-        ByteArray k = getKey(TYPE_CODE, address);
-        updates.put(k, code);
+        put(getKey(TYPE_CODE, address), code);
     }
 
     @Override
     public byte[] getStorage(byte[] address, byte[] key) {
-        ByteArray k = getStorageKey(address, key);
-
-        if (updates.containsKey(k)) {
-            return updates.get(k);
-        } else if (prev != null) {
-            return prev.getStorage(address, key);
-        } else {
-            return accountDB.get(k.getData());
-        }
+        return get(getStorageKey(address, key));
     }
 
     @Override
     public void putStorage(byte[] address, byte[] key, byte[] value) {
-        ByteArray storeKey = getStorageKey(address, key);
-        updates.put(storeKey, value);
+        put(getStorageKey(address, key), value);
     }
 
     @Override
     public void removeStorage(byte[] address, byte[] key) {
-        ByteArray storeKey = getStorageKey(address, key);
-        updates.put(storeKey, null);
+        put(getStorageKey(address, key), null);
     }
 
     @Override
@@ -154,19 +191,22 @@ public class AccountStateImpl implements Cloneable, AccountState {
 
     @Override
     public void commit() {
+        if (journal != null) {
+            List<Map<ByteArray, byte[]>> committed = journal.commit(layer);
+            if (committed != null) {
+                prev.updates.putAll(committed.get(0));
+            }
+            return;
+        }
+
         synchronized (updates) {
-            if (prev == null) {
-                for (Entry<ByteArray, byte[]> entry : updates.entrySet()) {
-                    if (entry.getValue() == null) {
-                        accountDB.delete(entry.getKey().getData());
-                    } else {
-                        accountDB.put(entry.getKey().getData(), entry.getValue());
-                    }
-                }
-            } else {
-                for (Entry<ByteArray, byte[]> e : updates.entrySet()) {
-                    prev.updates.put(e.getKey(), e.getValue());
+            for (Entry<ByteArray, byte[]> entry : updates.entrySet()) {
+                if (entry.getValue() == null) {
+                    accountDB.delete(entry.getKey().getData());
+                } else {
+                    accountDB.put(entry.getKey().getData(), entry.getValue());
                 }
+                updateCache(entry.getKey(), entry.getValue());
             }
 
             updates.clear();
@@ -175,20 +215,45 @@ public class AccountStateImpl implements Cloneable, AccountState {
 
     @Override
     public void rollback() {
-        updates.clear();
+        if (journal != null) {
+            journal.rollback(layer);
+        } else {
+            updates.clear();
+        }
+    }
+
+    /**
+     * Returns a copy of the updates of this root state not committed yet, so that
+     * they can be restored if the database writes of the commit are discarded.
+     *
+     * @return
+     */
+    public Map<ByteArray, byte[]> copyUpdates() {
+        synchronized (updates) {
+            return new HashMap<>(updates);
+        }
+    }
+
+    /**
+     * Restores the updates of this root state, once the database writes of their
+     * commit are discarded. See {@link #copyUpdates()}.
+     *
+     * @param updates
+     */
+    public void restoreUpdates(Map<ByteArray, byte[]> updates) {
+        this.updates.putAll(updates);
     }
 
     @Override
     public boolean exists(byte[] address) {
         ByteArray k = getKey(TYPE_ACCOUNT, address);
 
-        if (updates.containsKey(k)) {
+        if (journal != null) {
+            return journal.contains(layer, 0, k) || prev.exists(address);
+        } else if (updates.containsKey(k)) {
             return true;
-        } else if (prev != null) {
-            return prev.exists(address);
         } else {
-            byte[] v = accountDB.get(k.getData());
-            return v != null;
+            return getCommitted(k) != null;
         }
     }
 
@@ -198,19 +263,132 @@ public class AccountStateImpl implements Cloneable, AccountState {
 
         Account acc = getAccount(address);
         acc.setNonce(nonce);
-        updates.put(k, acc.toBytes());
+        put(k, acc.toBytes());
         return nonce;
     }
 
     @Override
     public AccountState clone() {
+        if (journal != null) {
+            AccountStateImpl clone = new AccountStateImpl(prev);
+            for (Entry<ByteArray, byte[]> e : journal.updates(layer, 0).entrySet()) {
+                clone.put(e.getKey(), e.getValue());
+            }
+            return clone;
+        }
+
         AccountStateImpl clone = new AccountStateImpl(accountDB);
-        clone.prev = prev;
+        clone.cache = cache;
         clone.updates.putAll(updates);
 
         return clone;
     }
 
+    /**
+     * Returns all the updates not committed to the database yet, including the
+     * ones of the states this one is tracked from.
+     *
+     * @return
+     */
+    protected Map<ByteArray, byte[]> getUncommittedUpdates() {
+        if (journal != null) {
+            Map<ByteArray, byte[]> result = prev.getUncommittedUpdates();
+            result.putAll(journal.updates(layer, 0));
+            return result;
+        }
+
+        synchronized (updates) {
+            return new HashMap<>(updates);
+        }
+    }
+
+    /**
+     * Returns the value of a key, or null if it doesn't exist.
+     *
+     * @param k
+     * @return
+     */
+    protected byte[] get(ByteArray k) {
+        if (journal != null) {
+            byte[] v = journal.get(layer, 0, k);
+            return v == StateJournal.ABSENT ? prev.get(k) : v;
+        }
+
+        synchronized (updates) {
+            if (updates.containsKey(k)) {
+                return updates.get(k);
+            }
+        }
+        return getCommitted(k);
+    }
+
+    /**
+     * Returns the value of a key in the database, going through the cache.
+     *
+     * @param k
+     * @return
+     */
+    protected byte[] getCommitted(ByteArray k) {
+        if (cache == null) {
+            return accountDB.get(k.getData());
+        } else if (k.getData()[0] == TYPE_ACCOUNT) {
+            byte[] address = Arrays.copyOfRange(k.getData(), 1, k.length());
+            Account acc = cache.getAccount(k, address, key -> accountDB.get(key.getData()));
+            return acc == null ? null : acc.toBytes();
+        } else {
+            return cache.get(k, key -> accountDB.get(key.getData()));
+        }
+    }
+
+    /**
+     * Replaces a cached entry with the value just written to the database.
+     *
+     * @param k
+     * @param v
+     */
+    protected void updateCache(ByteArray k, byte[] v) {
+        if (cache == null) {
+            return;
+        } else if (k.getData()[0] == TYPE_ACCOUNT) {
+            cache.putAccount(k, Arrays.copyOfRange(k.getData(), 1, k.length()), v);
+        } else {
+            cache.put(k, v);
+        }
+    }
+
+    /**
+     * Drops the cached database entries. This is required when the database is
+     * modified by other means, or its uncommitted writes are discarded.
+     */
+    public void invalidateCache() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Returns the hit/miss statistics of the cache.
+     *
+     * @return the statistics, or null if the cache is disabled
+     */
+    public CacheStats getCacheStats() {
+        return cache == null ? null : cache.stats();
+    }
+
+    /**
+     * Updates the value of a key, or deletes it if the value is null.
+     *
+     * @param k
+     * @param v
+     */
+    protected void put(ByteArray k, byte[] v) {
+        if (journal != null) {
+            journal.put(layer, 0, k, v);
+        } else {
+            updates.put(k, v);
+        }
+    }
+
     protected ByteArray getKey(byte type, byte[] address) {
         return ByteArray.of(Bytes.merge(type, address));
     }
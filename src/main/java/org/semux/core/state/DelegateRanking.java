@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core.state;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.semux.util.ByteArray;
+
+/**
+ * In-memory ranking of the delegates in the database, sorted by votes
+ * (descending) and then by name. It's updated incrementally as delegate
+ * updates are committed, so that selecting the top delegates doesn't require
+ * a scan of the delegate database.
+ */
+class DelegateRanking {
+
+    static final Comparator<Delegate> COMPARATOR = (d1, d2) -> {
+        int cmp = d2.getVotes().compareTo(d1.getVotes());
+        return (cmp != 0) ? cmp : d1.getNameString().compareTo(d2.getNameString());
+    };
+
+    private final TreeSet<Delegate> sorted = new TreeSet<>(COMPARATOR);
+    private final Map<ByteArray, Delegate> byAddress = new HashMap<>();
+
+    /**
+     * Adds or updates a delegate.
+     *
+     * @param d
+     */
+    synchronized void put(Delegate d) {
+        Delegate old = byAddress.put(ByteArray.of(d.getAddress()), d);
+        if (old != null) {
+            sorted.remove(old);
+        }
+        sorted.add(d);
+    }
+
+    /**
+     * Removes a delegate.
+     *
+     * @param address
+     */
+    synchronized void remove(ByteArray address) {
+        Delegate old = byAddress.remove(address);
+        if (old != null) {
+            sorted.remove(old);
+        }
+    }
+
+    /**
+     * Returns the number of ranked delegates.
+     *
+     * @return
+     */
+    synchronized int size() {
+        return sorted.size();
+    }
+
+    /**
+     * Returns the top delegates, with the given uncommitted updates applied on
+     * top of the ranking.
+     *
+     * @param overrides
+     *            uncommitted delegate updates; null value means deleted
+     * @param limit
+     *            the max number of delegates to return
+     * @return
+     */
+    synchronized List<Delegate> list(Map<ByteArray, Delegate> overrides, int limit) {
+        List<Delegate> updated = overrides.values().stream()
+                .filter(Objects::nonNull)
+                .sorted(COMPARATOR)
+                .collect(Collectors.toList());
+
+        List<Delegate> result = new ArrayList<>(Math.min(limit, sorted.size() + updated.size()));
+        Iterator<Delegate> itr = sorted.iterator();
+        Delegate next = nextNotOverridden(itr, overrides);
+        int i = 0;
+        while (result.size() < limit && (next != null || i < updated.size())) {
+            if (next == null || (i < updated.size() && COMPARATOR.compare(updated.get(i), next) < 0)) {
+                result.add(updated.get(i++));
+            } else {
+                result.add(next);
+                next = nextNotOverridden(itr, overrides);
+            }
+        }
+
+        return result;
+    }
+
+    private static Delegate nextNotOverridden(Iterator<Delegate> itr, Map<ByteArray, Delegate> overrides) {
+        while (itr.hasNext()) {
+            Delegate d = itr.next();
+            if (overrides.isEmpty() || !overrides.containsKey(ByteArray.of(d.getAddress()))) {
+                return d;
+            }
+        }
+        return null;
+    }
+}
@@ -94,6 +94,15 @@ public interface DelegateState {
      */
     List<Delegate> getDelegates();
 
+    /**
+     * Returns the top delegates, sorted by votes.
+     *
+     * @param limit
+     *            the max number of delegates to return
+     * @return
+     */
+    List<Delegate> getDelegates(int limit);
+
     /**
      * Returns a snapshot and starts tracking updates.
      */
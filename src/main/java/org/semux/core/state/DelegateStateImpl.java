@@ -8,7 +8,6 @@ package org.semux.core.state;
 
 import static org.semux.core.Amount.ZERO;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -47,22 +46,41 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
 
     private static final int ADDRESS_LEN = 20;
 
+    static final int TABLE_DELEGATE = 0;
+    static final int TABLE_VOTE = 1;
+
     protected final Blockchain chain;
 
     protected Database delegateDB;
     protected Database voteDB;
+
+    /**
+     * The database-backed state, for tracked states.
+     */
     protected DelegateStateImpl prev;
 
     /**
-     * Delegate updates
+     * Ranking of the committed delegates, loaded lazily and shared by the root
+     * state and its clones.
+     */
+    protected DelegateRanking ranking;
+
+    /**
+     * Delegate updates of the database-backed state
      */
     protected final Map<ByteArray, byte[]> delegateUpdates = new ConcurrentHashMap<>();
 
     /**
-     * Vote updates
+     * Vote updates of the database-backed state
      */
     protected final Map<ByteArray, byte[]> voteUpdates = new ConcurrentHashMap<>();
 
+    /**
+     * Journal shared by all the states tracked from the same top-level track.
+     */
+    protected StateJournal journal;
+    protected StateJournal.Layer layer;
+
     /**
      * Create a DelegateState that work directly on a database.
      * 
@@ -82,7 +100,15 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
      */
     public DelegateStateImpl(DelegateStateImpl prev) {
         this.chain = prev.chain;
-        this.prev = prev;
+        if (prev.journal == null) {
+            this.prev = prev;
+            this.journal = new StateJournal(2);
+            this.layer = journal.base();
+        } else {
+            this.prev = prev.prev;
+            this.journal = prev.journal;
+            this.layer = journal.track(prev.layer);
+        }
     }
 
     @Override
@@ -91,8 +117,8 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
             return false;
         } else {
             Delegate d = new Delegate(address, name, registeredAt, ZERO);
-            delegateUpdates.put(ByteArray.of(name), address);
-            delegateUpdates.put(ByteArray.of(address), d.toBytes());
+            putDelegate(ByteArray.of(name), address);
+            putDelegate(ByteArray.of(address), d.toBytes());
 
             return true;
         }
@@ -112,9 +138,9 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
         if (d == null) {
             return false;
         } else {
-            voteUpdates.put(key, encodeAmount(value.add(v)));
+            putVote(key, encodeAmount(value.add(v)));
             d.setVotes(d.getVotes().add(v));
-            delegateUpdates.put(ByteArray.of(delegate), d.toBytes());
+            putDelegate(ByteArray.of(delegate), d.toBytes());
             return true;
         }
     }
@@ -127,11 +153,11 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
         if (v.greaterThan(value)) {
             return false;
         } else {
-            voteUpdates.put(key, encodeAmount(value.subtract(v)));
+            putVote(key, encodeAmount(value.subtract(v)));
 
             Delegate d = getDelegateByAddress(delegate);
             d.setVotes(d.getVotes().subtract(v));
-            delegateUpdates.put(ByteArray.of(delegate), d.toBytes());
+            putDelegate(ByteArray.of(delegate), d.toBytes());
 
             return true;
         }
@@ -144,48 +170,29 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
 
     @Override
     public Delegate getDelegateByName(byte[] name) {
-        ByteArray k = ByteArray.of(name);
-
-        if (delegateUpdates.containsKey(k)) {
-            byte[] v = delegateUpdates.get(k);
-            return v == null ? null : getDelegateByAddress(v);
-        } else if (prev != null) {
-            return prev.getDelegateByName(name);
-        } else {
-            byte[] v = delegateDB.get(k.getData());
-            return v == null ? null : getDelegateByAddress(v);
-        }
+        byte[] v = getDelegate(ByteArray.of(name));
+        return v == null ? null : getDelegateByAddress(v);
     }
 
     @Override
     public Delegate getDelegateByAddress(byte[] address) {
-        ByteArray k = ByteArray.of(address);
-
-        if (delegateUpdates.containsKey(k)) {
-            byte[] v = delegateUpdates.get(k);
-            return v == null ? null : Delegate.fromBytes(k.getData(), v);
-        } else if (prev != null) {
-            return prev.getDelegateByAddress(address);
-        } else {
-            byte[] v = delegateDB.get(k.getData());
-            return v == null ? null : Delegate.fromBytes(k.getData(), v);
-        }
+        byte[] v = getDelegate(ByteArray.of(address));
+        return v == null ? null : Delegate.fromBytes(address, v);
     }
 
     @Override
     public List<Delegate> getDelegates() {
+        return getDelegates(Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Delegate> getDelegates(int limit) {
         long t1 = System.nanoTime();
 
-        // traverse all cached update, all the way to database.
+        // collect all cached updates, and merge them into the ranking
         Map<ByteArray, Delegate> map = new HashMap<>();
         getDelegates(map);
-
-        // sort the results
-        List<Delegate> list = new ArrayList<>(map.values());
-        list.sort((d1, d2) -> {
-            int cmp = d2.getVotes().compareTo(d1.getVotes());
-            return (cmp != 0) ? cmp : d1.getNameString().compareTo(d2.getNameString());
-        });
+        List<Delegate> list = getRoot().getRanking().list(map, limit);
 
         long t2 = System.nanoTime();
         logger.finest(String.format("Get delegates duration: %s μs", (t2 - t1) / 1000L));
@@ -199,36 +206,34 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
 
     @Override
     public void commit() {
+        if (journal != null) {
+            List<Map<ByteArray, byte[]>> committed = journal.commit(layer);
+            if (committed != null) {
+                prev.delegateUpdates.putAll(committed.get(TABLE_DELEGATE));
+                prev.voteUpdates.putAll(committed.get(TABLE_VOTE));
+            }
+            return;
+        }
+
         synchronized (delegateUpdates) {
-            if (prev == null) {
-                for (Entry<ByteArray, byte[]> entry : delegateUpdates.entrySet()) {
-                    if (entry.getValue() == null) {
-                        delegateDB.delete(entry.getKey().getData());
-                    } else {
-                        delegateDB.put(entry.getKey().getData(), entry.getValue());
-                    }
-                }
-            } else {
-                for (Entry<ByteArray, byte[]> e : delegateUpdates.entrySet()) {
-                    prev.delegateUpdates.put(e.getKey(), e.getValue());
+            for (Entry<ByteArray, byte[]> entry : delegateUpdates.entrySet()) {
+                if (entry.getValue() == null) {
+                    delegateDB.delete(entry.getKey().getData());
+                } else {
+                    delegateDB.put(entry.getKey().getData(), entry.getValue());
                 }
             }
+            updateRanking(delegateUpdates);
 
             delegateUpdates.clear();
         }
 
         synchronized (voteUpdates) {
-            if (prev == null) {
-                for (Entry<ByteArray, byte[]> entry : voteUpdates.entrySet()) {
-                    if (entry.getValue() == null) {
-                        voteDB.delete(entry.getKey().getData());
-                    } else {
-                        voteDB.put(entry.getKey().getData(), entry.getValue());
-                    }
-                }
-            } else {
-                for (Entry<ByteArray, byte[]> e : voteUpdates.entrySet()) {
-                    prev.voteUpdates.put(e.getKey(), e.getValue());
+            for (Entry<ByteArray, byte[]> entry : voteUpdates.entrySet()) {
+                if (entry.getValue() == null) {
+                    voteDB.delete(entry.getKey().getData());
+                } else {
+                    voteDB.put(entry.getKey().getData(), entry.getValue());
                 }
             }
 
@@ -238,8 +243,19 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
 
     @Override
     public DelegateState clone() {
+        if (journal != null) {
+            DelegateStateImpl clone = new DelegateStateImpl(prev);
+            for (Entry<ByteArray, byte[]> e : journal.updates(layer, TABLE_DELEGATE).entrySet()) {
+                clone.putDelegate(e.getKey(), e.getValue());
+            }
+            for (Entry<ByteArray, byte[]> e : journal.updates(layer, TABLE_VOTE).entrySet()) {
+                clone.putVote(e.getKey(), e.getValue());
+            }
+            return clone;
+        }
+
         DelegateStateImpl clone = new DelegateStateImpl(this.chain, this.delegateDB, this.voteDB);
-        clone.prev = this.prev;
+        clone.ranking = this.ranking;
         clone.voteUpdates.putAll(this.voteUpdates);
         clone.delegateUpdates.putAll(this.delegateUpdates);
         return clone;
@@ -247,17 +263,61 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
 
     @Override
     public void rollback() {
-        delegateUpdates.clear();
-        voteUpdates.clear();
+        if (journal != null) {
+            journal.rollback(layer);
+        } else {
+            delegateUpdates.clear();
+            voteUpdates.clear();
+        }
+    }
+
+    /**
+     * Returns a copy of the delegate and vote updates of this root state not
+     * committed yet, so that they can be restored if the database writes of the
+     * commit are discarded.
+     *
+     * @return
+     */
+    public List<Map<ByteArray, byte[]>> copyUpdates() {
+        return Arrays.asList(getUncommittedUpdates(TABLE_DELEGATE), getUncommittedUpdates(TABLE_VOTE));
     }
 
     /**
-     * Recursively compute the delegates.
+     * Restores the updates of this root state, once the database writes of their
+     * commit are discarded. See {@link #copyUpdates()}.
+     *
+     * @param updates
+     */
+    public void restoreUpdates(List<Map<ByteArray, byte[]>> updates) {
+        delegateUpdates.putAll(updates.get(TABLE_DELEGATE));
+        voteUpdates.putAll(updates.get(TABLE_VOTE));
+    }
+
+    /**
+     * Returns all the updates of a table not committed to the database yet,
+     * including the ones of the states this one is tracked from.
+     *
+     * @param table
+     * @return
+     */
+    protected Map<ByteArray, byte[]> getUncommittedUpdates(int table) {
+        if (journal != null) {
+            Map<ByteArray, byte[]> result = prev.getUncommittedUpdates(table);
+            result.putAll(journal.updates(layer, table));
+            return result;
+        }
+
+        return new HashMap<>(table == TABLE_DELEGATE ? delegateUpdates : voteUpdates);
+    }
+
+    /**
+     * Collects the uncommitted delegate updates, all the way to the root state.
      * 
      * @param map
      */
     protected void getDelegates(Map<ByteArray, Delegate> map) {
-        for (Entry<ByteArray, byte[]> entry : delegateUpdates.entrySet()) {
+        Map<ByteArray, byte[]> updates = (journal != null) ? journal.updates(layer, TABLE_DELEGATE) : delegateUpdates;
+        for (Entry<ByteArray, byte[]> entry : updates.entrySet()) {
             /* filter address */
             if (entry.getKey().length() == ADDRESS_LEN && !map.containsKey(entry.getKey())) {
                 if (entry.getValue() == null) {
@@ -270,18 +330,70 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
 
         if (prev != null) {
             prev.getDelegates(map);
-        } else {
+        }
+    }
+
+    /**
+     * Returns the root state, which works directly on the database.
+     *
+     * @return
+     */
+    protected DelegateStateImpl getRoot() {
+        DelegateStateImpl root = this;
+        while (root.prev != null) {
+            root = root.prev;
+        }
+        return root;
+    }
+
+    /**
+     * Returns the ranking of committed delegates, loading it from the database
+     * on first use.
+     *
+     * @return
+     */
+    protected synchronized DelegateRanking getRanking() {
+        if (ranking == null) {
+            DelegateRanking r = new DelegateRanking();
             ClosableIterator<Entry<byte[], byte[]>> itr = delegateDB.iterator();
             while (itr.hasNext()) {
                 Entry<byte[], byte[]> entry = itr.next();
-                ByteArray k = ByteArray.of(entry.getKey());
-                byte[] v = entry.getValue();
-
-                if (k.length() == ADDRESS_LEN && !map.containsKey(k)) {
-                    map.put(k, Delegate.fromBytes(k.getData(), v));
+                if (entry.getKey().length == ADDRESS_LEN) {
+                    r.put(Delegate.fromBytes(entry.getKey(), entry.getValue()));
                 }
             }
             itr.close();
+            ranking = r;
+        }
+        return ranking;
+    }
+
+    /**
+     * Drops the ranking, so that it's reloaded from the database on next use.
+     * This is required when the delegate database is modified by other means.
+     */
+    public synchronized void resetRanking() {
+        ranking = null;
+    }
+
+    /**
+     * Applies committed delegate updates to the ranking, if it's loaded.
+     *
+     * @param updates
+     */
+    protected synchronized void updateRanking(Map<ByteArray, byte[]> updates) {
+        if (ranking == null) {
+            return;
+        }
+
+        for (Entry<ByteArray, byte[]> entry : updates.entrySet()) {
+            if (entry.getKey().length() == ADDRESS_LEN) {
+                if (entry.getValue() == null) {
+                    ranking.remove(entry.getKey());
+                } else {
+                    ranking.put(Delegate.fromBytes(entry.getKey().getData(), entry.getValue()));
+                }
+            }
         }
     }
 
@@ -293,16 +405,47 @@ public class DelegateStateImpl implements Cloneable, DelegateState {
      * @return
      */
     protected Amount getVote(ByteArray key) {
-        if (voteUpdates.containsKey(key)) {
-            byte[] bytes = voteUpdates.get(key);
-            return decodeAmount(bytes);
+        if (journal != null) {
+            byte[] bytes = journal.get(layer, TABLE_VOTE, key);
+            return bytes == StateJournal.ABSENT ? prev.getVote(key) : decodeAmount(bytes);
+        } else if (voteUpdates.containsKey(key)) {
+            return decodeAmount(voteUpdates.get(key));
+        } else {
+            return decodeAmount(voteDB.get(key.getData()));
         }
+    }
 
-        if (prev != null) {
-            return prev.getVote(key);
+    /**
+     * Returns the value of a delegate key, or null if it doesn't exist.
+     *
+     * @param key
+     *            a name or an address
+     * @return
+     */
+    protected byte[] getDelegate(ByteArray key) {
+        if (journal != null) {
+            byte[] v = journal.get(layer, TABLE_DELEGATE, key);
+            return v == StateJournal.ABSENT ? prev.getDelegate(key) : v;
+        } else if (delegateUpdates.containsKey(key)) {
+            return delegateUpdates.get(key);
+        } else {
+            return delegateDB.get(key.getData());
+        }
+    }
+
+    protected void putDelegate(ByteArray key, byte[] value) {
+        if (journal != null) {
+            journal.put(layer, TABLE_DELEGATE, key, value);
+        } else {
+            delegateUpdates.put(key, value);
+        }
+    }
+
+    protected void putVote(ByteArray key, byte[] value) {
+        if (journal != null) {
+            journal.put(layer, TABLE_VOTE, key, value);
         } else {
-            byte[] bytes = voteDB.get(key.getData());
-            return decodeAmount(bytes);
+            voteUpdates.put(key, value);
         }
     }
 
@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core.state;
+
+import static org.semux.core.state.AccountStateImpl.TYPE_ACCOUNT;
+import static org.semux.core.state.AccountStateImpl.TYPE_CODE;
+import static org.semux.core.state.AccountStateImpl.TYPE_STORAGE;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.semux.core.Amount;
+import org.semux.util.ByteArray;
+import org.semux.util.Bytes;
+
+/**
+ * An account state which buffers its changes on top of another account state,
+ * and records the keys it reads and writes, for speculative execution.
+ * <p>
+ * The underlying state is only read, so many instances can run concurrently on
+ * top of the same state. Once it's known that none of the keys read has been
+ * modified in the meantime, the changes can be replayed onto the underlying
+ * state with {@link #commit()}, or onto another state with
+ * {@link #apply(AccountState)}.
+ * <p>
+ * A state tracked from a recording state is itself a recording state on top of
+ * it: its reads are recorded by the parent as well, and committing it replays
+ * its changes onto the parent.
+ */
+public class RecordingAccountState implements AccountState {
+
+    private final AccountState base;
+
+    private final Map<ByteArray, Account> accounts = new HashMap<>();
+    private final Map<ByteArray, byte[]> values = new HashMap<>();
+
+    private final Set<ByteArray> reads = new HashSet<>();
+    private final Set<ByteArray> writes = new HashSet<>();
+    private final List<Consumer<AccountState>> changes = new ArrayList<>();
+
+    public RecordingAccountState(AccountState base) {
+        this.base = base;
+    }
+
+    @Override
+    public Account getAccount(byte[] address) {
+        Account acc = load(address);
+        return new Account(address, acc.getAvailable(), acc.getLocked(), acc.getNonce());
+    }
+
+    @Override
+    public long increaseNonce(byte[] address) {
+        Account acc = load(address);
+        long nonce = acc.getNonce() + 1;
+        acc.setNonce(nonce);
+        write(key(TYPE_ACCOUNT, address), s -> s.increaseNonce(address));
+        return nonce;
+    }
+
+    @Override
+    public void adjustAvailable(byte[] address, Amount delta) {
+        Account acc = load(address);
+        acc.setAvailable(acc.getAvailable().add(delta));
+        write(key(TYPE_ACCOUNT, address), s -> s.adjustAvailable(address, delta));
+    }
+
+    @Override
+    public void adjustLocked(byte[] address, Amount delta) {
+        Account acc = load(address);
+        acc.setLocked(acc.getLocked().add(delta));
+        write(key(TYPE_ACCOUNT, address), s -> s.adjustLocked(address, delta));
+    }
+
+    @Override
+    public byte[] getCode(byte[] address) {
+        return read(key(TYPE_CODE, address), () -> base.getCode(address));
+    }
+
+    @Override
+    public void setCode(byte[] address, byte[] code) {
+        ByteArray k = key(TYPE_CODE, address);
+        values.put(k, code);
+        write(k, s -> s.setCode(address, code));
+    }
+
+    @Override
+    public byte[] getStorage(byte[] address, byte[] key) {
+        return read(storageKey(address, key), () -> base.getStorage(address, key));
+    }
+
+    @Override
+    public void putStorage(byte[] address, byte[] key, byte[] value) {
+        ByteArray k = storageKey(address, key);
+        values.put(k, value);
+        write(k, s -> s.putStorage(address, key, value));
+    }
+
+    @Override
+    public void removeStorage(byte[] address, byte[] key) {
+        ByteArray k = storageKey(address, key);
+        values.put(k, null);
+        write(k, s -> s.removeStorage(address, key));
+    }
+
+    @Override
+    public AccountState track() {
+        return new RecordingAccountState(this);
+    }
+
+    /**
+     * Replays the buffered changes onto the underlying state. The keys read and
+     * written are still reported afterwards.
+     */
+    @Override
+    public void commit() {
+        apply(base);
+        discard();
+    }
+
+    /**
+     * Discards the buffered changes. The keys they wrote are still reported, which
+     * is safe for conflict detection.
+     */
+    @Override
+    public void rollback() {
+        discard();
+    }
+
+    @Override
+    public boolean exists(byte[] address) {
+        ByteArray k = key(TYPE_ACCOUNT, address);
+        reads.add(k);
+        return writes.contains(k) || base.exists(address);
+    }
+
+    @Override
+    public long setNonce(byte[] address, long nonce) {
+        Account acc = load(address);
+        acc.setNonce(nonce);
+        write(key(TYPE_ACCOUNT, address), s -> s.setNonce(address, nonce));
+        return nonce;
+    }
+
+    @Override
+    public AccountState clone() {
+        RecordingAccountState clone = new RecordingAccountState(base);
+        for (Map.Entry<ByteArray, Account> e : accounts.entrySet()) {
+            Account acc = e.getValue();
+            clone.accounts.put(e.getKey(),
+                    new Account(acc.getAddress(), acc.getAvailable(), acc.getLocked(), acc.getNonce()));
+        }
+        clone.values.putAll(values);
+        clone.reads.addAll(reads);
+        clone.writes.addAll(writes);
+        clone.changes.addAll(changes);
+
+        return clone;
+    }
+
+    /**
+     * Returns the keys read, including the ones read before being modified.
+     *
+     * @return
+     */
+    public Set<ByteArray> getReads() {
+        return Collections.unmodifiableSet(reads);
+    }
+
+    /**
+     * Returns the keys modified.
+     *
+     * @return
+     */
+    public Set<ByteArray> getWrites() {
+        return Collections.unmodifiableSet(writes);
+    }
+
+    /**
+     * Replays the changes, in order, onto the given state.
+     *
+     * @param state
+     */
+    public void apply(AccountState state) {
+        for (Consumer<AccountState> change : changes) {
+            change.accept(state);
+        }
+    }
+
+    private void discard() {
+        accounts.clear();
+        values.clear();
+        changes.clear();
+    }
+
+    private Account load(byte[] address) {
+        ByteArray k = key(TYPE_ACCOUNT, address);
+        reads.add(k);
+        return accounts.computeIfAbsent(k, x -> base.getAccount(address));
+    }
+
+    private byte[] read(ByteArray k, Supplier<byte[]> loader) {
+        reads.add(k);
+        return values.containsKey(k) ? values.get(k) : loader.get();
+    }
+
+    private void write(ByteArray k, Consumer<AccountState> change) {
+        writes.add(k);
+        changes.add(change);
+    }
+
+    private static ByteArray key(byte type, byte[] address) {
+        return ByteArray.of(Bytes.merge(type, address));
+    }
+
+    private static ByteArray storageKey(byte[] address, byte[] key) {
+        return ByteArray.of(Bytes.merge(TYPE_STORAGE, Bytes.merge(address, key)));
+    }
+}
@@ -0,0 +1,292 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core.state;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.semux.util.ByteArray;
+
+/**
+ * A flattened stack of tracked state layers. All the layers share one map per
+ * table, holding the latest value of every updated key, and an undo log of the
+ * values they replaced. Tracking a layer only records a checkpoint in the undo
+ * log; committing it into its parent just drops the checkpoint, and rolling it
+ * back replays the undo log down to the checkpoint. Reads are a single map
+ * lookup, no matter how deep the stack is.
+ * <p>
+ * Layers are expected to be used in LIFO order. A layer which is neither
+ * committed nor rolled back is discarded, and its changes reverted, as soon as
+ * one of its ancestors is updated, tracked, committed or rolled back. Reads
+ * don't discard anything: a read from an ancestor sees the state as of the
+ * time the layer on top of it was tracked, and a read from a discarded layer
+ * sees the state of its parent.
+ */
+class StateJournal {
+
+    /**
+     * Marker returned by {@link #get(Layer, int, ByteArray)} for keys which are
+     * not updated; compare by identity.
+     */
+    static final byte[] ABSENT = new byte[0];
+
+    /**
+     * A layer of the stack.
+     */
+    static final class Layer {
+        private final Layer parent;
+        private Layer child;
+        private int checkpoint;
+        private boolean active;
+
+        private Layer(Layer parent, int checkpoint) {
+            this.parent = parent;
+            this.checkpoint = checkpoint;
+            this.active = true;
+        }
+    }
+
+    /**
+     * A value in the shared maps, and the index of the change which recorded the
+     * value it replaced. A null value means deleted.
+     */
+    private static final class Slot {
+        private final byte[] value;
+        private final int version;
+
+        private Slot(byte[] value, int version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+
+    /**
+     * An entry of the undo log. A null slot means the key was not updated.
+     */
+    private static final class Change {
+        private final int table;
+        private final ByteArray key;
+        private final Slot prev;
+
+        private Change(int table, ByteArray key, Slot prev) {
+            this.table = table;
+            this.key = key;
+            this.prev = prev;
+        }
+    }
+
+    private final List<Map<ByteArray, Slot>> tables;
+    private final List<Change> changes = new ArrayList<>();
+
+    private final Layer base;
+    private Layer top;
+
+    /**
+     * Creates a journal.
+     *
+     * @param numberOfTables
+     *            the number of independent key spaces
+     */
+    StateJournal(int numberOfTables) {
+        tables = new ArrayList<>(numberOfTables);
+        for (int i = 0; i < numberOfTables; i++) {
+            tables.add(new HashMap<>());
+        }
+        base = top = new Layer(null, 0);
+    }
+
+    /**
+     * Returns the bottom layer, which is committed to the underlying state.
+     *
+     * @return
+     */
+    Layer base() {
+        return base;
+    }
+
+    /**
+     * Tracks a new layer on top of the given one.
+     *
+     * @param layer
+     * @return
+     */
+    synchronized Layer track(Layer layer) {
+        activate(layer);
+
+        Layer child = new Layer(layer, changes.size());
+        layer.child = child;
+        top = child;
+        return child;
+    }
+
+    /**
+     * Returns whether the key is updated in the given layer or below.
+     *
+     * @param layer
+     * @param table
+     * @param key
+     * @return
+     */
+    synchronized boolean contains(Layer layer, int table, ByteArray key) {
+        return lookup(layer, table, key) != null;
+    }
+
+    /**
+     * Returns the value of the key as seen by the given layer.
+     *
+     * @param layer
+     * @param table
+     * @param key
+     * @return the value, null if it's deleted, or {@link #ABSENT} if it's not
+     *         updated
+     */
+    synchronized byte[] get(Layer layer, int table, ByteArray key) {
+        Slot slot = lookup(layer, table, key);
+        return slot == null ? ABSENT : slot.value;
+    }
+
+    /**
+     * Updates a key in the given layer.
+     *
+     * @param layer
+     * @param table
+     * @param key
+     * @param value
+     *            the new value, or null to delete
+     */
+    synchronized void put(Layer layer, int table, ByteArray key, byte[] value) {
+        activate(layer);
+
+        Map<ByteArray, Slot> map = tables.get(table);
+        Slot old = map.get(key);
+        if (old != null && old.version >= layer.checkpoint) {
+            // already recorded since the checkpoint, just replace the value
+            map.put(key, new Slot(value, old.version));
+        } else {
+            map.put(key, new Slot(value, changes.size()));
+            changes.add(new Change(table, key, old));
+        }
+    }
+
+    /**
+     * Returns the updates of a table as seen by the given layer.
+     *
+     * @param layer
+     * @param table
+     * @return updated keys and values; null value means deleted
+     */
+    synchronized Map<ByteArray, byte[]> updates(Layer layer, int table) {
+        Map<ByteArray, byte[]> result = new HashMap<>();
+        for (Entry<ByteArray, Slot> e : tables.get(table).entrySet()) {
+            Slot slot = lookup(layer, table, e.getKey());
+            if (slot != null) {
+                result.put(e.getKey(), slot.value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Commits a layer into its parent. Committing the base layer returns all the
+     * updates and clears the journal, as they're to be written to the underlying
+     * state by the caller.
+     *
+     * @param layer
+     * @return the updates of each table if the base layer is committed,
+     *         otherwise null
+     */
+    synchronized List<Map<ByteArray, byte[]>> commit(Layer layer) {
+        activate(layer);
+
+        if (layer == base) {
+            List<Map<ByteArray, byte[]>> result = new ArrayList<>(tables.size());
+            for (int i = 0; i < tables.size(); i++) {
+                result.add(updates(base, i));
+                tables.get(i).clear();
+            }
+            changes.clear();
+            return result;
+        } else {
+            pop();
+            return null;
+        }
+    }
+
+    /**
+     * Reverts the changes of a layer.
+     *
+     * @param layer
+     */
+    synchronized void rollback(Layer layer) {
+        activate(layer);
+
+        revert(layer.checkpoint);
+        if (layer != base) {
+            pop();
+        }
+    }
+
+    /**
+     * Finds the slot of a key as seen by the given layer, skipping the changes
+     * made by the layers on top of it. An inactive layer has no changes of its
+     * own, so it's read through its nearest active ancestor.
+     */
+    private Slot lookup(Layer layer, int table, ByteArray key) {
+        while (!layer.active) {
+            layer = layer.parent;
+        }
+
+        Slot slot = tables.get(table).get(key);
+        if (layer.child != null) {
+            int checkpoint = layer.child.checkpoint;
+            while (slot != null && slot.version >= checkpoint) {
+                slot = changes.get(slot.version).prev;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Makes the given layer the top of the stack, discarding the layers above it.
+     * An inactive layer is tracked again on top of its parent.
+     */
+    private void activate(Layer layer) {
+        if (layer.active) {
+            while (top != layer) {
+                revert(top.checkpoint);
+                pop();
+            }
+        } else if (layer.parent != null) {
+            activate(layer.parent);
+            layer.checkpoint = changes.size();
+            layer.active = true;
+            layer.parent.child = layer;
+            top = layer;
+        }
+    }
+
+    private void pop() {
+        top.active = false;
+        top = top.parent;
+        top.child = null;
+    }
+
+    private void revert(int checkpoint) {
+        for (int i = changes.size() - 1; i >= checkpoint; i--) {
+            Change c = changes.remove(i);
+            Map<ByteArray, Slot> map = tables.get(c.table);
+            if (c.prev == null) {
+                map.remove(c.key);
+            } else {
+                map.put(c.key, c.prev);
+            }
+        }
+    }
+}
@@ -0,0 +1,642 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core.state;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.semux.crypto.Hash;
+import org.semux.db.Database;
+import org.semux.util.ByteArray;
+import org.semux.util.Bytes;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * A sparse Merkle tree over the account and delegate state, whose root is the
+ * state root of the blocks.
+ * <p>
+ * Every record of the state databases is a leaf, at the path given by the hash
+ * of its namespace and key, and commits to the hash of its value. Only the
+ * non-empty subtrees are stored: a subtree holding a single leaf is stored as
+ * that leaf, at the highest position, and a subtree holding more is stored as a
+ * branch. The tree is therefore only as deep as needed to tell the keys apart,
+ * about <code>log2(n)</code>, and its root only depends on the set of records.
+ *
+ * <pre>
+ * state DB structure:
+ *
+ * [depth, path] => [0, key, value_hash]       a leaf
+ * [depth, path] => [1, left_hash, right_hash] a branch
+ * </pre>
+ *
+ * The hash of a node is the hash of its encoding, and the hash of an empty
+ * subtree is all zeros. Nodes are updated in place, so a block updating
+ * <code>k</code> records rewrites <code>O(k * log(n))</code> nodes.
+ */
+public class StateTrie {
+
+    public static final byte NAMESPACE_ACCOUNT = 0;
+    public static final byte NAMESPACE_DELEGATE = 1;
+    public static final byte NAMESPACE_VOTE = 2;
+
+    /**
+     * The hash of an empty subtree.
+     */
+    public static final byte[] EMPTY_ROOT = Bytes.EMPTY_HASH;
+
+    private static final byte LEAF = 0;
+    private static final byte BRANCH = 1;
+
+    private static final int KEY_BITS = Hash.HASH_LEN * 8;
+    private static final int NODE_LEN = 1 + 2 * Hash.HASH_LEN;
+
+    /**
+     * The max number of nodes kept in the cache.
+     */
+    private static final int CACHE_SIZE = 100_000;
+
+    /**
+     * Marker of a path which has no node.
+     */
+    private static final byte[] NONE = new byte[0];
+
+    private final Database stateDB;
+
+    private final Cache<Path, byte[]> cache = Caffeine.newBuilder().maximumSize(CACHE_SIZE).build();
+
+    /**
+     * The changes and the nodes of the latest root computed without writing it,
+     * which are written as is if the same changes are committed next: a block is
+     * hashed once by its validation, not again by its import, which commits the
+     * updates of all the states at once.
+     */
+    private List<Change> pendingChanges;
+    private Batch pendingBatch;
+
+    /**
+     * Creates a trie stored in the given database.
+     *
+     * @param stateDB
+     */
+    public StateTrie(Database stateDB) {
+        this.stateDB = stateDB;
+    }
+
+    /**
+     * Returns the key of a record in the trie.
+     *
+     * @param namespace
+     *            the namespace of the database holding the record
+     * @param key
+     *            the database key
+     * @return
+     */
+    public static byte[] getKey(byte namespace, byte[] key) {
+        return Hash.h256(Bytes.merge(namespace, key));
+    }
+
+    /**
+     * Returns the trie key of an account.
+     *
+     * @param address
+     * @return
+     */
+    public static byte[] getAccountKey(byte[] address) {
+        return getKey(NAMESPACE_ACCOUNT, Bytes.merge(AccountStateImpl.TYPE_ACCOUNT, address));
+    }
+
+    /**
+     * Returns the trie key of a storage slot of a contract.
+     *
+     * @param address
+     * @param key
+     * @return
+     */
+    public static byte[] getStorageKey(byte[] address, byte[] key) {
+        return getKey(NAMESPACE_ACCOUNT, Bytes.merge(new byte[] { AccountStateImpl.TYPE_STORAGE }, address, key));
+    }
+
+    /**
+     * Returns the root hash of the committed state.
+     *
+     * @return
+     */
+    public synchronized byte[] getRoot() {
+        return hash(new Batch().get(path(0, new byte[Hash.HASH_LEN])));
+    }
+
+    /**
+     * Returns the root hash of the given states, including their uncommitted
+     * updates. The trie is not modified.
+     *
+     * @param as
+     * @param ds
+     * @return
+     */
+    public synchronized byte[] getRoot(AccountState as, DelegateState ds) {
+        List<Change> changes = getChanges(as, ds);
+
+        Batch batch = new Batch();
+        batch.root = apply(batch, changes);
+        pendingChanges = changes;
+        pendingBatch = batch;
+        return batch.root;
+    }
+
+    /**
+     * Applies the updates of a state database, and writes the updated nodes.
+     *
+     * @param namespace
+     *            the namespace of the database
+     * @param updates
+     *            the updates, or deletes if the value is null
+     * @return the new root hash
+     */
+    public byte[] update(byte namespace, Map<ByteArray, byte[]> updates) {
+        return update(Collections.singletonMap(namespace, updates));
+    }
+
+    /**
+     * Applies the updates of several state databases at once, and writes the
+     * updated nodes.
+     *
+     * @param updates
+     *            the updates of each namespace
+     * @return the new root hash
+     */
+    public synchronized byte[] update(Map<Byte, Map<ByteArray, byte[]>> updates) {
+        List<Change> changes = new ArrayList<>();
+        for (Entry<Byte, Map<ByteArray, byte[]>> e : updates.entrySet()) {
+            addChanges(changes, e.getKey(), e.getValue());
+        }
+
+        return write(changes);
+    }
+
+    /**
+     * Applies the uncommitted updates of the given states, all at once, and
+     * writes the updated nodes. This is to be done right before committing them.
+     *
+     * @param as
+     * @param ds
+     * @return the new root hash
+     */
+    public synchronized byte[] update(AccountState as, DelegateState ds) {
+        return write(getChanges(as, ds));
+    }
+
+    /**
+     * Returns the changes of the uncommitted updates of the given states.
+     */
+    private List<Change> getChanges(AccountState as, DelegateState ds) {
+        List<Change> changes = new ArrayList<>();
+        addChanges(changes, NAMESPACE_ACCOUNT, ((AccountStateImpl) as).getUncommittedUpdates());
+        DelegateStateImpl dsImpl = (DelegateStateImpl) ds;
+        addChanges(changes, NAMESPACE_DELEGATE, dsImpl.getUncommittedUpdates(DelegateStateImpl.TABLE_DELEGATE));
+        addChanges(changes, NAMESPACE_VOTE, dsImpl.getUncommittedUpdates(DelegateStateImpl.TABLE_VOTE));
+        return changes;
+    }
+
+    /**
+     * Applies the changes, reusing the nodes computed for the same changes if
+     * any, and writes the updated nodes.
+     *
+     * @return the new root hash
+     */
+    private byte[] write(List<Change> changes) {
+        changes.sort(Change::compare);
+        Batch batch;
+        if (pendingBatch != null && sameChanges(pendingChanges, changes)) {
+            batch = pendingBatch;
+        } else {
+            batch = new Batch();
+            batch.root = apply(batch, changes);
+        }
+        pendingChanges = null;
+        pendingBatch = null;
+
+        batch.write();
+        return batch.root;
+    }
+
+    /**
+     * Returns the proof of the value, or the absence, of a key.
+     *
+     * @param key
+     *            the trie key
+     * @return
+     */
+    public synchronized Proof getProof(byte[] key) {
+        Batch batch = new Batch();
+        List<byte[]> siblings = new ArrayList<>();
+        for (int depth = 0;; depth++) {
+            byte[] node = batch.get(path(depth, key));
+            if (node == null) {
+                return new Proof(siblings, null, null);
+            } else if (node[0] == LEAF) {
+                return new Proof(siblings, leafKey(node), leafValueHash(node));
+            }
+            siblings.add(bit(key, depth) == 0 ? rightHash(node) : leftHash(node));
+        }
+    }
+
+    /**
+     * Drops the cached nodes. This is required when the database is modified by
+     * other means, or its uncommitted writes are discarded.
+     */
+    public synchronized void invalidateCache() {
+        cache.invalidateAll();
+        pendingChanges = null;
+        pendingBatch = null;
+    }
+
+    /**
+     * Applies the changes, and returns the new root hash.
+     */
+    private byte[] apply(Batch batch, List<Change> changes) {
+        if (changes.isEmpty()) {
+            return hash(batch.get(path(0, new byte[Hash.HASH_LEN])));
+        }
+
+        changes.sort(Change::compare);
+        return update(batch, 0, changes.get(0).key, changes, 0, changes.size());
+    }
+
+    /**
+     * Applies the changes <code>[from, to)</code> to the subtree holding the
+     * given key at the given depth.
+     *
+     * @return the new hash of the subtree
+     */
+    private byte[] update(Batch batch, int depth, byte[] prefix, List<Change> changes, int from, int to) {
+        Path path = path(depth, prefix);
+        byte[] node = batch.get(path);
+
+        if (node == null || node[0] == LEAF) {
+            // nothing is stored below, build the subtree from its records
+            List<Change> records = new ArrayList<>(to - from + 1);
+            boolean kept = node != null;
+            for (int i = from; i < to; i++) {
+                Change c = changes.get(i);
+                if (kept && Arrays.equals(c.key, leafKey(node))) {
+                    kept = false;
+                }
+                if (c.valueHash != null) {
+                    records.add(c);
+                }
+            }
+            if (kept) {
+                records.add(new Change(leafKey(node), leafValueHash(node)));
+                records.sort(Change::compare);
+            }
+
+            if (records.isEmpty()) {
+                if (node != null) {
+                    batch.put(path, null);
+                }
+                return EMPTY_ROOT;
+            }
+            return build(batch, depth, prefix, records, 0, records.size());
+        }
+
+        int mid = split(changes, from, to, depth);
+        byte[] left = from < mid ? update(batch, depth + 1, changes.get(from).key, changes, from, mid)
+                : leftHash(node);
+        byte[] right = mid < to ? update(batch, depth + 1, changes.get(mid).key, changes, mid, to)
+                : rightHash(node);
+
+        if (Arrays.equals(left, EMPTY_ROOT) && Arrays.equals(right, EMPTY_ROOT)) {
+            batch.put(path, null);
+            return EMPTY_ROOT;
+        } else if (Arrays.equals(left, EMPTY_ROOT) || Arrays.equals(right, EMPTY_ROOT)) {
+            // a single leaf left below is lifted up here
+            Path childPath = path(depth + 1, withBit(prefix, depth, Arrays.equals(left, EMPTY_ROOT) ? 1 : 0));
+            byte[] child = batch.get(childPath);
+            if (child[0] == LEAF) {
+                batch.put(childPath, null);
+                batch.put(path, child);
+                return hash(child);
+            }
+        }
+
+        byte[] branch = branch(left, right);
+        batch.put(path, branch);
+        return hash(branch);
+    }
+
+    /**
+     * Stores the subtree holding the records <code>[from, to)</code>, where
+     * nothing is stored below.
+     *
+     * @return the hash of the subtree
+     */
+    private byte[] build(Batch batch, int depth, byte[] prefix, List<Change> records, int from, int to) {
+        Path path = path(depth, prefix);
+
+        if (from == to) {
+            return EMPTY_ROOT;
+        } else if (to - from == 1) {
+            Change c = records.get(from);
+            byte[] leaf = leaf(c.key, c.valueHash);
+            batch.put(path, leaf);
+            return hash(leaf);
+        }
+
+        int mid = split(records, from, to, depth);
+        byte[] left = build(batch, depth + 1, withBit(prefix, depth, 0), records, from, mid);
+        byte[] right = build(batch, depth + 1, withBit(prefix, depth, 1), records, mid, to);
+        byte[] branch = branch(left, right);
+        batch.put(path, branch);
+        return hash(branch);
+    }
+
+    /**
+     * Returns whether two sorted lists of changes are the same.
+     */
+    private static boolean sameChanges(List<Change> a, List<Change> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!Arrays.equals(a.get(i).key, b.get(i).key)
+                    || !Arrays.equals(a.get(i).valueHash, b.get(i).valueHash)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of the first key of the range having the bit at the given
+     * depth set. The keys are sorted, and share the bits above.
+     */
+    private static int split(List<Change> changes, int from, int to, int depth) {
+        int i = from;
+        while (i < to && bit(changes.get(i).key, depth) == 0) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void addChanges(List<Change> changes, byte namespace, Map<ByteArray, byte[]> updates) {
+        synchronized (updates) {
+            for (Entry<ByteArray, byte[]> e : updates.entrySet()) {
+                changes.add(new Change(getKey(namespace, e.getKey().getData()),
+                        e.getValue() == null ? null : Hash.h256(e.getValue())));
+            }
+        }
+    }
+
+    /**
+     * Returns the path of the node at the given depth above a key.
+     */
+    private static Path path(int depth, byte[] key) {
+        int n = (depth + 7) / 8;
+        byte[] path = new byte[2 + n];
+        path[0] = (byte) (depth >>> 8);
+        path[1] = (byte) depth;
+        System.arraycopy(key, 0, path, 2, n);
+        if (depth % 8 != 0) {
+            path[1 + n] &= (byte) (0xff << (8 - depth % 8));
+        }
+        return new Path(path);
+    }
+
+    private static int bit(byte[] key, int index) {
+        return (key[index / 8] >>> (7 - index % 8)) & 1;
+    }
+
+    private static byte[] withBit(byte[] key, int index, int bit) {
+        byte[] result = key.clone();
+        if (bit == 0) {
+            result[index / 8] &= (byte) ~(0x80 >>> (index % 8));
+        } else {
+            result[index / 8] |= (byte) (0x80 >>> (index % 8));
+        }
+        return result;
+    }
+
+    private static byte[] leaf(byte[] key, byte[] valueHash) {
+        return Bytes.merge(new byte[] { LEAF }, key, valueHash);
+    }
+
+    private static byte[] branch(byte[] left, byte[] right) {
+        return Bytes.merge(new byte[] { BRANCH }, left, right);
+    }
+
+    private static byte[] hash(byte[] node) {
+        return node == null ? EMPTY_ROOT : Hash.h256(node);
+    }
+
+    private static byte[] leafKey(byte[] node) {
+        return Arrays.copyOfRange(node, 1, 1 + Hash.HASH_LEN);
+    }
+
+    private static byte[] leafValueHash(byte[] node) {
+        return Arrays.copyOfRange(node, 1 + Hash.HASH_LEN, NODE_LEN);
+    }
+
+    private static byte[] leftHash(byte[] node) {
+        return Arrays.copyOfRange(node, 1, 1 + Hash.HASH_LEN);
+    }
+
+    private static byte[] rightHash(byte[] node) {
+        return Arrays.copyOfRange(node, 1 + Hash.HASH_LEN, NODE_LEN);
+    }
+
+    /**
+     * A record update: the trie key, and the hash of the new value or null if
+     * deleted.
+     */
+    private static class Change {
+        private final byte[] key;
+        private final byte[] valueHash;
+
+        private Change(byte[] key, byte[] valueHash) {
+            this.key = key;
+            this.valueHash = valueHash;
+        }
+
+        private static int compare(Change a, Change b) {
+            return Arrays.compareUnsigned(a.key, b.key);
+        }
+    }
+
+    /**
+     * The database key of a node: its depth, followed by the first
+     * <code>depth</code> bits of the keys below it.
+     */
+    private static final class Path {
+        private final byte[] data;
+        private final int hash;
+
+        private Path(byte[] data) {
+            this.data = data;
+
+            // the polynomial hash of ByteArray collides a lot on short keys
+            int h = 0x811c9dc5;
+            for (byte b : data) {
+                h = (h ^ (b & 0xff)) * 0x01000193;
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Path && Arrays.equals(data, ((Path) o).data);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The nodes written by an update, on top of the stored ones.
+     */
+    private class Batch {
+        private final Map<Path, byte[]> nodes = new HashMap<>();
+        private byte[] root;
+
+        private byte[] get(Path path) {
+            if (nodes.containsKey(path)) {
+                return nodes.get(path);
+            }
+
+            byte[] node = cache.get(path, p -> {
+                byte[] v = stateDB.get(p.data);
+                return v == null ? NONE : v;
+            });
+            return node == NONE ? null : node;
+        }
+
+        private void put(Path path, byte[] node) {
+            nodes.put(path, node);
+        }
+
+        private void write() {
+            for (Entry<Path, byte[]> e : nodes.entrySet()) {
+                if (e.getValue() == null) {
+                    stateDB.delete(e.getKey().data);
+                    cache.put(e.getKey(), NONE);
+                } else {
+                    stateDB.put(e.getKey().data, e.getValue());
+                    cache.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * A proof of the value of a key, or of its absence: the hashes of the
+     * siblings along the path from the root, and the node the path ends at.
+     */
+    public static class Proof {
+        private final List<byte[]> siblings;
+        private final byte[] leafKey;
+        private final byte[] leafValueHash;
+
+        public Proof(List<byte[]> siblings, byte[] leafKey, byte[] leafValueHash) {
+            this.siblings = siblings;
+            this.leafKey = leafKey;
+            this.leafValueHash = leafValueHash;
+        }
+
+        public List<byte[]> getSiblings() {
+            return siblings;
+        }
+
+        /**
+         * Returns the key of the leaf the path ends at, or null if it ends at an empty
+         * subtree.
+         *
+         * @return
+         */
+        public byte[] getLeafKey() {
+            return leafKey;
+        }
+
+        public byte[] getLeafValueHash() {
+            return leafValueHash;
+        }
+
+        /**
+         * Verifies the proof against a state root.
+         *
+         * @param root
+         *            the state root
+         * @param key
+         *            the trie key
+         * @param value
+         *            the expected value, or null to prove the key doesn't exist
+         * @return
+         */
+        public boolean verify(byte[] root, byte[] key, byte[] value) {
+            if (siblings.size() >= KEY_BITS || key.length != Hash.HASH_LEN
+                    || siblings.stream().anyMatch(s -> s.length != Hash.HASH_LEN)
+                    || (leafKey != null && (leafKey.length != Hash.HASH_LEN
+                            || leafValueHash.length != Hash.HASH_LEN))) {
+                return false;
+            }
+
+            int depth = siblings.size();
+            byte[] hash = leafKey == null ? EMPTY_ROOT : hash(leaf(leafKey, leafValueHash));
+            for (int i = depth - 1; i >= 0; i--) {
+                hash = hash(bit(key, i) == 0 ? branch(hash, siblings.get(i)) : branch(siblings.get(i), hash));
+            }
+            if (!Arrays.equals(hash, root)) {
+                return false;
+            }
+
+            if (value != null) {
+                return leafKey != null && Arrays.equals(leafKey, key)
+                        && Arrays.equals(leafValueHash, Hash.h256(value));
+            } else {
+                // another leaf may only end the path if it's the only key below
+                return leafKey == null
+                        || (!Arrays.equals(leafKey, key) && path(depth, leafKey).equals(path(depth, key)));
+            }
+        }
+
+        public byte[] toBytes() {
+            SimpleEncoder enc = new SimpleEncoder();
+            enc.writeInt(siblings.size());
+            for (byte[] sibling : siblings) {
+                enc.writeBytes(sibling);
+            }
+            enc.writeBoolean(leafKey != null);
+            if (leafKey != null) {
+                enc.writeBytes(leafKey);
+                enc.writeBytes(leafValueHash);
+            }
+            return enc.toBytes();
+        }
+
+        public static Proof fromBytes(byte[] bytes) {
+            SimpleDecoder dec = new SimpleDecoder(bytes);
+            int n = dec.readInt();
+            List<byte[]> siblings = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                siblings.add(dec.readBytes());
+            }
+            if (dec.readBoolean()) {
+                return new Proof(siblings, dec.readBytes(), dec.readBytes());
+            }
+            return new Proof(siblings, null, null);
+        }
+    }
+}
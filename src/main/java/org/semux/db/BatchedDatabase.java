@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.db;
+
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.semux.util.ClosableIterator;
+
+/**
+ * A database which buffers all the writes in memory while a batch is open, and
+ * writes them to the underlying database with a single
+ * {@link Database#updateBatch(List)} when the batch is committed.
+ * <p>
+ * Reads and iterations always see the buffered writes. Writes are expected to
+ * come from a single thread, while reads may come from any thread.
+ */
+public class BatchedDatabase implements Database {
+
+    /**
+     * Marker of a buffered delete, as the map does not allow null values.
+     */
+    private static final byte[] DELETED = new byte[0];
+
+    private final Database db;
+
+    /**
+     * Buffered updates, sorted in the same order as LevelDB keys.
+     */
+    private final ConcurrentSkipListMap<byte[], byte[]> updates = new ConcurrentSkipListMap<>(
+            Arrays::compareUnsigned);
+
+    private volatile boolean batching;
+
+    public BatchedDatabase(Database db) {
+        this.db = db;
+    }
+
+    /**
+     * Starts buffering writes.
+     */
+    public void begin() {
+        batching = true;
+    }
+
+    /**
+     * Writes all the buffered updates to the underlying database, as one batch,
+     * and stops buffering.
+     */
+    public void commit() {
+        List<Pair<byte[], byte[]>> pairs = getUpdates();
+        if (!pairs.isEmpty()) {
+            db.updateBatch(pairs);
+        }
+
+        for (Pair<byte[], byte[]> p : pairs) {
+            updates.remove(p.getLeft());
+        }
+        batching = false;
+    }
+
+    /**
+     * Discards all the buffered updates and stops buffering.
+     */
+    public void rollback() {
+        updates.clear();
+        batching = false;
+    }
+
+    /**
+     * Returns whether a batch is open.
+     *
+     * @return
+     */
+    public boolean isBatching() {
+        return batching;
+    }
+
+    /**
+     * Returns the buffered updates, in key order.
+     *
+     * @return key value pairs; pair with null value represents a delete
+     */
+    public List<Pair<byte[], byte[]>> getUpdates() {
+        List<Pair<byte[], byte[]>> pairs = new ArrayList<>(updates.size());
+        for (Entry<byte[], byte[]> e : updates.entrySet()) {
+            pairs.add(Pair.of(e.getKey(), e.getValue() == DELETED ? null : e.getValue()));
+        }
+        return pairs;
+    }
+
+    /**
+     * Returns the underlying database.
+     *
+     * @return
+     */
+    public Database getDatabase() {
+        return db;
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        if (!updates.isEmpty()) {
+            byte[] v = updates.get(key);
+            if (v != null) {
+                return v == DELETED ? null : v;
+            }
+        }
+
+        return db.get(key);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        if (batching) {
+            updates.put(key, value);
+        } else {
+            db.put(key, value);
+        }
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        if (batching) {
+            updates.put(key, DELETED);
+        } else {
+            db.delete(key);
+        }
+    }
+
+    @Override
+    public void updateBatch(List<Pair<byte[], byte[]>> pairs) {
+        if (batching) {
+            for (Pair<byte[], byte[]> p : pairs) {
+                updates.put(p.getLeft(), p.getRight() == null ? DELETED : p.getRight());
+            }
+        } else {
+            db.updateBatch(pairs);
+        }
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator() {
+        return iterator(null);
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] prefix) {
+        if (updates.isEmpty()) {
+            return db.iterator(prefix);
+        }
+
+        return new MergedIterator(db.iterator(prefix),
+                (prefix == null ? updates : updates.tailMap(prefix)).entrySet().iterator());
+    }
+
+    @Override
+    public void close() {
+        db.close();
+    }
+
+    @Override
+    public void destroy() {
+        updates.clear();
+        db.destroy();
+    }
+
+    @Override
+    public Path getDataDir() {
+        return db.getDataDir();
+    }
+
+    /**
+     * Iterates over the underlying database and the buffered updates in key
+     * order, with buffered updates overriding the stored values.
+     */
+    private static class MergedIterator implements ClosableIterator<Entry<byte[], byte[]>> {
+
+        private final ClosableIterator<Entry<byte[], byte[]>> dbItr;
+        private final Iterator<Entry<byte[], byte[]>> bufItr;
+
+        private Entry<byte[], byte[]> dbNext;
+        private Entry<byte[], byte[]> bufNext;
+        private Entry<byte[], byte[]> next;
+
+        MergedIterator(ClosableIterator<Entry<byte[], byte[]>> dbItr, Iterator<Entry<byte[], byte[]>> bufItr) {
+            this.dbItr = dbItr;
+            this.bufItr = bufItr;
+            advance();
+        }
+
+        private void advance() {
+            while (true) {
+                if (dbNext == null && dbItr.hasNext()) {
+                    dbNext = dbItr.next();
+                }
+                if (bufNext == null && bufItr.hasNext()) {
+                    bufNext = bufItr.next();
+                }
+
+                Entry<byte[], byte[]> e;
+                if (dbNext == null && bufNext == null) {
+                    next = null;
+                    return;
+                } else if (bufNext == null) {
+                    e = dbNext;
+                    dbNext = null;
+                } else if (dbNext == null) {
+                    e = bufNext;
+                    bufNext = null;
+                } else {
+                    int cmp = Arrays.compareUnsigned(dbNext.getKey(), bufNext.getKey());
+                    if (cmp < 0) {
+                        e = dbNext;
+                        dbNext = null;
+                    } else {
+                        e = bufNext;
+                        bufNext = null;
+                        if (cmp == 0) {
+                            dbNext = null;
+                        }
+                    }
+                }
+
+                if (e.getValue() != DELETED) {
+                    next = new SimpleImmutableEntry<>(e.getKey(), e.getValue());
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<byte[], byte[]> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            Entry<byte[], byte[]> e = next;
+            advance();
+            return e;
+        }
+
+        @Override
+        public void close() {
+            dbItr.close();
+        }
+    }
+}
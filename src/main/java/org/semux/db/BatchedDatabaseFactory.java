@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.db;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+/**
+ * A database factory which groups the writes to all its databases into
+ * batches. Between {@link #begin()} and {@link #commit()}, writes are buffered
+ * in memory; on commit, each database receives exactly one write batch.
+ * <p>
+ * When journaling is enabled, the updates of all the databases are first
+ * written to the INDEX database as one record, which is removed within the
+ * final INDEX batch. If the process crashes halfway through a commit, the
+ * journal is replayed when the factory is opened again.
+ *
+ * <pre>
+ * index DB structure:
+ *
+ * [0xfe] => [commit_journal]
+ * </pre>
+ */
+public class BatchedDatabaseFactory implements DatabaseFactory {
+
+    private static final Logger logger = Logger.getLogger(BatchedDatabaseFactory.class.getName());
+
+    protected static final byte[] KEY_COMMIT_JOURNAL = { (byte) 0xfe };
+
+    /**
+     * The order in which databases are flushed. INDEX goes last as it holds the
+     * latest block number.
+     */
+    private static final DatabaseName[] COMMIT_ORDER = {
+            DatabaseName.ACCOUNT,
+            DatabaseName.DELEGATE,
+            DatabaseName.VOTE,
+            DatabaseName.STATE,
+            DatabaseName.BLOCK,
+            DatabaseName.INDEX
+    };
+
+    private final DatabaseFactory factory;
+    private final boolean journal;
+
+    private final EnumMap<DatabaseName, BatchedDatabase> databases = new EnumMap<>(DatabaseName.class);
+
+    private boolean batching;
+
+    /**
+     * Creates a batched database factory, and replays the commit journal left by
+     * an interrupted commit if there is one.
+     *
+     * @param factory
+     *            the underlying database factory
+     * @param journal
+     *            whether to journal commits for crash consistency
+     */
+    public BatchedDatabaseFactory(DatabaseFactory factory, boolean journal) {
+        this.factory = factory;
+        this.journal = journal;
+
+        recover();
+    }
+
+    @Override
+    public synchronized Database getDB(DatabaseName name) {
+        return databases.computeIfAbsent(name, k -> {
+            BatchedDatabase db = new BatchedDatabase(factory.getDB(k));
+            if (batching) {
+                db.begin();
+            }
+            return db;
+        });
+    }
+
+    /**
+     * Starts buffering writes to all the databases.
+     */
+    public synchronized void begin() {
+        if (batching) {
+            throw new IllegalStateException("A batch is already open");
+        }
+
+        batching = true;
+        for (BatchedDatabase db : databases.values()) {
+            db.begin();
+        }
+    }
+
+    /**
+     * Writes the buffered updates, as one write batch per database.
+     */
+    public synchronized void commit() {
+        if (!batching) {
+            throw new IllegalStateException("No batch is open");
+        }
+
+        if (journal) {
+            byte[] record = encodeJournal();
+            if (record != null) {
+                factory.getDB(DatabaseName.INDEX).put(KEY_COMMIT_JOURNAL, record);
+                getDB(DatabaseName.INDEX).delete(KEY_COMMIT_JOURNAL);
+            }
+        }
+
+        for (DatabaseName name : COMMIT_ORDER) {
+            BatchedDatabase db = databases.get(name);
+            if (db != null) {
+                db.commit();
+            }
+        }
+        batching = false;
+    }
+
+    /**
+     * Discards the buffered updates.
+     */
+    public synchronized void rollback() {
+        for (BatchedDatabase db : databases.values()) {
+            db.rollback();
+        }
+        batching = false;
+    }
+
+    @Override
+    public synchronized void close() {
+        databases.clear();
+        batching = false;
+        factory.close();
+    }
+
+    @Override
+    public Path getDataDir() {
+        return factory.getDataDir();
+    }
+
+    /**
+     * Encodes the buffered updates of all the databases.
+     *
+     * @return the journal record, or null if there is nothing worth journaling
+     */
+    protected byte[] encodeJournal() {
+        Map<DatabaseName, List<Pair<byte[], byte[]>>> map = new EnumMap<>(DatabaseName.class);
+        for (Map.Entry<DatabaseName, BatchedDatabase> e : databases.entrySet()) {
+            List<Pair<byte[], byte[]>> pairs = e.getValue().getUpdates();
+            if (!pairs.isEmpty()) {
+                map.put(e.getKey(), pairs);
+            }
+        }
+
+        // a single write batch is atomic on its own
+        if (map.size() < 2) {
+            return null;
+        }
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeInt(map.size());
+        for (Map.Entry<DatabaseName, List<Pair<byte[], byte[]>>> e : map.entrySet()) {
+            enc.writeString(e.getKey().name());
+            enc.writeInt(e.getValue().size());
+            for (Pair<byte[], byte[]> p : e.getValue()) {
+                enc.writeBytes(p.getLeft());
+                enc.writeBoolean(p.getRight() != null);
+                if (p.getRight() != null) {
+                    enc.writeBytes(p.getRight());
+                }
+            }
+        }
+        return enc.toBytes();
+    }
+
+    /**
+     * Replays the commit journal, if any.
+     */
+    protected void recover() {
+        Database indexDB = factory.getDB(DatabaseName.INDEX);
+        byte[] record = indexDB.get(KEY_COMMIT_JOURNAL);
+        if (record == null) {
+            return;
+        }
+
+        logger.warning("Found an interrupted database commit, replaying the journal");
+        SimpleDecoder dec = new SimpleDecoder(record);
+        int n = dec.readInt();
+        for (int i = 0; i < n; i++) {
+            DatabaseName name = DatabaseName.valueOf(dec.readString());
+            int size = dec.readInt();
+            List<Pair<byte[], byte[]>> pairs = new ArrayList<>(size);
+            for (int j = 0; j < size; j++) {
+                byte[] key = dec.readBytes();
+                byte[] value = dec.readBoolean() ? dec.readBytes() : null;
+                pairs.add(Pair.of(key, value));
+            }
+            factory.getDB(name).updateBatch(pairs);
+        }
+        indexDB.delete(KEY_COMMIT_JOURNAL);
+    }
+}
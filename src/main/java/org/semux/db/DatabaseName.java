@@ -31,5 +31,10 @@ public enum DatabaseName {
     /**
      * Delegate vote data.
      */
-    VOTE
+    VOTE,
+
+    /**
+     * State trie nodes.
+     */
+    STATE
 }
\ No newline at end of file
@@ -36,7 +36,29 @@ public enum Capability {
     /**
      * This client supports the LIGHT protocol.
      */
-    LIGHT;
+    LIGHT,
+
+    /**
+     * This client supports requesting block parts by range, used by the skeleton
+     * sync.
+     */
+    SKELETON_SYNC,
+
+    /**
+     * This client supports requesting the chunks of a state snapshot.
+     */
+    SNAPSHOT,
+
+    /**
+     * This client supports announcing transactions by their hashes, and
+     * requesting the announced ones.
+     */
+    TX_INVENTORY,
+
+    /**
+     * This client supports the compact block proposals.
+     */
+    COMPACT_PROPOSAL;
 
     public static Capability of(String name) {
         try {
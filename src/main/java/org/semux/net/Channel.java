@@ -7,16 +7,30 @@
 package org.semux.net;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.semux.Kernel;
 import org.semux.net.msg.MessageQueue;
+import org.semux.util.ByteArray;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.timeout.ReadTimeoutHandler;
 
 public class Channel {
+
+    // max number of transactions remembered as known by the peer
+    private static final int KNOWN_TXS_LIMIT = 32 * 1024;
+
+    // max number of transactions waiting to be announced to the peer
+    private static final int TX_INVENTORY_LIMIT = 16 * 1024;
+
     private final NioSocketChannel socket;
 
     private boolean isInbound;
@@ -27,6 +41,14 @@ public class Channel {
 
     private boolean isActive;
 
+    private CapabilityTreeSet capabilities = CapabilityTreeSet.emptyList();
+
+    // transactions the peer has, announced or sent by either side
+    private final Cache<ByteArray, Boolean> knownTxs = Caffeine.newBuilder().maximumSize(KNOWN_TXS_LIMIT).build();
+
+    // transactions to announce to the peer on the next flush
+    private List<byte[]> txInventory = new ArrayList<>();
+
     /**
      * Creates a new channel instance.
      * 
@@ -58,7 +80,8 @@ public class Channel {
         pipe.addLast("readTimeoutHandler",
                 new ReadTimeoutHandler(kernel.getConfig().netChannelIdleTimeout(), TimeUnit.MILLISECONDS));
         pipe.addLast("frameHandler", new SemuxFrameHandler(kernel.getConfig()));
-        pipe.addLast("messageHandler", new SemuxMessageHandler(kernel.getConfig()));
+        pipe.addLast("messageHandler", new SemuxMessageHandler(kernel.getConfig(),
+                kernel.getChannelManager().getCompressionStats()));
         pipe.addLast("p2pHandler", new SemuxP2pHandler(this, kernel));
     }
 
@@ -121,9 +144,63 @@ public class Channel {
      */
     public void setActive(Peer remotePeer) {
         this.remotePeer = remotePeer;
+        this.capabilities = CapabilityTreeSet.of(remotePeer.getCapabilities());
         this.isActive = true;
     }
 
+    /**
+     * Returns whether the remote peer supports a capability.
+     *
+     * @param capability
+     * @return
+     */
+    public boolean isSupported(Capability capability) {
+        return capabilities.isSupported(capability);
+    }
+
+    /**
+     * Records a transaction as known by the remote peer.
+     *
+     * @param hash
+     *            the transaction hash
+     * @return true if the transaction wasn't known yet, otherwise false
+     */
+    public boolean markTransactionKnown(byte[] hash) {
+        return knownTxs.asMap().putIfAbsent(ByteArray.of(hash), Boolean.TRUE) == null;
+    }
+
+    /**
+     * Adds a transaction to the inventory to announce, unless it's known by the
+     * remote peer or the inventory is full.
+     *
+     * @param hash
+     *            the transaction hash
+     */
+    public void announceTransaction(byte[] hash) {
+        if (markTransactionKnown(hash)) {
+            synchronized (this) {
+                if (txInventory.size() < TX_INVENTORY_LIMIT) {
+                    txInventory.add(hash);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the transactions to announce, clearing the inventory.
+     *
+     * @return
+     */
+    public synchronized List<byte[]> takeTransactionInventory() {
+        if (txInventory.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<byte[]> hashes = txInventory;
+        txInventory = new ArrayList<>();
+        return hashes;
+    }
+
     /**
      * Sets this channel to be inactive.
      */
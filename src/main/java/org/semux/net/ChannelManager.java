@@ -36,6 +36,8 @@ public class ChannelManager {
 
     protected final SemuxIpFilter ipFilter;
 
+    protected final CompressionStats compressionStats = new CompressionStats();
+
     public ChannelManager(Kernel kernel) {
         ipFilter = new SemuxIpFilter.Loader()
                 .load(new File(kernel.getConfig().configDir(), SemuxIpFilter.CONFIG_FILE).toPath());
@@ -50,6 +52,15 @@ public class ChannelManager {
         return ipFilter;
     }
 
+    /**
+     * Returns the compression statistics of the messages, shared by the channels.
+     * 
+     * @return
+     */
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
     /**
      * Returns whether a connection from the given address is acceptable or not.
      * 
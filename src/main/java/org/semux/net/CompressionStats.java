@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.semux.net.msg.MessageCode;
+
+/**
+ * The compression statistics of the messages, by message code, shared by the
+ * channels.
+ *
+ * They decide whether a message is compressed or sent raw: the messages smaller
+ * than {@link #MIN_SIZE} are sent raw, and so are the messages of a code whose
+ * recent compression ratio is above {@link #MAX_RATIO}, but one in
+ * {@link #SAMPLE_INTERVAL} of them which is still compressed to keep track of
+ * the ratio.
+ */
+public class CompressionStats {
+
+    /**
+     * The size of the smallest message worth compressing, in bytes.
+     */
+    public static final int MIN_SIZE = 256;
+
+    /**
+     * The highest compression ratio, compressed size over raw size, worth
+     * compressing for.
+     */
+    public static final double MAX_RATIO = 0.9;
+
+    /**
+     * The number of messages of a code compressed before the ratio is trusted.
+     */
+    protected static final int MIN_SAMPLES = 16;
+
+    /**
+     * The interval of the messages compressed anyway, when the ratio is poor.
+     */
+    protected static final int SAMPLE_INTERVAL = 64;
+
+    private final Map<MessageCode, CodeStats> stats = new EnumMap<>(MessageCode.class);
+
+    public CompressionStats() {
+        for (MessageCode code : MessageCode.values()) {
+            stats.put(code, new CodeStats());
+        }
+    }
+
+    /**
+     * Returns the statistics of a message code.
+     *
+     * @param code
+     * @return
+     */
+    public CodeStats get(MessageCode code) {
+        return stats.get(code);
+    }
+
+    /**
+     * Returns whether a message is to be compressed.
+     *
+     * @param code
+     *            the message code
+     * @param size
+     *            the size of the message body
+     * @return
+     */
+    public boolean shouldCompress(MessageCode code, int size) {
+        if (size < MIN_SIZE) {
+            return false;
+        }
+
+        CodeStats s = stats.get(code);
+        return s.compressed.get() < MIN_SAMPLES
+                || s.ratio <= MAX_RATIO
+                || s.sent.get() % SAMPLE_INTERVAL == 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<MessageCode, CodeStats> e : stats.entrySet()) {
+            if (e.getValue().getSent() != 0 || e.getValue().getReceived() != 0) {
+                sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The compression statistics of a message code.
+     */
+    public static class CodeStats {
+
+        private final AtomicLong sent = new AtomicLong(0);
+        private final AtomicLong compressed = new AtomicLong(0);
+        private final AtomicLong rawBytes = new AtomicLong(0);
+        private final AtomicLong sentBytes = new AtomicLong(0);
+        private final AtomicLong compressNanos = new AtomicLong(0);
+
+        private final AtomicLong received = new AtomicLong(0);
+        private final AtomicLong uncompressed = new AtomicLong(0);
+        private final AtomicLong uncompressNanos = new AtomicLong(0);
+
+        // moving average of the ratio, updated without synchronization
+        private volatile double ratio = 1.0;
+
+        /**
+         * Records the compression of a message.
+         *
+         * @param rawSize
+         * @param compressedSize
+         * @param nanos
+         *            the time spent compressing it
+         */
+        public void onCompressed(int rawSize, int compressedSize, long nanos) {
+            double r = rawSize == 0 ? 1.0 : (double) compressedSize / rawSize;
+            ratio = compressed.getAndIncrement() == 0 ? r : ratio * 0.9 + r * 0.1;
+            compressNanos.addAndGet(nanos);
+        }
+
+        /**
+         * Records a message sent.
+         *
+         * @param rawSize
+         *            the size of the message body
+         * @param sentSize
+         *            the size of the packet sent, compressed or not
+         */
+        public void onSent(int rawSize, int sentSize) {
+            sent.incrementAndGet();
+            rawBytes.addAndGet(rawSize);
+            sentBytes.addAndGet(sentSize);
+        }
+
+        /**
+         * Records a message received.
+         *
+         * @param isCompressed
+         * @param nanos
+         *            the time spent uncompressing it
+         */
+        public void onReceived(boolean isCompressed, long nanos) {
+            received.incrementAndGet();
+            if (isCompressed) {
+                uncompressed.incrementAndGet();
+                uncompressNanos.addAndGet(nanos);
+            }
+        }
+
+        /**
+         * Returns the number of messages sent.
+         *
+         * @return
+         */
+        public long getSent() {
+            return sent.get();
+        }
+
+        /**
+         * Returns the number of messages compressed.
+         *
+         * @return
+         */
+        public long getCompressed() {
+            return compressed.get();
+        }
+
+        /**
+         * Returns the total size of the messages sent, before compression.
+         *
+         * @return
+         */
+        public long getRawBytes() {
+            return rawBytes.get();
+        }
+
+        /**
+         * Returns the total size of the messages sent, after compression.
+         *
+         * @return
+         */
+        public long getSentBytes() {
+            return sentBytes.get();
+        }
+
+        /**
+         * Returns the recent compression ratio, compressed size over raw size.
+         *
+         * @return
+         */
+        public double getRatio() {
+            return ratio;
+        }
+
+        /**
+         * Returns the average time spent compressing a message, in microseconds.
+         *
+         * @return
+         */
+        public long getAverageCompressTime() {
+            long n = compressed.get();
+            return n == 0 ? 0 : compressNanos.get() / n / 1000;
+        }
+
+        /**
+         * Returns the number of messages received.
+         *
+         * @return
+         */
+        public long getReceived() {
+            return received.get();
+        }
+
+        /**
+         * Returns the average time spent uncompressing a message, in microseconds.
+         *
+         * @return
+         */
+        public long getAverageUncompressTime() {
+            long n = uncompressed.get();
+            return n == 0 ? 0 : uncompressNanos.get() / n / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "[sent = %d, compressed = %d, bytes = %d -> %d, ratio = %.2f, compress = %d us, "
+                            + "received = %d, uncompress = %d us]",
+                    getSent(), getCompressed(), getRawBytes(), getSentBytes(), getRatio(), getAverageCompressTime(),
+                    getReceived(), getAverageUncompressTime());
+        }
+    }
+}
@@ -33,10 +33,10 @@ public class Frame {
     protected final int packetSize; /* packet size, 4 bytes */
     protected final int bodySize; /* body size, 4 bytes */
 
-    protected byte[] body;
+    protected ByteBuf body;
 
     public Frame(short version, byte compressType, byte packetType, int packetId, int packetSize, int bodySize,
-            byte[] body) {
+            ByteBuf body) {
         this.version = version;
         this.compressType = compressType;
         this.packetType = packetType;
@@ -72,11 +72,12 @@ public class Frame {
     }
 
     /**
-     * Returns the frame body, which may be null.
+     * Returns the frame body, which may be null. The body is a slice of a pooled
+     * buffer, to be released by the handler consuming the frame.
      * 
      * @return
      */
-    public byte[] getBody() {
+    public ByteBuf getBody() {
         return body;
     }
 
@@ -85,10 +86,20 @@ public class Frame {
      * 
      * @param body
      */
-    public void setBody(byte[] body) {
+    public void setBody(ByteBuf body) {
         this.body = body;
     }
 
+    /**
+     * Releases the frame body, if any.
+     */
+    public void release() {
+        if (body != null) {
+            body.release();
+            body = null;
+        }
+    }
+
     /**
      * Returns whether the packet is chunked.
      * 
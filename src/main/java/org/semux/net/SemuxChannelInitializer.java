@@ -15,12 +15,20 @@ import org.semux.net.NodeManager.Node;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.socket.nio.NioSocketChannel;
 
 public class SemuxChannelInitializer extends ChannelInitializer<NioSocketChannel> {
 
     private static final Logger logger = Logger.getLogger(SemuxChannelInitializer.class.getName());
 
+    /**
+     * The bounds of the bytes waiting to be written to the socket, above which the
+     * message queue stops writing, and below which it resumes.
+     */
+    public static final WriteBufferWaterMark WRITE_BUFFER_WATER_MARK = new WriteBufferWaterMark(256 * 1024,
+            1024 * 1024);
+
     private final Kernel kernel;
     private final ChannelManager channelMgr;
 
@@ -75,6 +83,9 @@ public class SemuxChannelInitializer extends ChannelInitializer<NioSocketChannel
             ch.config().setOption(ChannelOption.SO_RCVBUF, bufferSize);
             ch.config().setOption(ChannelOption.SO_BACKLOG, 1024);
 
+            // the back pressure of the message queue
+            ch.config().setWriteBufferWaterMark(WRITE_BUFFER_WATER_MARK);
+
             // notify disconnection to channel manager
             ch.closeFuture().addListener(future -> {
                 if (!isDiscoveryMode()) {
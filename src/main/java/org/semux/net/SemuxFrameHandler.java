@@ -13,6 +13,7 @@ import java.util.logging.Logger;
 import org.semux.config.Config;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageCodec;
 
@@ -31,6 +32,7 @@ public class SemuxFrameHandler extends ByteToMessageCodec<Frame> {
         // check version
         if (frame.getVersion() != Frame.VERSION) {
             logger.severe(String.format("Invalid frame version: %s", frame.getVersion()));
+            frame.release();
             return;
         }
 
@@ -38,13 +40,15 @@ public class SemuxFrameHandler extends ByteToMessageCodec<Frame> {
         int bodySize = frame.getBodySize();
         if (bodySize < 0 || bodySize > config.netMaxFrameBodySize()) {
             logger.severe(String.format("Invalid frame body size: %s", bodySize));
+            frame.release();
             return;
         }
 
-        // create a buffer
-        ByteBuf buf = out.alloc().buffer(Frame.HEADER_SIZE + bodySize);
-        frame.writeHeader(buf);
-        buf.writeBytes(frame.getBody());
+        // the header, followed by the body as is
+        ByteBuf header = ctx.alloc().buffer(Frame.HEADER_SIZE);
+        frame.writeHeader(header);
+        CompositeByteBuf buf = ctx.alloc().compositeBuffer(2);
+        buf.addComponents(true, header, frame.getBody());
 
         // NOTE: write() operation does not flush automatically
 
@@ -77,10 +81,8 @@ public class SemuxFrameHandler extends ByteToMessageCodec<Frame> {
             // reset reader index if not available
             in.readerIndex(readerIndex);
         } else {
-            // read body
-            byte[] body = new byte[bodySize];
-            in.readBytes(body);
-            frame.setBody(body);
+            // read body, sharing the received buffer
+            frame.setBody(in.readRetainedSlice(bodySize));
 
             // deliver
             out.add(frame);
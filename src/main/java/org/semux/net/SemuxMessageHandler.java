@@ -7,6 +7,7 @@
 package org.semux.net;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -16,13 +17,18 @@ import java.util.logging.Logger;
 import org.apache.commons.lang3.tuple.Pair;
 import org.semux.config.Config;
 import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
 import org.semux.net.msg.MessageException;
 import org.semux.net.msg.MessageFactory;
 import org.xerial.snappy.Snappy;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageCodec;
 
@@ -32,55 +38,81 @@ public class SemuxMessageHandler extends MessageToMessageCodec<Frame, Message> {
 
     private static final int MAX_PACKETS = 16;
 
-    private static final byte COMPRESS_TYPE = Frame.COMPRESS_SNAPPY;
-
     private final Cache<Integer, Pair<List<Frame>, AtomicInteger>> incompletePackets = Caffeine.newBuilder()
-            .maximumSize(MAX_PACKETS).build();
+            .maximumSize(MAX_PACKETS)
+            .executor(Runnable::run)
+            .removalListener((Integer k, Pair<List<Frame>, AtomicInteger> v, RemovalCause cause) -> {
+                if (v != null) {
+                    v.getLeft().forEach(Frame::release);
+                }
+            })
+            .build();
 
     private final Config config;
+    private final CompressionStats compressionStats;
 
     private final MessageFactory messageFactory;
     private final AtomicInteger count;
 
-    public SemuxMessageHandler(Config config) {
+    public SemuxMessageHandler(Config config, CompressionStats compressionStats) {
         this.config = config;
+        this.compressionStats = compressionStats;
 
         this.messageFactory = new MessageFactory();
         this.count = new AtomicInteger(0);
     }
 
+    public SemuxMessageHandler(Config config) {
+        this(config, new CompressionStats());
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, Message msg, List<Object> out) throws Exception {
         byte[] data = msg.getBody();
-        byte[] dataCompressed = data;
+        CompressionStats.CodeStats stats = compressionStats.get(msg.getCode());
 
-        switch (COMPRESS_TYPE) {
-        case Frame.COMPRESS_SNAPPY:
-            dataCompressed = Snappy.compress(data);
-            break;
-        case Frame.COMPRESS_NONE:
-            break;
-        default:
-            logger.severe(String.format("Unsupported compress type: " + COMPRESS_TYPE));
-            return;
+        // small or poorly compressing messages are sent raw
+        byte compressType = Frame.COMPRESS_NONE;
+        ByteBuf dataCompressed = null;
+        if (compressionStats.shouldCompress(msg.getCode(), data.length)) {
+            long t1 = System.nanoTime();
+            dataCompressed = compress(ctx.alloc(), data);
+            stats.onCompressed(data.length, dataCompressed.readableBytes(), System.nanoTime() - t1);
+
+            if (dataCompressed.readableBytes() < data.length) {
+                compressType = Frame.COMPRESS_SNAPPY;
+            } else {
+                dataCompressed.release();
+                dataCompressed = null;
+            }
+        }
+        if (dataCompressed == null) {
+            dataCompressed = Unpooled.wrappedBuffer(data);
         }
 
-        byte packetType = msg.getCode().toByte();
-        int packetId = count.incrementAndGet();
-        int packetSize = dataCompressed.length;
+        try {
+            byte packetType = msg.getCode().toByte();
+            int packetId = count.incrementAndGet();
+            int packetSize = dataCompressed.readableBytes();
 
-        if (data.length > config.netMaxPacketSize() || dataCompressed.length > config.netMaxPacketSize()) {
-            logger.severe(String.format("Invalid packet size, max = %s, actual = %s", config.netMaxPacketSize(), packetSize));
-            return;
-        }
+            if (data.length > config.netMaxPacketSize() || packetSize > config.netMaxPacketSize()) {
+                logger.severe(String.format("Invalid packet size, max = %s, actual = %s", config.netMaxPacketSize(),
+                        packetSize));
+                return;
+            }
+            stats.onSent(data.length, packetSize);
 
-        int limit = config.netMaxFrameBodySize();
-        int total = (dataCompressed.length - 1) / limit + 1;
-        for (int i = 0; i < total; i++) {
-            byte[] body = new byte[(i < total - 1) ? limit : dataCompressed.length % limit];
-            System.arraycopy(dataCompressed, i * limit, body, 0, body.length);
+            // the frames share the compressed data
+            int limit = config.netMaxFrameBodySize();
+            int total = (packetSize - 1) / limit + 1;
+            for (int i = 0; i < total; i++) {
+                int bodySize = Math.min(limit, packetSize - i * limit);
+                ByteBuf body = dataCompressed.retainedSlice(i * limit, bodySize);
 
-            out.add(new Frame(Frame.VERSION, COMPRESS_TYPE, packetType, packetId, packetSize, body.length, body));
+                out.add(new Frame(Frame.VERSION, compressType, packetType, packetId, packetSize, bodySize, body));
+            }
+        } finally {
+            dataCompressed.release();
         }
     }
 
@@ -95,6 +127,8 @@ public class SemuxMessageHandler extends MessageToMessageCodec<Frame, Message> {
                 if (pair == null) {
                     int packetSize = frame.getPacketSize();
                     if (packetSize < 0 || packetSize > config.netMaxPacketSize()) {
+                        frame.release();
+
                         // this will kill the connection
                         throw new IOException("Invalid packet size: " + packetSize);
                     }
@@ -106,16 +140,22 @@ public class SemuxMessageHandler extends MessageToMessageCodec<Frame, Message> {
                 pair.getLeft().add(frame);
                 int remaining = pair.getRight().addAndGet(-frame.getBodySize());
                 if (remaining == 0) {
-                    decodedMsg = decodeMessage(pair.getLeft());
-
-                    // remove complete packets from cache
-                    incompletePackets.invalidate(packetId);
+                    try {
+                        decodedMsg = decodeMessage(ctx.alloc(), pair.getLeft());
+                    } finally {
+                        // remove complete packets from cache, which releases the frames
+                        incompletePackets.invalidate(packetId);
+                    }
                 } else if (remaining < 0) {
                     throw new IOException("Packet remaining size went to negative");
                 }
             }
         } else {
-            decodedMsg = decodeMessage(Collections.singletonList(frame));
+            try {
+                decodedMsg = decodeMessage(ctx.alloc(), Collections.singletonList(frame));
+            } finally {
+                frame.release();
+            }
         }
 
         if (decodedMsg != null) {
@@ -123,15 +163,27 @@ public class SemuxMessageHandler extends MessageToMessageCodec<Frame, Message> {
         }
     }
 
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        // release the frames of the incomplete packets
+        synchronized (incompletePackets) {
+            incompletePackets.invalidateAll();
+        }
+
+        super.handlerRemoved(ctx);
+    }
+
     /**
      * Decode message from the frames.
      * 
+     * @param alloc
+     *            The allocator of the buffers used while decoding
      * @param frames
      *            The message frames
      * @return The decoded message, or NULL if the message code is unknown
      * @throws MessageException
      */
-    protected Message decodeMessage(List<Frame> frames) throws MessageException {
+    protected Message decodeMessage(ByteBufAllocator alloc, List<Frame> frames) throws MessageException {
         if (frames == null || frames.isEmpty()) {
             throw new MessageException("Frames can't be null or empty");
         }
@@ -140,32 +192,101 @@ public class SemuxMessageHandler extends MessageToMessageCodec<Frame, Message> {
         byte packetType = head.getPacketType();
         int packetSize = head.getPacketSize();
 
-        byte[] data = new byte[packetSize];
-        int pos = 0;
-        for (Frame frame : frames) {
-            System.arraycopy(frame.getBody(), 0, data, pos, frame.getBodySize());
-            pos += frame.getBodySize();
-        }
-
+        byte[] data;
+        long t1 = System.nanoTime();
         switch (head.getCompressType()) {
         case Frame.COMPRESS_SNAPPY:
+            ByteBuf compressed = toDirectBuffer(alloc, frames, packetSize);
             try {
-                // check uncompressed length to avoid OOM vulnerability
-                int length = Snappy.uncompressedLength(data);
-                if (length > config.netMaxPacketSize()) {
-                    throw new MessageException("Uncompressed data length is too big: " + length);
-                }
-                data = Snappy.uncompress(data);
+                data = uncompress(alloc, compressed);
             } catch (IOException e) {
                 throw new MessageException(e);
+            } finally {
+                compressed.release();
             }
             break;
         case Frame.COMPRESS_NONE:
+            data = new byte[packetSize];
+            int pos = 0;
+            for (Frame frame : frames) {
+                frame.getBody().getBytes(frame.getBody().readerIndex(), data, pos, frame.getBodySize());
+                pos += frame.getBodySize();
+            }
             break;
         default:
             throw new MessageException("Unsupported compress type: " + head.getCompressType());
         }
 
+        MessageCode code = MessageCode.of(packetType);
+        if (code != null) {
+            compressionStats.get(code).onReceived(head.getCompressType() != Frame.COMPRESS_NONE,
+                    System.nanoTime() - t1);
+        }
+
         return messageFactory.create(packetType, data);
     }
+
+    /**
+     * Returns the bodies of the frames as one direct buffer, to be released by the
+     * caller. The body of a single frame received into a direct buffer is used as
+     * is, the others are copied into a pooled buffer.
+     */
+    private static ByteBuf toDirectBuffer(ByteBufAllocator alloc, List<Frame> frames, int packetSize) {
+        ByteBuf body = frames.get(0).getBody();
+        if (frames.size() == 1 && body.isDirect() && body.nioBufferCount() == 1) {
+            return body.retainedSlice();
+        }
+
+        ByteBuf buf = alloc.directBuffer(packetSize);
+        for (Frame frame : frames) {
+            buf.writeBytes(frame.getBody(), frame.getBody().readerIndex(), frame.getBodySize());
+        }
+        return buf;
+    }
+
+    /**
+     * Compresses the data into a pooled direct buffer, to be released by the
+     * caller.
+     */
+    private static ByteBuf compress(ByteBufAllocator alloc, byte[] data) throws IOException {
+        ByteBuf in = alloc.directBuffer(data.length);
+        try {
+            in.writeBytes(data);
+
+            int maxLength = Snappy.maxCompressedLength(data.length);
+            ByteBuf out = alloc.directBuffer(maxLength);
+            try {
+                int length = Snappy.compress(in.nioBuffer(), out.nioBuffer(0, maxLength));
+                return out.writerIndex(length);
+            } catch (IOException | RuntimeException e) {
+                out.release();
+                throw e;
+            }
+        } finally {
+            in.release();
+        }
+    }
+
+    /**
+     * Uncompresses a direct buffer, checking the uncompressed length first.
+     */
+    private byte[] uncompress(ByteBufAllocator alloc, ByteBuf compressed) throws IOException, MessageException {
+        ByteBuffer in = compressed.nioBuffer();
+
+        // check uncompressed length to avoid OOM vulnerability
+        int length = Snappy.uncompressedLength(in);
+        if (length > config.netMaxPacketSize()) {
+            throw new MessageException("Uncompressed data length is too big: " + length);
+        }
+
+        ByteBuf out = alloc.directBuffer(length);
+        try {
+            int n = Snappy.uncompress(in, out.nioBuffer(0, length));
+            byte[] data = new byte[n];
+            out.getBytes(0, data);
+            return data;
+        } finally {
+            out.release();
+        }
+    }
 }
@@ -28,12 +28,13 @@ import org.semux.Kernel;
 import org.semux.Network;
 import org.semux.config.Config;
 import org.semux.core.BftManager;
-import org.semux.core.Block;
 import org.semux.core.BlockHeader;
 import org.semux.core.BlockPart;
 import org.semux.core.Blockchain;
 import org.semux.core.PendingManager;
 import org.semux.core.SyncManager;
+import org.semux.core.Transaction;
+import org.semux.core.snapshot.SnapshotManager;
 import org.semux.net.NodeManager.Node;
 import org.semux.net.msg.Message;
 import org.semux.net.msg.MessageQueue;
@@ -41,15 +42,21 @@ import org.semux.net.msg.ReasonCode;
 import org.semux.net.msg.consensus.BlockHeaderMessage;
 import org.semux.net.msg.consensus.BlockMessage;
 import org.semux.net.msg.consensus.BlockPartsMessage;
+import org.semux.net.msg.consensus.BlockPartsRangeMessage;
 import org.semux.net.msg.consensus.GetBlockHeaderMessage;
 import org.semux.net.msg.consensus.GetBlockMessage;
 import org.semux.net.msg.consensus.GetBlockPartsMessage;
+import org.semux.net.msg.consensus.GetBlockPartsRangeMessage;
+import org.semux.net.msg.consensus.GetSnapshotChunkMessage;
 import org.semux.net.msg.consensus.NewHeightMessage;
+import org.semux.net.msg.consensus.SnapshotChunkMessage;
 import org.semux.net.msg.p2p.DisconnectMessage;
 import org.semux.net.msg.p2p.GetNodesMessage;
+import org.semux.net.msg.p2p.GetTransactionsMessage;
 import org.semux.net.msg.p2p.NodesMessage;
 import org.semux.net.msg.p2p.PingMessage;
 import org.semux.net.msg.p2p.PongMessage;
+import org.semux.net.msg.p2p.TransactionInventoryMessage;
 import org.semux.net.msg.p2p.TransactionMessage;
 import org.semux.net.msg.p2p.handshake.v2.HelloMessage;
 import org.semux.net.msg.p2p.handshake.v2.InitMessage;
@@ -69,6 +76,12 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
 
     private final static Logger logger = Logger.getLogger(SemuxP2pHandler.class.getName());
 
+    // max number of blocks returned for a range request
+    private static final int MAX_BLOCK_RANGE = 1024;
+
+    // interval between the flushes of the transaction inventory, in milliseconds
+    private static final long TX_INVENTORY_INTERVAL = 100;
+
     private static final ScheduledExecutorService exec = Executors
             .newSingleThreadScheduledExecutor(new ThreadFactory() {
                 private final AtomicInteger cnt = new AtomicInteger(0);
@@ -87,6 +100,7 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
     private final NodeManager nodeMgr;
     private final PeerClient client;
     private final SyncManager sync;
+    private final SnapshotManager snapshotMgr;
     private final BftManager bft;
     private final MessageQueue msgQueue;
 
@@ -94,6 +108,7 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
 
     private ScheduledFuture<?> getNodes = null;
     private ScheduledFuture<?> pingPong = null;
+    private ScheduledFuture<?> txInventory = null;
 
     private byte[] secret = Bytes.random(InitMessage.SECRET_LENGTH);
     private long timestamp = TimeUtil.currentTimeMillis();
@@ -117,6 +132,7 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
         this.client = kernel.getClient();
 
         this.sync = kernel.getSyncManager();
+        this.snapshotMgr = kernel.getSnapshotManager();
         this.bft = kernel.getBftManager();
 
         this.msgQueue = channel.getMessageQueue();
@@ -198,9 +214,24 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
             pingPong = null;
         }
 
+        if (txInventory != null) {
+            txInventory.cancel(false);
+            txInventory = null;
+        }
+
         super.channelInactive(ctx);
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // resume writing the queued messages
+        if (ctx.channel().isWritable()) {
+            msgQueue.nudgeQueue();
+        }
+
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         if (logger.isLoggable(Level.FINEST)) {
@@ -245,6 +276,12 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
         case TRANSACTION:
             onTransaction((TransactionMessage) msg);
             break;
+        case TRANSACTION_INVENTORY:
+            onTransactionInventory((TransactionInventoryMessage) msg);
+            break;
+        case GET_TRANSACTIONS:
+            onGetTransactions((GetTransactionsMessage) msg);
+            break;
         case HANDSHAKE_INIT:
             if (useNewHandShake)
                 onHandshakeInit((InitMessage) msg);
@@ -265,6 +302,10 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
         case BLOCK_HEADER:
         case GET_BLOCK_PARTS:
         case BLOCK_PARTS:
+        case GET_BLOCK_PARTS_RANGE:
+        case BLOCK_PARTS_RANGE:
+        case GET_SNAPSHOT_CHUNK:
+        case SNAPSHOT_CHUNK:
             onSync(msg);
             break;
 
@@ -273,6 +314,9 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
         case BFT_NEW_VIEW:
         case BFT_PROPOSAL:
         case BFT_VOTE:
+        case BFT_COMPACT_PROPOSAL:
+        case BFT_GET_PROPOSAL_TRANSACTIONS:
+        case BFT_PROPOSAL_TRANSACTIONS:
             onBft(msg);
             break;
 
@@ -370,9 +414,44 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
     }
 
     protected void onTransaction(TransactionMessage msg) {
+        channel.markTransactionKnown(msg.getTransaction().getHash());
         pendingMgr.addTransaction(msg.getTransaction());
     }
 
+    protected void onTransactionInventory(TransactionInventoryMessage msg) {
+        if (!isHandshakeDone.get() || !msg.validate()) {
+            return;
+        }
+
+        for (byte[] hash : msg.getHashes()) {
+            channel.markTransactionKnown(hash);
+        }
+
+        List<byte[]> hashes = pendingMgr.requestTransactions(channel, msg.getHashes());
+        if (!hashes.isEmpty()) {
+            msgQueue.sendMessage(new GetTransactionsMessage(hashes));
+        }
+    }
+
+    protected void onGetTransactions(GetTransactionsMessage msg) {
+        if (!isHandshakeDone.get() || !msg.validate()) {
+            return;
+        }
+
+        // the transactions not sent are requested again from another peer
+        int maxQueueSize = config.netMaxMessageQueueSize() / 2;
+        for (byte[] hash : msg.getHashes()) {
+            Transaction tx = pendingMgr.getRelayedTransaction(hash);
+            if (tx != null) {
+                if (msgQueue.size() >= maxQueueSize) {
+                    break;
+                }
+                channel.markTransactionKnown(hash);
+                msgQueue.sendMessage(new TransactionMessage(tx));
+            }
+        }
+    }
+
     protected void onHandshakeInit(InitMessage msg) {
         // unexpected
         if (channel.isInbound()) {
@@ -458,8 +537,10 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
         switch (msg.getCode()) {
         case GET_BLOCK: {
             GetBlockMessage m = (GetBlockMessage) msg;
-            Block block = chain.getBlock(m.getNumber());
-            channel.getMessageQueue().sendMessage(new BlockMessage(block));
+            List<byte[]> partsSerialized = chain.getBlockParts(m.getNumber(), BlockPart.encode(BlockPart.values()));
+            if (partsSerialized != null) {
+                channel.getMessageQueue().sendMessage(new BlockMessage(partsSerialized));
+            }
             break;
         }
         case GET_BLOCK_HEADER: {
@@ -473,33 +554,51 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
             long number = m.getNumber();
             int parts = m.getParts();
 
-            List<byte[]> partsSerialized = new ArrayList<>();
-            Block block = chain.getBlock(number);
-            for (BlockPart part : BlockPart.decode(parts)) {
-                switch (part) {
-                case HEADER:
-                    partsSerialized.add(block.getEncodedHeader());
-                    break;
-                case TRANSACTIONS:
-                    partsSerialized.add(block.getEncodedTransactions());
-                    break;
-                case RESULTS:
-                    partsSerialized.add(block.getEncodedResults());
+            List<byte[]> partsSerialized = chain.getBlockParts(number, parts);
+            if (partsSerialized != null) {
+                channel.getMessageQueue().sendMessage(new BlockPartsMessage(number, parts, partsSerialized));
+            }
+            break;
+        }
+        case GET_BLOCK_PARTS_RANGE: {
+            GetBlockPartsRangeMessage m = (GetBlockPartsRangeMessage) msg;
+            long number = m.getNumber();
+            int parts = m.getParts();
+            if (number < 0 || m.getCount() <= 0) {
+                break;
+            }
+            long end = Math.min(number + Math.min(m.getCount(), MAX_BLOCK_RANGE), chain.getLatestBlockNumber() + 1);
+
+            // stop short of the packet size limit, the peer requests the rest again
+            List<List<byte[]>> data = new ArrayList<>();
+            long size = 0;
+            for (long n = number; n < end; n++) {
+                List<byte[]> partsSerialized = chain.getBlockParts(n, parts);
+                // blocks before the snapshot of a bootstrapped node are missing
+                if (partsSerialized == null) {
                     break;
-                case VOTES:
-                    partsSerialized.add(block.getEncodedVotes());
+                }
+                size += partsSerialized.stream().mapToLong(b -> b.length).sum();
+                if (!data.isEmpty() && size > config.netMaxPacketSize() / 2) {
                     break;
-                default:
-                    throw new UnreachableException();
                 }
+                data.add(partsSerialized);
             }
 
-            channel.getMessageQueue().sendMessage(new BlockPartsMessage(number, parts, partsSerialized));
+            channel.getMessageQueue().sendMessage(new BlockPartsRangeMessage(number, parts, data));
+            break;
+        }
+        case GET_SNAPSHOT_CHUNK: {
+            GetSnapshotChunkMessage m = (GetSnapshotChunkMessage) msg;
+            byte[] data = snapshotMgr.getChunk(m.getHeight(), m.getIndex());
+            channel.getMessageQueue().sendMessage(new SnapshotChunkMessage(m.getHeight(), m.getIndex(), data));
             break;
         }
         case BLOCK:
         case BLOCK_HEADER:
-        case BLOCK_PARTS: {
+        case BLOCK_PARTS:
+        case BLOCK_PARTS_RANGE:
+        case SNAPSHOT_CHUNK: {
             sync.onMessage(channel, msg);
             break;
         }
@@ -549,6 +648,22 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
         return null;
     }
 
+    /**
+     * Announces the transactions relayed since the last flush, unless the message
+     * queue is half full, in which case they're kept for the next flush.
+     */
+    private void flushTxInventory() {
+        if (msgQueue.size() >= config.netMaxMessageQueueSize() / 2) {
+            return;
+        }
+
+        List<byte[]> hashes = channel.takeTransactionInventory();
+        for (int i = 0; i < hashes.size(); i += TransactionInventoryMessage.MAX_HASHES) {
+            msgQueue.sendMessage(new TransactionInventoryMessage(
+                    hashes.subList(i, Math.min(i + TransactionInventoryMessage.MAX_HASHES, hashes.size()))));
+        }
+    }
+
     /**
      * When handshake is done.
      */
@@ -567,6 +682,12 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
             // start ping pong
             pingPong = exec.scheduleAtFixedRate(() -> msgQueue.sendMessage(new PingMessage()),
                     channel.isInbound() ? 1 : 0, 1, TimeUnit.MINUTES);
+
+            // start announcing transactions
+            if (channel.isSupported(Capability.TX_INVENTORY)) {
+                txInventory = exec.scheduleAtFixedRate(this::flushTxInventory, TX_INVENTORY_INTERVAL,
+                        TX_INVENTORY_INTERVAL, TimeUnit.MILLISECONDS);
+            }
         } else {
             msgQueue.disconnect(ReasonCode.HANDSHAKE_EXISTS);
         }
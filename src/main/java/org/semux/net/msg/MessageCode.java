@@ -67,6 +67,16 @@ public enum MessageCode {
      */
     HANDSHAKE_WORLD(0x10),
 
+    /**
+     * [0x11] Announce the hashes of new transactions.
+     */
+    TRANSACTION_INVENTORY(0x11),
+
+    /**
+     * [0x12] Request the announced transactions by their hashes.
+     */
+    GET_TRANSACTIONS(0x12),
+
     // =======================================
     // [0x30, 0x3f] Reserved for sync
     // =======================================
@@ -101,6 +111,26 @@ public enum MessageCode {
      */
     BLOCK_PARTS(0x35),
 
+    /**
+     * [0x36] Request parts of consecutive blocks from the peer.
+     */
+    GET_BLOCK_PARTS_RANGE(0x36),
+
+    /**
+     * [0x37] Response containing the parts of consecutive blocks.
+     */
+    BLOCK_PARTS_RANGE(0x37),
+
+    /**
+     * [0x38] Request a chunk of a state snapshot from the peer.
+     */
+    GET_SNAPSHOT_CHUNK(0x38),
+
+    /**
+     * [0x39] Response containing a chunk of a state snapshot.
+     */
+    SNAPSHOT_CHUNK(0x39),
+
     // =======================================
     // [0x40, 0x4f] Reserved for BFT
     // =======================================
@@ -123,7 +153,22 @@ public enum MessageCode {
     /**
      * [0x43] BFT vote message.
      */
-    BFT_VOTE(0x43);
+    BFT_VOTE(0x43),
+
+    /**
+     * [0x44] BFT proposal message, referring to the transactions by short ID.
+     */
+    BFT_COMPACT_PROPOSAL(0x44),
+
+    /**
+     * [0x45] Request the transactions of a compact proposal.
+     */
+    BFT_GET_PROPOSAL_TRANSACTIONS(0x45),
+
+    /**
+     * [0x46] Response containing the transactions of a compact proposal.
+     */
+    BFT_PROPOSAL_TRANSACTIONS(0x46);
 
     private static final MessageCode[] map = new MessageCode[256];
 
@@ -12,18 +12,27 @@ import org.semux.crypto.Hex;
 import org.semux.net.msg.consensus.BlockHeaderMessage;
 import org.semux.net.msg.consensus.BlockMessage;
 import org.semux.net.msg.consensus.BlockPartsMessage;
+import org.semux.net.msg.consensus.BlockPartsRangeMessage;
+import org.semux.net.msg.consensus.CompactProposalMessage;
 import org.semux.net.msg.consensus.GetBlockHeaderMessage;
 import org.semux.net.msg.consensus.GetBlockMessage;
 import org.semux.net.msg.consensus.GetBlockPartsMessage;
+import org.semux.net.msg.consensus.GetBlockPartsRangeMessage;
+import org.semux.net.msg.consensus.GetProposalTransactionsMessage;
+import org.semux.net.msg.consensus.GetSnapshotChunkMessage;
 import org.semux.net.msg.consensus.NewHeightMessage;
 import org.semux.net.msg.consensus.NewViewMessage;
 import org.semux.net.msg.consensus.ProposalMessage;
+import org.semux.net.msg.consensus.ProposalTransactionsMessage;
+import org.semux.net.msg.consensus.SnapshotChunkMessage;
 import org.semux.net.msg.consensus.VoteMessage;
 import org.semux.net.msg.p2p.DisconnectMessage;
 import org.semux.net.msg.p2p.GetNodesMessage;
+import org.semux.net.msg.p2p.GetTransactionsMessage;
 import org.semux.net.msg.p2p.NodesMessage;
 import org.semux.net.msg.p2p.PingMessage;
 import org.semux.net.msg.p2p.PongMessage;
+import org.semux.net.msg.p2p.TransactionInventoryMessage;
 import org.semux.net.msg.p2p.TransactionMessage;
 import org.semux.net.msg.p2p.handshake.v2.HelloMessage;
 import org.semux.net.msg.p2p.handshake.v2.InitMessage;
@@ -78,6 +87,10 @@ public class MessageFactory {
                 return new HelloMessage(body);
             case HANDSHAKE_WORLD:
                 return new WorldMessage(body);
+            case TRANSACTION_INVENTORY:
+                return new TransactionInventoryMessage(body);
+            case GET_TRANSACTIONS:
+                return new GetTransactionsMessage(body);
 
             case GET_BLOCK:
                 return new GetBlockMessage(body);
@@ -91,6 +104,14 @@ public class MessageFactory {
                 return new GetBlockPartsMessage(body);
             case BLOCK_PARTS:
                 return new BlockPartsMessage(body);
+            case GET_BLOCK_PARTS_RANGE:
+                return new GetBlockPartsRangeMessage(body);
+            case BLOCK_PARTS_RANGE:
+                return new BlockPartsRangeMessage(body);
+            case GET_SNAPSHOT_CHUNK:
+                return new GetSnapshotChunkMessage(body);
+            case SNAPSHOT_CHUNK:
+                return new SnapshotChunkMessage(body);
 
             case BFT_NEW_HEIGHT:
                 return new NewHeightMessage(body);
@@ -100,6 +121,12 @@ public class MessageFactory {
                 return new ProposalMessage(body);
             case BFT_VOTE:
                 return new VoteMessage(body);
+            case BFT_COMPACT_PROPOSAL:
+                return new CompactProposalMessage(body);
+            case BFT_GET_PROPOSAL_TRANSACTIONS:
+                return new GetProposalTransactionsMessage(body);
+            case BFT_PROPOSAL_TRANSACTIONS:
+                return new ProposalTransactionsMessage(body);
 
             default:
                 throw new UnreachableException();
@@ -8,11 +8,6 @@ package org.semux.net.msg;
 
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
@@ -26,28 +21,28 @@ import io.netty.channel.ChannelHandlerContext;
 
 /**
  * This class contains the logic for sending messages.
+ *
+ * The messages are written on the event loop of the channel, as soon as they
+ * are queued, the messages queued meanwhile being flushed together. Writing
+ * stops when the channel is no longer writable, i.e. when the bytes waiting
+ * for the socket exceed the high water mark, and resumes when they drop below
+ * the low one.
  */
 public class MessageQueue {
 
     private static final Logger logger = Logger.getLogger(MessageQueue.class.getName());
 
-    private static final ScheduledExecutorService timer = Executors.newScheduledThreadPool(4, new ThreadFactory() {
-        private final AtomicInteger cnt = new AtomicInteger(0);
-
-        public Thread newThread(Runnable r) {
-            return new Thread(r, "msg-" + cnt.getAndIncrement());
-        }
-    });
-
     private final Config config;
 
     private final Queue<Message> queue = new ConcurrentLinkedQueue<>();
     private final Queue<Message> prioritized = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
 
-    private ChannelHandlerContext ctx;
-    private ScheduledFuture<?> timerTask;
+    private volatile ChannelHandlerContext ctx;
+    private volatile boolean isActive = false;
 
-    private AtomicBoolean isClosed = new AtomicBoolean(false);
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
 
     /**
      * Create a message queue with the specified maximum queue size.
@@ -65,20 +60,17 @@ public class MessageQueue {
      */
     public synchronized void activate(ChannelHandlerContext ctx) {
         this.ctx = ctx;
-        this.timerTask = timer.scheduleAtFixedRate(() -> {
-            try {
-                nudgeQueue();
-            } catch (Exception t) {
-                logger.severe(String.format("Exception in MessageQueue", t));
-            }
-        }, 10, 10, TimeUnit.MILLISECONDS);
+        this.isActive = true;
+
+        // the messages queued before
+        nudgeQueue();
     }
 
     /**
      * Deactivates this message queue.
      */
     public synchronized void deactivate() {
-        this.timerTask.cancel(false);
+        this.isActive = false;
     }
 
     /**
@@ -122,11 +114,14 @@ public class MessageQueue {
             return false;
         }
 
+        size.incrementAndGet();
         if (config.netPrioritizedMessages().contains(msg.getCode())) {
             prioritized.add(msg);
         } else {
             queue.add(msg);
         }
+
+        nudgeQueue();
         return true;
     }
 
@@ -136,27 +131,48 @@ public class MessageQueue {
      * @return
      */
     public int size() {
-        return queue.size() + prioritized.size();
+        return size.get();
     }
 
-    protected void nudgeQueue() {
-        // 1000 / 10 * 5 = 500 messages per second
-        int n = Math.min(5, size());
-        if (n == 0) {
-            return;
+    /**
+     * Schedules the writing of the queued messages on the event loop of the
+     * channel, unless it's already scheduled. To be called as well when the
+     * channel becomes writable again.
+     */
+    public void nudgeQueue() {
+        if (isActive && size() > 0 && isScheduled.compareAndSet(false, true)) {
+            ctx.executor().execute(this::writeQueue);
         }
+    }
 
-        // write out n messages
-        for (int i = 0; i < n; i++) {
-            Message msg = !prioritized.isEmpty() ? prioritized.poll() : queue.poll();
+    /**
+     * Writes the queued messages, the prioritized ones first, while the channel is
+     * writable, and flushes them at once.
+     */
+    protected void writeQueue() {
+        // the messages queued from now on schedule another run
+        isScheduled.set(false);
+
+        int n = 0;
+        while (isActive && ctx.channel().isWritable()) {
+            Message msg = prioritized.poll();
+            if (msg == null) {
+                msg = queue.poll();
+            }
+            if (msg == null) {
+                break;
+            }
+            size.decrementAndGet();
 
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine(String.format("Wiring message: %s", msg));
             }
             ctx.write(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+            n++;
         }
 
-        // flush
-        ctx.flush();
+        if (n > 0) {
+            ctx.flush();
+        }
     }
 }
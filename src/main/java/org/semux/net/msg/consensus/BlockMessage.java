@@ -6,13 +6,16 @@
  */
 package org.semux.net.msg.consensus;
 
+import java.util.List;
+
 import org.semux.core.Block;
 import org.semux.net.msg.Message;
 import org.semux.net.msg.MessageCode;
+import org.semux.util.SimpleEncoder;
 
 public class BlockMessage extends Message {
 
-    private final Block block;
+    private Block block;
 
     public BlockMessage(Block block) {
         super(MessageCode.BLOCK, null);
@@ -22,6 +25,24 @@ public class BlockMessage extends Message {
         this.body = block.toBytes();
     }
 
+    /**
+     * Creates a block message from the encoded parts of a stored block, without
+     * decoding it.
+     *
+     * @param parts
+     *            the header, transactions, results and votes, as returned by
+     *            {@link org.semux.core.Blockchain#getBlockParts(long, int)}
+     */
+    public BlockMessage(List<byte[]> parts) {
+        super(MessageCode.BLOCK, null);
+
+        SimpleEncoder enc = new SimpleEncoder();
+        for (byte[] part : parts) {
+            enc.writeBytes(part);
+        }
+        this.body = enc.toBytes();
+    }
+
     public BlockMessage(byte[] body) {
         super(MessageCode.BLOCK, null);
 
@@ -30,12 +51,15 @@ public class BlockMessage extends Message {
         this.body = body;
     }
 
-    public Block getBlock() {
+    public synchronized Block getBlock() {
+        if (block == null) {
+            block = Block.fromBytes(body);
+        }
         return block;
     }
 
     @Override
     public String toString() {
-        return "BlockMessage [block=" + block + "]";
+        return "BlockMessage [block=" + getBlock() + "]";
     }
 }
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+/**
+ * Response to a {@link GetBlockPartsRangeMessage}, containing the parts of each
+ * block, in the order of the block numbers.
+ */
+public class BlockPartsRangeMessage extends Message {
+
+    private final long number;
+    private final int parts;
+    private final List<List<byte[]>> data;
+
+    public BlockPartsRangeMessage(long number, int parts, List<List<byte[]>> data) {
+        super(MessageCode.BLOCK_PARTS_RANGE, null);
+
+        this.number = number;
+        this.parts = parts;
+        this.data = data;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(number);
+        enc.writeInt(parts);
+        enc.writeInt(data.size());
+        for (List<byte[]> blockData : data) {
+            enc.writeInt(blockData.size());
+            for (byte[] b : blockData) {
+                enc.writeBytes(b);
+            }
+        }
+        this.body = enc.toBytes();
+    }
+
+    public BlockPartsRangeMessage(byte[] body) {
+        super(MessageCode.BLOCK_PARTS_RANGE, null);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.number = dec.readLong();
+        this.parts = dec.readInt();
+        this.data = new ArrayList<>();
+        int n = dec.readInt();
+        for (int i = 0; i < n; i++) {
+            List<byte[]> blockData = new ArrayList<>();
+            int m = dec.readInt();
+            for (int j = 0; j < m; j++) {
+                blockData.add(dec.readBytes());
+            }
+            data.add(blockData);
+        }
+
+        this.body = body;
+    }
+
+    /**
+     * Returns the number of the first block.
+     *
+     * @return
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    public List<List<byte[]>> getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "BlockPartsRangeMessage [number=" + number + ", parts=" + parts + ", blocks=" + data.size() + "]";
+    }
+}
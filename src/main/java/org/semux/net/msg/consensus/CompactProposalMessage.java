@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import org.semux.consensus.CompactProposal;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+
+public class CompactProposalMessage extends Message {
+
+    private final CompactProposal proposal;
+
+    public CompactProposalMessage(CompactProposal proposal) {
+        super(MessageCode.BFT_COMPACT_PROPOSAL, null);
+
+        this.proposal = proposal;
+
+        this.body = proposal.toBytes();
+    }
+
+    public CompactProposalMessage(byte[] body) {
+        super(MessageCode.BFT_COMPACT_PROPOSAL, null);
+
+        this.proposal = CompactProposal.fromBytes(body);
+
+        this.body = body;
+    }
+
+    public CompactProposal getProposal() {
+        return proposal;
+    }
+
+    @Override
+    public String toString() {
+        return "BFTCompactProposalMessage: " + proposal;
+    }
+}
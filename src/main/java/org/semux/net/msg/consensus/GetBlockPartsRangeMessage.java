@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+/**
+ * Requests the same parts of consecutive blocks, starting from the given number.
+ * The peer may return fewer blocks than requested.
+ */
+public class GetBlockPartsRangeMessage extends Message {
+
+    private final long number;
+    private final int count;
+    private final int parts;
+
+    public GetBlockPartsRangeMessage(long number, int count, int parts) {
+        super(MessageCode.GET_BLOCK_PARTS_RANGE, BlockPartsRangeMessage.class);
+
+        this.number = number;
+        this.count = count;
+        this.parts = parts;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(number);
+        enc.writeInt(count);
+        enc.writeInt(parts);
+        this.body = enc.toBytes();
+    }
+
+    public GetBlockPartsRangeMessage(byte[] body) {
+        super(MessageCode.GET_BLOCK_PARTS_RANGE, BlockPartsRangeMessage.class);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.number = dec.readLong();
+        this.count = dec.readInt();
+        this.parts = dec.readInt();
+
+        this.body = body;
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    @Override
+    public String toString() {
+        return "GetBlockPartsRangeMessage [number=" + number + ", count=" + count + ", parts=" + parts + "]";
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import org.semux.crypto.Hex;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+public class GetProposalTransactionsMessage extends Message {
+
+    private final byte[] blockHash;
+    private final int[] indices;
+
+    /**
+     * Create a BFT_GET_PROPOSAL_TRANSACTIONS message.
+     *
+     * @param blockHash
+     *            the hash of the proposed block
+     * @param indices
+     *            the indices of the transactions in the block
+     */
+    public GetProposalTransactionsMessage(byte[] blockHash, int[] indices) {
+        super(MessageCode.BFT_GET_PROPOSAL_TRANSACTIONS, ProposalTransactionsMessage.class);
+
+        this.blockHash = blockHash;
+        this.indices = indices;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeBytes(blockHash);
+        enc.writeInt(indices.length);
+        for (int index : indices) {
+            enc.writeInt(index);
+        }
+        this.body = enc.toBytes();
+    }
+
+    /**
+     * Parse a BFT_GET_PROPOSAL_TRANSACTIONS message from byte array.
+     *
+     * @param body
+     */
+    public GetProposalTransactionsMessage(byte[] body) {
+        super(MessageCode.BFT_GET_PROPOSAL_TRANSACTIONS, ProposalTransactionsMessage.class);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.blockHash = dec.readBytes();
+        int n = dec.readInt();
+        if (n < 0 || n > body.length / 4) {
+            throw new IllegalArgumentException("Invalid number of indices: " + n);
+        }
+        this.indices = new int[n];
+        for (int i = 0; i < n; i++) {
+            indices[i] = dec.readInt();
+        }
+
+        this.body = body;
+    }
+
+    public byte[] getBlockHash() {
+        return blockHash;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    @Override
+    public String toString() {
+        return "GetProposalTransactionsMessage [blockHash=" + Hex.encode(blockHash) + ", # txs = " + indices.length
+                + "]";
+    }
+}
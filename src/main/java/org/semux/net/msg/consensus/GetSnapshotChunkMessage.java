@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+/**
+ * Requests a chunk of the state snapshot taken at the given height, or the
+ * manifest of the latest snapshot of the peer.
+ */
+public class GetSnapshotChunkMessage extends Message {
+
+    /**
+     * The index requesting the manifest instead of a chunk.
+     */
+    public static final int MANIFEST = -1;
+
+    private final long height;
+    private final int index;
+
+    public GetSnapshotChunkMessage(long height, int index) {
+        super(MessageCode.GET_SNAPSHOT_CHUNK, SnapshotChunkMessage.class);
+
+        this.height = height;
+        this.index = index;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(height);
+        enc.writeInt(index);
+        this.body = enc.toBytes();
+    }
+
+    public GetSnapshotChunkMessage(byte[] body) {
+        super(MessageCode.GET_SNAPSHOT_CHUNK, SnapshotChunkMessage.class);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.height = dec.readLong();
+        this.index = dec.readInt();
+
+        this.body = body;
+    }
+
+    /**
+     * Returns the height of the snapshot, ignored when requesting the manifest.
+     *
+     * @return
+     */
+    public long getHeight() {
+        return height;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "GetSnapshotChunkMessage [height=" + height + ", index=" + index + "]";
+    }
+}
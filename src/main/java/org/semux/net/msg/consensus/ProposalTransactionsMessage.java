@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.semux.core.Transaction;
+import org.semux.crypto.Hex;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+public class ProposalTransactionsMessage extends Message {
+
+    private final byte[] blockHash;
+    private final int[] indices;
+    private final List<Transaction> transactions;
+
+    /**
+     * Create a BFT_PROPOSAL_TRANSACTIONS message.
+     *
+     * @param blockHash
+     *            the hash of the proposed block
+     * @param indices
+     *            the indices of the transactions in the block
+     * @param transactions
+     *            the transactions, in the order of the indices
+     */
+    public ProposalTransactionsMessage(byte[] blockHash, int[] indices, List<Transaction> transactions) {
+        super(MessageCode.BFT_PROPOSAL_TRANSACTIONS, null);
+
+        this.blockHash = blockHash;
+        this.indices = indices;
+        this.transactions = transactions;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeBytes(blockHash);
+        enc.writeInt(indices.length);
+        for (int i = 0; i < indices.length; i++) {
+            enc.writeInt(indices[i]);
+            enc.writeBytes(transactions.get(i).toBytes());
+        }
+        this.body = enc.toBytes();
+    }
+
+    /**
+     * Parse a BFT_PROPOSAL_TRANSACTIONS message from byte array.
+     *
+     * @param body
+     */
+    public ProposalTransactionsMessage(byte[] body) {
+        super(MessageCode.BFT_PROPOSAL_TRANSACTIONS, null);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.blockHash = dec.readBytes();
+        int n = dec.readInt();
+        if (n < 0 || n > body.length / 4) {
+            throw new IllegalArgumentException("Invalid number of transactions: " + n);
+        }
+        this.indices = new int[n];
+        this.transactions = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            indices[i] = dec.readInt();
+            transactions.add(Transaction.fromBytes(dec.readBytes()));
+        }
+
+        this.body = body;
+    }
+
+    public byte[] getBlockHash() {
+        return blockHash;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    @Override
+    public String toString() {
+        return "ProposalTransactionsMessage [blockHash=" + Hex.encode(blockHash) + ", # txs = " + indices.length
+                + "]";
+    }
+}
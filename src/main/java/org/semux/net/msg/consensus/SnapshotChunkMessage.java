@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+/**
+ * Response to a {@link GetSnapshotChunkMessage}. The data is empty if the peer
+ * doesn't have the requested snapshot.
+ */
+public class SnapshotChunkMessage extends Message {
+
+    private final long height;
+    private final int index;
+    private final byte[] data;
+
+    public SnapshotChunkMessage(long height, int index, byte[] data) {
+        super(MessageCode.SNAPSHOT_CHUNK, null);
+
+        this.height = height;
+        this.index = index;
+        this.data = data;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(height);
+        enc.writeInt(index);
+        enc.writeBytes(data);
+        this.body = enc.toBytes();
+    }
+
+    public SnapshotChunkMessage(byte[] body) {
+        super(MessageCode.SNAPSHOT_CHUNK, null);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.height = dec.readLong();
+        this.index = dec.readInt();
+        this.data = dec.readBytes();
+
+        this.body = body;
+    }
+
+    public long getHeight() {
+        return height;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotChunkMessage [height=" + height + ", index=" + index + ", size=" + data.length + "]";
+    }
+}
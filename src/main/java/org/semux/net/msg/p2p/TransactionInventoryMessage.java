@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.p2p;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+public class TransactionInventoryMessage extends Message {
+
+    public static final int MAX_HASHES = 1024;
+
+    private final List<byte[]> hashes;
+
+    /**
+     * Create a TRANSACTION_INVENTORY message.
+     *
+     * @param hashes
+     *            the hashes of the transactions announced
+     */
+    public TransactionInventoryMessage(List<byte[]> hashes) {
+        super(MessageCode.TRANSACTION_INVENTORY, null);
+
+        this.hashes = hashes;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeInt(hashes.size());
+        for (byte[] hash : hashes) {
+            enc.writeBytes(hash);
+        }
+        this.body = enc.toBytes();
+    }
+
+    /**
+     * Parse a TRANSACTION_INVENTORY message from byte array.
+     *
+     * @param body
+     */
+    public TransactionInventoryMessage(byte[] body) {
+        super(MessageCode.TRANSACTION_INVENTORY, null);
+
+        this.hashes = new ArrayList<>();
+        SimpleDecoder dec = new SimpleDecoder(body);
+        for (int i = 0, size = dec.readInt(); i < size && i <= MAX_HASHES; i++) {
+            hashes.add(dec.readBytes());
+        }
+
+        this.body = body;
+    }
+
+    public boolean validate() {
+        return hashes.size() <= MAX_HASHES && hashes.stream().allMatch(h -> h.length == 32);
+    }
+
+    public List<byte[]> getHashes() {
+        return hashes;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionInventoryMessage [# hashes = " + hashes.size() + "]";
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) [2018] [ The Semux Developers ]
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.vm;
+
+import static org.ethereum.vm.DataWord.MAX_VALUE;
+import static org.ethereum.vm.DataWord.TWO_POW_256;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the limb-based arithmetic against the original BigInteger based
+ * implementation, on random values biased towards the edge cases.
+ */
+public class DataWordTest {
+
+    private static final int ROUNDS = 20_000;
+
+    private static final BigInteger MAX_INT = BigInteger.valueOf(Integer.MAX_VALUE);
+    private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private final Random random = new Random(20200101L);
+
+    @Test
+    public void testConversions() {
+        for (int i = 0; i < ROUNDS; i++) {
+            DataWord w = randomWord();
+            BigInteger v = w.value();
+
+            assertEquals(w, DataWord.of(v));
+            assertEquals(w, DataWord.of(w.getData()));
+            assertArrayEquals(toBytes(v), w.getData());
+            assertEquals(new BigInteger(toBytes(v)), w.sValue());
+            assertEquals(bytesOccupied(v), w.bytesOccupied());
+            assertEquals(v.signum() == 0, w.isZero());
+            assertEquals(v.testBit(255), w.isNegative());
+            for (int j = 0; j < DataWord.SIZE; j++) {
+                assertEquals(toBytes(v)[j], w.getByte(j));
+            }
+            assertEquals(v.compareTo(MAX_INT) <= 0 ? v.intValue() : Integer.MAX_VALUE, w.intValueSafe());
+            assertEquals(v.compareTo(MAX_LONG) <= 0 ? v.longValue() : Long.MAX_VALUE, w.longValueSafe());
+        }
+
+        assertEquals(DataWord.of(BigInteger.valueOf(-1L).and(BigInteger.valueOf(0xffffffffL))), DataWord.of(-1));
+        assertEquals(DataWord.of(new BigInteger("ffffffffffffffff", 16)), DataWord.of(-1L));
+        assertEquals(DataWord.of(255), DataWord.of((byte) -1));
+    }
+
+    @Test
+    public void testArithmetic() {
+        for (int i = 0; i < ROUNDS; i++) {
+            DataWord w1 = randomWord();
+            DataWord w2 = randomWord();
+            DataWord w3 = randomWord();
+            BigInteger v1 = w1.value();
+            BigInteger v2 = w2.value();
+            BigInteger v3 = w3.value();
+
+            assertEquals(of(v1.add(v2)), w1.add(w2));
+            assertEquals(of(v1.subtract(v2)), w1.sub(w2));
+            assertEquals(of(v1.multiply(v2)), w1.mul(w2));
+            assertEquals(v2.signum() == 0 ? DataWord.ZERO : of(v1.divide(v2)), w1.div(w2));
+            assertEquals(v2.signum() == 0 ? DataWord.ZERO : of(v1.mod(v2)), w1.mod(w2));
+            assertEquals(v2.signum() == 0 ? DataWord.ZERO : of(w1.sValue().divide(w2.sValue())), w1.sDiv(w2));
+            assertEquals(sMod(w1, w2), w1.sMod(w2));
+            assertEquals(v3.signum() == 0 ? DataWord.ZERO : of(v1.add(v2).mod(v3)), w1.addmod(w2, w3));
+            assertEquals(v3.signum() == 0 ? DataWord.ZERO : of(v1.multiply(v2).mod(v3)), w1.mulmod(w2, w3));
+            assertEquals(of(v1.negate()), w1.negate());
+            assertEquals(Integer.signum(v1.compareTo(v2)), w1.compareTo(w2));
+            assertEquals(Integer.signum(w1.sValue().compareTo(w2.sValue())), Integer.signum(w1.signedCompareTo(w2)));
+        }
+    }
+
+    @Test
+    public void testDivisionCorrections() {
+        // divisions where the quotient digit estimate needs correcting
+        String[][] cases = {
+                { "7fffffff800000000000000000000000", "800000000000000000000001" },
+                { "800000000000000000000003", "200000000000000000000001" },
+                { "80000000fffffffe00000000", "80000000ffffffff" },
+                { "00007fff800000000000000000000000", "8000000000000001" },
+                { "ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff", "ffffffff0000000000000001" } };
+        for (String[] c : cases) {
+            BigInteger v1 = new BigInteger(c[0], 16);
+            BigInteger v2 = new BigInteger(c[1], 16);
+            DataWord w1 = DataWord.of(v1);
+            DataWord w2 = DataWord.of(v2);
+
+            assertEquals(DataWord.of(v1.divide(v2)), w1.div(w2));
+            assertEquals(DataWord.of(v1.mod(v2)), w1.mod(w2));
+            assertEquals(DataWord.of(v1.multiply(v1).mod(v2)), w1.mulmod(w1, w2));
+        }
+    }
+
+    @Test
+    public void testExp() {
+        for (int i = 0; i < ROUNDS / 10; i++) {
+            DataWord w1 = randomWord();
+            DataWord w2 = randomWord();
+
+            assertEquals(DataWord.of(w1.value().modPow(w2.value(), TWO_POW_256)), w1.exp(w2));
+        }
+    }
+
+    @Test
+    public void testBitwise() {
+        for (int i = 0; i < ROUNDS; i++) {
+            DataWord w1 = randomWord();
+            DataWord w2 = randomWord();
+            BigInteger v1 = w1.value();
+            BigInteger v2 = w2.value();
+
+            assertEquals(of(v1.and(v2)), w1.and(w2));
+            assertEquals(of(v1.or(v2)), w1.or(w2));
+            assertEquals(of(v1.xor(v2)), w1.xor(w2));
+            assertEquals(of(v1.xor(MAX_VALUE)), w1.bnot());
+
+            DataWord shift = random.nextBoolean() ? DataWord.of(random.nextInt(300)) : w2;
+            boolean inRange = shift.value().compareTo(BigInteger.valueOf(256)) < 0;
+            int n = inRange ? shift.intValue() : 256;
+            assertEquals(inRange ? of(v1.shiftLeft(n)) : DataWord.ZERO, w1.shiftLeft(shift));
+            assertEquals(inRange ? of(v1.shiftRight(n)) : DataWord.ZERO, w1.shiftRight(shift));
+            assertEquals(of(w1.sValue().shiftRight(n)), w1.shiftRightSigned(shift));
+
+            byte k = (byte) random.nextInt(32);
+            assertEquals(signExtend(w1, k), w1.signExtend(k));
+        }
+    }
+
+    /**
+     * Generates a random word, often with runs of zero or 0xff bytes, small
+     * values, or values near the limits.
+     */
+    private DataWord randomWord() {
+        byte[] bytes = new byte[DataWord.SIZE];
+        switch (random.nextInt(6)) {
+        case 0:
+            random.nextBytes(bytes);
+            break;
+        case 1:
+            // sparse
+            for (int i = 0; i < DataWord.SIZE; i++) {
+                bytes[i] = random.nextInt(4) == 0 ? (byte) random.nextInt() : 0;
+            }
+            break;
+        case 2:
+            // runs of 0x00 and 0xff
+            for (int i = 0; i < DataWord.SIZE; i++) {
+                int r = random.nextInt(3);
+                bytes[i] = r == 0 ? 0 : r == 1 ? (byte) 0xff : (byte) random.nextInt();
+            }
+            break;
+        case 3:
+            // small values
+            int len = 1 + random.nextInt(16);
+            for (int i = DataWord.SIZE - len; i < DataWord.SIZE; i++) {
+                bytes[i] = (byte) random.nextInt();
+            }
+            break;
+        case 4:
+            // near the limits
+            BigInteger[] bases = { BigInteger.ZERO, MAX_VALUE, BigInteger.ONE.shiftLeft(255),
+                    BigInteger.ONE.shiftLeft(64 * (1 + random.nextInt(3))) };
+            BigInteger v = bases[random.nextInt(bases.length)].add(BigInteger.valueOf(random.nextInt(5) - 2));
+            return of(v);
+        default:
+            // a single 64-bit limb
+            long l = random.nextLong();
+            return DataWord.of(BigInteger.valueOf(l).and(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE))
+                    .shiftLeft(64 * random.nextInt(4)));
+        }
+        return DataWord.of(bytes);
+    }
+
+    private static DataWord of(BigInteger v) {
+        return DataWord.of(v.mod(TWO_POW_256));
+    }
+
+    private static DataWord sMod(DataWord w1, DataWord w2) {
+        if (w2.isZero()) {
+            return DataWord.ZERO;
+        }
+        BigInteger result = w1.sValue().abs().mod(w2.sValue().abs());
+        return of(w1.sValue().signum() == -1 ? result.negate() : result);
+    }
+
+    private static DataWord signExtend(DataWord w, byte k) {
+        byte[] buffer = w.getData();
+        byte mask = w.sValue().testBit((k * 8) + 7) ? (byte) 0xff : 0;
+        for (int i = 31; i > k; i--) {
+            buffer[31 - i] = mask;
+        }
+        return DataWord.of(buffer);
+    }
+
+    private static int bytesOccupied(BigInteger v) {
+        return (v.bitLength() + 7) / 8;
+    }
+
+    private static byte[] toBytes(BigInteger v) {
+        byte[] bytes = v.toByteArray();
+        byte[] result = new byte[DataWord.SIZE];
+        int len = Math.min(bytes.length, DataWord.SIZE);
+        System.arraycopy(bytes, bytes.length - len, result, DataWord.SIZE - len, len);
+        return result;
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) [2018] [ The Semux Developers ]
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.vm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ethereum.vm.chainspec.ByzantiumSpec;
+import org.ethereum.vm.chainspec.ConstantinopleSpec;
+import org.ethereum.vm.chainspec.Spec;
+import org.ethereum.vm.client.BlockStore;
+import org.ethereum.vm.client.Repository;
+import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.ProgramResult;
+import org.ethereum.vm.program.invoke.ProgramInvoke;
+import org.ethereum.vm.program.invoke.ProgramInvokeImpl;
+import org.ethereum.vm.util.BytecodeCompiler;
+import org.junit.Test;
+
+/**
+ * Runs programs with and without pre-decoding, and checks that the outcome is
+ * exactly the same.
+ */
+public class PreDecodeTest {
+
+    private static final OpCode[] SIMPLE_OPS = { OpCode.ADD, OpCode.MUL, OpCode.SUB, OpCode.DIV, OpCode.SDIV,
+            OpCode.MOD, OpCode.SMOD, OpCode.ADDMOD, OpCode.MULMOD, OpCode.SIGNEXTEND, OpCode.LT, OpCode.GT,
+            OpCode.SLT, OpCode.SGT, OpCode.EQ, OpCode.ISZERO, OpCode.AND, OpCode.OR, OpCode.XOR, OpCode.NOT,
+            OpCode.BYTE, OpCode.SHL, OpCode.SHR, OpCode.SAR, OpCode.ADDRESS, OpCode.ORIGIN, OpCode.CALLER,
+            OpCode.CALLVALUE, OpCode.CALLDATALOAD, OpCode.CALLDATASIZE, OpCode.CODESIZE, OpCode.GASPRICE,
+            OpCode.RETURNDATASIZE, OpCode.COINBASE, OpCode.TIMESTAMP, OpCode.NUMBER, OpCode.DIFFICULTY,
+            OpCode.GASLIMIT, OpCode.POP, OpCode.PC, OpCode.MSIZE, OpCode.DUP1, OpCode.DUP2, OpCode.DUP5,
+            OpCode.DUP16, OpCode.SWAP1, OpCode.SWAP2, OpCode.SWAP7, OpCode.SWAP16 };
+
+    private static final OpCode[] OTHER_OPS = { OpCode.EXP, OpCode.GAS, OpCode.MLOAD, OpCode.MSTORE,
+            OpCode.MSTORE8, OpCode.SHA3, OpCode.SLOAD, OpCode.SSTORE, OpCode.CALLDATACOPY, OpCode.CODECOPY,
+            OpCode.LOG1, OpCode.STOP, OpCode.RETURN, OpCode.REVERT };
+
+    private final Random random = new Random(20200303L);
+
+    @Test
+    public void testSamples() {
+        String[] samples = {
+                "PUSH1 0x01 PUSH1 0x02 ADD PUSH1 0x00 MSTORE PUSH1 0x20 PUSH1 0x00 RETURN",
+                // loop until out of gas
+                "JUMPDEST PUSH1 0x01 PUSH1 0x02 ADD POP PUSH1 0x00 JUMP",
+                // stack underflow in the middle of a block
+                "PUSH1 0x01 PUSH1 0x02 ADD ADD ADD",
+                // stack overflow
+                "JUMPDEST PUSH1 0x01 PUSH1 0x00 JUMP",
+                // truncated push
+                "PUSH1 0x01 PUSH4 0x0102",
+                // jump into a block
+                "PUSH1 0x05 JUMP PUSH1 0x01 JUMPDEST PUSH1 0x02 PUSH1 0x00 MSTORE MSIZE PUSH1 0x00 RETURN",
+                // invalid instruction
+                "PUSH1 0x01 0xfe PUSH1 0x02" };
+        for (String sample : samples) {
+            byte[] code = BytecodeCompiler.compile(sample);
+            for (long gas : new long[] { 5, 20, 1_000_000 }) {
+                assertSameResult(code, gas, new ConstantinopleSpec());
+            }
+        }
+    }
+
+    @Test
+    public void testRandomPrograms() {
+        for (int i = 0; i < 3000; i++) {
+            byte[] code = randomProgram();
+            long gas = random.nextBoolean() ? 1 + random.nextInt(200) : 1 + random.nextInt(100_000);
+            assertSameResult(code, gas, i % 2 == 0 ? new ConstantinopleSpec() : new ByzantiumSpec());
+        }
+    }
+
+    private void assertSameResult(byte[] code, long gas, Spec spec) {
+        Program expected = run(code, gas, spec, false);
+        Program actual = run(code, gas, spec, true);
+        String msg = BytecodeCompiler.decompile(code) + " gas = " + gas;
+
+        ProgramResult r1 = expected.getResult();
+        ProgramResult r2 = actual.getResult();
+        assertEquals(msg, r1.getGasUsed(), r2.getGasUsed());
+        assertArrayEquals(msg, r1.getReturnData(), r2.getReturnData());
+        assertEquals(msg, r1.getException() == null ? null : r1.getException().getClass(),
+                r2.getException() == null ? null : r2.getException().getClass());
+        assertEquals(msg, r1.isRevert(), r2.isRevert());
+        assertEquals(msg, r1.getFutureRefund(), r2.getFutureRefund());
+        assertEquals(msg, r1.getLogs().size(), r2.getLogs().size());
+        assertEquals(msg, expected.getPC(), actual.getPC());
+        assertArrayEquals(msg, expected.getStack().toArray(), actual.getStack().toArray());
+        assertArrayEquals(msg, expected.getMemory(), actual.getMemory());
+    }
+
+    private Program run(byte[] code, long gas, Spec spec, boolean preDecode) {
+        Spec s = preDecode ? preDecode(spec) : spec;
+        Program program = new Program(code, invoke(gas), s);
+        new VM(s).play(program);
+        return program;
+    }
+
+    private static Spec preDecode(Spec spec) {
+        if (spec instanceof ConstantinopleSpec) {
+            return new ConstantinopleSpec() {
+                @Override
+                public boolean preDecode() {
+                    return true;
+                }
+            };
+        }
+        return new ByzantiumSpec() {
+            @Override
+            public boolean preDecode() {
+                return true;
+            }
+        };
+    }
+
+    private static ProgramInvoke invoke(long gas) {
+        return new ProgramInvokeImpl(DataWord.of(1), DataWord.of(2), DataWord.of(3), gas, DataWord.of(4),
+                DataWord.of(5), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }, DataWord.of(6), DataWord.of(7),
+                DataWord.of(8), DataWord.of(9), DataWord.of(10), DataWord.of(11), mock(Repository.class),
+                mock(Repository.class), mock(BlockStore.class), 0, false);
+    }
+
+    /**
+     * Generates a random program, mostly made of simple instructions with a few
+     * jumps between JUMPDESTs.
+     */
+    private byte[] randomProgram() {
+        int n = 1 + random.nextInt(60);
+        List<Integer> jumpdests = new ArrayList<>();
+        List<Integer> jumps = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        for (int i = 0; i < n; i++) {
+            int r = random.nextInt(100);
+            if (r < 30) {
+                int size = random.nextInt(4) == 0 ? 1 + random.nextInt(32) : 1;
+                out.write(OpCode.PUSH1.val() + size - 1);
+                for (int j = 0; j < size; j++) {
+                    out.write(random.nextInt(4) == 0 ? random.nextInt(256) : random.nextInt(40));
+                }
+            } else if (r < 75) {
+                out.write(SIMPLE_OPS[random.nextInt(SIMPLE_OPS.length)].val());
+            } else if (r < 83) {
+                jumpdests.add(out.size());
+                out.write(OpCode.JUMPDEST.val());
+            } else if (r < 90) {
+                // PUSH2 <target> JUMP(I)
+                jumps.add(out.size() + 1);
+                out.write(OpCode.PUSH2.val());
+                out.write(0);
+                out.write(0);
+                out.write(random.nextBoolean() ? OpCode.JUMP.val() : OpCode.JUMPI.val());
+            } else if (r < 98) {
+                out.write(OTHER_OPS[random.nextInt(OTHER_OPS.length)].val());
+            } else {
+                out.write(0xfe);
+            }
+        }
+
+        byte[] code = out.toByteArray();
+        for (int pos : jumps) {
+            int target = jumpdests.isEmpty() || random.nextInt(10) == 0 ? random.nextInt(code.length)
+                    : jumpdests.get(random.nextInt(jumpdests.size()));
+            code[pos] = (byte) (target >> 8);
+            code[pos + 1] = (byte) target;
+        }
+        return code;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) [2018] [ The Semux Developers ]
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.vm.program;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+public class MemoryTest {
+
+    @Test
+    public void testExtend() {
+        Memory memory = new Memory();
+        assertEquals(0, memory.size());
+
+        memory.extend(0, 1);
+        assertEquals(32, memory.size());
+
+        memory.extend(30, 3);
+        assertEquals(64, memory.size());
+
+        memory.extend(5000, 0);
+        assertEquals(64, memory.size());
+
+        memory.extend(5000, 1);
+        assertEquals(5024, memory.size());
+        assertTrue(memory.internalSize() >= memory.size());
+    }
+
+    @Test
+    public void testReadWrite() {
+        Random random = new Random(1);
+        Memory memory = new Memory();
+        byte[] shadow = new byte[64 * 1024];
+
+        for (int i = 0; i < 2000; i++) {
+            int address = random.nextInt(60 * 1024);
+            byte[] data = new byte[random.nextInt(3000)];
+            random.nextBytes(data);
+            int size = Math.min(data.length, shadow.length - address);
+
+            memory.write(address, data, size, false);
+            System.arraycopy(data, 0, shadow, address, size);
+
+            int from = random.nextInt(60 * 1024);
+            int len = Math.min(random.nextInt(3000), shadow.length - from);
+            assertArrayEquals(copy(shadow, from, len), memory.read(from, len));
+        }
+    }
+
+    @Test
+    public void testWriteLimited() {
+        Memory memory = new Memory();
+        memory.extend(0, 64);
+
+        byte[] data = new byte[40];
+        Arrays.fill(data, (byte) 1);
+        memory.write(48, data, data.length, true);
+
+        assertEquals(64, memory.size());
+        byte[] expected = new byte[64];
+        Arrays.fill(expected, 48, 64, (byte) 1);
+        assertArrayEquals(expected, memory.read(0, 64));
+
+        // beyond the end
+        memory.write(100, data, data.length, true);
+        assertEquals(64, memory.size());
+    }
+
+    @Test
+    public void testWords() {
+        Memory memory = new Memory();
+        DataWord word = DataWord.of("0102030405060708091011121314151617181920212223242526272829303132");
+
+        memory.writeWord(1, word);
+        assertEquals(64, memory.size());
+        assertEquals(word, memory.readWord(1));
+        assertEquals(DataWord.of(word.getData(), 0), memory.readWord(1));
+        assertEquals((byte) 0x01, memory.readByte(1));
+        assertEquals(DataWord.ZERO, memory.readWord(100));
+        assertEquals(160, memory.size());
+    }
+
+    @Test
+    public void testSlice() {
+        Memory memory = new Memory();
+        memory.write(10, new byte[] { 1, 2, 3 }, 3, false);
+
+        ByteBuffer slice = memory.slice(9, 5);
+        assertEquals(5, slice.remaining());
+        byte[] bytes = new byte[5];
+        slice.get(bytes);
+        assertArrayEquals(new byte[] { 0, 1, 2, 3, 0 }, bytes);
+        assertEquals(0, memory.slice(0, 0).remaining());
+    }
+
+    private static byte[] copy(byte[] src, int from, int len) {
+        byte[] dest = new byte[len];
+        System.arraycopy(src, from, dest, 0, len);
+        return dest;
+    }
+}
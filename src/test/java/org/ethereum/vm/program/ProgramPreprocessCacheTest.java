@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) [2018] [ The Semux Developers ]
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.vm.program;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ProgramPreprocessCacheTest {
+
+    private static byte[] randomCode(Random random) {
+        byte[] code = new byte[1000];
+        random.nextBytes(code);
+        return code;
+    }
+
+    @Test
+    public void testHit() {
+        ProgramPreprocessCache cache = new ProgramPreprocessCache(1024 * 1024);
+        byte[] code = randomCode(new Random(1));
+
+        ProgramPreprocess p = cache.get(code);
+        assertSame(p, cache.get(code));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // the same code read again hits the same entry
+        assertSame(p, cache.get(code.clone()));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+
+        // modifying the array afterwards doesn't change the cached entry
+        byte[] original = code.clone();
+        code[0] ^= 1;
+        assertNotSame(p, cache.get(code));
+        assertSame(p, cache.get(original));
+        assertEquals(2, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testPreDecode() {
+        ProgramPreprocessCache cache = new ProgramPreprocessCache(1024 * 1024);
+        // PUSH1 0x01 PUSH1 0x02 ADD
+        byte[] code = { 0x60, 0x01, 0x60, 0x02, 0x01 };
+
+        // the basic blocks are decoded only if required, and cached separately
+        ProgramPreprocess p = cache.get(code, false);
+        ProgramPreprocess decoded = cache.get(code, true);
+        assertNotSame(p, decoded);
+        assertNull(p.getBlock(0));
+        assertNotNull(decoded.getBlock(0));
+        assertSame(decoded, cache.get(code, true));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testEmptyCode() {
+        ProgramPreprocessCache cache = new ProgramPreprocessCache(1024 * 1024);
+
+        cache.get(new byte[0]);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void testEviction() {
+        Random random = new Random(2);
+        byte[] a = randomCode(random);
+        byte[] b = randomCode(random);
+        byte[] c = randomCode(random);
+
+        // room for two entries of about 2-3 kB each
+        long weight = 128 + a.length + ProgramPreprocess.compile(a).size();
+        ProgramPreprocessCache cache = new ProgramPreprocessCache(weight * 2 + weight / 2);
+
+        ProgramPreprocess pa = cache.get(a);
+        cache.get(b);
+        assertSame(pa, cache.get(a));
+
+        // b is the least recently used
+        cache.get(c);
+        assertEquals(2, cache.size());
+        assertSame(pa, cache.get(a));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+
+        cache.get(b);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+}
@@ -6,10 +6,14 @@
  */
 package org.semux.bench;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.logging.Logger;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.semux.Network;
 import org.semux.TestUtils;
 import org.semux.config.Config;
@@ -22,14 +26,22 @@ import org.semux.core.Blockchain;
 import org.semux.core.BlockchainImpl;
 import org.semux.core.Genesis;
 import org.semux.core.Transaction;
+import org.semux.core.TransactionExecutor;
 import org.semux.core.TransactionResult;
 import org.semux.core.TransactionType;
+import org.semux.core.Unit;
 import org.semux.crypto.Key;
 import org.semux.crypto.Key.Signature;
+import org.semux.db.Database;
+import org.semux.db.DatabaseFactory;
+import org.semux.db.DatabaseName;
 import org.semux.rules.TemporaryDatabaseRule;
 import org.semux.util.Bytes;
+import org.semux.util.ClosableIterator;
 import org.semux.util.MerkleUtil;
 import org.semux.util.TimeUtil;
+import org.semux.vm.client.SemuxBlock;
+import org.semux.vm.client.SemuxBlockStore;
 
 public class BlockchainPerformance {
     private static final Logger logger = Logger.getLogger(BlockchainPerformance.class.getName());
@@ -147,11 +159,159 @@ public class BlockchainPerformance {
         logger.info(String.format("Perf_addBlock: %s ms / %s blocks", t2 - t1, repeat));
     }
 
+    public static void testImportBlock() throws Throwable {
+        final int repeat = 100;
+        final int txsPerBlock = 500;
+
+        for (boolean batched : new boolean[] { false, true }) {
+            TemporaryDatabaseRule temporaryDbRule = new TemporaryDatabaseRule();
+            temporaryDbRule.before();
+            DatabaseFactory dbFactory = batched ? temporaryDbRule : new PerKeyDatabaseFactory(temporaryDbRule);
+            Blockchain blockchain = new BlockchainImpl(config, dbFactory);
+
+            Key from = new Key();
+            blockchain.getAccountState().adjustAvailable(from.toAddress(), Amount.of(1_000_000, Unit.SEM));
+
+            long total = 0;
+            for (int i = 0; i < repeat; i++) {
+                Block block = createTransferBlock(blockchain, from, txsPerBlock);
+
+                long t1 = System.nanoTime();
+                if (!blockchain.importBlock(block, false)) {
+                    throw new IllegalStateException("Failed to import block #" + block.getNumber());
+                }
+                total += System.nanoTime() - t1;
+            }
+            temporaryDbRule.after();
+
+            logger.info(String.format("Perf_importBlock_%s: %s ms / %s blocks of %s txs",
+                    batched ? "batched" : "perKey", total / 1_000_000, repeat, txsPerBlock));
+        }
+    }
+
+    /**
+     * Creates a block of transfers, with the results of executing them on top of
+     * the latest block.
+     */
+    private static Block createTransferBlock(Blockchain blockchain, Key from, int n) {
+        Block parent = blockchain.getLatestBlock();
+        long number = parent.getNumber() + 1;
+        long timestamp = Math.max(TimeUtil.currentTimeMillis(), parent.getTimestamp() + 1);
+        long nonce = blockchain.getAccountState().getAccount(from.toAddress()).getNonce();
+
+        List<Transaction> txs = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            txs.add(new Transaction(config.network(), TransactionType.TRANSFER, Bytes.random(20), Amount.of(1),
+                    config.spec().minTransactionFee(), nonce + i, timestamp, Bytes.EMPTY_BYTES).sign(from));
+        }
+        byte[] transactionsRoot = MerkleUtil.computeTransactionsRoot(txs);
+
+        BlockHeader draft = new BlockHeader(number, key.toAddress(), parent.getHash(), timestamp, transactionsRoot,
+                Bytes.EMPTY_HASH, Bytes.EMPTY_HASH, new byte[0]);
+        TransactionExecutor exec = new TransactionExecutor(config, new SemuxBlockStore(blockchain),
+                blockchain.isVMEnabled(), blockchain.isVotingPrecompiledUpgraded());
+        List<TransactionResult> results = exec.execute(txs, blockchain.getAccountState().track(),
+                blockchain.getDelegateState().track(), new SemuxBlock(draft, config.spec().maxBlockGasLimit()), 0);
+
+        BlockHeader header = new BlockHeader(number, key.toAddress(), parent.getHash(), timestamp, transactionsRoot,
+                MerkleUtil.computeResultsRoot(results), Bytes.EMPTY_HASH, new byte[0]);
+        return new Block(header, txs, results);
+    }
+
+    /**
+     * Database factory which writes batches key by key, as block import did
+     * before batching.
+     */
+    private static class PerKeyDatabaseFactory implements DatabaseFactory {
+        private final DatabaseFactory factory;
+        private final EnumMap<DatabaseName, Database> databases = new EnumMap<>(DatabaseName.class);
+
+        PerKeyDatabaseFactory(DatabaseFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public Database getDB(DatabaseName name) {
+            return databases.computeIfAbsent(name, k -> new PerKeyDatabase(factory.getDB(k)));
+        }
+
+        @Override
+        public void close() {
+            databases.clear();
+            factory.close();
+        }
+
+        @Override
+        public Path getDataDir() {
+            return factory.getDataDir();
+        }
+    }
+
+    private static class PerKeyDatabase implements Database {
+        private final Database db;
+
+        PerKeyDatabase(Database db) {
+            this.db = db;
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            return db.get(key);
+        }
+
+        @Override
+        public void put(byte[] key, byte[] value) {
+            db.put(key, value);
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            db.delete(key);
+        }
+
+        @Override
+        public void updateBatch(List<Pair<byte[], byte[]>> pairs) {
+            for (Pair<byte[], byte[]> p : pairs) {
+                if (p.getValue() == null) {
+                    db.delete(p.getLeft());
+                } else {
+                    db.put(p.getLeft(), p.getRight());
+                }
+            }
+        }
+
+        @Override
+        public ClosableIterator<Entry<byte[], byte[]>> iterator() {
+            return db.iterator();
+        }
+
+        @Override
+        public ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] prefix) {
+            return db.iterator(prefix);
+        }
+
+        @Override
+        public void close() {
+            db.close();
+        }
+
+        @Override
+        public void destroy() {
+            db.destroy();
+        }
+
+        @Override
+        public Path getDataDir() {
+            return db.getDataDir();
+        }
+    }
+
     public static void main(String[] args) throws Throwable {
         Block block = testBlockCreation();
         testBlockValidation(block);
         testTransactionValidation();
         testAddBlock();
+        testImportBlock();
 
         System.exit(0);
     }
@@ -7,18 +7,47 @@
 package org.semux.bench;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Logger;
 
 import org.semux.config.Config;
 import org.semux.config.Constants;
 import org.semux.config.MainnetConfig;
+import org.semux.config.UnitTestnetConfig;
+import org.semux.consensus.Vote;
+import org.semux.consensus.VoteType;
+import org.semux.core.Amount;
 import org.semux.core.Block;
+import org.semux.core.BlockHeader;
+import org.semux.core.BlockPart;
 import org.semux.core.Blockchain;
 import org.semux.core.BlockchainImpl;
+import org.semux.core.Transaction;
+import org.semux.core.TransactionResult;
+import org.semux.core.TransactionType;
+import org.semux.crypto.Key;
 import org.semux.db.LeveldbDatabase.LeveldbFactory;
+import org.semux.net.CompressionStats;
+import org.semux.net.Frame;
+import org.semux.net.SemuxMessageHandler;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
 import org.semux.net.msg.consensus.BlockMessage;
+import org.semux.net.msg.consensus.BlockPartsMessage;
+import org.semux.net.msg.consensus.NewHeightMessage;
+import org.semux.net.msg.consensus.VoteMessage;
+import org.semux.net.msg.p2p.PingMessage;
+import org.semux.net.msg.p2p.PongMessage;
+import org.semux.net.msg.p2p.TransactionMessage;
+import org.semux.util.Bytes;
+import org.semux.util.MerkleUtil;
+import org.semux.util.TimeUtil;
 import org.xerial.snappy.Snappy;
 
+import io.netty.channel.embedded.EmbeddedChannel;
+
 public class CompressPerformance {
 
     private static final Logger logger = Logger.getLogger(CompressPerformance.class.getName());
@@ -27,7 +56,124 @@ public class CompressPerformance {
         ALL_BLOCKS, BLOCKS_WITH_TX
     }
 
+    private static final int ROUNDS = 200;
+    private static final int VALIDATORS = 64;
+    private static final int TXS_PER_ROUND = 200;
+
     public static void main(String[] args) throws IOException {
+        testMessageMix();
+        testBlocks();
+    }
+
+    /**
+     * Sends the messages a validator exchanges in a round of consensus, a block of
+     * transactions being relayed and then synced, through the message handler.
+     * Compressing every message is compared with the adaptive compression.
+     */
+    public static void testMessageMix() {
+        Config config = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR);
+        List<Message> messages = createMessageMix(config);
+        long size = messages.stream().mapToLong(m -> m.getBody().length).sum();
+
+        CompressionStats always = null;
+        CompressionStats adaptive = null;
+        long[] resultAlways = null;
+        long[] resultAdaptive = null;
+        for (int round = 0; round < 2; round++) {
+            always = new CompressionStats() {
+                @Override
+                public boolean shouldCompress(MessageCode code, int size) {
+                    return true;
+                }
+            };
+            adaptive = new CompressionStats();
+            resultAlways = send(config, messages, always);
+            resultAdaptive = send(config, messages, adaptive);
+        }
+
+        logger.info("======================================");
+        logger.info("MESSAGE_MIX");
+        logger.info("======================================");
+        logger.info("# of messages    : " + messages.size());
+        logger.info("Raw size         : " + size + " bytes");
+        logger.info("Always compressed: " + resultAlways[0] + " bytes, " + resultAlways[1] / messages.size()
+                + " ns/msg");
+        logger.info("Adaptive         : " + resultAdaptive[0] + " bytes, " + resultAdaptive[1] / messages.size()
+                + " ns/msg");
+        logger.info("Always compressed, by code:\n" + always);
+        logger.info("Adaptive, by code:\n" + adaptive);
+    }
+
+    /**
+     * Encodes the messages into frames, returning the size of the frames and the
+     * time spent.
+     */
+    private static long[] send(Config config, List<Message> messages, CompressionStats stats) {
+        EmbeddedChannel channel = new EmbeddedChannel(new SemuxMessageHandler(config, stats));
+        long size = 0;
+        long t1 = System.nanoTime();
+        for (Message m : messages) {
+            channel.writeOutbound(m);
+            for (Frame frame; (frame = channel.readOutbound()) != null;) {
+                size += frame.getBodySize();
+                frame.release();
+            }
+        }
+        long t2 = System.nanoTime();
+
+        return new long[] { size, t2 - t1 };
+    }
+
+    private static List<Message> createMessageMix(Config config) {
+        List<Key> validators = new ArrayList<>();
+        for (int i = 0; i < VALIDATORS; i++) {
+            validators.add(new Key());
+        }
+        Key from = new Key();
+
+        List<Message> messages = new ArrayList<>();
+        for (int height = 1; height <= ROUNDS; height++) {
+            messages.add(new PingMessage());
+            messages.add(new PongMessage());
+            messages.add(new NewHeightMessage(height));
+
+            // the transactions, relayed one by one
+            List<Transaction> txs = new ArrayList<>();
+            for (int i = 0; i < TXS_PER_ROUND; i++) {
+                Transaction tx = new Transaction(config.network(), TransactionType.TRANSFER, Bytes.random(20),
+                        Amount.of(1), config.spec().minTransactionFee(), (long) height * TXS_PER_ROUND + i,
+                        TimeUtil.currentTimeMillis(), Bytes.EMPTY_BYTES).sign(from);
+                txs.add(tx);
+                messages.add(new TransactionMessage(tx));
+            }
+
+            // the votes of the validators, in both phases
+            byte[] blockHash = Bytes.random(32);
+            for (VoteType type : new VoteType[] { VoteType.VALIDATE, VoteType.PRECOMMIT }) {
+                for (Key validator : validators) {
+                    messages.add(new VoteMessage(Vote.newApprove(type, height, 0, blockHash).sign(validator)));
+                }
+            }
+
+            // the block, as synced by a peer
+            List<TransactionResult> results = new ArrayList<>();
+            txs.forEach(tx -> results.add(new TransactionResult()));
+            BlockHeader header = new BlockHeader(height, from.toAddress(), blockHash, TimeUtil.currentTimeMillis(),
+                    MerkleUtil.computeTransactionsRoot(txs), MerkleUtil.computeResultsRoot(results),
+                    Bytes.EMPTY_HASH, Bytes.EMPTY_BYTES);
+            Block block = new Block(header, txs, results);
+            messages.add(new BlockPartsMessage(height, BlockPart.encode(BlockPart.values()),
+                    Arrays.asList(block.getEncodedHeader(), block.getEncodedTransactions(),
+                            block.getEncodedResults(), block.getEncodedVotes())));
+        }
+
+        return messages;
+    }
+
+    /**
+     * Compresses the blocks of the local mainnet database.
+     */
+    public static void testBlocks() throws IOException {
         Config config = new MainnetConfig(Constants.DEFAULT_ROOT_DIR);
 
         LeveldbFactory dbFactory = new LeveldbFactory(config.chainDir());
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.semux.config.Config;
+import org.semux.config.Constants;
+import org.semux.config.UnitTestnetConfig;
+import org.semux.core.Amount;
+import org.semux.core.Block;
+import org.semux.core.BlockHeader;
+import org.semux.core.BlockPart;
+import org.semux.core.Transaction;
+import org.semux.core.TransactionResult;
+import org.semux.core.TransactionType;
+import org.semux.crypto.Key;
+import org.semux.net.SemuxFrameHandler;
+import org.semux.net.SemuxMessageHandler;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.consensus.BlockPartsMessage;
+import org.semux.util.Bytes;
+import org.semux.util.MerkleUtil;
+import org.semux.util.TimeUtil;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Measures the time and the heap allocated to deliver a block message, from
+ * its encoding into frames by the sender to its decoding by the receiver.
+ */
+public class FramePerformance {
+    private static final Logger logger = Logger.getLogger(FramePerformance.class.getName());
+
+    private static final int TXS_PER_BLOCK = 2_000;
+    private static final int REPEAT = 2_000;
+
+    private static final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+
+    public static void main(String[] args) {
+        Config config = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR);
+        Block block = createBlock(config);
+        Message msg = new BlockPartsMessage(block.getNumber(), BlockPart.encode(BlockPart.values()),
+                Arrays.asList(block.getEncodedHeader(), block.getEncodedTransactions(), block.getEncodedResults(),
+                        block.getEncodedVotes()));
+
+        EmbeddedChannel sender = new EmbeddedChannel(new SemuxFrameHandler(config), new SemuxMessageHandler(config));
+        EmbeddedChannel receiver = new EmbeddedChannel(new SemuxFrameHandler(config),
+                new SemuxMessageHandler(config));
+
+        // warm up, then measure
+        for (int round = 0; round < 2; round++) {
+            long threadId = Thread.currentThread().getId();
+            long a1 = threadMXBean.getThreadAllocatedBytes(threadId);
+            long t1 = System.nanoTime();
+            for (int i = 0; i < REPEAT; i++) {
+                sender.writeOutbound(msg);
+                for (ByteBuf buf; (buf = sender.readOutbound()) != null;) {
+                    receiver.writeInbound(buf);
+                }
+                Message received = receiver.readInbound();
+                if (received == null) {
+                    throw new IllegalStateException("Message not delivered");
+                }
+            }
+            long t2 = System.nanoTime();
+            long a2 = threadMXBean.getThreadAllocatedBytes(threadId);
+
+            if (round == 1) {
+                logger.info(String.format(
+                        "Perf_frame_blockMessage: body = %d bytes, time = %d us/msg, allocated = %d bytes/msg",
+                        msg.getBody().length, (t2 - t1) / REPEAT / 1_000, (a2 - a1) / REPEAT));
+            }
+        }
+
+        System.exit(0);
+    }
+
+    private static Block createBlock(Config config) {
+        Key from = new Key();
+        long timestamp = TimeUtil.currentTimeMillis();
+
+        List<Transaction> txs = new ArrayList<>();
+        List<TransactionResult> results = new ArrayList<>();
+        for (int i = 0; i < TXS_PER_BLOCK; i++) {
+            txs.add(new Transaction(config.network(), TransactionType.TRANSFER, Bytes.random(20), Amount.of(1),
+                    config.spec().minTransactionFee(), i, timestamp, Bytes.EMPTY_BYTES).sign(from));
+            results.add(new TransactionResult());
+        }
+
+        BlockHeader header = new BlockHeader(1, from.toAddress(), Bytes.EMPTY_HASH, timestamp,
+                MerkleUtil.computeTransactionsRoot(txs), MerkleUtil.computeResultsRoot(results), Bytes.EMPTY_HASH,
+                Bytes.EMPTY_BYTES);
+        return new Block(header, txs, results, 0, Collections.emptyList());
+    }
+}
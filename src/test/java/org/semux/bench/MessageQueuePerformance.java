@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import org.semux.config.Config;
+import org.semux.config.Constants;
+import org.semux.config.UnitTestnetConfig;
+import org.semux.net.SemuxChannelInitializer;
+import org.semux.net.SemuxFrameHandler;
+import org.semux.net.SemuxMessageHandler;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageQueue;
+import org.semux.net.msg.p2p.PingMessage;
+import org.semux.util.Bytes;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * Measures the latency and the throughput of the message queue, sending to a
+ * peer on the loopback interface. Each message carries the time it was queued
+ * at, the latency being the time until it's received by the peer.
+ */
+public class MessageQueuePerformance {
+    private static final Logger logger = Logger.getLogger(MessageQueuePerformance.class.getName());
+
+    private static final int LATENCY_MESSAGES = 2_000;
+    private static final int THROUGHPUT_MESSAGES = 200_000;
+
+    private static final AtomicLong received = new AtomicLong();
+    private static final AtomicReference<CountDownLatch> latch = new AtomicReference<>();
+    private static final long[] latencies = new long[LATENCY_MESSAGES];
+
+    public static void main(String[] args) throws Throwable {
+        Config config = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR);
+        EventLoopGroup group = new NioEventLoopGroup(2);
+
+        // the peer, recording the latency of each message
+        ServerBootstrap sb = new ServerBootstrap();
+        sb.group(group).channel(NioServerSocketChannel.class).childHandler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+                ch.pipeline().addLast(new SemuxFrameHandler(config), new SemuxMessageHandler(config),
+                        new SimpleChannelInboundHandler<Message>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, Message msg) {
+                                long latency = System.nanoTime() - new SimpleDecoder(msg.getBody()).readLong();
+                                long n = received.getAndIncrement();
+                                if (n < LATENCY_MESSAGES) {
+                                    latencies[(int) n] = latency;
+                                }
+                                latch.get().countDown();
+                            }
+                        });
+            }
+        });
+        Channel server = sb.bind("127.0.0.1", 0).sync().channel();
+
+        // the sender, bound to a message queue as the p2p handler does
+        MessageQueue queue = new MessageQueue(config);
+        Bootstrap b = new Bootstrap();
+        b.group(group).channel(NioSocketChannel.class).handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+                ch.config().setWriteBufferWaterMark(SemuxChannelInitializer.WRITE_BUFFER_WATER_MARK);
+                ch.pipeline().addLast(new SemuxFrameHandler(config), new SemuxMessageHandler(config),
+                        new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelActive(ChannelHandlerContext ctx) {
+                                queue.activate(ctx);
+                            }
+
+                            @Override
+                            public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+                                queue.nudgeQueue();
+                            }
+                        });
+            }
+        });
+        Channel client = b.connect(server.localAddress()).sync().channel();
+
+        // one message at a time
+        for (int i = 0; i < LATENCY_MESSAGES; i++) {
+            latch.set(new CountDownLatch(1));
+            queue.sendMessage(createMessage());
+            latch.get().await();
+        }
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        logger.info(String.format("Perf_messageQueue_latency: avg = %d us, p50 = %d us, p99 = %d us",
+                Arrays.stream(sorted).sum() / LATENCY_MESSAGES / 1_000, sorted[LATENCY_MESSAGES / 2] / 1_000,
+                sorted[LATENCY_MESSAGES * 99 / 100] / 1_000));
+
+        // as many messages as the queue takes
+        received.set(LATENCY_MESSAGES);
+        latch.set(new CountDownLatch(THROUGHPUT_MESSAGES));
+        int maxSize = config.netMaxMessageQueueSize() / 2;
+        long t1 = System.nanoTime();
+        for (int i = 0; i < THROUGHPUT_MESSAGES; i++) {
+            while (queue.size() >= maxSize) {
+                Thread.sleep(1);
+            }
+            queue.sendMessage(createMessage());
+        }
+        if (!latch.get().await(5, TimeUnit.MINUTES)) {
+            logger.severe("Messages lost");
+        }
+        long t2 = System.nanoTime();
+        logger.info(String.format("Perf_messageQueue_throughput: %d messages in %d ms = %d msg/s",
+                THROUGHPUT_MESSAGES, (t2 - t1) / 1_000_000, THROUGHPUT_MESSAGES * 1_000_000_000L / (t2 - t1)));
+
+        client.close().sync();
+        server.close().sync();
+        group.shutdownGracefully();
+
+        System.exit(0);
+    }
+
+    private static Message createMessage() {
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(System.nanoTime());
+        enc.writeBytes(Bytes.random(32));
+        return new PingMessage(enc.toBytes());
+    }
+}
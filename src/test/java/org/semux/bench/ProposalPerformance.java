@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.semux.TestUtils;
+import org.semux.config.Config;
+import org.semux.config.Constants;
+import org.semux.config.UnitTestnetConfig;
+import org.semux.consensus.CompactProposal;
+import org.semux.consensus.Proof;
+import org.semux.consensus.Proposal;
+import org.semux.core.Amount;
+import org.semux.core.Block;
+import org.semux.core.Transaction;
+import org.semux.core.TransactionResult;
+import org.semux.core.TransactionType;
+import org.semux.crypto.Key;
+import org.semux.net.msg.consensus.CompactProposalMessage;
+import org.semux.net.msg.consensus.ProposalMessage;
+import org.semux.util.Bytes;
+import org.semux.util.TimeUtil;
+
+/**
+ * Compares the full and the compact encodings of a proposal of
+ * <code>TXS_PER_BLOCK</code> transfers: the size of the message, and the time
+ * to decode it, rebuilding the compact one from a pool of <code>POOL_SIZE</code>
+ * transactions.
+ */
+public class ProposalPerformance {
+    private static final Logger logger = Logger.getLogger(ProposalPerformance.class.getName());
+
+    private static final int TXS_PER_BLOCK = 2_000;
+    private static final int POOL_SIZE = 20_000;
+    private static final int REPEAT = 100;
+
+    public static void main(String[] args) {
+        Config config = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR);
+        Key from = new Key();
+        long timestamp = TimeUtil.currentTimeMillis();
+
+        List<Transaction> pool = new ArrayList<>();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            pool.add(new Transaction(config.network(), TransactionType.TRANSFER, Bytes.random(20), Amount.of(1),
+                    config.spec().minTransactionFee(), i, timestamp, Bytes.EMPTY_BYTES).sign(from));
+        }
+        List<Transaction> txs = pool.subList(0, TXS_PER_BLOCK);
+        List<TransactionResult> results = new ArrayList<>();
+        for (int i = 0; i < TXS_PER_BLOCK; i++) {
+            results.add(new TransactionResult());
+        }
+        Block block = TestUtils.createBlock(1, txs, results);
+        Proposal proposal = new Proposal(new Proof(1, 0), block.getHeader(), txs).sign(new Key());
+
+        byte[] full = new ProposalMessage(proposal).getBody();
+        byte[] compact = new CompactProposalMessage(new CompactProposal(proposal)).getBody();
+
+        // warm up, then measure
+        long fullNanos = 0;
+        long compactNanos = 0;
+        for (int round = 0; round < 2; round++) {
+            long t1 = System.nanoTime();
+            for (int i = 0; i < REPEAT; i++) {
+                if (!new ProposalMessage(full).getProposal().validate()) {
+                    throw new IllegalStateException("Invalid proposal");
+                }
+            }
+            long t2 = System.nanoTime();
+            for (int i = 0; i < REPEAT; i++) {
+                CompactProposal p = new CompactProposalMessage(compact).getProposal();
+                Map<Long, Transaction> found = new HashMap<>();
+                for (Transaction tx : pool) {
+                    found.put(CompactProposal.shortId(tx.getHash()), tx);
+                }
+                p.fill(found);
+                if (!p.toProposal().validate()) {
+                    throw new IllegalStateException("Invalid proposal");
+                }
+            }
+            long t3 = System.nanoTime();
+
+            fullNanos = t2 - t1;
+            compactNanos = t3 - t2;
+        }
+
+        logger.info(String.format("Perf_proposal_full: size = %d bytes, decode = %d us", full.length,
+                fullNanos / REPEAT / 1_000));
+        logger.info(String.format("Perf_proposal_compact: size = %d bytes, decode and rebuild = %d us",
+                compact.length, compactNanos / REPEAT / 1_000));
+
+        System.exit(0);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.semux.core.Amount;
+import org.semux.core.state.AccountState;
+import org.semux.core.state.AccountStateImpl;
+import org.semux.core.state.DelegateState;
+import org.semux.core.state.DelegateStateImpl;
+import org.semux.core.state.StateTrie;
+import org.semux.db.BatchedDatabaseFactory;
+import org.semux.db.DatabaseName;
+import org.semux.rules.TemporaryDatabaseRule;
+import org.semux.util.Bytes;
+
+/**
+ * Measures the per-block overhead of maintaining the state trie: the state of
+ * <code>ACCOUNTS</code> accounts is updated by blocks touching
+ * <code>CHANGES_PER_BLOCK</code> of them, as blocks full of transfers do, and
+ * committed with and without the trie.
+ */
+public class StateRootPerformance {
+    private static final Logger logger = Logger.getLogger(StateRootPerformance.class.getName());
+
+    private static final int ACCOUNTS = 200_000;
+    private static final int BLOCKS = 200;
+    private static final int CHANGES_PER_BLOCK = 400;
+
+    public static void main(String[] args) throws Throwable {
+        List<byte[]> addresses = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            addresses.add(Bytes.random(20));
+        }
+
+        testCommit(addresses, false);
+        testCommit(addresses, true);
+
+        System.exit(0);
+    }
+
+    public static void testCommit(List<byte[]> addresses, boolean withTrie) throws Throwable {
+        TemporaryDatabaseRule temporaryDbRule = new TemporaryDatabaseRule();
+        temporaryDbRule.before();
+        BatchedDatabaseFactory dbFactory = new BatchedDatabaseFactory(temporaryDbRule, false);
+        StateTrie trie = withTrie ? new StateTrie(dbFactory.getDB(DatabaseName.STATE)) : null;
+        AccountStateImpl as = new AccountStateImpl(dbFactory.getDB(DatabaseName.ACCOUNT), 0);
+        DelegateStateImpl ds = new DelegateStateImpl(null, dbFactory.getDB(DatabaseName.DELEGATE),
+                dbFactory.getDB(DatabaseName.VOTE));
+
+        // the initial state
+        long t1 = System.nanoTime();
+        for (int i = 0; i < addresses.size(); i++) {
+            as.adjustAvailable(addresses.get(i), Amount.of(1_000_000));
+            if (i % 10_000 == 9_999) {
+                dbFactory.begin();
+                if (trie != null) {
+                    trie.update(as, ds);
+                }
+                as.commit();
+                dbFactory.commit();
+            }
+        }
+        long t2 = System.nanoTime();
+
+        // the blocks, each root being computed on the tracked state first, as done by
+        // the validation of a block, then committed in one batch as done by its import
+        long rootNanos = 0;
+        long commitNanos = 0;
+        for (int b = 0; b < BLOCKS; b++) {
+            AccountState asTrack = as.track();
+            DelegateState dsTrack = ds.track();
+            for (int i = 0; i < CHANGES_PER_BLOCK; i++) {
+                byte[] address = addresses.get((b * CHANGES_PER_BLOCK + i * 7919) % addresses.size());
+                asTrack.adjustAvailable(address, Amount.of(-1));
+                asTrack.increaseNonce(address);
+            }
+
+            long t3 = System.nanoTime();
+            if (trie != null) {
+                trie.getRoot(asTrack, dsTrack);
+            }
+            long t4 = System.nanoTime();
+            asTrack.commit();
+            dsTrack.commit();
+            dbFactory.begin();
+            if (trie != null) {
+                trie.update(as, ds);
+            }
+            as.commit();
+            ds.commit();
+            dbFactory.commit();
+            long t5 = System.nanoTime();
+
+            rootNanos += t4 - t3;
+            commitNanos += t5 - t4;
+        }
+        temporaryDbRule.after();
+
+        String name = withTrie ? "Perf_stateRoot_trie" : "Perf_stateRoot_noTrie";
+        logger.info(String.format("%s: initial state of %s accounts = %s ms", name, addresses.size(),
+                (t2 - t1) / 1_000_000));
+        logger.info(String.format("%s: %s blocks of %s changes, root = %s us/block, commit = %s us/block", name,
+                BLOCKS, CHANGES_PER_BLOCK, rootNanos / BLOCKS / 1_000, commitNanos / BLOCKS / 1_000));
+    }
+}
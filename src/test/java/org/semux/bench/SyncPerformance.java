@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.bench;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.semux.Kernel;
+import org.semux.config.Config;
+import org.semux.config.Constants;
+import org.semux.config.UnitTestnetConfig;
+import org.semux.consensus.SemuxSync;
+import org.semux.core.Amount;
+import org.semux.core.Block;
+import org.semux.core.BlockHeader;
+import org.semux.core.Blockchain;
+import org.semux.core.BlockchainImpl;
+import org.semux.core.Transaction;
+import org.semux.core.TransactionExecutor;
+import org.semux.core.TransactionResult;
+import org.semux.core.TransactionType;
+import org.semux.core.Unit;
+import org.semux.crypto.Key;
+import org.semux.net.Channel;
+import org.semux.net.ChannelManager;
+import org.semux.net.Peer;
+import org.semux.net.msg.MessageQueue;
+import org.semux.net.msg.consensus.BlockMessage;
+import org.semux.rules.TemporaryDatabaseRule;
+import org.semux.util.Bytes;
+import org.semux.util.MerkleUtil;
+import org.semux.util.TimeUtil;
+import org.semux.vm.client.SemuxBlock;
+import org.semux.vm.client.SemuxBlockStore;
+
+/**
+ * Measures the speed of syncing blocks full of transfers, as done by the normal
+ * node of the SyncingTest, but without the consensus and network in the loop:
+ * the blocks are handed to the sync manager as if they had been downloaded.
+ */
+public class SyncPerformance {
+    private static final Logger logger = Logger.getLogger(SyncPerformance.class.getName());
+
+    private static final Config config = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR);
+
+    private static final Key coinbase = new Key();
+    private static final Key from = new Key();
+
+    private static final int BLOCKS = 300;
+    private static final int TXS_PER_BLOCK = 200;
+
+    public static void main(String[] args) throws Throwable {
+        List<Block> blocks = createBlocks();
+
+        testImportBlock(blocks);
+        testSync(blocks);
+
+        System.exit(0);
+    }
+
+    /**
+     * Imports the blocks one after the other, validating each of them on the import
+     * thread.
+     */
+    public static void testImportBlock(List<Block> blocks) throws Throwable {
+        TemporaryDatabaseRule temporaryDbRule = new TemporaryDatabaseRule();
+        temporaryDbRule.before();
+        Blockchain chain = createChain(temporaryDbRule);
+
+        long t1 = System.nanoTime();
+        for (Block block : blocks) {
+            if (!chain.importBlock(copy(block), false)) {
+                throw new IllegalStateException("Failed to import block #" + block.getNumber());
+            }
+        }
+        long t2 = System.nanoTime();
+        temporaryDbRule.after();
+
+        report("Perf_sync_importBlock", t2 - t1);
+    }
+
+    /**
+     * Syncs the blocks through the sync manager, which validates them on a worker
+     * pool ahead of the import.
+     */
+    public static void testSync(List<Block> blocks) throws Throwable {
+        TemporaryDatabaseRule temporaryDbRule = new TemporaryDatabaseRule();
+        temporaryDbRule.before();
+        Blockchain chain = new BlockchainImpl(config, temporaryDbRule) {
+            @Override
+            public boolean validateBlockVotes(Block block) {
+                // the blocks are not voted
+                return true;
+            }
+        };
+        chain.getAccountState().adjustAvailable(from.toAddress(), Amount.of(1_000_000, Unit.SEM));
+
+        ChannelManager channelMgr = mock(ChannelManager.class);
+        when(channelMgr.getIdleChannels()).thenReturn(Collections.emptyList());
+        Kernel kernel = mock(Kernel.class);
+        when(kernel.getConfig()).thenReturn(config);
+        when(kernel.getBlockchain()).thenReturn(chain);
+        when(kernel.getChannelManager()).thenReturn(channelMgr);
+
+        Peer peer = mock(Peer.class);
+        when(peer.getPeerId()).thenReturn("peer");
+        Channel channel = mock(Channel.class);
+        when(channel.getRemotePeer()).thenReturn(peer);
+        when(channel.getRemoteAddress()).thenReturn(new InetSocketAddress("127.0.0.1", 5161));
+        when(channel.getMessageQueue()).thenReturn(mock(MessageQueue.class));
+
+        List<BlockMessage> messages = new ArrayList<>();
+        for (Block block : blocks) {
+            messages.add(new BlockMessage(copy(block)));
+        }
+
+        SemuxSync sync = new SemuxSync(kernel);
+        Thread thread = new Thread(() -> sync.start(blocks.size() + 1));
+
+        long t1 = System.nanoTime();
+        thread.start();
+        // wait for the queues to be set up
+        while (sync.getProgress().getTargetHeight() != blocks.size() + 1) {
+            Thread.yield();
+        }
+        for (BlockMessage msg : messages) {
+            sync.onMessage(channel, msg);
+        }
+        thread.join();
+        long t2 = System.nanoTime();
+
+        long imported = chain.getLatestBlockNumber();
+        temporaryDbRule.after();
+        if (imported != blocks.size()) {
+            throw new IllegalStateException("Only " + imported + " blocks were synced");
+        }
+
+        report("Perf_sync_semuxSync", t2 - t1);
+    }
+
+    private static void report(String name, long nanos) {
+        logger.info(String.format("%s: %s ms / %s blocks of %s txs, %s blocks/s", name, nanos / 1_000_000,
+                BLOCKS, TXS_PER_BLOCK, BLOCKS * 1_000_000_000L / nanos));
+    }
+
+    private static Blockchain createChain(TemporaryDatabaseRule temporaryDbRule) {
+        Blockchain chain = new BlockchainImpl(config, temporaryDbRule);
+        chain.getAccountState().adjustAvailable(from.toAddress(), Amount.of(1_000_000, Unit.SEM));
+        return chain;
+    }
+
+    /**
+     * Creates a chain of blocks, importing them into a scratch blockchain.
+     */
+    private static List<Block> createBlocks() throws Throwable {
+        TemporaryDatabaseRule temporaryDbRule = new TemporaryDatabaseRule();
+        temporaryDbRule.before();
+        Blockchain chain = createChain(temporaryDbRule);
+
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < BLOCKS; i++) {
+            Block block = createTransferBlock(chain);
+            if (!chain.importBlock(block, false)) {
+                throw new IllegalStateException("Failed to import block #" + block.getNumber());
+            }
+            blocks.add(block);
+        }
+        temporaryDbRule.after();
+
+        return blocks;
+    }
+
+    private static Block createTransferBlock(Blockchain chain) {
+        Block parent = chain.getLatestBlock();
+        long number = parent.getNumber() + 1;
+        long timestamp = Math.max(TimeUtil.currentTimeMillis(), parent.getTimestamp() + 1);
+        long nonce = chain.getAccountState().getAccount(from.toAddress()).getNonce();
+
+        List<Transaction> txs = new ArrayList<>();
+        for (int i = 0; i < TXS_PER_BLOCK; i++) {
+            txs.add(new Transaction(config.network(), TransactionType.TRANSFER, Bytes.random(20), Amount.of(1),
+                    config.spec().minTransactionFee(), nonce + i, timestamp, Bytes.EMPTY_BYTES).sign(from));
+        }
+        byte[] transactionsRoot = MerkleUtil.computeTransactionsRoot(txs);
+
+        BlockHeader draft = new BlockHeader(number, coinbase.toAddress(), parent.getHash(), timestamp,
+                transactionsRoot, Bytes.EMPTY_HASH, Bytes.EMPTY_HASH, new byte[0]);
+        TransactionExecutor exec = new TransactionExecutor(config, new SemuxBlockStore(chain), chain.isVMEnabled(),
+                chain.isVotingPrecompiledUpgraded());
+        List<TransactionResult> results = exec.execute(txs, chain.getAccountState().track(),
+                chain.getDelegateState().track(), new SemuxBlock(draft, config.spec().maxBlockGasLimit()), 0);
+
+        BlockHeader header = new BlockHeader(number, coinbase.toAddress(), parent.getHash(), timestamp,
+                transactionsRoot, MerkleUtil.computeResultsRoot(results), Bytes.EMPTY_HASH, new byte[0]);
+        return new Block(header, txs, results);
+    }
+
+    /**
+     * Decodes a fresh copy of the block, as received from the network.
+     */
+    private static Block copy(Block block) {
+        return Block.fromComponents(block.getEncodedHeader(), block.getEncodedTransactions(),
+                block.getEncodedResults(), block.getEncodedVotes());
+    }
+}
@@ -6,14 +6,20 @@
  */
 package org.semux.bench;
 
+import static org.ethereum.vm.util.BytecodeCompiler.compile;
 import static org.semux.core.Unit.SEM;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.logging.Logger;
 
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.chainspec.Spec;
 import org.semux.Network;
 import org.semux.config.Config;
 import org.semux.config.Constants;
@@ -25,14 +31,20 @@ import org.semux.core.Blockchain;
 import org.semux.core.BlockchainImpl;
 import org.semux.core.Fork;
 import org.semux.core.Transaction;
+import org.semux.core.TransactionExecutor;
 import org.semux.core.TransactionResult;
 import org.semux.core.TransactionType;
+import org.semux.core.state.AccountState;
+import org.semux.core.state.DelegateState;
 import org.semux.crypto.Hex;
 import org.semux.crypto.Key;
 import org.semux.rules.TemporaryDatabaseRule;
 import org.semux.util.Bytes;
 import org.semux.util.MerkleUtil;
 import org.semux.util.TimeUtil;
+import org.semux.vm.client.SemuxBlock;
+import org.semux.vm.client.SemuxBlockStore;
+import org.semux.vm.client.SemuxSpec;
 
 public class VMPerformance {
     private static final Logger logger = Logger.getLogger(VMPerformance.class.getName());
@@ -45,15 +57,177 @@ public class VMPerformance {
     };
     private static Key key = new Key();
 
+    // https://github.com/ensdomains/solsha1
+    private static final byte[] SHA1_CONTRACT = Hex.decode(
+            "60806040526004361061003b576000357c0100000000000000000000000000000000000000000000000000000000900480639c438a3d14610040575b600080fd5b34801561004c57600080fd5b50610055610057565b005b60606040805190810160405280600481526020017f7465737400000000000000000000000000000000000000000000000000000000815250905061009a8161009e565b5050565b60006040518251602084019350604067ffffffffffffffc0600183011601600982820310600181146100cf576100d6565b6040820191505b50776745230100efcdab890098badcfe001032547600c3d2e1f0610131565b60008090508383101561012a5782820151905082840393506020841015610129576001846020036101000a03198082169150505b5b9392505050565b60005b8281101561053f576101478482896100f5565b85526101578460208301896100f5565b60208601526040818503106001811461016f57610178565b60808286038701535b506040830381146001811461018c5761019c565b6008850260208701511760208701525b5060405b60808110156102285760408103860151603882038701511860208203870151600c830388015118187c010000000100000001000000010000000100000001000000010000000163800000008204167ffffffffefffffffefffffffefffffffefffffffefffffffefffffffefffffffe6002830216179050808288015250600c810190506101a0565b5060805b6101408110156102b557608081038601516070820387015118604082038701516018830388015118187c030000000300000003000000030000000300000003000000030000000363400000008204167ffffffffcfffffffcfffffffcfffffffcfffffffcfffffffcfffffffcfffffffc600483021617905080828801525060188101905061022c565b508160008060005b60508110156105115760148104600081146102ef5760018114610339576002811461037657600381146103d957610412565b6501000000000085046a01000000000000000000008604189350836f01000000000000000000000000000000860416935083650100000000008604189350635a8279999250610412565b6a010000000000000000000085046f01000000000000000000000000000000860418935083650100000000008604189350636ed9eba19250610412565b6a010000000000000000000085046f01000000000000000000000000000000860417935083650100000000008604169350836a010000000000000000000086046f01000000000000000000000000000000870416179350638f1bbcdc9250610412565b6a010000000000000000000085046f0100000000000000000000000000000086041893508365010000000000860418935063ca62c1d692505b50601f770800000000000000000000000000000000000000000000008504168063ffffffe073080000000000000000000000000000000000000087041617905080840190508063ffffffff86160190508083019050807c0100000000000000000000000000000000000000000000000000000000600484028c0151040190507401000000000000000000000000000000000000000081026501000000000086041794506a0100000000000000000000633fffffff6a040000000000000000000087041663c00000006604000000000000880416170277ffffffff00ffffffff000000000000ffffffff00ffffffff8616179450506001810190506102bd565b5077ffffffff00ffffffff00ffffffff00ffffffff00ffffffff838601169450505050604081019050610134565b506c0100000000000000000000000063ffffffff821667ffffffff000000006101008404166bffffffff0000000000000000620100008504166fffffffff000000000000000000000000630100000086041673ffffffff00000000000000000000000000000000640100000000870416171717170294505050505091905056fea165627a7a72305820484b77b412a7d3ae99d173d982683437598af94409d51f12c5d9c16a1f4119160029");
+
+    /**
+     * Compares the DataWord arithmetic with the BigInteger round trips it
+     * replaced.
+     */
+    public static void testDataWordArithmetic() {
+        Random random = new Random(1);
+        int n = 1024;
+        DataWord[] words = new DataWord[n];
+        for (int i = 0; i < n; i++) {
+            byte[] bytes = new byte[1 + random.nextInt(DataWord.SIZE)];
+            random.nextBytes(bytes);
+            words[i] = DataWord.of(bytes);
+        }
+
+        int repeat = 2_000;
+        for (int round = 0; round < 2; round++) {
+            long sink = 0;
+            long t1 = System.nanoTime();
+            for (int r = 0; r < repeat; r++) {
+                for (int i = 1; i < n; i++) {
+                    DataWord a = words[i - 1];
+                    DataWord b = words[i];
+                    sink += a.mul(b).add(a.sub(b)).div(b).mod(a).hashCode();
+                }
+            }
+            long t2 = System.nanoTime();
+            for (int r = 0; r < repeat; r++) {
+                for (int i = 1; i < n; i++) {
+                    BigInteger a = words[i - 1].value();
+                    BigInteger b = words[i].value();
+                    BigInteger v = a.multiply(b).and(DataWord.MAX_VALUE)
+                            .add(a.subtract(b).and(DataWord.MAX_VALUE)).and(DataWord.MAX_VALUE)
+                            .divide(b).mod(a);
+                    sink += DataWord.of(v).hashCode();
+                }
+            }
+            long t3 = System.nanoTime();
+
+            long ops = (long) repeat * (n - 1);
+            logger.info(String.format("DataWord: %s ns per mul/add/sub/div/mod, BigInteger: %s ns (%s)",
+                    (t2 - t1) / ops, (t3 - t2) / ops, sink));
+        }
+    }
+
+    /**
+     * Executes a contract which fills 64 KB of memory word by word, hashes it,
+     * copies the call data over it and returns a part of it.
+     */
+    public static void testMemory() throws Throwable {
+        TemporaryDatabaseRule temporaryDbRule = new TemporaryDatabaseRule();
+        temporaryDbRule.before();
+        Blockchain blockchain = new BlockchainImpl(config, temporaryDbRule);
+        AccountState as = blockchain.getAccountState();
+        DelegateState ds = blockchain.getDelegateState();
+
+        byte[] contractAddress = Bytes.random(20);
+        byte[] contractCode = compile("PUSH1 0x00 JUMPDEST DUP1 DUP1 MSTORE PUSH1 0x20 ADD "
+                + "DUP1 PUSH3 0x010000 GT PUSH1 0x02 JUMPI POP "
+                + "PUSH3 0x010000 PUSH1 0x00 SHA3 PUSH1 0x00 MSTORE "
+                + "PUSH3 0x010000 PUSH1 0x00 PUSH1 0x00 CALLDATACOPY "
+                + "PUSH2 0x1000 PUSH1 0x00 RETURN");
+        as.setCode(contractAddress, contractCode);
+        as.adjustAvailable(key.toAddress(), Amount.of(1_000_000L, SEM));
+
+        TransactionExecutor exec = new TransactionExecutor(config, new SemuxBlockStore(blockchain), true, true);
+        SemuxBlock block = new SemuxBlock(new BlockHeader(1, key.toAddress(), Bytes.EMPTY_HASH,
+                TimeUtil.currentTimeMillis(), Bytes.EMPTY_HASH, Bytes.EMPTY_HASH, Bytes.EMPTY_HASH, Bytes.EMPTY_BYTES),
+                config.spec().maxBlockGasLimit());
+
+        int repeat = 2_000;
+        for (int round = 0; round < 2; round++) {
+            long gasUsed = 0;
+            long t1 = System.nanoTime();
+            for (int i = 0; i < repeat; i++) {
+                Transaction tx = new Transaction(config.network(), TransactionType.CALL, contractAddress, Amount.ZERO,
+                        Amount.ZERO, as.getAccount(key.toAddress()).getNonce(), TimeUtil.currentTimeMillis(),
+                        Bytes.random(128), 1_000_000L, Amount.of(1)).sign(key);
+                TransactionResult result = exec.execute(tx, as.track(), ds.track(), block, 0);
+                if (!result.getCode().isSuccess()) {
+                    throw new IllegalStateException("Failed to execute: " + result);
+                }
+                gasUsed = result.getGasUsed();
+            }
+            long t2 = System.nanoTime();
+            logger.info(String.format("Memory: %s us per call, %s gas consumed per call",
+                    (t2 - t1) / repeat / 1000, gasUsed));
+        }
+        temporaryDbRule.after();
+    }
+
+    /**
+     * Runs the sha1 contract with and without pre-decoding, and checks the results
+     * are the same.
+     */
+    public static void testPreDecode() throws Throwable {
+        Config preDecodeConfig = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR) {
+            @Override
+            public Map<Fork, Long> manuallyActivatedForks() {
+                return Collections.singletonMap(Fork.VIRTUAL_MACHINE, 0L);
+            }
+
+            @Override
+            public Spec vmSpec() {
+                return new SemuxSpec() {
+                    @Override
+                    public boolean preDecode() {
+                        return true;
+                    }
+                };
+            }
+        };
+
+        int repeat = 1_000;
+        for (int round = 0; round < 2; round++) {
+            long t1 = System.nanoTime();
+            List<TransactionResult> expected = callSha1(config, repeat);
+            long t2 = System.nanoTime();
+            List<TransactionResult> actual = callSha1(preDecodeConfig, repeat);
+            long t3 = System.nanoTime();
+
+            for (int i = 0; i < repeat; i++) {
+                TransactionResult r1 = expected.get(i);
+                TransactionResult r2 = actual.get(i);
+                if (r1.getCode() != r2.getCode() || r1.getGasUsed() != r2.getGasUsed()
+                        || !Arrays.equals(r1.getReturnData(), r2.getReturnData())) {
+                    throw new IllegalStateException("Results differ: " + r1 + " vs " + r2);
+                }
+            }
+            logger.info(String.format("sha1: %s us per call, %s us with pre-decoding", (t2 - t1) / repeat / 1000,
+                    (t3 - t2) / repeat / 1000));
+        }
+    }
+
+    private static List<TransactionResult> callSha1(Config config, int repeat) throws Throwable {
+        TemporaryDatabaseRule temporaryDbRule = new TemporaryDatabaseRule();
+        temporaryDbRule.before();
+        Blockchain blockchain = new BlockchainImpl(config, temporaryDbRule);
+        AccountState as = blockchain.getAccountState();
+        DelegateState ds = blockchain.getDelegateState();
+
+        byte[] contractAddress = new byte[20];
+        as.setCode(contractAddress, SHA1_CONTRACT);
+        as.adjustAvailable(key.toAddress(), Amount.of(1_000_000L, SEM));
+
+        TransactionExecutor exec = new TransactionExecutor(config, new SemuxBlockStore(blockchain), true, true);
+        SemuxBlock block = new SemuxBlock(new BlockHeader(1, key.toAddress(), Bytes.EMPTY_HASH, 0L,
+                Bytes.EMPTY_HASH, Bytes.EMPTY_HASH, Bytes.EMPTY_HASH, Bytes.EMPTY_BYTES),
+                config.spec().maxBlockGasLimit());
+
+        List<TransactionResult> results = new ArrayList<>();
+        for (int i = 0; i < repeat; i++) {
+            byte[] data = Bytes.merge(Hex.decode0x("9c438a3d"), Bytes.of(i)); // sha1()
+            Transaction tx = new Transaction(config.network(), TransactionType.CALL, contractAddress, Amount.ZERO,
+                    Amount.ZERO, i, 0L, data, 100_000L, Amount.of(10)).sign(key);
+            results.add(exec.execute(tx, as.track(), ds.track(), block, 0));
+        }
+        temporaryDbRule.after();
+        return results;
+    }
+
     public static void main(String[] args) throws Throwable {
         TemporaryDatabaseRule temporaryDbRule = new TemporaryDatabaseRule();
         temporaryDbRule.before();
         Blockchain blockchain = new BlockchainImpl(config, temporaryDbRule);
 
-        // https://github.com/ensdomains/solsha1
         byte[] contractAddress = Bytes.random(20);
-        byte[] contractCode = Hex.decode(
-                "60806040526004361061003b576000357c0100000000000000000000000000000000000000000000000000000000900480639c438a3d14610040575b600080fd5b34801561004c57600080fd5b50610055610057565b005b60606040805190810160405280600481526020017f7465737400000000000000000000000000000000000000000000000000000000815250905061009a8161009e565b5050565b60006040518251602084019350604067ffffffffffffffc0600183011601600982820310600181146100cf576100d6565b6040820191505b50776745230100efcdab890098badcfe001032547600c3d2e1f0610131565b60008090508383101561012a5782820151905082840393506020841015610129576001846020036101000a03198082169150505b5b9392505050565b60005b8281101561053f576101478482896100f5565b85526101578460208301896100f5565b60208601526040818503106001811461016f57610178565b60808286038701535b506040830381146001811461018c5761019c565b6008850260208701511760208701525b5060405b60808110156102285760408103860151603882038701511860208203870151600c830388015118187c010000000100000001000000010000000100000001000000010000000163800000008204167ffffffffefffffffefffffffefffffffefffffffefffffffefffffffefffffffe6002830216179050808288015250600c810190506101a0565b5060805b6101408110156102b557608081038601516070820387015118604082038701516018830388015118187c030000000300000003000000030000000300000003000000030000000363400000008204167ffffffffcfffffffcfffffffcfffffffcfffffffcfffffffcfffffffcfffffffc600483021617905080828801525060188101905061022c565b508160008060005b60508110156105115760148104600081146102ef5760018114610339576002811461037657600381146103d957610412565b6501000000000085046a01000000000000000000008604189350836f01000000000000000000000000000000860416935083650100000000008604189350635a8279999250610412565b6a010000000000000000000085046f01000000000000000000000000000000860418935083650100000000008604189350636ed9eba19250610412565b6a010000000000000000000085046f01000000000000000000000000000000860417935083650100000000008604169350836a010000000000000000000086046f01000000000000000000000000000000870416179350638f1bbcdc9250610412565b6a010000000000000000000085046f0100000000000000000000000000000086041893508365010000000000860418935063ca62c1d692505b50601f770800000000000000000000000000000000000000000000008504168063ffffffe073080000000000000000000000000000000000000087041617905080840190508063ffffffff86160190508083019050807c0100000000000000000000000000000000000000000000000000000000600484028c0151040190507401000000000000000000000000000000000000000081026501000000000086041794506a0100000000000000000000633fffffff6a040000000000000000000087041663c00000006604000000000000880416170277ffffffff00ffffffff000000000000ffffffff00ffffffff8616179450506001810190506102bd565b5077ffffffff00ffffffff00ffffffff00ffffffff00ffffffff838601169450505050604081019050610134565b506c0100000000000000000000000063ffffffff821667ffffffff000000006101008404166bffffffff0000000000000000620100008504166fffffffff000000000000000000000000630100000086041673ffffffff00000000000000000000000000000000640100000000870416171717170294505050505091905056fea165627a7a72305820484b77b412a7d3ae99d173d982683437598af94409d51f12c5d9c16a1f4119160029");
+        byte[] contractCode = SHA1_CONTRACT;
         blockchain.getAccountState().setCode(contractAddress, contractCode);
         blockchain.getAccountState().adjustAvailable(key.toAddress(), Amount.of(1_000_000L, SEM));
 
@@ -110,5 +284,9 @@ public class VMPerformance {
         temporaryDbRule.after();
         logger.info(String.format("%s ms per block, %s gas consumed per block", (t2 - t1) / numBlocks, blockGasUsed));
         TimeUtil.shutdownNtpUpdater();
+
+        testDataWordArithmetic();
+        testMemory();
+        testPreDecode();
     }
 }
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.semux.TestUtils.createBlock;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import org.semux.Network;
+import org.semux.core.Amount;
+import org.semux.core.Block;
+import org.semux.core.Transaction;
+import org.semux.core.TransactionResult;
+import org.semux.core.TransactionType;
+import org.semux.crypto.Key;
+import org.semux.util.Bytes;
+import org.semux.util.TimeUtil;
+
+public class CompactProposalTest {
+
+    private final Key key = new Key();
+
+    private final List<Transaction> txs = IntStream.range(0, 4).mapToObj(this::createTransaction)
+            .collect(Collectors.toList());
+
+    private final Proposal proposal = createProposal(txs);
+
+    @Test
+    public void testCodec() {
+        CompactProposal p = CompactProposal.fromBytes(new CompactProposal(proposal).toBytes());
+
+        assertTrue(p.validate());
+        assertEquals(proposal.getHeight(), p.getHeight());
+        assertEquals(proposal.getView(), p.getView());
+        assertArrayEquals(proposal.getBlockHeader().getHash(), p.getBlockHeader().getHash());
+        assertArrayEquals(proposal.getSignature().toBytes(), p.getSignature().toBytes());
+        assertArrayEquals(txs.stream().mapToLong(tx -> CompactProposal.shortId(tx.getHash())).toArray(),
+                p.getShortIds());
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, p.getMissing());
+        assertFalse(p.isComplete());
+    }
+
+    @Test
+    public void testRebuild() {
+        CompactProposal p = CompactProposal.fromBytes(new CompactProposal(proposal).toBytes());
+
+        // found locally, but the second transaction
+        Map<Long, Transaction> found = new HashMap<>();
+        for (int i : new int[] { 0, 2, 3 }) {
+            found.put(CompactProposal.shortId(txs.get(i).getHash()), txs.get(i));
+        }
+        found.put(Bytes.toLong(Bytes.random(8)), createTransaction(9));
+        p.fill(found);
+        assertArrayEquals(new int[] { 1 }, p.getMissing());
+
+        // received from the peer
+        p.fill(new int[] { 1 }, Collections.singletonList(txs.get(1)));
+        assertTrue(p.isComplete());
+        assertTrue(p.toProposal().validate());
+        assertArrayEquals(proposal.toBytes(), p.toProposal().toBytes());
+    }
+
+    @Test
+    public void testWrongTransaction() {
+        CompactProposal p = CompactProposal.fromBytes(new CompactProposal(proposal).toBytes());
+
+        // a transaction taken for the one proposed breaks the signature
+        List<Transaction> wrong = IntStream.range(0, 4).mapToObj(i -> i == 2 ? createTransaction(9) : txs.get(i))
+                .collect(Collectors.toList());
+        p.fill(new int[] { 0, 1, 2, 3 }, wrong);
+        assertTrue(p.isComplete());
+        assertFalse(p.toProposal().validate());
+
+        p.fill(new int[] { 2 }, Collections.singletonList(txs.get(2)));
+        assertTrue(p.toProposal().validate());
+    }
+
+    private Proposal createProposal(List<Transaction> txs) {
+        List<TransactionResult> results = txs.stream().map(tx -> new TransactionResult())
+                .collect(Collectors.toList());
+        Block block = createBlock(1, txs, results);
+        return new Proposal(new Proof(1, 0), block.getHeader(), txs).sign(new Key());
+    }
+
+    private Transaction createTransaction(int nonce) {
+        return new Transaction(Network.DEVNET, TransactionType.TRANSFER, Bytes.random(20), Amount.of(1),
+                Amount.of(5_000_000L), nonce, TimeUtil.currentTimeMillis(), Bytes.EMPTY_BYTES).sign(key);
+    }
+}
@@ -10,25 +10,36 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.semux.core.Fork.UNIFORM_DISTRIBUTION;
 import static org.semux.core.Unit.SEM;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.semux.TestUtils;
 import org.semux.config.Constants;
 import org.semux.config.MainnetConfig;
@@ -41,8 +52,15 @@ import org.semux.core.Transaction;
 import org.semux.core.TransactionResult;
 import org.semux.core.TransactionType;
 import org.semux.crypto.Key;
+import org.semux.net.Channel;
+import org.semux.net.Peer;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageQueue;
+import org.semux.net.msg.consensus.GetProposalTransactionsMessage;
+import org.semux.net.msg.consensus.ProposalTransactionsMessage;
 import org.semux.rules.KernelRule;
 import org.semux.rules.TemporaryDatabaseRule;
+import org.semux.util.ByteArray;
 import org.semux.util.Bytes;
 import org.semux.util.TimeUtil;
 
@@ -259,6 +277,226 @@ public class SemuxBftTest {
         assertEquals(timestamp + 1, block.getTimestamp());
     }
 
+    @Test
+    public void testCompactProposal() {
+        kernelRule.getKernel().setBlockchain(new BlockchainImpl(kernelRule.getKernel().getConfig(), temporaryDBRule));
+
+        Key from = new Key();
+        long time = TimeUtil.currentTimeMillis();
+        List<Transaction> txs = IntStream.range(0, 3).mapToObj(i -> createTransaction(new Key(), from, time, i))
+                .collect(Collectors.toList());
+        Block block = TestUtils.createBlock(1, txs,
+                txs.stream().map(tx -> new TransactionResult()).collect(Collectors.toList()));
+        Proposal proposal = new Proposal(new Proof(1, 0), block.getHeader(), txs).sign(new Key());
+
+        // the receiver has all the transactions but one
+        SemuxBft bft = spy(new SemuxBft(kernelRule.getKernel()));
+        bft.height = 1;
+        bft.view = 0;
+        bft.pendingMgr = mock(PendingManager.class);
+        mockKnownTransactions(bft.pendingMgr, Arrays.asList(txs.get(0), txs.get(2)));
+        doReturn(true).when(bft).isPrimary(anyLong(), anyInt(), anyString());
+        doNothing().when(bft).onProposal(any());
+        Channel channel = mock(Channel.class);
+        MessageQueue queue = mock(MessageQueue.class);
+        when(channel.getMessageQueue()).thenReturn(queue);
+
+        // the missing transaction is requested
+        bft.onCompactProposal(Pair.of(channel, CompactProposal.fromBytes(new CompactProposal(proposal).toBytes())));
+        ArgumentCaptor<Message> request = ArgumentCaptor.forClass(Message.class);
+        verify(queue).sendMessage(request.capture());
+        assertArrayEquals(new int[] { 1 }, ((GetProposalTransactionsMessage) request.getValue()).getIndices());
+
+        // and served by the sender
+        SemuxBft sender = new SemuxBft(kernelRule.getKernel());
+        sender.status = SemuxBft.Status.RUNNING;
+        sender.sentProposals.put(ByteArray.of(block.getHash()), proposal);
+        Channel senderChannel = mock(Channel.class);
+        MessageQueue senderQueue = mock(MessageQueue.class);
+        when(senderChannel.getMessageQueue()).thenReturn(senderQueue);
+        sender.onMessage(senderChannel, new GetProposalTransactionsMessage(request.getValue().getBody()));
+        ArgumentCaptor<Message> response = ArgumentCaptor.forClass(Message.class);
+        verify(senderQueue).sendMessage(response.capture());
+
+        // then the proposal is rebuilt
+        bft.onProposalTransactions(
+                Pair.of(channel, new ProposalTransactionsMessage(response.getValue().getBody())));
+        ArgumentCaptor<Proposal> rebuilt = ArgumentCaptor.forClass(Proposal.class);
+        verify(bft).onProposal(rebuilt.capture());
+        assertTrue(rebuilt.getValue().validate());
+        assertArrayEquals(proposal.toBytes(), rebuilt.getValue().toBytes());
+    }
+
+    @Test
+    public void testCompactProposalForged() {
+        kernelRule.getKernel().setBlockchain(new BlockchainImpl(kernelRule.getKernel().getConfig(), temporaryDBRule));
+
+        Key from = new Key();
+        long time = TimeUtil.currentTimeMillis();
+        List<Transaction> txs = IntStream.range(0, 3).mapToObj(i -> createTransaction(new Key(), from, time, i))
+                .collect(Collectors.toList());
+        Block block = TestUtils.createBlock(1, txs,
+                txs.stream().map(tx -> new TransactionResult()).collect(Collectors.toList()));
+        Proposal proposal = new Proposal(new Proof(1, 0), block.getHeader(), txs).sign(new Key());
+
+        // forged proposals, of another block and of the same block with other
+        // transactions
+        List<Transaction> forgedTxs = IntStream.range(3, 6).mapToObj(i -> createTransaction(new Key(), from, time, i))
+                .collect(Collectors.toList());
+        Block otherBlock = TestUtils.createBlock(1, forgedTxs.subList(0, 1),
+                Collections.singletonList(new TransactionResult()));
+        Proposal otherProposal = new Proposal(new Proof(1, 0), otherBlock.getHeader(), forgedTxs.subList(0, 1))
+                .sign(new Key());
+        Proposal forgedProposal = new Proposal(new Proof(1, 0), block.getHeader(), forgedTxs).sign(new Key());
+
+        SemuxBft bft = createCompactProposalBft(Arrays.asList(txs.get(0), txs.get(2)));
+        Channel channel = mockChannel();
+        Channel forger = mockChannel();
+
+        // the forged proposals don't replace the one being rebuilt
+        bft.onCompactProposal(Pair.of(channel, toCompact(proposal)));
+        bft.onCompactProposal(Pair.of(forger, toCompact(forgedProposal)));
+        bft.onCompactProposal(Pair.of(forger, toCompact(otherProposal)));
+        assertEquals(2, bft.compactProposals.size());
+        verify(channel.getMessageQueue()).sendMessage(any(GetProposalTransactionsMessage.class));
+        verify(forger.getMessageQueue()).sendMessage(any(GetProposalTransactionsMessage.class));
+
+        // which is rebuilt from the transactions of the sender
+        bft.onProposalTransactions(Pair.of(channel,
+                new ProposalTransactionsMessage(block.getHash(), new int[] { 1 }, txs.subList(1, 2))));
+        ArgumentCaptor<Proposal> rebuilt = ArgumentCaptor.forClass(Proposal.class);
+        verify(bft).onProposal(rebuilt.capture());
+        assertArrayEquals(proposal.toBytes(), rebuilt.getValue().toBytes());
+        assertFalse(bft.compactProposals.containsKey(ByteArray.of(block.getHash())));
+    }
+
+    @Test
+    public void testCompactProposalFlood() {
+        kernelRule.getKernel().setBlockchain(new BlockchainImpl(kernelRule.getKernel().getConfig(), temporaryDBRule));
+
+        Key from = new Key();
+        long time = TimeUtil.currentTimeMillis();
+        List<Proposal> forged = IntStream.range(0, 9).mapToObj(i -> {
+            List<Transaction> txs = Collections.singletonList(createTransaction(new Key(), from, time, i));
+            Block block = TestUtils.createBlock(1, txs, Collections.singletonList(new TransactionResult()));
+            return new Proposal(new Proof(1, 0), block.getHeader(), txs).sign(new Key());
+        }).collect(Collectors.toList());
+
+        SemuxBft bft = createCompactProposalBft(Collections.emptyList());
+
+        // a peer starts a single rebuild per view
+        Channel forger = mockChannel();
+        for (Proposal p : forged) {
+            bft.onCompactProposal(Pair.of(forger, toCompact(p)));
+        }
+        assertEquals(1, bft.compactProposals.size());
+
+        // once full, the rebuilds unanswered give way to the ones of other peers
+        List<Channel> forgers = IntStream.range(0, 8).mapToObj(i -> mockChannel()).collect(Collectors.toList());
+        for (int i = 1; i < 8; i++) {
+            bft.onCompactProposal(Pair.of(forgers.get(i), toCompact(forged.get(i))));
+        }
+        assertEquals(8, bft.compactProposals.size());
+        bft.compactProposals.get(ByteArray.of(forged.get(1).getBlockHeader().getHash())).isAnswered = true;
+        bft.compactProposals.get(ByteArray.of(forged.get(0).getBlockHeader().getHash())).requestTime -= 1_000L;
+
+        Channel channel = mockChannel();
+        bft.onCompactProposal(Pair.of(channel, toCompact(forged.get(8))));
+        assertEquals(8, bft.compactProposals.size());
+        assertFalse(bft.compactProposals.containsKey(ByteArray.of(forged.get(0).getBlockHeader().getHash())));
+        assertTrue(bft.compactProposals.containsKey(ByteArray.of(forged.get(1).getBlockHeader().getHash())));
+        assertTrue(bft.compactProposals.containsKey(ByteArray.of(forged.get(8).getBlockHeader().getHash())));
+        verify(channel.getMessageQueue()).sendMessage(any(GetProposalTransactionsMessage.class));
+    }
+
+    @Test
+    public void testCompactProposalTimeout() {
+        kernelRule.getKernel().setBlockchain(new BlockchainImpl(kernelRule.getKernel().getConfig(), temporaryDBRule));
+
+        Key from = new Key();
+        long time = TimeUtil.currentTimeMillis();
+        List<Transaction> txs = IntStream.range(0, 3).mapToObj(i -> createTransaction(new Key(), from, time, i))
+                .collect(Collectors.toList());
+        Block block = TestUtils.createBlock(1, txs,
+                txs.stream().map(tx -> new TransactionResult()).collect(Collectors.toList()));
+        Proposal proposal = new Proposal(new Proof(1, 0), block.getHeader(), txs).sign(new Key());
+
+        SemuxBft bft = createCompactProposalBft(Arrays.asList(txs.get(0), txs.get(2)));
+        Channel first = mockChannel();
+        Channel second = mockChannel();
+
+        // the same proposal is relayed by two peers
+        bft.onCompactProposal(Pair.of(first, toCompact(proposal)));
+        bft.onCompactProposal(Pair.of(second, toCompact(proposal)));
+        verify(first.getMessageQueue()).sendMessage(any(GetProposalTransactionsMessage.class));
+        verify(second.getMessageQueue(), never()).sendMessage(any());
+
+        // not before the timeout
+        bft.onCompactProposalTimeout();
+        verify(second.getMessageQueue(), never()).sendMessage(any());
+
+        // the first one doesn't answer, the missing transaction is requested from
+        // the second one
+        bft.compactProposals.get(ByteArray.of(block.getHash())).requestTime -= 10_000L;
+        bft.onCompactProposalTimeout();
+        ArgumentCaptor<Message> request = ArgumentCaptor.forClass(Message.class);
+        verify(second.getMessageQueue()).sendMessage(request.capture());
+        assertArrayEquals(new int[] { 1 }, ((GetProposalTransactionsMessage) request.getValue()).getIndices());
+
+        // a late answer of the first one is ignored
+        bft.onProposalTransactions(Pair.of(first,
+                new ProposalTransactionsMessage(block.getHash(), new int[] { 1 }, txs.subList(1, 2))));
+        verify(bft, never()).onProposal(any());
+
+        // the second one doesn't answer either, all the transactions are requested
+        bft.compactProposals.get(ByteArray.of(block.getHash())).requestTime -= 10_000L;
+        bft.onCompactProposalTimeout();
+        verify(second.getMessageQueue(), times(2)).sendMessage(request.capture());
+        assertArrayEquals(new int[] { 0, 1, 2 }, ((GetProposalTransactionsMessage) request.getValue()).getIndices());
+
+        // and the proposal is rebuilt
+        bft.onProposalTransactions(Pair.of(second,
+                new ProposalTransactionsMessage(block.getHash(), new int[] { 0, 1, 2 }, txs)));
+        ArgumentCaptor<Proposal> rebuilt = ArgumentCaptor.forClass(Proposal.class);
+        verify(bft).onProposal(rebuilt.capture());
+        assertArrayEquals(proposal.toBytes(), rebuilt.getValue().toBytes());
+        assertTrue(bft.compactProposals.isEmpty());
+    }
+
+    private SemuxBft createCompactProposalBft(List<Transaction> knownTxs) {
+        SemuxBft bft = spy(new SemuxBft(kernelRule.getKernel()));
+        bft.height = 1;
+        bft.view = 0;
+        bft.pendingMgr = mock(PendingManager.class);
+        mockKnownTransactions(bft.pendingMgr, knownTxs);
+        doReturn(true).when(bft).isPrimary(anyLong(), anyInt(), anyString());
+        doNothing().when(bft).onProposal(any());
+        return bft;
+    }
+
+    private void mockKnownTransactions(PendingManager pendingMgr, List<Transaction> txs) {
+        when(pendingMgr.getTransactionsByShortId(any())).thenAnswer(invocation -> {
+            Map<Long, Transaction> found = new HashMap<>();
+            for (long id : invocation.<long[]>getArgument(0)) {
+                txs.stream().filter(tx -> CompactProposal.shortId(tx.getHash()) == id).findAny()
+                        .ifPresent(tx -> found.put(id, tx));
+            }
+            return found;
+        });
+    }
+
+    private CompactProposal toCompact(Proposal proposal) {
+        return CompactProposal.fromBytes(new CompactProposal(proposal).toBytes());
+    }
+
+    private Channel mockChannel() {
+        Channel channel = mock(Channel.class);
+        MessageQueue queue = mock(MessageQueue.class);
+        when(channel.getMessageQueue()).thenReturn(queue);
+        when(channel.getRemotePeer()).thenReturn(mock(Peer.class));
+        return channel;
+    }
+
     private Transaction createTransaction(Key to, Key from, long time, long nonce) {
         return new Transaction(
                 kernelRule.getKernel().getConfig().network(),
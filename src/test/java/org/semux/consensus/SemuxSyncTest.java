@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * <p>Distributed under the MIT software license, see the accompanying file LICENSE or
+ * https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.semux.Kernel;
+import org.semux.TestUtils;
+import org.semux.config.Config;
+import org.semux.config.Constants;
+import org.semux.config.UnitTestnetConfig;
+import org.semux.core.Amount;
+import org.semux.core.Block;
+import org.semux.core.BlockHeader;
+import org.semux.core.BlockPart;
+import org.semux.core.Blockchain;
+import org.semux.core.Transaction;
+import org.semux.core.TransactionResult;
+import org.semux.crypto.Key;
+import org.semux.net.Capability;
+import org.semux.net.Channel;
+import org.semux.net.ChannelManager;
+import org.semux.net.Peer;
+import org.semux.net.msg.ReasonCode;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageQueue;
+import org.semux.net.msg.consensus.BlockMessage;
+import org.semux.net.msg.consensus.BlockPartsRangeMessage;
+import org.semux.net.msg.consensus.GetBlockPartsRangeMessage;
+
+public class SemuxSyncTest {
+
+  private final Config config = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR);
+
+  private final List<Block> imported = Collections.synchronizedList(new ArrayList<>());
+  private final AtomicLong latest = new AtomicLong(0);
+  private final AtomicInteger peers = new AtomicInteger(0);
+
+  @Test
+  public void testPipeline() throws InterruptedException {
+    int n = 500;
+    List<Block> blocks = createBlocks(n);
+
+    // a block with a wrong transactions root
+    Block good = blocks.get(99);
+    BlockHeader h = good.getHeader();
+    Block bad =
+        new Block(
+            new BlockHeader(
+                h.getNumber(),
+                h.getCoinbase(),
+                h.getParentHash(),
+                h.getTimestamp(),
+                new byte[32],
+                h.getResultsRoot(),
+                h.getStateRoot(),
+                h.getData()),
+            good.getTransactions(),
+            good.getResults());
+
+    SemuxSync sync = new SemuxSync(mockKernel(config));
+    Thread t = new Thread(() -> sync.start(n + 1));
+    t.start();
+    await().until(sync::isRunning);
+
+    Channel channel = mockChannel(0);
+    sync.onMessage(channel, new BlockMessage(bad));
+    TimeUnit.MILLISECONDS.sleep(200);
+    List<Block> shuffled = new ArrayList<>(blocks);
+    Collections.shuffle(shuffled, new Random(1));
+    for (Block block : shuffled) {
+      sync.onMessage(channel, new BlockMessage(block));
+    }
+
+    t.join(TimeUnit.SECONDS.toMillis(30));
+    assertEquals(n, imported.size());
+    for (int i = 0; i < n; i++) {
+      assertArrayEquals(blocks.get(i).getHash(), imported.get(i).getHash());
+    }
+  }
+
+  @Test
+  public void testSkeletonSync() throws InterruptedException {
+    int n = 500;
+    List<Block> blocks = createBlocks(n);
+
+    Config config = spy(this.config);
+    when(config.syncSkeletonSync()).thenReturn(true);
+    Kernel kernel = mockKernel(config);
+    SemuxSync sync = new SemuxSync(kernel);
+
+    // a peer answering the range requests
+    List<Message> requests = Collections.synchronizedList(new ArrayList<>());
+    ExecutorService peer = Executors.newSingleThreadExecutor();
+    Channel channel =
+        mockChannel(
+            n,
+            Capability.SEMUX.name(),
+            Capability.FAST_SYNC.name(),
+            Capability.SKELETON_SYNC.name());
+    MessageQueue queue = channel.getMessageQueue();
+    ChannelManager channelMgr = kernel.getChannelManager();
+    doAnswer(
+            invocation -> {
+              Message msg = invocation.getArgument(0);
+              requests.add(msg);
+              if (msg instanceof GetBlockPartsRangeMessage) {
+                GetBlockPartsRangeMessage m = (GetBlockPartsRangeMessage) msg;
+                List<List<byte[]>> data = new ArrayList<>();
+                for (long i = m.getNumber(); i < m.getNumber() + m.getCount() && i <= n; i++) {
+                  Block block = blocks.get((int) i - 1);
+                  List<byte[]> parts = new ArrayList<>();
+                  for (BlockPart part : BlockPart.decode(m.getParts())) {
+                    parts.add(
+                        part == BlockPart.HEADER
+                            ? block.getEncodedHeader()
+                            : part == BlockPart.TRANSACTIONS
+                                ? block.getEncodedTransactions()
+                                : block.getEncodedVotes());
+                  }
+                  data.add(parts);
+                }
+                BlockPartsRangeMessage response =
+                    new BlockPartsRangeMessage(m.getNumber(), m.getParts(), data);
+                peer.execute(() -> sync.onMessage(channel, response));
+              }
+              return true;
+            })
+        .when(queue)
+        .sendMessage(any());
+    when(channelMgr.getIdleChannels()).thenReturn(Collections.singletonList(channel));
+
+    Thread t = new Thread(() -> sync.start(n + 1));
+    t.start();
+    t.join(TimeUnit.SECONDS.toMillis(30));
+    peer.shutdown();
+
+    assertEquals(n, imported.size());
+    for (int i = 0; i < n; i++) {
+      assertArrayEquals(blocks.get(i).getHash(), imported.get(i).getHash());
+    }
+
+    // the headers, and then the bodies, by range
+    assertTrue(requests.stream().allMatch(m -> m instanceof GetBlockPartsRangeMessage));
+    GetBlockPartsRangeMessage first = (GetBlockPartsRangeMessage) requests.get(0);
+    assertEquals(BlockPart.encode(BlockPart.HEADER), first.getParts());
+    assertEquals(n, first.getCount());
+    assertTrue(requests.size() < n / 10);
+  }
+
+  @Test
+  public void testSkeletonMismatchBody() {
+    List<Block> blocks = createBlocks(3);
+    Config config = spy(this.config);
+    when(config.syncDisconnectOnInvalidBlock()).thenReturn(true);
+    SemuxSync sync = createSkeletonSync(config);
+    Channel headerChannel = mockChannel(3);
+    Channel bodyChannel = mockChannel(3);
+    Channel otherChannel = mockChannel(3);
+
+    // a body not matching the header received from another peer
+    sync.addHeaders(1, encodeHeaders(blocks, 0), headerChannel);
+    Block good = blocks.get(1);
+    Block bad =
+        new Block(good.getHeader(), blocks.get(2).getTransactions(), blocks.get(2).getResults());
+    sync.handleInvalidBlock(bad, bodyChannel);
+    verify(headerChannel.getMessageQueue(), never()).disconnect(any());
+    verify(bodyChannel.getMessageQueue(), never()).disconnect(any());
+
+    // the same header from a third peer puts the blame on the body
+    sync.addHeaders(2, encodeHeaders(blocks, 1), otherChannel);
+    verify(headerChannel.getMessageQueue(), never()).disconnect(any());
+    verify(bodyChannel.getMessageQueue()).disconnect(ReasonCode.BAD_PEER);
+  }
+
+  @Test
+  public void testSkeletonMismatchHeader() {
+    List<Block> blocks = createBlocks(3);
+    Config config = spy(this.config);
+    when(config.syncDisconnectOnInvalidBlock()).thenReturn(true);
+    SemuxSync sync = createSkeletonSync(config);
+    Channel headerChannel = mockChannel(3);
+    Channel bodyChannel = mockChannel(3);
+    Channel otherChannel = mockChannel(3);
+
+    // a forged header, not matching the body received from another peer
+    Block good = blocks.get(1);
+    BlockHeader h = good.getHeader();
+    BlockHeader forged =
+        new BlockHeader(
+            h.getNumber(),
+            h.getCoinbase(),
+            h.getParentHash(),
+            h.getTimestamp(),
+            new byte[32],
+            h.getResultsRoot(),
+            h.getStateRoot(),
+            h.getData());
+    List<List<byte[]>> headers = encodeHeaders(blocks, 0).subList(0, 1);
+    headers.add(Collections.singletonList(forged.toBytes()));
+    sync.addHeaders(1, headers, headerChannel);
+    sync.handleInvalidBlock(
+        new Block(forged, good.getTransactions(), good.getResults()), bodyChannel);
+
+    verify(headerChannel.getMessageQueue(), never()).disconnect(any());
+    verify(bodyChannel.getMessageQueue(), never()).disconnect(any());
+
+    // a different header from a third peer puts the blame on the first one
+    sync.addHeaders(2, encodeHeaders(blocks, 1), otherChannel);
+    verify(headerChannel.getMessageQueue()).disconnect(ReasonCode.BAD_PEER);
+    verify(bodyChannel.getMessageQueue(), never()).disconnect(any());
+  }
+
+  private SemuxSync createSkeletonSync(Config config) {
+    Kernel kernel = mockKernel(config);
+    when(kernel.getBlockchain().getBlockHeader(0)).thenReturn(mock(BlockHeader.class));
+    when(kernel.getBlockchain().getBlockHeader(0).getHash()).thenReturn(new byte[32]);
+    SemuxSync sync = new SemuxSync(kernel);
+    TestUtils.setInternalState(sync, "skeletonHash", new byte[32], SemuxSync.class);
+    return sync;
+  }
+
+  private List<List<byte[]>> encodeHeaders(List<Block> blocks, int from) {
+    List<List<byte[]>> headers = new ArrayList<>();
+    for (Block block : blocks.subList(from, blocks.size())) {
+      headers.add(Collections.singletonList(block.getEncodedHeader()));
+    }
+    return headers;
+  }
+
+  /** Creates a chain of blocks with a few transactions each. */
+  private List<Block> createBlocks(int n) {
+    List<Block> blocks = new ArrayList<>();
+    byte[] parentHash = new byte[32];
+    for (int i = 1; i <= n; i++) {
+      List<Transaction> txs = new ArrayList<>();
+      List<TransactionResult> results = new ArrayList<>();
+      for (int j = 0; j < 2; j++) {
+        txs.add(TestUtils.createTransaction(config, new Key(), new Key(), Amount.ONE));
+        results.add(new TransactionResult());
+      }
+      Block block = TestUtils.createBlock(i, parentHash, new Key(), i, txs, results);
+      blocks.add(block);
+      parentHash = block.getHash();
+    }
+    return blocks;
+  }
+
+  private Kernel mockKernel(Config config) {
+    Block genesis = mock(Block.class);
+    when(genesis.getHash()).thenReturn(new byte[32]);
+
+    Blockchain chain = mock(Blockchain.class);
+    when(chain.getLatestBlock()).thenReturn(genesis);
+    when(chain.getLatestBlockNumber()).thenAnswer(invocation -> latest.get());
+    when(chain.hasBlock(anyLong())).thenAnswer(invocation -> (long) invocation.getArgument(0) <= latest.get());
+    when(chain.validateBlockVotes(any())).thenReturn(true);
+    when(chain.importBlock(any(Block.class), anyBoolean()))
+        .thenAnswer(
+            invocation -> {
+              Block block = invocation.getArgument(0);
+              if (block.getNumber() != latest.get() + 1
+                  || !block.validateTransactions(
+                      block.getHeader(), block.getTransactions(), config.network())) {
+                return false;
+              }
+              imported.add(block);
+              latest.incrementAndGet();
+              return true;
+            });
+
+    ChannelManager channelMgr = mock(ChannelManager.class);
+    when(channelMgr.getIdleChannels()).thenReturn(Collections.emptyList());
+
+    Kernel kernel = mock(Kernel.class);
+    when(kernel.getConfig()).thenReturn(config);
+    when(kernel.getBlockchain()).thenReturn(chain);
+    when(kernel.getChannelManager()).thenReturn(channelMgr);
+    return kernel;
+  }
+
+  private Channel mockChannel(long latestBlockNumber, String... capabilities) {
+    Peer peer = mock(Peer.class);
+    when(peer.getPeerId()).thenReturn("peer-" + peers.incrementAndGet());
+    when(peer.getLatestBlockNumber()).thenReturn(latestBlockNumber);
+    when(peer.getCapabilities()).thenReturn(capabilities);
+    Channel channel = mock(Channel.class);
+    when(channel.getRemotePeer()).thenReturn(peer);
+    when(channel.getRemoteAddress()).thenReturn(new InetSocketAddress("127.0.0.1", 5161));
+    when(channel.getMessageQueue()).thenReturn(mock(MessageQueue.class));
+    return channel;
+  }
+}
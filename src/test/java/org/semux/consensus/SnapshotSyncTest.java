@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semux.Kernel;
+import org.semux.config.Config;
+import org.semux.config.Constants;
+import org.semux.config.UnitTestnetConfig;
+import org.semux.core.Amount;
+import org.semux.core.Block;
+import org.semux.core.BlockHeader;
+import org.semux.core.BlockchainImpl;
+import org.semux.core.Fork;
+import org.semux.core.snapshot.Snapshot;
+import org.semux.net.Capability;
+import org.semux.net.Channel;
+import org.semux.net.ChannelManager;
+import org.semux.net.Peer;
+import org.semux.net.msg.MessageQueue;
+import org.semux.net.msg.consensus.BlockPartsRangeMessage;
+import org.semux.net.msg.consensus.GetBlockPartsRangeMessage;
+import org.semux.net.msg.consensus.GetSnapshotChunkMessage;
+import org.semux.net.msg.consensus.SnapshotChunkMessage;
+import org.semux.rules.TemporaryDatabaseRule;
+import org.semux.util.Bytes;
+import org.semux.util.MerkleUtil;
+import org.semux.util.TimeUtil;
+
+public class SnapshotSyncTest {
+
+    @Rule
+    public TemporaryDatabaseRule sourceDBFactory = new TemporaryDatabaseRule();
+
+    @Rule
+    public TemporaryDatabaseRule targetDBFactory = new TemporaryDatabaseRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Config config;
+    private BlockchainImpl source;
+    private Snapshot snapshot;
+
+    private final byte[] address = Bytes.random(20);
+
+    private final ExecutorService peers = Executors.newSingleThreadExecutor();
+
+    @Before
+    public void setUp() throws IOException {
+        config = spy(new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR));
+        when(config.snapshotDir()).thenReturn(folder.newFolder());
+        when(config.spec().getValidatorUpdateInterval()).thenReturn(5L);
+        when(config.forkStateRootEnabled()).thenReturn(true);
+        when(config.manuallyActivatedForks()).thenReturn(Collections.singletonMap(Fork.STATE_ROOT, 1L));
+
+        // enough accounts for a few chunks
+        source = new BlockchainImpl(config, sourceDBFactory);
+        for (int i = 0; i < 50_000; i++) {
+            source.getAccountState().adjustAvailable(Bytes.random(20), Amount.of(i + 1));
+        }
+        source.getAccountState().adjustAvailable(address, Amount.of(7));
+        source.getStateTrie().update(source.getAccountState(), source.getDelegateState());
+        source.getAccountState().commit();
+        for (long i = 1; i <= 5; i++) {
+            addBlock(createBlock(source.getLatestBlock()));
+        }
+        snapshot = source.exportSnapshot(new File(folder.getRoot(), "export"));
+        assertTrue(snapshot.getManifest().getChunkCount() > 1);
+        for (long i = 6; i <= 7; i++) {
+            addBlock(createBlock(source.getLatestBlock()));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        peers.shutdownNow();
+    }
+
+    @Test
+    public void testRun() {
+        when(config.checkpoints()).thenReturn(Collections.singletonMap(5L, source.getBlockHeader(5).getHash()));
+        BlockchainImpl target = new BlockchainImpl(config, targetDBFactory);
+        AtomicInteger badRequests = new AtomicInteger();
+        SnapshotSync sync = createSync(target, badRequests);
+
+        assertTrue(sync.run(100, () -> true));
+        assertEquals(5, target.getLatestBlockNumber());
+        assertArrayEquals(source.getBlockHeader(5).getHash(), target.getLatestBlockHash());
+        assertEquals(Amount.of(7), target.getAccountState().getAccount(address).getAvailable());
+
+        // the peer sending invalid chunks is no longer asked, after its first requests
+        assertTrue(badRequests.get() <= 2);
+
+        // not new any more
+        assertFalse(sync.run(100, () -> true));
+    }
+
+    @Test
+    public void testRunCheckpointAfter() {
+        when(config.checkpoints()).thenReturn(Collections.singletonMap(7L, source.getBlockHeader(7).getHash()));
+        BlockchainImpl target = new BlockchainImpl(config, targetDBFactory);
+        SnapshotSync sync = createSync(target, new AtomicInteger());
+
+        // the headers link the checkpoint back to the snapshot block
+        assertTrue(sync.run(100, () -> true));
+        assertEquals(5, target.getLatestBlockNumber());
+        assertArrayEquals(source.getBlockHeader(5).getHash(), target.getLatestBlockHash());
+    }
+
+    @Test
+    public void testRunWrongCheckpoint() {
+        when(config.checkpoints()).thenReturn(Collections.singletonMap(7L, Bytes.random(32)));
+        BlockchainImpl target = new BlockchainImpl(config, targetDBFactory);
+        SnapshotSync sync = createSync(target, new AtomicInteger());
+
+        assertFalse(sync.run(100, () -> true));
+        assertEquals(0, target.getLatestBlockNumber());
+    }
+
+    @Test
+    public void testRunWithoutCheckpoint() {
+        BlockchainImpl target = new BlockchainImpl(config, targetDBFactory);
+        SnapshotSync sync = createSync(target, new AtomicInteger());
+
+        // nothing anchors the snapshot, whatever the peers agree on
+        assertFalse(sync.run(100, () -> true));
+        assertEquals(0, target.getLatestBlockNumber());
+    }
+
+    @Test
+    public void testRunAheadOfTarget() {
+        when(config.checkpoints()).thenReturn(Collections.singletonMap(5L, source.getBlockHeader(5).getHash()));
+        BlockchainImpl target = new BlockchainImpl(config, targetDBFactory);
+        SnapshotSync sync = createSync(target, new AtomicInteger());
+
+        // the snapshot is after the best known block
+        assertFalse(sync.run(5, () -> true));
+        assertEquals(0, target.getLatestBlockNumber());
+    }
+
+    private SnapshotSync createSync(BlockchainImpl target, AtomicInteger badRequests) {
+        ChannelManager channelMgr = mock(ChannelManager.class);
+        Kernel kernel = mock(Kernel.class);
+        when(kernel.getConfig()).thenReturn(config);
+        when(kernel.getBlockchain()).thenReturn(target);
+        when(kernel.getChannelManager()).thenReturn(channelMgr);
+        SnapshotSync sync = new SnapshotSync(kernel);
+
+        Channel good = mockChannel(sync, false, new AtomicInteger());
+        Channel bad = mockChannel(sync, true, badRequests);
+        Channel legacy = mockChannel(sync, false, new AtomicInteger());
+        when(legacy.getRemotePeer().getCapabilities()).thenReturn(new String[] { Capability.SEMUX.name() });
+        when(channelMgr.getActiveChannels()).thenReturn(Arrays.asList(bad, good, legacy));
+
+        return sync;
+    }
+
+    /**
+     * Mocks a peer serving the snapshot and the block headers, or corrupting them.
+     */
+    private Channel mockChannel(SnapshotSync sync, boolean corrupt, AtomicInteger chunkRequests) {
+        Peer peer = mock(Peer.class);
+        when(peer.getPeerId()).thenReturn("peer");
+        when(peer.getCapabilities())
+                .thenReturn(new String[] { Capability.SEMUX.name(), Capability.SKELETON_SYNC.name(),
+                        Capability.SNAPSHOT.name() });
+        Channel channel = mock(Channel.class);
+        when(channel.getRemotePeer()).thenReturn(peer);
+        when(channel.getRemoteAddress()).thenReturn(new InetSocketAddress("127.0.0.1", 5161));
+        MessageQueue queue = mock(MessageQueue.class);
+        when(channel.getMessageQueue()).thenReturn(queue);
+
+        doAnswer(invocation -> {
+            if (invocation.getArgument(0) instanceof GetBlockPartsRangeMessage) {
+                GetBlockPartsRangeMessage m = invocation.getArgument(0);
+                List<List<byte[]>> data = new ArrayList<>();
+                for (long n = m.getNumber(); n < m.getNumber() + m.getCount(); n++) {
+                    List<byte[]> parts = source.getBlockParts(n, m.getParts());
+                    if (parts == null) {
+                        break;
+                    }
+                    data.add(corrupt ? Collections.singletonList(Bytes.random(parts.get(0).length)) : parts);
+                }
+                BlockPartsRangeMessage response = new BlockPartsRangeMessage(m.getNumber(), m.getParts(), data);
+                peers.execute(() -> sync.onMessage(channel, response));
+                return true;
+            }
+
+            GetSnapshotChunkMessage m = invocation.getArgument(0);
+            byte[] data;
+            if (m.getIndex() == GetSnapshotChunkMessage.MANIFEST) {
+                data = snapshot.getManifest().toBytes();
+            } else {
+                chunkRequests.incrementAndGet();
+                data = snapshot.getChunk(m.getIndex());
+                if (corrupt) {
+                    data[0] ^= 1;
+                }
+            }
+            SnapshotChunkMessage response = new SnapshotChunkMessage(m.getHeight(), m.getIndex(), data);
+            peers.execute(() -> sync.onMessage(channel, response));
+            return true;
+        }).when(queue).sendMessage(any());
+
+        return channel;
+    }
+
+    private void addBlock(Block block) {
+        // applies the block reward, and commits the state with the block
+        assertTrue(source.importBlock(block, source.getAccountState().track(), source.getDelegateState().track()));
+    }
+
+    private Block createBlock(Block parent) {
+        long number = parent.getNumber() + 1;
+        byte[] coinbase = Bytes.random(20);
+        long timestamp = TimeUtil.currentTimeMillis();
+        byte[] transactionsRoot = MerkleUtil.computeTransactionsRoot(Collections.emptyList());
+        byte[] resultsRoot = MerkleUtil.computeResultsRoot(Collections.emptyList());
+
+        // the state root depends on the coinbase and the number only
+        BlockHeader header = new BlockHeader(number, coinbase, parent.getHash(), timestamp, transactionsRoot,
+                resultsRoot, Bytes.EMPTY_HASH, Bytes.EMPTY_BYTES);
+        byte[] stateRoot = source.getStateRoot(new Block(header, Collections.emptyList(), Collections.emptyList()),
+                source.getAccountState().track(), source.getDelegateState().track());
+
+        header = new BlockHeader(number, coinbase, parent.getHash(), timestamp, transactionsRoot, resultsRoot,
+                stateRoot, Bytes.EMPTY_BYTES);
+        return new Block(header, Collections.emptyList(), Collections.emptyList());
+    }
+}
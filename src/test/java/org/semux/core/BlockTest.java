@@ -8,6 +8,7 @@ package org.semux.core;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.semux.core.Amount.ZERO;
 
@@ -69,6 +70,29 @@ public class BlockTest {
         testFields(block);
     }
 
+    @Test
+    public void testValidateTransactionsCached() {
+        BlockHeader header = new BlockHeader(number, coinbase, prevHash, timestamp, transactionsRoot, resultsRoot,
+                stateRoot, data);
+        Block block = new Block(header, transactions, results, view, votes);
+        assertFalse(block.isTransactionsValidated(Network.DEVNET));
+
+        // a partial validation is not cached
+        assertTrue(block.validateTransactions(header, Collections.emptyList(), transactions, Network.DEVNET));
+        assertFalse(block.isTransactionsValidated(Network.DEVNET));
+
+        assertTrue(block.validateTransactions(header, transactions, Network.DEVNET));
+        assertTrue(block.isTransactionsValidated(Network.DEVNET));
+        assertFalse(block.isTransactionsValidated(Network.MAINNET));
+        assertTrue(block.validateTransactions(header, block.getTransactions(), Network.DEVNET));
+
+        // other transactions are still validated
+        BlockHeader other = new BlockHeader(number, coinbase, prevHash, timestamp, Bytes.random(32), resultsRoot,
+                stateRoot, data);
+        assertFalse(block.validateTransactions(other, transactions, Network.DEVNET));
+        assertFalse(block.validateTransactions(header, transactions, Network.MAINNET));
+    }
+
     @Test
     public void testSerialization() {
         BlockHeader header = new BlockHeader(number, coinbase, prevHash, timestamp, transactionsRoot, resultsRoot,
@@ -13,13 +13,18 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.semux.Network;
 import org.semux.TestUtils;
 import org.semux.config.AbstractConfig;
@@ -27,10 +32,20 @@ import org.semux.config.Config;
 import org.semux.config.Constants;
 import org.semux.config.UnitTestnetConfig;
 import org.semux.core.BlockchainImpl.StatsType;
+import org.semux.core.exception.BlockchainException;
+import org.semux.core.snapshot.Snapshot;
+import org.semux.core.snapshot.SnapshotExport;
+import org.semux.core.state.Account;
+import org.semux.core.state.StateTrie;
+import org.semux.crypto.Hex;
 import org.semux.crypto.Key;
+import org.semux.db.DatabaseFactory;
+import org.semux.db.DatabaseName;
+import org.semux.db.LeveldbDatabase;
 import org.semux.rules.TemporaryDatabaseRule;
 import org.semux.util.Bytes;
 import org.semux.util.MerkleUtil;
+import org.semux.util.SimpleEncoder;
 import org.semux.util.TimeUtil;
 import org.semux.vm.client.SemuxInternalTransaction;
 
@@ -39,6 +54,12 @@ public class BlockchainImplTest {
     @Rule
     public TemporaryDatabaseRule temporaryDBFactory = new TemporaryDatabaseRule();
 
+    @Rule
+    public TemporaryDatabaseRule importedDBFactory = new TemporaryDatabaseRule();
+
+    @Rule
+    public TemporaryFolder snapshotFolder = new TemporaryFolder();
+
     private Config config;
     private BlockchainImpl chain;
     private TransactionResult res;
@@ -100,6 +121,33 @@ public class BlockchainImplTest {
         assertEquals(number, chain.getBlock(newBlock.getHash()).getNumber());
     }
 
+    @Test
+    public void testGetBlockParts() {
+        assertNull(chain.getBlockParts(1, BlockPart.encode(BlockPart.values())));
+        assertNull(chain.getBlockParts(1, BlockPart.encode(BlockPart.HEADER)));
+
+        Block newBlock = createBlock(1);
+        chain.addBlock(newBlock);
+
+        // the parts are the ones of the decoded block, served from the cache the second time
+        for (int i = 0; i < 2; i++) {
+            List<byte[]> parts = chain.getBlockParts(1, BlockPart.encode(BlockPart.values()));
+            assertEquals(4, parts.size());
+            assertArrayEquals(newBlock.getEncodedHeader(), parts.get(0));
+            assertArrayEquals(newBlock.getEncodedTransactions(), parts.get(1));
+            assertArrayEquals(newBlock.getEncodedResults(), parts.get(2));
+            assertArrayEquals(newBlock.getEncodedVotes(), parts.get(3));
+        }
+
+        List<byte[]> parts = chain.getBlockParts(1, BlockPart.encode(BlockPart.TRANSACTIONS, BlockPart.VOTES));
+        assertEquals(2, parts.size());
+        assertArrayEquals(newBlock.getEncodedTransactions(), parts.get(0));
+        assertArrayEquals(newBlock.getEncodedVotes(), parts.get(1));
+
+        parts = chain.getBlockParts(0, BlockPart.encode(BlockPart.HEADER));
+        assertArrayEquals(chain.getGenesis().getEncodedHeader(), parts.get(0));
+    }
+
     @Test
     public void testHasBlock() {
         assertFalse(chain.hasBlock(-1));
@@ -354,6 +402,244 @@ public class BlockchainImplTest {
         chain.addBlock(block);
     }
 
+    @Test
+    public void testExportImportSnapshot() throws IOException {
+        enableStateTrie();
+        long height = config.spec().getValidatorUpdateInterval();
+        addBlocks(height - 1);
+        chain.getDelegateState().register(to, Bytes.of("snapshot"));
+        chain.getAccountState().adjustAvailable(to, Amount.of(6));
+        addBlocks(1);
+
+        Snapshot snapshot = chain.exportSnapshot(new File(snapshotFolder.getRoot(), "snapshot"));
+        assertEquals(height, snapshot.getManifest().getHeight());
+        assertArrayEquals(chain.getLatestBlockHash(), snapshot.getManifest().getBlockHash());
+
+        BlockchainImpl imported = new BlockchainImpl(config, importedDBFactory);
+        imported.importSnapshot(Snapshot.open(snapshot.getDir()));
+
+        assertEquals(height, imported.getLatestBlockNumber());
+        assertArrayEquals(chain.getLatestBlockHash(), imported.getLatestBlockHash());
+        assertEquals(2, imported.getBlockNumber(chain.getBlock(2).getHash()));
+        assertEquals(Amount.of(6), imported.getAccountState().getAccount(to).getAvailable());
+        assertNotNull(imported.getDelegateState().getDelegateByName(Bytes.of("snapshot")));
+        assertEquals(chain.getDelegateState().getDelegates().size(),
+                imported.getDelegateState().getDelegates().size());
+        assertEquals(chain.getValidators(), imported.getValidators());
+        assertArrayEquals(chain.getStateTrie().getRoot(), imported.getStateTrie().getRoot());
+
+        // reopened from the database
+        importedDBFactory.close();
+        DatabaseFactory dbFactory = new LeveldbDatabase.LeveldbFactory(importedDBFactory.getRoot());
+        try {
+            BlockchainImpl reopened = new BlockchainImpl(config, dbFactory);
+            assertEquals(height, reopened.getLatestBlockNumber());
+            assertEquals(Amount.of(6), reopened.getAccountState().getAccount(to).getAvailable());
+            assertArrayEquals(chain.getStateTrie().getRoot(), reopened.getStateTrie().getRoot());
+        } finally {
+            dbFactory.close();
+        }
+    }
+
+    @Test
+    public void testAddBlockFailure() {
+        chain = new BlockchainImpl(config, temporaryDBFactory) {
+            @Override
+            protected void writeBlock(Block block) {
+                throw new BlockchainException("failed");
+            }
+        };
+        chain.getAccountState().adjustAvailable(to, Amount.of(6));
+        chain.getDelegateState().register(to, Bytes.of("failure"));
+
+        try {
+            chain.addBlock(createBlock(1), true);
+            fail("The block should not be added");
+        } catch (BlockchainException e) {
+            // expected
+        }
+
+        // the pending updates are kept, and not written
+        assertEquals(0, chain.getLatestBlockNumber());
+        assertEquals(Amount.of(6), chain.getAccountState().getAccount(to).getAvailable());
+        assertNotNull(chain.getDelegateState().getDelegateByName(Bytes.of("failure")));
+        assertNull(temporaryDBFactory.getDB(DatabaseName.DELEGATE).get(to));
+    }
+
+    @Test
+    public void testPrepareSnapshot() throws IOException {
+        long height = config.spec().getValidatorUpdateInterval();
+        addBlocks(height);
+        byte[] hash = chain.getLatestBlockHash();
+
+        // blocks added before the snapshot is written aren't part of it
+        try (SnapshotExport export = chain.prepareSnapshot()) {
+            chain.getAccountState().adjustAvailable(to, Amount.of(6));
+            addBlocks(2);
+
+            assertEquals(height, export.getHeight());
+            Snapshot snapshot = export.writeTo(new File(snapshotFolder.getRoot(), "snapshot"));
+            assertEquals(height, snapshot.getManifest().getHeight());
+            assertArrayEquals(hash, snapshot.getManifest().getBlockHash());
+
+            BlockchainImpl imported = new BlockchainImpl(config, importedDBFactory);
+            imported.importSnapshot(Snapshot.open(snapshot.getDir()));
+            assertEquals(height, imported.getLatestBlockNumber());
+            assertEquals(Amount.ZERO, imported.getAccountState().getAccount(to).getAvailable());
+        }
+    }
+
+    @Test(expected = BlockchainException.class)
+    public void testImportSnapshotNotNew() throws IOException {
+        Snapshot snapshot = chain.exportSnapshot(new File(snapshotFolder.getRoot(), "snapshot"));
+        chain.addBlock(createBlock(1));
+        chain.importSnapshot(snapshot);
+    }
+
+    @Test(expected = BlockchainException.class)
+    public void testImportTamperedSnapshot() throws IOException {
+        addBlocks(config.spec().getValidatorUpdateInterval());
+        Snapshot snapshot = chain.exportSnapshot(new File(snapshotFolder.getRoot(), "snapshot"));
+        byte[] chunk = snapshot.getChunk(0);
+        chunk[chunk.length - 1] ^= 1;
+        Snapshot.writeChunk(snapshot.getDir(), 0, chunk);
+
+        new BlockchainImpl(config, importedDBFactory).importSnapshot(snapshot);
+    }
+
+    @Test(expected = BlockchainException.class)
+    public void testExportSnapshotNotAtValidatorUpdate() throws IOException {
+        addBlocks(1);
+        chain.exportSnapshot(new File(snapshotFolder.getRoot(), "snapshot"));
+    }
+
+    @Test(expected = BlockchainException.class)
+    public void testImportSnapshotNotAtValidatorUpdate() throws IOException {
+        addBlocks(1);
+        Snapshot.Writer writer = new Snapshot.Writer(new File(snapshotFolder.getRoot(), "snapshot"));
+        Snapshot snapshot = writer.finish(config.network(), 1, chain.getLatestBlockHash());
+
+        new BlockchainImpl(config, importedDBFactory).importSnapshot(snapshot);
+    }
+
+    @Test
+    public void testImportSnapshotIndexRecords() throws IOException {
+        long height = config.spec().getValidatorUpdateInterval();
+        addBlocks(height);
+        Snapshot exported = chain.exportSnapshot(new File(snapshotFolder.getRoot(), "exported"));
+
+        // the same snapshot, with forged validators
+        Snapshot.Writer writer = new Snapshot.Writer(new File(snapshotFolder.getRoot(), "snapshot"));
+        for (int i = 0; i < exported.getManifest().getChunkCount(); i++) {
+            for (Snapshot.Record r : exported.readChunk(i)) {
+                if (r.getDatabase() != DatabaseName.INDEX
+                        || !Arrays.equals(r.getKey(), Bytes.of(BlockchainImpl.TYPE_VALIDATORS))) {
+                    writer.add(r.getDatabase(), r.getKey(), r.getValue());
+                }
+            }
+        }
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeInt(1);
+        enc.writeString(Hex.encode(Bytes.random(20)));
+        writer.add(DatabaseName.INDEX, Bytes.of(BlockchainImpl.TYPE_VALIDATORS), enc.toBytes());
+        Snapshot snapshot = writer.finish(config.network(), height, chain.getLatestBlockHash());
+
+        BlockchainImpl imported = new BlockchainImpl(config, importedDBFactory);
+        imported.importSnapshot(snapshot);
+        assertEquals(chain.getValidators(), imported.getValidators());
+    }
+
+    @Test
+    public void testImportSnapshotInterrupted() {
+        enableStateTrie();
+        byte[] premine = chain.getGenesis().getPremines().keySet().iterator().next().getData();
+        Amount amount = chain.getAccountState().getAccount(premine).getAvailable();
+
+        // a snapshot import crashed after replacing some of the genesis state
+        new BlockchainImpl(config, importedDBFactory);
+        importedDBFactory.getDB(DatabaseName.INDEX).put(Bytes.of(BlockchainImpl.TYPE_SNAPSHOT_IMPORT), Bytes.of(3L));
+        importedDBFactory.getDB(DatabaseName.ACCOUNT).put(Bytes.merge((byte) 0, premine),
+                new Account(premine, Amount.of(1), Amount.ZERO, 0).toBytes());
+
+        BlockchainImpl reopened = new BlockchainImpl(config, importedDBFactory);
+        assertNull(importedDBFactory.getDB(DatabaseName.INDEX).get(Bytes.of(BlockchainImpl.TYPE_SNAPSHOT_IMPORT)));
+        assertEquals(0, reopened.getLatestBlockNumber());
+        assertArrayEquals(chain.getGenesis().getHash(), reopened.getLatestBlockHash());
+        assertEquals(amount, reopened.getAccountState().getAccount(premine).getAvailable());
+        assertArrayEquals(chain.getStateTrie().getRoot(), reopened.getStateTrie().getRoot());
+    }
+
+    @Test
+    public void testImportSnapshotFailed() throws IOException {
+        enableStateTrie();
+        byte[] premine = chain.getGenesis().getPremines().keySet().iterator().next().getData();
+        Amount amount = chain.getAccountState().getAccount(premine).getAvailable();
+
+        // a snapshot of a block it doesn't contain
+        Snapshot.Writer writer = new Snapshot.Writer(new File(snapshotFolder.getRoot(), "snapshot"));
+        writer.add(DatabaseName.ACCOUNT, Bytes.merge((byte) 0, to),
+                new Account(to, Amount.of(1), Amount.ZERO, 0).toBytes());
+        Snapshot snapshot = writer.finish(config.network(), config.spec().getValidatorUpdateInterval(),
+                Bytes.random(32));
+
+        BlockchainImpl imported = new BlockchainImpl(config, importedDBFactory);
+        try {
+            imported.importSnapshot(snapshot);
+            fail("The snapshot shouldn't be imported");
+        } catch (BlockchainException e) {
+            // the genesis state is restored
+            assertNull(importedDBFactory.getDB(DatabaseName.INDEX)
+                    .get(Bytes.of(BlockchainImpl.TYPE_SNAPSHOT_IMPORT)));
+            assertEquals(0, imported.getLatestBlockNumber());
+            assertEquals(amount, imported.getAccountState().getAccount(premine).getAvailable());
+            assertEquals(Amount.ZERO, imported.getAccountState().getAccount(to).getAvailable());
+            assertArrayEquals(chain.getStateTrie().getRoot(), imported.getStateTrie().getRoot());
+        }
+    }
+
+    @Test
+    public void testStateTrieBehind() {
+        enableStateTrie();
+        addBlocks(1);
+        byte[] stale = chain.getStateTrie().getRoot();
+        assertArrayEquals(Bytes.of(1L),
+                temporaryDBFactory.getDB(DatabaseName.INDEX).get(Bytes.of(BlockchainImpl.TYPE_STATE_TRIE_BLOCK_NUMBER)));
+
+        // a block added by a node not maintaining the trie
+        TestUtils.setInternalState(config, "forkStateRootEnabled", false, AbstractConfig.class);
+        chain = new BlockchainImpl(config, temporaryDBFactory);
+        assertNull(chain.getStateTrie());
+        assertNull(chain.getAccountProof(to));
+        chain.getAccountState().adjustAvailable(to, Amount.of(6));
+        addBlocks(1);
+
+        // the trie left behind is rebuilt
+        TestUtils.setInternalState(config, "forkStateRootEnabled", true, AbstractConfig.class);
+        BlockchainImpl reopened = new BlockchainImpl(config, temporaryDBFactory);
+        byte[] root = reopened.getStateTrie().getRoot();
+        assertFalse(Arrays.equals(stale, root));
+        assertTrue(reopened.getAccountProof(to).verify(root, StateTrie.getAccountKey(to),
+                reopened.getAccountState().getAccount(to).toBytes()));
+        assertArrayEquals(Bytes.of(2L),
+                temporaryDBFactory.getDB(DatabaseName.INDEX).get(Bytes.of(BlockchainImpl.TYPE_STATE_TRIE_BLOCK_NUMBER)));
+    }
+
+    private void enableStateTrie() {
+        TestUtils.setInternalState(config, "forkStateRootEnabled", true, AbstractConfig.class);
+        chain = new BlockchainImpl(config, temporaryDBFactory);
+    }
+
+    private void addBlocks(long n) {
+        for (long i = 0; i < n; i++) {
+            Block parent = chain.getLatestBlock();
+            BlockHeader header = new BlockHeader(parent.getNumber() + 1, coinbase, parent.getHash(),
+                    TimeUtil.currentTimeMillis(), MerkleUtil.computeTransactionsRoot(Collections.singletonList(tx)),
+                    MerkleUtil.computeResultsRoot(Collections.singletonList(res)), Bytes.EMPTY_HASH,
+                    Bytes.EMPTY_BYTES);
+            chain.addBlock(new Block(header, Collections.singletonList(tx), Collections.singletonList(res)), true);
+        }
+    }
+
     private Block createBlock(long number) {
         return createBlock(number, Collections.singletonList(tx), Collections.singletonList(res));
     }
@@ -6,10 +6,19 @@
  */
 package org.semux.core;
 
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.semux.core.Unit.SEM;
 
@@ -19,6 +28,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang3.RandomUtils;
 import org.junit.Rule;
@@ -28,12 +38,18 @@ import org.semux.config.Config;
 import org.semux.config.Constants;
 import org.semux.consensus.Vote;
 import org.semux.consensus.VoteType;
+import org.semux.core.state.AccountState;
+import org.semux.core.state.DelegateState;
+import org.semux.core.state.StateTrie;
 import org.semux.crypto.Hex;
 import org.semux.crypto.Key;
 import org.semux.rules.KernelRule;
 import org.semux.rules.TemporaryDatabaseRule;
 import org.semux.util.Bytes;
+import org.semux.util.MerkleUtil;
 import org.semux.util.TimeUtil;
+import org.semux.vm.client.SemuxBlock;
+import org.semux.vm.client.SemuxBlockStore;
 
 public class BlockchainImportTest {
 
@@ -181,4 +197,143 @@ public class BlockchainImportTest {
         // tests
         assertFalse(chain.importBlock(block, false));
     }
+
+    @Test
+    public void testImportPreExecutedBlock() {
+        Config config = kernelRule.getKernel().getConfig();
+        BlockchainImpl chain = spy(new BlockchainImpl(config, temporaryDBRule));
+        kernelRule.getKernel().setBlockchain(chain);
+
+        Key from = new Key();
+        Key to = new Key();
+        chain.getAccountState().adjustAvailable(from.toAddress(), Amount.of(1000, SEM));
+        Transaction tx = new Transaction(config.network(), TransactionType.TRANSFER, to.toAddress(),
+                Amount.of(10, SEM), config.spec().minTransactionFee(), 0, TimeUtil.currentTimeMillis(),
+                Bytes.EMPTY_BYTES).sign(from);
+        Block block = kernelRule.createBlock(Collections.singletonList(tx));
+
+        // execute the block as the validation of a proposal would
+        AccountState asTrack = chain.getAccountState().track();
+        DelegateState dsTrack = chain.getDelegateState().track();
+        TransactionExecutor exec = new TransactionExecutor(config, new SemuxBlockStore(chain), chain.isVMEnabled(),
+                chain.isVotingPrecompiledUpgraded());
+        block.setResults(exec.execute(block.getTransactions(), asTrack, dsTrack,
+                new SemuxBlock(block.getHeader(), config.spec().maxBlockGasLimit()), 0));
+
+        assertTrue(chain.importBlock(block, asTrack, dsTrack));
+        verify(chain, never()).validateBlock(any(), any(), any(), anyBoolean());
+        assertEquals(block.getNumber(), chain.getLatestBlockNumber());
+        assertEquals(Amount.of(10, SEM), chain.getAccountState().getAccount(to.toAddress()).getAvailable());
+
+        // states executed on top of a previous block are not reused
+        AccountState staleAs = chain.getAccountState().track();
+        DelegateState staleDs = chain.getDelegateState().track();
+        Block stale = kernelRule.createBlock(Collections.emptyList());
+        assertTrue(chain.importBlock(kernelRule.createBlock(Collections.emptyList()), false));
+        assertFalse(chain.importBlock(stale, staleAs, staleDs));
+        verify(chain).validateBlock(eq(stale), any(), any(), anyBoolean());
+    }
+
+    @Test
+    public void testImportPreExecutedBlockRace() throws InterruptedException {
+        Config config = kernelRule.getKernel().getConfig();
+        BlockchainImpl chain = new BlockchainImpl(config, temporaryDBRule);
+        kernelRule.getKernel().setBlockchain(chain);
+
+        Key from = new Key();
+        Key to = new Key();
+        chain.getAccountState().adjustAvailable(from.toAddress(), Amount.of(1000, SEM));
+        Transaction tx = new Transaction(config.network(), TransactionType.TRANSFER, to.toAddress(),
+                Amount.of(10, SEM), config.spec().minTransactionFee(), 0, TimeUtil.currentTimeMillis(),
+                Bytes.EMPTY_BYTES).sign(from);
+        Block block = kernelRule.createBlock(Collections.singletonList(tx));
+        Block other = kernelRule.createBlock(Collections.emptyList());
+
+        AccountState asTrack = chain.getAccountState().track();
+        DelegateState dsTrack = chain.getDelegateState().track();
+        TransactionExecutor exec = new TransactionExecutor(config, new SemuxBlockStore(chain), chain.isVMEnabled(),
+                chain.isVotingPrecompiledUpgraded());
+        block.setResults(exec.execute(block.getTransactions(), asTrack, dsTrack,
+                new SemuxBlock(block.getHeader(), config.spec().maxBlockGasLimit()), 0));
+
+        // another block is added while the import waits for the lock
+        AtomicBoolean result = new AtomicBoolean(true);
+        chain.getStateLock().writeLock().lock();
+        Thread t = new Thread(() -> result.set(chain.importBlock(block, asTrack, dsTrack)));
+        try {
+            t.start();
+            await().until(() -> chain.getStateLock().hasQueuedThread(t));
+            chain.addBlock(other);
+        } finally {
+            chain.getStateLock().writeLock().unlock();
+        }
+        t.join();
+
+        assertFalse(result.get());
+        assertArrayEquals(other.getHash(), chain.getLatestBlockHash());
+        assertEquals(Amount.ZERO, chain.getAccountState().getAccount(to.toAddress()).getAvailable());
+    }
+
+    @Test
+    public void testImportBlockWithStateRootBeforeFork() {
+        Config config = kernelRule.getKernel().getConfig();
+        BlockchainImpl chain = new BlockchainImpl(config, temporaryDBRule);
+        kernelRule.getKernel().setBlockchain(chain);
+        assertNull(chain.getStateTrie());
+
+        // a block committing to a state root before the fork is rejected
+        Block template = kernelRule.createBlock(Collections.emptyList());
+        BlockHeader h = template.getHeader();
+        Block block = new Block(new BlockHeader(h.getNumber(), h.getCoinbase(), h.getParentHash(), h.getTimestamp(),
+                h.getTransactionsRoot(), h.getResultsRoot(), Bytes.random(32), h.getData()),
+                template.getTransactions(), template.getResults());
+        assertFalse(chain.importBlock(block, false));
+        assertTrue(chain.importBlock(template, false));
+    }
+
+    @Test
+    public void testImportBlockWithStateRoot() {
+        Config config = kernelRule.getKernel().getConfig();
+        when(config.forkStateRootEnabled()).thenReturn(true);
+        when(config.manuallyActivatedForks()).thenReturn(Collections.singletonMap(Fork.STATE_ROOT, 1L));
+        BlockchainImpl chain = new BlockchainImpl(config, temporaryDBRule);
+        kernelRule.getKernel().setBlockchain(chain);
+
+        Key from = new Key();
+        Key to = new Key();
+        chain.getAccountState().adjustAvailable(from.toAddress(), Amount.of(1000, SEM));
+        Transaction tx = new Transaction(config.network(), TransactionType.TRANSFER, to.toAddress(),
+                Amount.of(10, SEM), config.spec().minTransactionFee(), 0, TimeUtil.currentTimeMillis(),
+                Bytes.EMPTY_BYTES).sign(from);
+        Block template = kernelRule.createBlock(Collections.singletonList(tx));
+
+        // execute the block, as the proposer does
+        AccountState asTrack = chain.getAccountState().track();
+        DelegateState dsTrack = chain.getDelegateState().track();
+        TransactionExecutor exec = new TransactionExecutor(config, new SemuxBlockStore(chain), chain.isVMEnabled(),
+                chain.isVotingPrecompiledUpgraded());
+        List<TransactionResult> results = exec.execute(template.getTransactions(), asTrack, dsTrack,
+                new SemuxBlock(template.getHeader(), config.spec().maxBlockGasLimit()), 0);
+        Block executed = new Block(template.getHeader(), template.getTransactions(), results);
+        byte[] stateRoot = chain.getStateRoot(executed, asTrack, dsTrack);
+        asTrack.rollback();
+        dsTrack.rollback();
+
+        // a block not committing to the state is rejected
+        BlockHeader h = template.getHeader();
+        byte[] resultsRoot = MerkleUtil.computeResultsRoot(results);
+        Block noRoot = new Block(new BlockHeader(h.getNumber(), h.getCoinbase(), h.getParentHash(), h.getTimestamp(),
+                h.getTransactionsRoot(), resultsRoot, Bytes.EMPTY_HASH, h.getData()), template.getTransactions(),
+                results);
+        assertFalse(chain.importBlock(noRoot, false));
+
+        Block block = new Block(new BlockHeader(h.getNumber(), h.getCoinbase(), h.getParentHash(), h.getTimestamp(),
+                h.getTransactionsRoot(), resultsRoot, stateRoot, h.getData()), template.getTransactions(), results);
+        assertTrue(chain.importBlock(block, false));
+        assertArrayEquals(stateRoot, chain.getStateTrie().getRoot());
+
+        // the recipient is proven against the block
+        assertTrue(chain.getAccountProof(to.toAddress()).verify(block.getStateRoot(),
+                StateTrie.getAccountKey(to.toAddress()), chain.getAccountState().getAccount(to.toAddress()).toBytes()));
+    }
 }
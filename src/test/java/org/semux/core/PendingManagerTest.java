@@ -9,16 +9,27 @@ package org.semux.core;
 import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.semux.core.PendingManager.ALLOWED_TIME_DRIFT;
 import static org.semux.core.TransactionResult.Code.INVALID_TIMESTAMP;
 import static org.semux.core.Unit.MILLI_SEM;
 import static org.semux.core.Unit.SEM;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
@@ -26,14 +37,20 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.semux.KernelMock;
 import org.semux.Network;
+import org.semux.TestUtils;
 import org.semux.config.Constants;
+import org.semux.consensus.CompactProposal;
 import org.semux.core.state.AccountState;
 import org.semux.crypto.Key;
 import org.semux.db.LeveldbDatabase.LeveldbFactory;
+import org.semux.net.Channel;
 import org.semux.net.ChannelManager;
+import org.semux.net.msg.MessageQueue;
+import org.semux.net.msg.p2p.GetTransactionsMessage;
 import org.semux.rules.KernelRule;
 import org.semux.util.ArrayUtil;
 import org.semux.util.Bytes;
@@ -105,6 +122,20 @@ public class PendingManagerTest {
         assertEquals(1, pendingMgr.getPendingTransactions().size());
     }
 
+    @Test
+    public void testGetTransactionsByShortId() {
+        long now = TimeUtil.currentTimeMillis();
+        long nonce = accountState.getAccount(from).getNonce();
+
+        Transaction tx = new Transaction(network, type, to, value, fee, nonce, now, Bytes.EMPTY_BYTES).sign(key);
+        pendingMgr.addTransactionSync(tx);
+
+        long id = CompactProposal.shortId(tx.getHash());
+        Map<Long, Transaction> found = pendingMgr.getTransactionsByShortId(new long[] { id, id + 1 });
+        assertEquals(1, found.size());
+        assertArrayEquals(tx.getHash(), found.get(id).getHash());
+    }
+
     @Test
     public void testAddTransactionSyncErrorInvalidFormat() {
         Transaction tx = new Transaction(network, type, to, value, fee, 0, 0, Bytes.EMPTY_BYTES).sign(key);
@@ -212,6 +243,125 @@ public class PendingManagerTest {
         await().until(() -> pendingMgr.getPendingTransactions().size() == perm.length);
     }
 
+    @Test
+    public void testPipelineStats() {
+        long now = TimeUtil.currentTimeMillis();
+        long nonce = accountState.getAccount(from).getNonce();
+
+        int n = 100;
+        for (int i = 0; i < n; i++) {
+            pendingMgr.addTransaction(
+                    new Transaction(network, type, to, value, fee, nonce + i, now, Bytes.EMPTY_BYTES).sign(key));
+        }
+
+        await().until(() -> pendingMgr.getPendingTransactions().size() == n
+                && pendingMgr.getRelayStats().getProcessed() == n);
+        assertEquals(n, pendingMgr.getValidateStats().getProcessed());
+        assertEquals(n, pendingMgr.getExecuteStats().getProcessed());
+        assertEquals(0, pendingMgr.getValidateStats().getQueueSize());
+        assertEquals(0, pendingMgr.getExecuteStats().getQueueSize());
+        assertEquals(0, pendingMgr.getRelayStats().getQueueSize());
+    }
+
+    @Test
+    public void testRelaySkipsBusyPeers() {
+        long now = TimeUtil.currentTimeMillis();
+        long nonce = accountState.getAccount(from).getNonce();
+
+        int maxQueueSize = kernel.getConfig().netMaxMessageQueueSize();
+        Channel busy = mockChannel();
+        when(busy.getMessageQueue().size()).thenReturn(maxQueueSize);
+        when(busy.markTransactionKnown(any())).thenReturn(true);
+        Channel idle = mockChannel();
+        when(idle.markTransactionKnown(any())).thenReturn(true);
+        ChannelManager channelMgr = kernel.getChannelManager();
+        ChannelManager mockChannelMgr = mock(ChannelManager.class);
+        when(mockChannelMgr.getActiveChannels()).thenReturn(Arrays.asList(busy, idle));
+        kernel.setChannelManager(mockChannelMgr);
+
+        try {
+            Transaction tx = new Transaction(network, type, to, value, fee, nonce, now, Bytes.EMPTY_BYTES).sign(key);
+            pendingMgr.addTransaction(tx);
+            await().until(() -> pendingMgr.getRelayStats().getProcessed() == 1);
+
+            // the busy peer is skipped, and counted as dropped
+            verify(idle.getMessageQueue()).sendMessage(any());
+            verify(busy.getMessageQueue(), never()).sendMessage(any());
+            assertEquals(1, pendingMgr.getRelayStats().getDropped());
+        } finally {
+            kernel.setChannelManager(channelMgr);
+        }
+    }
+
+    @Test
+    public void testStopShutsDownExecutors() {
+        pendingMgr.stop();
+        ThreadPoolExecutor validateExec = TestUtils.getInternalState(pendingMgr, "validateExec", PendingManager.class);
+        ThreadPoolExecutor relayExec = TestUtils.getInternalState(pendingMgr, "relayExec", PendingManager.class);
+        assertTrue(validateExec.isShutdown());
+        assertTrue(relayExec.isShutdown());
+    }
+
+    @Test
+    public void testRequestTransactions() {
+        long now = TimeUtil.currentTimeMillis();
+        long nonce = accountState.getAccount(from).getNonce();
+
+        Transaction tx = new Transaction(network, type, to, value, fee, nonce, now, Bytes.EMPTY_BYTES).sign(key);
+        byte[] unknown = Bytes.random(32);
+
+        // requested once, until received
+        Channel channel = mockChannel();
+        List<byte[]> requested = pendingMgr.requestTransactions(channel, Arrays.asList(tx.getHash(), unknown));
+        assertEquals(2, requested.size());
+        assertTrue(pendingMgr.requestTransactions(mockChannel(), Arrays.asList(tx.getHash(), unknown)).isEmpty());
+
+        // relayed once accepted, and served to the peers
+        pendingMgr.addTransaction(tx);
+        await().until(() -> pendingMgr.getRelayedTransaction(tx.getHash()) != null);
+        assertArrayEquals(tx.getHash(), pendingMgr.getRelayedTransaction(tx.getHash()).getHash());
+        assertNull(pendingMgr.getRelayedTransaction(unknown));
+        assertTrue(pendingMgr.requestTransactions(channel, Collections.singletonList(tx.getHash())).isEmpty());
+    }
+
+    @Test
+    public void testRequestTransactionsTimeout() {
+        byte[] hash = Bytes.random(32);
+        Channel first = mockChannel();
+        Channel inactive = mockChannel();
+        when(inactive.isActive()).thenReturn(false);
+        Channel second = mockChannel();
+
+        assertEquals(1, pendingMgr.requestTransactions(first, Collections.singletonList(hash)).size());
+        assertTrue(pendingMgr.requestTransactions(inactive, Collections.singletonList(hash)).isEmpty());
+        assertTrue(pendingMgr.requestTransactions(second, Collections.singletonList(hash)).isEmpty());
+
+        // not requested again before the timeout
+        long now = TimeUtil.currentTimeMillis();
+        pendingMgr.checkRequests(now);
+        verify(second.getMessageQueue(), never()).sendMessage(any());
+
+        // then from the next active peer which announced it
+        pendingMgr.checkRequests(now + TimeUnit.SECONDS.toMillis(5));
+        ArgumentCaptor<GetTransactionsMessage> msg = ArgumentCaptor.forClass(GetTransactionsMessage.class);
+        verify(second.getMessageQueue()).sendMessage(msg.capture());
+        assertArrayEquals(hash, msg.getValue().getHashes().get(0));
+        verify(inactive.getMessageQueue(), never()).sendMessage(any());
+
+        // dropped once no peer is left, until announced again
+        pendingMgr.checkRequests(now + TimeUnit.SECONDS.toMillis(10));
+        verify(first.getMessageQueue(), never()).sendMessage(any());
+        assertEquals(1, pendingMgr.requestTransactions(first, Collections.singletonList(hash)).size());
+    }
+
+    private Channel mockChannel() {
+        Channel channel = mock(Channel.class);
+        when(channel.isActive()).thenReturn(true);
+        MessageQueue queue = mock(MessageQueue.class);
+        when(channel.getMessageQueue()).thenReturn(queue);
+        return channel;
+    }
+
     @Test
     public void testNewBlock() throws InterruptedException {
         long now = TimeUtil.currentTimeMillis();
@@ -249,6 +399,111 @@ public class PendingManagerTest {
         assertArrayEquals(tx3.getHash(), pendingMgr.getPendingTransactions().get(0).transaction.getHash());
     }
 
+    @Test
+    public void testRebase() {
+        long now = TimeUtil.currentTimeMillis();
+        long nonce = accountState.getAccount(from).getNonce();
+        Key key2 = new Key();
+        accountState.adjustAvailable(key2.toAddress(), Amount.of(10, SEM));
+
+        Transaction tx = new Transaction(network, type, to, value, fee, nonce, now, Bytes.EMPTY_BYTES).sign(key);
+        Transaction tx2 = new Transaction(network, type, to, value, fee, nonce + 1, now, Bytes.EMPTY_BYTES).sign(key);
+        Transaction other = new Transaction(network, type, new Key().toAddress(), value, fee, 0, now,
+                Bytes.EMPTY_BYTES).sign(key2);
+        assertEquals(1, pendingMgr.addTransactionSync(tx).accepted);
+        assertEquals(1, pendingMgr.addTransactionSync(other).accepted);
+        assertEquals(1, pendingMgr.addTransactionSync(tx2).accepted);
+        List<PendingManager.PendingTransaction> before = pendingMgr.getPendingTransactions();
+
+        // include the first transaction
+        BlockHeader header = new BlockHeader(1, Bytes.random(20), Bytes.random(32), now, Bytes.random(32),
+                Bytes.random(32), Bytes.random(32), new byte[0]);
+        Block block = new Block(header, Collections.singletonList(tx),
+                Collections.singletonList(new TransactionResult()));
+        accountState.increaseNonce(from);
+        pendingMgr.onBlockAdded(block);
+
+        // only the transactions of the affected accounts are executed again
+        List<PendingManager.PendingTransaction> after = pendingMgr.getPendingTransactions();
+        assertEquals(2, after.size());
+        PendingManager.PendingTransaction kept = after.stream()
+                .filter(p -> Arrays.equals(p.transaction.getHash(), other.getHash())).findAny().get();
+        assertTrue(before.contains(kept));
+        PendingManager.PendingTransaction executed = after.stream()
+                .filter(p -> Arrays.equals(p.transaction.getHash(), tx2.getHash())).findAny().get();
+        assertFalse(before.contains(executed));
+        assertEquals(nonce + 2, pendingMgr.getNonce(from));
+        assertEquals(1, pendingMgr.getNonce(key2.toAddress()));
+    }
+
+    @Test
+    public void testRebaseDropsStaleTransactions() throws InterruptedException {
+        long now = TimeUtil.currentTimeMillis();
+        long drift = kernel.getConfig().poolMaxTxTimeDrift();
+        Key key2 = new Key();
+        Key key3 = new Key();
+        Key key4 = new Key();
+        accountState.adjustAvailable(key2.toAddress(), Amount.of(10, SEM));
+        accountState.adjustAvailable(key3.toAddress(), Amount.of(10, SEM));
+        accountState.adjustAvailable(key4.toAddress(), Amount.of(10, SEM));
+
+        Transaction expiring = new Transaction(network, type, new Key().toAddress(), value, fee, 0,
+                now - drift + 500, Bytes.EMPTY_BYTES).sign(key2);
+        Transaction included = new Transaction(network, type, new Key().toAddress(), value, fee, 0, now,
+                Bytes.EMPTY_BYTES).sign(key3);
+        Transaction kept = new Transaction(network, type, new Key().toAddress(), value, fee, 0, now,
+                Bytes.EMPTY_BYTES).sign(key4);
+        assertEquals(1, pendingMgr.addTransactionSync(expiring).accepted);
+        assertEquals(1, pendingMgr.addTransactionSync(included).accepted);
+        assertEquals(1, pendingMgr.addTransactionSync(kept).accepted);
+        List<PendingManager.PendingTransaction> before = pendingMgr.getPendingTransactions();
+
+        // a block not touching the accounts, once the first transaction has expired
+        // and the second one has been included through another path
+        Thread.sleep(1000);
+        kernel.setBlockchain(spy(kernel.getBlockchain()));
+        doReturn(true).when(kernel.getBlockchain()).hasTransaction(included.getHash());
+        BlockHeader header = new BlockHeader(1, Bytes.random(20), Bytes.random(32), now, Bytes.random(32),
+                Bytes.random(32), Bytes.random(32), new byte[0]);
+        pendingMgr.onBlockAdded(new Block(header, Collections.emptyList(), Collections.emptyList()));
+        Mockito.reset(kernel.getBlockchain());
+
+        List<PendingManager.PendingTransaction> after = pendingMgr.getPendingTransactions();
+        assertEquals(1, after.size());
+        assertArrayEquals(kept.getHash(), after.get(0).transaction.getHash());
+        assertTrue(before.contains(after.get(0)));
+        assertEquals(0, pendingMgr.getNonce(key2.toAddress()));
+        assertEquals(0, pendingMgr.getNonce(key3.toAddress()));
+    }
+
+    @Test
+    public void testEvictionResetsAccounts() {
+        long now = TimeUtil.currentTimeMillis();
+        Key key2 = new Key();
+        Key key3 = new Key();
+        accountState.adjustAvailable(key2.toAddress(), Amount.sum(value, fee));
+        accountState.adjustAvailable(key3.toAddress(), Amount.of(10, SEM));
+        TestUtils.setInternalState(pendingMgr, "validTxsLimit", 1, PendingManager.class);
+
+        // the cheapest transaction is evicted by a more expensive one
+        Transaction cheap = new Transaction(network, type, to, value, fee, 0, now, Bytes.EMPTY_BYTES).sign(key2);
+        Transaction expensive = new Transaction(network, type, to, value, Amount.sum(fee, fee), 0, now,
+                Bytes.EMPTY_BYTES).sign(key3);
+        assertEquals(1, pendingMgr.addTransactionSync(cheap).accepted);
+        assertEquals(1, pendingMgr.addTransactionSync(expensive).accepted);
+        List<PendingManager.PendingTransaction> txs = pendingMgr.getPendingTransactions();
+        assertEquals(1, txs.size());
+        assertArrayEquals(expensive.getHash(), txs.get(0).transaction.getHash());
+
+        // the balance spent by the evicted transaction is available again
+        TestUtils.setInternalState(pendingMgr, "validTxsLimit", 2, PendingManager.class);
+        Transaction replacement = new Transaction(network, type, to, value, fee, 0, now + 1, Bytes.EMPTY_BYTES)
+                .sign(key2);
+        assertEquals(1, pendingMgr.addTransactionSync(replacement).accepted);
+        assertEquals(1, pendingMgr.getNonce(key2.toAddress()));
+        assertEquals(1, pendingMgr.getNonce(key3.toAddress()));
+    }
+
     @After
     public void stop() {
         pendingMgr.stop();
@@ -16,6 +16,10 @@ import static org.semux.core.TransactionResult.Code.INSUFFICIENT_AVAILABLE;
 import static org.semux.core.TransactionResult.Code.INSUFFICIENT_LOCKED;
 import static org.semux.core.Unit.SEM;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -256,4 +260,77 @@ public class TransactionExecutorTest {
             }
         }
     }
+
+    @Test
+    public void testParallelTransfers() {
+        Config parallelConfig = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR) {
+            @Override
+            public boolean execParallelTransfers() {
+                return true;
+            }
+        };
+        TransactionExecutor parallelExec = new TransactionExecutor(parallelConfig, new SemuxBlockStore(chain),
+                chain.isVMEnabled(), chain.isVotingPrecompiledUpgraded());
+
+        Random random = new Random(1);
+        Key[] keys = new Key[8];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new Key();
+            if (i < 6) {
+                as.adjustAvailable(keys[i].toAddress(), Amount.of(10, SEM));
+            }
+        }
+        byte[][] recipients = { keys[0].toAddress(), keys[1].toAddress(), keys[6].toAddress(),
+                keys[7].toAddress(), Bytes.random(20), Bytes.random(20) };
+
+        long[] nonces = new long[keys.length];
+        List<Transaction> txs = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            int k = random.nextInt(keys.length);
+            long nonce = random.nextInt(20) == 0 ? nonces[k] + 1 : nonces[k]++;
+            Amount value = Amount.of(random.nextInt(4_000), Unit.MILLI_SEM);
+            TransactionType type = random.nextInt(15) == 0 ? TransactionType.VOTE : TransactionType.TRANSFER;
+            byte[] to = recipients[random.nextInt(recipients.length)];
+            txs.add(new Transaction(network, type, to, value, config.spec().minTransactionFee(), nonce,
+                    TimeUtil.currentTimeMillis(), Bytes.EMPTY_BYTES).sign(keys[k]));
+        }
+
+        // the block gas limit is exhausted halfway through
+        SemuxBlock smallBlock = new SemuxBlock(mock(BlockHeader.class), config.spec().nonVMTransactionGasCost() * 30);
+
+        AccountState as1 = as.track();
+        AccountState as2 = as.track();
+        List<TransactionResult> expected = exec.execute(txs, as1, ds.track(), smallBlock, 0);
+        List<TransactionResult> actual = parallelExec.execute(txs, as2, ds.track(), smallBlock, 0);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i).toBytes(), actual.get(i).toBytes());
+        }
+        assertTrue(expected.stream().anyMatch(r -> r.getCode() == TransactionResult.Code.INVALID));
+        for (Key key : keys) {
+            assertEquals(as1.getAccount(key.toAddress()).toString(), as2.getAccount(key.toAddress()).toString());
+        }
+        for (byte[] to : recipients) {
+            assertEquals(as1.getAccount(to).toString(), as2.getAccount(to).toString());
+        }
+
+        // disjoint transfers, half of which fail, hitting the block gas limit
+        txs.clear();
+        for (int i = 0; i < 60; i++) {
+            Key key = new Key();
+            as.adjustAvailable(key.toAddress(), Amount.of(1, SEM));
+            txs.add(new Transaction(network, TransactionType.TRANSFER, Bytes.random(20), Amount.of(1),
+                    config.spec().minTransactionFee(), i % 2, TimeUtil.currentTimeMillis(), Bytes.EMPTY_BYTES)
+                            .sign(key));
+        }
+        smallBlock = new SemuxBlock(mock(BlockHeader.class), config.spec().nonVMTransactionGasCost() * 20);
+        expected = exec.execute(txs, as.track(), ds.track(), smallBlock, 0);
+        actual = parallelExec.execute(txs, as.track(), ds.track(), smallBlock, 0);
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i).toBytes(), actual.get(i).toBytes());
+        }
+        assertEquals(TransactionResult.Code.SUCCESS, actual.get(38).getCode());
+        assertEquals(TransactionResult.Code.INVALID, actual.get(40).getCode());
+    }
 }
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.semux.core.Unit.MILLI_SEM;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.semux.Network;
+import org.semux.core.PendingManager.PendingTransaction;
+import org.semux.crypto.Key;
+import org.semux.util.Bytes;
+import org.semux.util.TimeUtil;
+
+public class TransactionPoolTest {
+
+    private static final long GAS_COST = 5_000;
+
+    private final TransactionPool pool = new TransactionPool(GAS_COST);
+
+    private final Key alice = new Key();
+    private final Key bob = new Key();
+
+    @Test
+    public void testAddRemove() {
+        PendingTransaction tx = createTx(alice, 0, 5);
+        pool.add(tx);
+        pool.add(tx);
+        assertEquals(1, pool.size());
+        assertTrue(pool.contains(tx.transaction.getHash()));
+
+        assertSame(tx, pool.remove(tx.transaction.getHash()));
+        assertNull(pool.remove(tx.transaction.getHash()));
+        assertEquals(0, pool.size());
+        assertFalse(pool.contains(tx.transaction.getHash()));
+        assertEquals(-1, pool.getLowestPrice());
+    }
+
+    @Test
+    public void testSelect() {
+        PendingTransaction a0 = createTx(alice, 0, 5);
+        PendingTransaction a1 = createTx(alice, 1, 50);
+        PendingTransaction b0 = createTx(bob, 0, 10);
+        PendingTransaction b1 = createTx(bob, 1, 1);
+        pool.add(a0);
+        pool.add(a1);
+        pool.add(b0);
+        pool.add(b1);
+
+        // most expensive first, without breaking the nonce order
+        List<PendingTransaction> txs = pool.select(Long.MAX_VALUE, tx -> GAS_COST);
+        assertEquals(4, txs.size());
+        assertSame(b0, txs.get(0));
+        assertSame(a0, txs.get(1));
+        assertSame(a1, txs.get(2));
+        assertSame(b1, txs.get(3));
+
+        txs = pool.select(GAS_COST * 2 + 1, tx -> GAS_COST);
+        assertEquals(2, txs.size());
+        assertSame(b0, txs.get(0));
+        assertSame(a0, txs.get(1));
+
+        // arrival order
+        txs = pool.getAll();
+        assertSame(a0, txs.get(0));
+        assertSame(b1, txs.get(3));
+    }
+
+    @Test
+    public void testEvict() {
+        PendingTransaction a0 = createTx(alice, 0, 10);
+        PendingTransaction a1 = createTx(alice, 1, 2);
+        PendingTransaction a2 = createTx(alice, 2, 20);
+        PendingTransaction b0 = createTx(bob, 0, 5);
+        pool.add(a0);
+        pool.add(a1);
+        pool.add(a2);
+        pool.add(b0);
+        assertEquals(2 * MILLI_SEM.factor / GAS_COST, pool.getLowestPrice());
+
+        // the cheapest transaction goes together with the ones depending on it
+        List<PendingTransaction> evicted = pool.evict();
+        assertEquals(2, evicted.size());
+        assertSame(a1, evicted.get(0));
+        assertSame(a2, evicted.get(1));
+        assertEquals(2, pool.size());
+        assertEquals(5 * MILLI_SEM.factor / GAS_COST, pool.getLowestPrice());
+
+        evicted = pool.evict();
+        assertEquals(1, evicted.size());
+        assertSame(b0, evicted.get(0));
+        assertEquals(1, pool.size());
+        assertTrue(pool.contains(a0.transaction.getHash()));
+    }
+
+    private PendingTransaction createTx(Key key, long nonce, long fee) {
+        Transaction tx = new Transaction(Network.DEVNET, TransactionType.TRANSFER, Bytes.random(20),
+                Amount.ZERO, Amount.of(fee, MILLI_SEM), nonce, TimeUtil.currentTimeMillis(), Bytes.EMPTY_BYTES)
+                        .sign(key);
+        return new PendingTransaction(tx, new TransactionResult());
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core.snapshot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semux.Network;
+import org.semux.core.exception.BlockchainException;
+import org.semux.db.DatabaseName;
+import org.semux.util.Bytes;
+
+public class SnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] blockHash = Bytes.random(32);
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        File dir = new File(folder.getRoot(), "snapshot");
+        Snapshot.Writer writer = new Snapshot.Writer(dir);
+        List<byte[]> values = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            byte[] value = Bytes.random(8 * 1024);
+            values.add(value);
+            writer.add(DatabaseName.values()[i % DatabaseName.values().length], Bytes.of(i), value);
+        }
+        Snapshot snapshot = writer.finish(Network.DEVNET, 10, blockHash);
+
+        SnapshotManifest manifest = snapshot.getManifest();
+        assertEquals(Network.DEVNET, manifest.getNetwork());
+        assertEquals(10, manifest.getHeight());
+        assertArrayEquals(blockHash, manifest.getBlockHash());
+        assertEquals(3, manifest.getChunkCount());
+        assertTrue(snapshot.verify());
+
+        Snapshot opened = Snapshot.open(dir);
+        assertArrayEquals(manifest.getCommitment(), opened.getManifest().getCommitment());
+        List<Snapshot.Record> records = new ArrayList<>();
+        for (int i = 0; i < manifest.getChunkCount(); i++) {
+            assertTrue(opened.getChunk(i).length <= Snapshot.CHUNK_SIZE + 16 * 1024);
+            records.addAll(opened.readChunk(i));
+        }
+        assertEquals(values.size(), records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(DatabaseName.values()[i % DatabaseName.values().length], records.get(i).getDatabase());
+            assertEquals(i, Bytes.toInt(records.get(i).getKey()));
+            assertArrayEquals(values.get(i), records.get(i).getValue());
+        }
+    }
+
+    @Test
+    public void testManifest() {
+        List<byte[]> hashes = new ArrayList<>();
+        hashes.add(Bytes.random(32));
+        hashes.add(Bytes.random(32));
+        SnapshotManifest manifest = new SnapshotManifest(Network.TESTNET, 2000, blockHash, hashes);
+
+        SnapshotManifest manifest2 = SnapshotManifest.fromBytes(manifest.toBytes());
+        assertEquals(Network.TESTNET, manifest2.getNetwork());
+        assertEquals(2000, manifest2.getHeight());
+        assertArrayEquals(blockHash, manifest2.getBlockHash());
+        assertEquals(2, manifest2.getChunkCount());
+        assertArrayEquals(hashes.get(1), manifest2.getChunkHash(1));
+        assertArrayEquals(manifest.getCommitment(), manifest2.getCommitment());
+    }
+
+    @Test(expected = BlockchainException.class)
+    public void testTamperedChunk() throws IOException {
+        File dir = new File(folder.getRoot(), "snapshot");
+        Snapshot.Writer writer = new Snapshot.Writer(dir);
+        writer.add(DatabaseName.ACCOUNT, Bytes.random(20), Bytes.random(32));
+        Snapshot snapshot = writer.finish(Network.DEVNET, 10, blockHash);
+
+        byte[] chunk = snapshot.getChunk(0);
+        chunk[chunk.length - 1] ^= 1;
+        assertFalse(Snapshot.verifyChunk(snapshot.getManifest(), 0, chunk));
+        Snapshot.writeChunk(dir, 0, chunk);
+        assertFalse(snapshot.verify());
+
+        snapshot.readChunk(0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriterNotEmpty() throws IOException {
+        new Snapshot.Writer(folder.newFolder());
+        folder.newFile();
+        new Snapshot.Writer(folder.getRoot());
+    }
+}
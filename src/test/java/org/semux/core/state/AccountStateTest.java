@@ -148,4 +148,114 @@ public class AccountStateTest {
         state.rollback();
         assertEquals(0, state2.getAccount(address).getNonce());
     }
+
+    @Test
+    public void testNestedTrack() {
+        byte[] address = Bytes.random(20);
+        AccountState track1 = state.track();
+        track1.adjustAvailable(address, Amount.of(1));
+
+        AccountState track2 = track1.track();
+        track2.adjustAvailable(address, Amount.of(2));
+        AccountState track3 = track2.track();
+        track3.adjustAvailable(address, Amount.of(4));
+        assertEquals(Amount.of(7), track3.getAccount(address).getAvailable());
+
+        // parents don't see uncommitted changes
+        assertEquals(Amount.of(3), track2.getAccount(address).getAvailable());
+        assertEquals(Amount.of(1), track1.getAccount(address).getAvailable());
+
+        track3.rollback();
+        assertEquals(Amount.of(3), track2.getAccount(address).getAvailable());
+        track2.commit();
+        assertEquals(Amount.of(3), track1.getAccount(address).getAvailable());
+        assertEquals(ZERO, state.getAccount(address).getAvailable());
+
+        track1.commit();
+        assertEquals(Amount.of(3), state.getAccount(address).getAvailable());
+    }
+
+    @Test
+    public void testDiscardedTrack() {
+        byte[] address = Bytes.random(20);
+        AccountState track1 = state.track();
+
+        AccountState track2 = track1.track();
+        track2.increaseNonce(address);
+        track2.putStorage(address, Bytes.of(1), Bytes.of(2));
+
+        // neither committed nor rolled back
+        AccountState track3 = track1.track();
+        assertEquals(0, track3.getAccount(address).getNonce());
+        assertNull(track3.getStorage(address, Bytes.of(1)));
+        track3.increaseNonce(address);
+        track3.commit();
+
+        track1.commit();
+        assertEquals(1, state.getAccount(address).getNonce());
+        assertNull(state.getStorage(address, Bytes.of(1)));
+    }
+
+    @Test
+    public void testReadFromDiscardedTrack() {
+        byte[] address = Bytes.random(20);
+        AccountState track1 = state.track();
+        track1.adjustAvailable(address, Amount.of(1));
+
+        AccountState track2 = track1.track();
+        track2.adjustAvailable(address, Amount.of(2));
+        track2.rollback();
+
+        // reading from the discarded layer doesn't discard the top one
+        AccountState track3 = track1.track();
+        track3.adjustAvailable(address, Amount.of(4));
+        assertEquals(Amount.of(1), track2.getAccount(address).getAvailable());
+        assertEquals(Amount.of(5), track3.getAccount(address).getAvailable());
+
+        track3.commit();
+        track1.commit();
+        assertEquals(Amount.of(5), state.getAccount(address).getAvailable());
+    }
+
+    @Test
+    public void testClone() {
+        byte[] address = Bytes.random(20);
+        AccountState track = state.track();
+        track.increaseNonce(address);
+
+        AccountState clone = track.clone();
+        track.increaseNonce(address);
+        assertEquals(1, clone.getAccount(address).getNonce());
+        assertEquals(2, track.getAccount(address).getNonce());
+    }
+
+    @Test
+    public void testCache() {
+        AccountStateImpl root = (AccountStateImpl) state;
+        byte[] address = Bytes.random(20);
+        long hits = root.getCacheStats().hitCount();
+        long misses = root.getCacheStats().missCount();
+
+        assertEquals(ZERO, state.getAccount(address).getAvailable());
+        assertEquals(ZERO, state.track().getAccount(address).getAvailable());
+        assertEquals(misses + 1, root.getCacheStats().missCount());
+        assertEquals(hits + 1, root.getCacheStats().hitCount());
+
+        // cached accounts are not affected by changes to the returned copies
+        state.getAccount(address).setNonce(100);
+        assertEquals(0, state.getAccount(address).getNonce());
+
+        // committed values replace the cached ones
+        AccountState track = state.track();
+        track.adjustAvailable(address, Amount.of(10));
+        track.putStorage(address, Bytes.of(1), Bytes.of(2));
+        assertNull(state.getStorage(address, Bytes.of(1)));
+        track.commit();
+        state.commit();
+        assertEquals(Amount.of(10), state.getAccount(address).getAvailable());
+        assertArrayEquals(Bytes.of(2), state.getStorage(address, Bytes.of(1)));
+
+        root.invalidateCache();
+        assertEquals(Amount.of(10), state.getAccount(address).getAvailable());
+    }
 }
@@ -14,6 +14,7 @@ import static org.junit.Assert.assertTrue;
 import static org.semux.core.Amount.ZERO;
 import static org.semux.core.Unit.SEM;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -156,6 +157,80 @@ public class DelegateStateTest {
         assertEquals(value2, votes.get(new ByteArray(voterKey2.toAddress())));
     }
 
+    @Test
+    public void testGetDelegatesWithLimit() {
+        byte[] voter = new Key().toAddress();
+        for (int i = 0; i < 50; i++) {
+            byte[] delegate = new Key().toAddress();
+            assertTrue(ds.register(delegate, Bytes.of("delegate" + i)));
+            assertTrue(ds.vote(voter, delegate, Amount.of(i + 1)));
+        }
+
+        List<Delegate> all = ds.getDelegates();
+        List<Delegate> top = ds.getDelegates(10);
+        assertEquals(10, top.size());
+        for (int i = 0; i < top.size(); i++) {
+            assertArrayEquals(all.get(i).getAddress(), top.get(i).getAddress());
+        }
+        assertEquals(Amount.of(50), top.get(0).getVotes());
+    }
+
+    @Test
+    public void testRankingAcrossTracks() {
+        byte[] voter = new Key().toAddress();
+        List<byte[]> addresses = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] delegate = new Key().toAddress();
+            addresses.add(delegate);
+            assertTrue(ds.register(delegate, Bytes.of("delegate" + i)));
+            assertTrue(ds.vote(voter, delegate, Amount.of(i + 1)));
+        }
+        ds.commit();
+        assertArrayEquals(addresses.get(19), ds.getDelegates().get(0).getAddress());
+
+        // the lowest ranked delegate overtakes everyone in a nested track
+        DelegateState track1 = ds.track();
+        DelegateState track2 = track1.track();
+        assertTrue(track2.vote(voter, addresses.get(0), Amount.of(100)));
+        assertArrayEquals(addresses.get(0), track2.getDelegates(1).get(0).getAddress());
+        assertArrayEquals(addresses.get(19), track1.getDelegates(1).get(0).getAddress());
+        assertEquals(ds.getDelegates().size(), track2.getDelegates().size());
+
+        // and keeps the rank once committed to the database
+        track2.commit();
+        track1.commit();
+        ds.commit();
+        List<Delegate> list = ds.getDelegates();
+        assertArrayEquals(addresses.get(0), list.get(0).getAddress());
+        assertEquals(Amount.of(101), list.get(0).getVotes());
+        assertArrayEquals(addresses.get(19), list.get(1).getAddress());
+        assertEquals(delegates.size() + 20, list.size());
+    }
+
+    @Test
+    public void testNestedTrackRollback() {
+        byte[] voter = new Key().toAddress();
+        byte[] delegate = new Key().toAddress();
+        DelegateState track1 = ds.track();
+        assertTrue(track1.register(delegate, Bytes.of("nested")));
+
+        DelegateState track2 = track1.track();
+        assertTrue(track2.vote(voter, delegate, Amount.of(5)));
+        DelegateState track3 = track2.track();
+        assertTrue(track3.unvote(voter, delegate, Amount.of(2)));
+        assertEquals(Amount.of(3), track3.getVote(voter, delegate));
+        assertEquals(Amount.of(5), track2.getVote(voter, delegate));
+
+        track3.commit();
+        track2.rollback();
+        assertEquals(ZERO, track1.getVote(voter, delegate));
+        assertEquals(ZERO, track1.getDelegateByName(Bytes.of("nested")).getVotes());
+
+        track1.commit();
+        assertNotNull(ds.getDelegateByAddress(delegate));
+        assertEquals(ZERO, ds.getVote(voter, delegate));
+    }
+
     @After
     public void rollback() {
         ds.rollback();
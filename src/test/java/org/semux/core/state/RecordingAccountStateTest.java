@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.semux.core.Amount;
+import org.semux.db.DatabaseName;
+import org.semux.rules.TemporaryDatabaseRule;
+import org.semux.util.ByteArray;
+import org.semux.util.Bytes;
+
+public class RecordingAccountStateTest {
+
+    private AccountState base;
+    private byte[] address;
+
+    @Rule
+    public TemporaryDatabaseRule temporaryDBFactory = new TemporaryDatabaseRule();
+
+    @Before
+    public void setUp() {
+        base = new AccountStateImpl(temporaryDBFactory.getDB(DatabaseName.ACCOUNT));
+        address = Bytes.random(20);
+        base.adjustAvailable(address, Amount.of(10));
+        base.commit();
+    }
+
+    @Test
+    public void testCommit() {
+        RecordingAccountState state = new RecordingAccountState(base);
+        state.adjustAvailable(address, Amount.of(5));
+        assertEquals(Amount.of(15), state.getAccount(address).getAvailable());
+        assertEquals(Amount.of(10), base.getAccount(address).getAvailable());
+
+        state.commit();
+        assertEquals(Amount.of(15), base.getAccount(address).getAvailable());
+        assertEquals(Amount.of(15), state.getAccount(address).getAvailable());
+
+        ByteArray k = ByteArray.of(Bytes.merge(AccountStateImpl.TYPE_ACCOUNT, address));
+        assertTrue(state.getReads().contains(k));
+        assertTrue(state.getWrites().contains(k));
+    }
+
+    @Test
+    public void testRollback() {
+        RecordingAccountState state = new RecordingAccountState(base);
+        state.adjustAvailable(address, Amount.of(5));
+        state.rollback();
+        assertEquals(Amount.of(10), state.getAccount(address).getAvailable());
+
+        state.commit();
+        assertEquals(Amount.of(10), base.getAccount(address).getAvailable());
+    }
+
+    @Test
+    public void testTrack() {
+        RecordingAccountState state = new RecordingAccountState(base);
+        AccountState track = state.track();
+        track.adjustAvailable(address, Amount.of(5));
+        assertEquals(Amount.of(10), state.getAccount(address).getAvailable());
+
+        track.commit();
+        assertEquals(Amount.of(15), state.getAccount(address).getAvailable());
+        assertEquals(Amount.of(10), base.getAccount(address).getAvailable());
+
+        AccountState discarded = state.track();
+        discarded.adjustAvailable(address, Amount.of(5));
+        discarded.rollback();
+        discarded.commit();
+        assertEquals(Amount.of(15), state.getAccount(address).getAvailable());
+
+        ByteArray k = ByteArray.of(Bytes.merge(AccountStateImpl.TYPE_ACCOUNT, address));
+        assertTrue(state.getReads().contains(k));
+        assertTrue(state.getWrites().contains(k));
+    }
+
+    @Test
+    public void testClone() {
+        RecordingAccountState state = new RecordingAccountState(base);
+        state.adjustAvailable(address, Amount.of(5));
+
+        AccountState clone = state.clone();
+        clone.adjustAvailable(address, Amount.of(1));
+        assertEquals(Amount.of(15), state.getAccount(address).getAvailable());
+        assertEquals(Amount.of(16), clone.getAccount(address).getAvailable());
+
+        clone.commit();
+        assertEquals(Amount.of(16), base.getAccount(address).getAvailable());
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core.state;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.semux.TestUtils;
+import org.semux.config.AbstractConfig;
+import org.semux.config.Config;
+import org.semux.config.Constants;
+import org.semux.config.UnitTestnetConfig;
+import org.semux.core.Amount;
+import org.semux.core.BlockchainImpl;
+import org.semux.crypto.Hash;
+import org.semux.db.Database;
+import org.semux.db.DatabaseName;
+import org.semux.rules.TemporaryDatabaseRule;
+import org.semux.util.ByteArray;
+import org.semux.util.Bytes;
+import org.semux.util.ClosableIterator;
+
+public class StateTrieTest {
+
+    @Rule
+    public TemporaryDatabaseRule temporaryDBFactory = new TemporaryDatabaseRule();
+
+    @Rule
+    public TemporaryDatabaseRule otherDBFactory = new TemporaryDatabaseRule();
+
+    private Database stateDB;
+    private StateTrie trie;
+
+    @Before
+    public void setUp() {
+        stateDB = temporaryDBFactory.getDB(DatabaseName.STATE);
+        trie = new StateTrie(stateDB);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertArrayEquals(StateTrie.EMPTY_ROOT, trie.getRoot());
+        assertArrayEquals(StateTrie.EMPTY_ROOT, trie.update(StateTrie.NAMESPACE_ACCOUNT, new HashMap<>()));
+    }
+
+    @Test
+    public void testRootOfRecords() {
+        Map<ByteArray, byte[]> records = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            records.put(ByteArray.of(Bytes.random(21)), Bytes.random(i % 40 + 1));
+        }
+        trie.update(StateTrie.NAMESPACE_ACCOUNT, records);
+        assertArrayEquals(expectedRoot(records), trie.getRoot());
+
+        // update, add and delete some records in a few batches
+        for (int batch = 0; batch < 5; batch++) {
+            Map<ByteArray, byte[]> updates = new HashMap<>();
+            int n = 0;
+            for (ByteArray k : records.keySet()) {
+                if (n++ % 7 == batch) {
+                    updates.put(k, n % 2 == 0 ? null : Bytes.random(8));
+                }
+            }
+            for (int i = 0; i < 50; i++) {
+                updates.put(ByteArray.of(Bytes.random(21)), Bytes.random(8));
+            }
+            trie.update(StateTrie.NAMESPACE_ACCOUNT, updates);
+
+            for (Map.Entry<ByteArray, byte[]> e : updates.entrySet()) {
+                if (e.getValue() == null) {
+                    records.remove(e.getKey());
+                } else {
+                    records.put(e.getKey(), e.getValue());
+                }
+            }
+            assertArrayEquals(expectedRoot(records), trie.getRoot());
+        }
+
+        // the same records, added at once into a new trie
+        StateTrie other = new StateTrie(otherDBFactory.getDB(DatabaseName.STATE));
+        other.update(StateTrie.NAMESPACE_ACCOUNT, records);
+        assertArrayEquals(trie.getRoot(), other.getRoot());
+    }
+
+    @Test
+    public void testDeleteAll() {
+        Map<ByteArray, byte[]> records = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            records.put(ByteArray.of(Bytes.random(21)), Bytes.random(8));
+        }
+        trie.update(StateTrie.NAMESPACE_ACCOUNT, records);
+
+        records.replaceAll((k, v) -> null);
+        assertArrayEquals(StateTrie.EMPTY_ROOT, trie.update(StateTrie.NAMESPACE_ACCOUNT, records));
+
+        // no node is left behind
+        ClosableIterator<Map.Entry<byte[], byte[]>> it = stateDB.iterator();
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    @Test
+    public void testProof() {
+        Map<ByteArray, byte[]> records = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            records.put(ByteArray.of(Bytes.random(21)), Bytes.random(8));
+        }
+        byte[] root = trie.update(StateTrie.NAMESPACE_ACCOUNT, records);
+
+        for (Map.Entry<ByteArray, byte[]> e : records.entrySet()) {
+            byte[] key = StateTrie.getKey(StateTrie.NAMESPACE_ACCOUNT, e.getKey().getData());
+            StateTrie.Proof proof = StateTrie.Proof.fromBytes(trie.getProof(key).toBytes());
+
+            assertTrue(proof.verify(root, key, e.getValue()));
+            assertFalse(proof.verify(root, key, Bytes.random(8)));
+            assertFalse(proof.verify(root, key, null));
+            assertFalse(proof.verify(Bytes.random(32), key, e.getValue()));
+        }
+
+        // absent keys
+        for (int i = 0; i < 100; i++) {
+            byte[] key = StateTrie.getKey(StateTrie.NAMESPACE_ACCOUNT, Bytes.random(21));
+            StateTrie.Proof proof = trie.getProof(key);
+
+            assertTrue(proof.verify(root, key, null));
+            assertFalse(proof.verify(root, key, Bytes.random(8)));
+        }
+
+        // a leaf proves the absence of the other keys below it, not elsewhere
+        byte[] key = StateTrie.getKey(StateTrie.NAMESPACE_ACCOUNT, records.keySet().iterator().next().getData());
+        StateTrie.Proof proof = trie.getProof(key);
+        byte[] below = key.clone();
+        below[31] ^= 1;
+        assertTrue(proof.verify(root, below, null));
+        byte[] elsewhere = key.clone();
+        elsewhere[0] ^= (byte) 0x80;
+        assertFalse(proof.verify(root, elsewhere, null));
+
+        // tampered siblings
+        proof.getSiblings().get(0)[0] ^= 1;
+        assertFalse(proof.verify(root, key, records.values().iterator().next()));
+    }
+
+    @Test
+    public void testRootOfTrackedStates() {
+        Config config = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR);
+        TestUtils.setInternalState(config, "forkStateRootEnabled", true, AbstractConfig.class);
+        BlockchainImpl chain = new BlockchainImpl(config, temporaryDBFactory);
+        AccountState as = chain.getAccountState();
+        DelegateState ds = chain.getDelegateState();
+        byte[] root = chain.getStateTrie().getRoot();
+
+        byte[] address = Bytes.random(20);
+        AccountState asTrack = as.track();
+        DelegateState dsTrack = ds.track();
+        asTrack.adjustAvailable(address, Amount.of(1000));
+        asTrack.putStorage(address, Bytes.random(32), Bytes.random(32));
+        dsTrack.register(address, Bytes.of("state_trie"));
+        dsTrack.vote(address, address, Amount.of(10));
+
+        // the root of the tracked states, the committed one being left as is
+        AccountState nested = asTrack.track();
+        nested.adjustAvailable(address, Amount.of(1));
+        byte[] trackedRoot = chain.getStateTrie().getRoot(nested, dsTrack);
+        assertArrayEquals(root, chain.getStateTrie().getRoot());
+
+        // committed at once, as a block is
+        nested.commit();
+        asTrack.commit();
+        dsTrack.commit();
+        chain.getStateTrie().update(as, ds);
+        as.commit();
+        ds.commit();
+        assertArrayEquals(trackedRoot, chain.getStateTrie().getRoot());
+
+        // proofs of the account, and of a missing storage slot
+        assertTrue(chain.getAccountProof(address).verify(trackedRoot, StateTrie.getAccountKey(address),
+                as.getAccount(address).toBytes()));
+        byte[] slot = Bytes.random(32);
+        assertNull(as.getStorage(address, slot));
+        assertTrue(chain.getStorageProof(address, slot).verify(trackedRoot,
+                StateTrie.getStorageKey(address, slot), null));
+    }
+
+    /**
+     * Computes the root of a set of records, from scratch.
+     */
+    private byte[] expectedRoot(Map<ByteArray, byte[]> records) {
+        TreeMap<ByteArray, byte[]> leaves = new TreeMap<>();
+        for (Map.Entry<ByteArray, byte[]> e : records.entrySet()) {
+            byte[] key = StateTrie.getKey(StateTrie.NAMESPACE_ACCOUNT, e.getKey().getData());
+            leaves.put(ByteArray.of(key), Hash.h256(Bytes.merge(new byte[] { 0 }, key, Hash.h256(e.getValue()))));
+        }
+        return expectedRoot(new ArrayList<>(leaves.keySet()), leaves, 0);
+    }
+
+    private byte[] expectedRoot(List<ByteArray> keys, Map<ByteArray, byte[]> leaves, int depth) {
+        if (keys.isEmpty()) {
+            return StateTrie.EMPTY_ROOT;
+        } else if (keys.size() == 1) {
+            return leaves.get(keys.get(0));
+        }
+
+        List<ByteArray> left = new ArrayList<>();
+        List<ByteArray> right = new ArrayList<>();
+        for (ByteArray k : keys) {
+            int bit = (k.getData()[depth / 8] >>> (7 - depth % 8)) & 1;
+            (bit == 0 ? left : right).add(k);
+        }
+        return Hash.h256(Bytes.merge(new byte[] { 1 }, expectedRoot(left, leaves, depth + 1),
+                expectedRoot(right, leaves, depth + 1)));
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.semux.rules.TemporaryDatabaseRule;
+import org.semux.util.Bytes;
+
+public class BatchedDatabaseFactoryTest {
+
+    @Rule
+    public TemporaryDatabaseRule temporaryDBRule = new TemporaryDatabaseRule();
+
+    @Test
+    public void testCommit() {
+        BatchedDatabaseFactory factory = new BatchedDatabaseFactory(temporaryDBRule, true);
+
+        factory.begin();
+        factory.getDB(DatabaseName.ACCOUNT).put(Bytes.of("a"), Bytes.of("1"));
+        factory.getDB(DatabaseName.INDEX).put(Bytes.of("b"), Bytes.of("2"));
+        assertNull(temporaryDBRule.getDB(DatabaseName.ACCOUNT).get(Bytes.of("a")));
+        factory.commit();
+
+        assertArrayEquals(Bytes.of("1"), temporaryDBRule.getDB(DatabaseName.ACCOUNT).get(Bytes.of("a")));
+        assertArrayEquals(Bytes.of("2"), temporaryDBRule.getDB(DatabaseName.INDEX).get(Bytes.of("b")));
+        assertNull(temporaryDBRule.getDB(DatabaseName.INDEX).get(BatchedDatabaseFactory.KEY_COMMIT_JOURNAL));
+    }
+
+    @Test
+    public void testRecover() {
+        BatchedDatabaseFactory factory = new BatchedDatabaseFactory(temporaryDBRule, true);
+
+        factory.begin();
+        factory.getDB(DatabaseName.ACCOUNT).put(Bytes.of("a"), Bytes.of("1"));
+        factory.getDB(DatabaseName.VOTE).delete(Bytes.of("c"));
+        factory.getDB(DatabaseName.INDEX).put(Bytes.of("b"), Bytes.of("2"));
+        temporaryDBRule.getDB(DatabaseName.VOTE).put(Bytes.of("c"), Bytes.of("3"));
+
+        // simulate a crash right after the journal is written
+        byte[] journal = factory.encodeJournal();
+        assertNotNull(journal);
+        temporaryDBRule.getDB(DatabaseName.INDEX).put(BatchedDatabaseFactory.KEY_COMMIT_JOURNAL, journal);
+
+        new BatchedDatabaseFactory(temporaryDBRule, false);
+        assertArrayEquals(Bytes.of("1"), temporaryDBRule.getDB(DatabaseName.ACCOUNT).get(Bytes.of("a")));
+        assertArrayEquals(Bytes.of("2"), temporaryDBRule.getDB(DatabaseName.INDEX).get(Bytes.of("b")));
+        assertNull(temporaryDBRule.getDB(DatabaseName.VOTE).get(Bytes.of("c")));
+        assertNull(temporaryDBRule.getDB(DatabaseName.INDEX).get(BatchedDatabaseFactory.KEY_COMMIT_JOURNAL));
+    }
+}
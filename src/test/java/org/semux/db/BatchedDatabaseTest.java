@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.semux.rules.TemporaryDatabaseRule;
+import org.semux.util.Bytes;
+import org.semux.util.ClosableIterator;
+
+public class BatchedDatabaseTest {
+
+    @Rule
+    public TemporaryDatabaseRule temporaryDBRule = new TemporaryDatabaseRule();
+
+    @Test
+    public void testWriteThrough() {
+        Database raw = temporaryDBRule.getDB(DatabaseName.ACCOUNT);
+        BatchedDatabase db = new BatchedDatabase(raw);
+
+        db.put(Bytes.of("a"), Bytes.of("1"));
+        assertArrayEquals(Bytes.of("1"), raw.get(Bytes.of("a")));
+    }
+
+    @Test
+    public void testCommit() {
+        Database raw = temporaryDBRule.getDB(DatabaseName.ACCOUNT);
+        raw.put(Bytes.of("a"), Bytes.of("1"));
+        BatchedDatabase db = new BatchedDatabase(raw);
+
+        db.begin();
+        db.put(Bytes.of("b"), Bytes.of("2"));
+        db.delete(Bytes.of("a"));
+
+        // visible through the batch only
+        assertNull(db.get(Bytes.of("a")));
+        assertArrayEquals(Bytes.of("2"), db.get(Bytes.of("b")));
+        assertArrayEquals(Bytes.of("1"), raw.get(Bytes.of("a")));
+        assertNull(raw.get(Bytes.of("b")));
+
+        db.commit();
+        assertFalse(db.isBatching());
+        assertTrue(db.getUpdates().isEmpty());
+        assertNull(raw.get(Bytes.of("a")));
+        assertArrayEquals(Bytes.of("2"), raw.get(Bytes.of("b")));
+    }
+
+    @Test
+    public void testRollback() {
+        Database raw = temporaryDBRule.getDB(DatabaseName.ACCOUNT);
+        BatchedDatabase db = new BatchedDatabase(raw);
+
+        db.begin();
+        db.put(Bytes.of("a"), Bytes.of("1"));
+        db.rollback();
+
+        assertNull(db.get(Bytes.of("a")));
+        assertNull(raw.get(Bytes.of("a")));
+    }
+
+    @Test
+    public void testIterator() {
+        Database raw = temporaryDBRule.getDB(DatabaseName.ACCOUNT);
+        raw.put(Bytes.of("a"), Bytes.of("1"));
+        raw.put(Bytes.of("c"), Bytes.of("3"));
+        raw.put(Bytes.of("e"), Bytes.of("5"));
+        BatchedDatabase db = new BatchedDatabase(raw);
+
+        db.begin();
+        db.put(Bytes.of("b"), Bytes.of("2"));
+        db.put(Bytes.of("c"), Bytes.of("33"));
+        db.delete(Bytes.of("e"));
+        db.put(Bytes.of("f"), Bytes.of("6"));
+
+        List<String> keys = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        ClosableIterator<Entry<byte[], byte[]>> itr = db.iterator(Bytes.of("b"));
+        while (itr.hasNext()) {
+            Entry<byte[], byte[]> e = itr.next();
+            keys.add(Bytes.toString(e.getKey()));
+            values.add(Bytes.toString(e.getValue()));
+        }
+        itr.close();
+
+        assertEquals(List.of("b", "c", "f"), keys);
+        assertEquals(List.of("2", "33", "6"), values);
+    }
+}
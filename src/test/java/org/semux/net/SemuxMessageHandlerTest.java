@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.semux.config.Config;
+import org.semux.config.Constants;
+import org.semux.config.UnitTestnetConfig;
+import org.semux.net.msg.MessageCode;
+import org.semux.net.msg.consensus.BlockPartsMessage;
+import org.semux.net.msg.p2p.PingMessage;
+import org.semux.util.Bytes;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class SemuxMessageHandlerTest {
+
+    private final Config config = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR);
+
+    @Test
+    public void testSingleFrame() {
+        testRoundTrip(1024);
+    }
+
+    @Test
+    public void testChunked() {
+        // random data, which doesn't compress, spans several frames
+        testRoundTrip(config.netMaxFrameBodySize() * 3 + 1);
+        testRoundTrip(config.netMaxFrameBodySize() * 4);
+    }
+
+    @Test
+    public void testAdaptiveCompression() {
+        CompressionStats stats = new CompressionStats();
+        EmbeddedChannel sender = new EmbeddedChannel(new SemuxMessageHandler(config, stats));
+
+        // small messages are sent raw
+        sender.writeOutbound(new PingMessage());
+        Frame frame = sender.readOutbound();
+        assertThat(frame.getCompressType()).isEqualTo(Frame.COMPRESS_NONE);
+        frame.release();
+
+        // compressible messages are compressed
+        sender.writeOutbound(new BlockPartsMessage(1, 2, Collections.singletonList(new byte[4096])));
+        frame = sender.readOutbound();
+        assertThat(frame.getCompressType()).isEqualTo(Frame.COMPRESS_SNAPPY);
+        assertThat(frame.getPacketSize()).isLessThan(4096);
+        frame.release();
+
+        // messages which don't compress are sent raw, once their ratio is known
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            sender.writeOutbound(new BlockPartsMessage(1, 2, Collections.singletonList(Bytes.random(4096))));
+            frame = sender.readOutbound();
+            assertThat(frame.getCompressType()).isEqualTo(Frame.COMPRESS_NONE);
+            frame.release();
+        }
+        CompressionStats.CodeStats codeStats = stats.get(MessageCode.BLOCK_PARTS);
+        assertThat(codeStats.getSent()).isEqualTo(n + 1);
+        assertThat(codeStats.getCompressed()).isLessThan(CompressionStats.MIN_SAMPLES + n / 32);
+        assertThat(codeStats.getRatio()).isGreaterThan(CompressionStats.MAX_RATIO);
+        assertThat(stats.get(MessageCode.PING).getCompressed()).isZero();
+    }
+
+    private void testRoundTrip(int size) {
+        EmbeddedChannel sender = new EmbeddedChannel(new SemuxFrameHandler(config), new SemuxMessageHandler(config));
+        EmbeddedChannel receiver = new EmbeddedChannel(new SemuxFrameHandler(config),
+                new SemuxMessageHandler(config));
+
+        byte[] data = Bytes.random(size);
+        BlockPartsMessage msg = new BlockPartsMessage(1, 2, Arrays.asList(data, Bytes.random(32)));
+        sender.writeOutbound(msg);
+
+        List<ByteBuf> bufs = new ArrayList<>();
+        for (ByteBuf buf; (buf = sender.readOutbound()) != null;) {
+            bufs.add(buf);
+            receiver.writeInbound(buf);
+        }
+
+        BlockPartsMessage received = receiver.readInbound();
+        assertThat(received.getBody()).isEqualTo(msg.getBody());
+        assertThat(received.getData().get(0)).isEqualTo(data);
+
+        // all the buffers are released once the message is decoded, but the empty ones
+        // written by the frame encoder
+        for (ByteBuf buf : bufs) {
+            assertThat(buf.refCnt()).isEqualTo(buf.capacity() == 0 ? 1 : 0);
+        }
+        assertThat(sender.finish()).isFalse();
+        assertThat(receiver.finish()).isFalse();
+    }
+}
@@ -79,6 +79,9 @@ public class MessageQueueTest {
     public void testQueueOverflow() throws InterruptedException {
         Channel ch = connect();
 
+        // the messages are written as fast as queued, unless the writing stops
+        ch.getMessageQueue().deactivate();
+
         PingMessage msg = new PingMessage();
         assertTrue(ch.getMessageQueue().sendMessage(msg));
         for (int i = 0; i < server1.getKernel().getConfig().netMaxMessageQueueSize() * 2; i++) {
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.semux.core.Block;
+import org.semux.core.BlockHeader;
+import org.semux.crypto.Key;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.Bytes;
+import org.semux.util.MerkleUtil;
+import org.semux.util.TimeUtil;
+
+public class BlockMessageTest {
+
+    @Test
+    public void testSerialization() {
+        BlockHeader header = new BlockHeader(1, Bytes.random(Key.ADDRESS_LEN), Bytes.random(32),
+                TimeUtil.currentTimeMillis(), MerkleUtil.computeTransactionsRoot(Collections.emptyList()),
+                MerkleUtil.computeResultsRoot(Collections.emptyList()), Bytes.EMPTY_HASH, Bytes.EMPTY_BYTES);
+        Block block = new Block(header, Collections.emptyList(), Collections.emptyList());
+
+        BlockMessage m = new BlockMessage(block);
+        assertThat(m.getCode()).isEqualTo(MessageCode.BLOCK);
+        assertThat(m.getResponseMessageClass()).isNull();
+
+        BlockMessage m2 = new BlockMessage(m.getBody());
+        assertThat(m2.getBlock().getHash()).isEqualTo(block.getHash());
+
+        // the same message, from the encoded parts of the block
+        BlockMessage m3 = new BlockMessage(Arrays.asList(block.getEncodedHeader(), block.getEncodedTransactions(),
+                block.getEncodedResults(), block.getEncodedVotes()));
+        assertThat(m3.getBody()).isEqualTo(m.getBody());
+        assertThat(m3.getBlock().getHash()).isEqualTo(block.getHash());
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.semux.core.BlockPart;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.Bytes;
+
+public class BlockPartsRangeMessageTest {
+
+    @Test
+    public void testSerialization() {
+        long number = 2;
+        int parts = BlockPart.encode(BlockPart.TRANSACTIONS, BlockPart.VOTES);
+        List<List<byte[]>> data = Arrays.asList(
+                Arrays.asList(Bytes.random(8), Bytes.random(4)),
+                Arrays.asList(Bytes.random(16), Bytes.EMPTY_BYTES));
+
+        BlockPartsRangeMessage m = new BlockPartsRangeMessage(number, parts, data);
+        assertThat(m.getCode()).isEqualTo(MessageCode.BLOCK_PARTS_RANGE);
+        assertThat(m.getResponseMessageClass()).isNull();
+
+        BlockPartsRangeMessage m2 = new BlockPartsRangeMessage(m.getBody());
+        assertThat(m2.getCode()).isEqualTo(MessageCode.BLOCK_PARTS_RANGE);
+        assertThat(m2.getNumber()).isEqualTo(number);
+        assertThat(m2.getParts()).isEqualTo(parts);
+        assertThat(m2.getData()).hasSize(2);
+        assertThat(m2.getData().get(0)).containsExactlyElementsOf(data.get(0));
+        assertThat(m2.getData().get(1)).containsExactlyElementsOf(data.get(1));
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.semux.core.BlockPart;
+import org.semux.net.msg.MessageCode;
+
+public class GetBlockPartsRangeMessageTest {
+
+    @Test
+    public void testSerialization() {
+        long number = 1;
+        int count = 1024;
+        int parts = BlockPart.encode(BlockPart.HEADER);
+
+        GetBlockPartsRangeMessage m = new GetBlockPartsRangeMessage(number, count, parts);
+        assertThat(m.getCode()).isEqualTo(MessageCode.GET_BLOCK_PARTS_RANGE);
+        assertThat(m.getResponseMessageClass()).isEqualTo(BlockPartsRangeMessage.class);
+
+        GetBlockPartsRangeMessage m2 = new GetBlockPartsRangeMessage(m.getBody());
+        assertThat(m2.getCode()).isEqualTo(MessageCode.GET_BLOCK_PARTS_RANGE);
+        assertThat(m2.getResponseMessageClass()).isEqualTo(BlockPartsRangeMessage.class);
+        assertThat(m2.getNumber()).isEqualTo(number);
+        assertThat(m2.getCount()).isEqualTo(count);
+        assertThat(m2.getParts()).isEqualTo(parts);
+    }
+}
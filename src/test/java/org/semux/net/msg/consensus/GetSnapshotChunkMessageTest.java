@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.semux.net.msg.MessageCode;
+
+public class GetSnapshotChunkMessageTest {
+
+    @Test
+    public void testSerialization() {
+        long height = 2000;
+        int index = 3;
+
+        GetSnapshotChunkMessage m = new GetSnapshotChunkMessage(height, index);
+        assertThat(m.getCode()).isEqualTo(MessageCode.GET_SNAPSHOT_CHUNK);
+        assertThat(m.getResponseMessageClass()).isEqualTo(SnapshotChunkMessage.class);
+
+        GetSnapshotChunkMessage m2 = new GetSnapshotChunkMessage(m.getBody());
+        assertThat(m2.getCode()).isEqualTo(MessageCode.GET_SNAPSHOT_CHUNK);
+        assertThat(m2.getHeight()).isEqualTo(height);
+        assertThat(m2.getIndex()).isEqualTo(index);
+
+        GetSnapshotChunkMessage m3 = new GetSnapshotChunkMessage(
+                new GetSnapshotChunkMessage(0, GetSnapshotChunkMessage.MANIFEST).getBody());
+        assertThat(m3.getIndex()).isEqualTo(GetSnapshotChunkMessage.MANIFEST);
+    }
+}
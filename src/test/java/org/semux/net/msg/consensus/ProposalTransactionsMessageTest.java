@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.semux.Network;
+import org.semux.core.Amount;
+import org.semux.core.Transaction;
+import org.semux.core.TransactionType;
+import org.semux.crypto.Key;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.Bytes;
+import org.semux.util.TimeUtil;
+
+public class ProposalTransactionsMessageTest {
+
+    @Test
+    public void testSerialization() {
+        byte[] blockHash = Bytes.random(32);
+        int[] indices = { 3, 7 };
+        Key key = new Key();
+        List<Transaction> txs = Arrays.asList(createTransaction(key, 3), createTransaction(key, 7));
+
+        GetProposalTransactionsMessage request = new GetProposalTransactionsMessage(
+                new GetProposalTransactionsMessage(blockHash, indices).getBody());
+        assertThat(request.getCode()).isEqualTo(MessageCode.BFT_GET_PROPOSAL_TRANSACTIONS);
+        assertThat(request.getResponseMessageClass()).isEqualTo(ProposalTransactionsMessage.class);
+        assertThat(request.getBlockHash()).isEqualTo(blockHash);
+        assertThat(request.getIndices()).isEqualTo(indices);
+
+        ProposalTransactionsMessage response = new ProposalTransactionsMessage(
+                new ProposalTransactionsMessage(blockHash, indices, txs).getBody());
+        assertThat(response.getCode()).isEqualTo(MessageCode.BFT_PROPOSAL_TRANSACTIONS);
+        assertThat(response.getBlockHash()).isEqualTo(blockHash);
+        assertThat(response.getIndices()).isEqualTo(indices);
+        assertThat(response.getTransactions()).extracting(Transaction::getHash)
+                .containsExactly(txs.get(0).getHash(), txs.get(1).getHash());
+    }
+
+    private Transaction createTransaction(Key key, long nonce) {
+        return new Transaction(Network.DEVNET, TransactionType.TRANSFER, Bytes.random(20), Amount.of(1),
+                Amount.of(5_000_000L), nonce, TimeUtil.currentTimeMillis(), Bytes.EMPTY_BYTES).sign(key);
+    }
+}
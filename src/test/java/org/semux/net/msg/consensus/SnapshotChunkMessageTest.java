@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.Bytes;
+
+public class SnapshotChunkMessageTest {
+
+    @Test
+    public void testSerialization() {
+        long height = 2000;
+        int index = 3;
+        byte[] data = Bytes.random(64);
+
+        SnapshotChunkMessage m = new SnapshotChunkMessage(height, index, data);
+        assertThat(m.getCode()).isEqualTo(MessageCode.SNAPSHOT_CHUNK);
+        assertThat(m.getResponseMessageClass()).isNull();
+
+        SnapshotChunkMessage m2 = new SnapshotChunkMessage(m.getBody());
+        assertThat(m2.getCode()).isEqualTo(MessageCode.SNAPSHOT_CHUNK);
+        assertThat(m2.getHeight()).isEqualTo(height);
+        assertThat(m2.getIndex()).isEqualTo(index);
+        assertThat(m2.getData()).isEqualTo(data);
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.p2p;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.semux.net.msg.p2p.TransactionInventoryMessage.MAX_HASHES;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.Bytes;
+
+public class TransactionInventoryMessageTest {
+
+    @Test
+    public void testCodec() {
+        List<byte[]> hashes = Arrays.asList(Bytes.random(32), Bytes.random(32));
+        TransactionInventoryMessage msg = new TransactionInventoryMessage(
+                new TransactionInventoryMessage(hashes).getBody());
+
+        assertEquals(MessageCode.TRANSACTION_INVENTORY, msg.getCode());
+        assertTrue(msg.validate());
+        assertEquals(hashes.size(), msg.getHashes().size());
+        for (int i = 0; i < hashes.size(); i++) {
+            assertArrayEquals(hashes.get(i), msg.getHashes().get(i));
+        }
+
+        GetTransactionsMessage request = new GetTransactionsMessage(new GetTransactionsMessage(hashes).getBody());
+        assertEquals(MessageCode.GET_TRANSACTIONS, request.getCode());
+        assertTrue(request.validate());
+        assertArrayEquals(hashes.get(1), request.getHashes().get(1));
+    }
+
+    @Test
+    public void testInvalidHash() {
+        assertFalse(new TransactionInventoryMessage(Arrays.asList(Bytes.random(32), Bytes.random(20))).validate());
+    }
+
+    @Test
+    public void testOverflow() {
+        List<byte[]> hashes = new ArrayList<>();
+        for (int i = 0; i < MAX_HASHES + 1; i++) {
+            hashes.add(Bytes.random(32));
+        }
+
+        assertFalse(new TransactionInventoryMessage(hashes).validate());
+        assertFalse(new TransactionInventoryMessage(new TransactionInventoryMessage(hashes).getBody()).validate());
+    }
+}
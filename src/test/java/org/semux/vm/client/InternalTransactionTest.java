@@ -15,13 +15,15 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
 import static org.semux.core.Unit.SEM;
 
+import java.util.Collection;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import org.semux.Network;
 import org.semux.config.Config;
-import org.semux.config.Constants;
-import org.semux.config.UnitTestnetConfig;
 import org.semux.core.Amount;
 import org.semux.core.BlockHeader;
 import org.semux.core.Blockchain;
@@ -38,8 +40,20 @@ import org.semux.rules.TemporaryDatabaseRule;
 import org.semux.util.Bytes;
 import org.semux.util.TimeUtil;
 
+@RunWith(Parameterized.class)
 public class InternalTransactionTest {
 
+    @Parameterized.Parameters(name = "preDecode = {0}")
+    public static Collection<Object[]> data() {
+        return VmTransactionTest.data();
+    }
+
+    private final boolean preDecode;
+
+    public InternalTransactionTest(boolean preDecode) {
+        this.preDecode = preDecode;
+    }
+
     @Rule
     public TemporaryDatabaseRule temporaryDBFactory = new TemporaryDatabaseRule();
 
@@ -51,7 +65,7 @@ public class InternalTransactionTest {
 
     @Before
     public void prepare() {
-        config = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR);
+        config = VmTransactionTest.createConfig(preDecode);
         chain = spy(new BlockchainImpl(config, temporaryDBFactory));
         doReturn(true).when(chain).isForkActivated(any());
 
@@ -14,13 +14,18 @@ import static org.junit.Assert.assertTrue;
 import static org.semux.core.Amount.ZERO;
 import static org.semux.core.Unit.SEM;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.logging.Logger;
 
+import org.ethereum.vm.chainspec.Spec;
 import org.ethereum.vm.util.HashUtil;
 import org.ethereum.vm.util.HexUtil;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import org.mockito.Mockito;
 import org.semux.Network;
 import org.semux.config.Config;
@@ -42,10 +47,42 @@ import org.semux.rules.TemporaryDatabaseRule;
 import org.semux.util.Bytes;
 import org.semux.util.TimeUtil;
 
+@RunWith(Parameterized.class)
 public class VmTransactionTest {
 
     private Logger logger = Logger.getLogger(VmTransactionTest.class.getName());
 
+    @Parameterized.Parameters(name = "preDecode = {0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] { { false }, { true } });
+    }
+
+    private final boolean preDecode;
+
+    public VmTransactionTest(boolean preDecode) {
+        this.preDecode = preDecode;
+    }
+
+    /**
+     * Creates a config running the VM with or without pre-decoding.
+     */
+    static Config createConfig(boolean preDecode) {
+        if (!preDecode) {
+            return new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR);
+        }
+        return new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR) {
+            @Override
+            public Spec vmSpec() {
+                return new SemuxSpec() {
+                    @Override
+                    public boolean preDecode() {
+                        return true;
+                    }
+                };
+            }
+        };
+    }
+
     @Rule
     public TemporaryDatabaseRule temporaryDBFactory = new TemporaryDatabaseRule();
 
@@ -59,7 +96,7 @@ public class VmTransactionTest {
 
     @Before
     public void prepare() {
-        config = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR);
+        config = createConfig(preDecode);
         chain = Mockito.spy(new BlockchainImpl(config, temporaryDBFactory));
 
         as = chain.getAccountState();